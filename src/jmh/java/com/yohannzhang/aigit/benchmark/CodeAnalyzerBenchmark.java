@@ -0,0 +1,99 @@
+package com.yohannzhang.aigit.benchmark;
+
+import com.yohannzhang.aigit.core.analysis.BaseCodeAnalyzer;
+import com.yohannzhang.aigit.core.models.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 项目分析的单文件开销：{@link BaseCodeAnalyzer#extractSymbols}、{@link BaseCodeAnalyzer#analyzeComplexity}，
+ * 结果为每个文件的平均耗时，乘以文件数即为 1k~50k 文件项目的总耗时。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+public class CodeAnalyzerBenchmark {
+
+    private static final int FILES = 512;
+
+    private final BaseCodeAnalyzer analyzer = new BaseCodeAnalyzer();
+    private String[] sources;
+
+    @Setup
+    public void setUp() {
+        sources = new String[FILES];
+        for (int i = 0; i < FILES; i++) {
+            sources[i] = SyntheticCorpus.javaSource(42, i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public void extractSymbols(Blackhole bh) {
+        for (String source : sources) {
+            bh.consume(analyzer.extractSymbols(source, "java"));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public void analyzeComplexity(Blackhole bh) {
+        for (String source : sources) {
+            bh.consume(analyzer.analyzeComplexity(source, "java"));
+        }
+    }
+
+    /**
+     * {@link BaseCodeAnalyzer#analyzeDuplication} 两两比较全部文件，每对做一次 LCS，
+     * 复杂度为文件数的平方乘以文件长度的平方，1k 文件以上已无法在合理时间内完成，这里只取小规模观察增长趋势。
+     * 64 个文件单次已接近 1 分钟，不放进回归检查。
+     */
+    @State(Scope.Benchmark)
+    public static class DuplicationState {
+
+        @Param({"8", "16", "32"})
+        public int files;
+
+        Path root;
+        Project project;
+
+        @Setup
+        public void setUp() throws IOException {
+            root = SyntheticCorpus.writeProject(42, files);
+            project = new BaseCodeAnalyzer().analyzeProject(root);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            SyntheticCorpus.deleteRecursively(root);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public List<Map<String, Object>> analyzeDuplication(DuplicationState state) {
+        return analyzer.analyzeDuplication(state.project);
+    }
+}
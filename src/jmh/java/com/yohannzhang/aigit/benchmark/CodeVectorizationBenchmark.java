@@ -0,0 +1,82 @@
+package com.yohannzhang.aigit.benchmark;
+
+import com.yohannzhang.aigit.core.models.ProjectMetadata;
+import com.yohannzhang.aigit.core.services.CodeVectorizationService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RAG 向量化与检索：{@link CodeVectorizationService#vectorizeProject}（切块 + 本地 embedding，见 {@link com.yohannzhang.aigit.core.embedding.OfflineEmbeddingProvider}）
+ * 和 {@link CodeVectorizationService#searchSimilarCode}（本地 embedding + HnswIndex 检索，语料较小时为全量点积）。
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CodeVectorizationBenchmark {
+
+    /**
+     * 向量化的语料。50k 文件单次向量化需要数分钟，不放进回归检查，检索基准仍覆盖 50k 文件的索引。
+     */
+    @State(Scope.Benchmark)
+    public static class ProjectState {
+
+        @Param({"1000", "10000"})
+        public int files;
+
+        ProjectMetadata project;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            project = SyntheticCorpus.project(42, files);
+        }
+    }
+
+    /**
+     * 已建好的索引，只在检索基准中创建，避免与向量化基准同时占用内存
+     */
+    @State(Scope.Benchmark)
+    public static class IndexState {
+
+        @Param({"1000", "10000", "50000"})
+        public int files;
+
+        CodeVectorizationService index;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            index = new CodeVectorizationService();
+            index.vectorizeProject(SyntheticCorpus.project(42, files));
+        }
+    }
+
+    /**
+     * 每次从空索引开始向量化整个项目
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public CodeVectorizationService vectorizeProject(ProjectState state) {
+        CodeVectorizationService service = new CodeVectorizationService();
+        service.vectorizeProject(state.project);
+        return service;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 5, time = 2)
+    @Measurement(iterations = 10, time = 2)
+    public List<String> searchSimilarCode(IndexState state) {
+        return state.index.searchSimilarCode("public List<String> loadOrderCache(String input, int limit)", 10);
+    }
+}
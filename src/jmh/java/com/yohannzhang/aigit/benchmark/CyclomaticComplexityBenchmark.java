@@ -0,0 +1,71 @@
+package com.yohannzhang.aigit.benchmark;
+
+import com.yohannzhang.aigit.core.llm.AbstractLLMEngine;
+import com.yohannzhang.aigit.core.llm.ModelInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code AbstractLLMEngine.calculateCyclomaticComplexity}，每次优化代码前都会对整段代码执行一次。
+ * 另测 {@link AbstractLLMEngine#analyzeComplexity}（圈复杂度 + 嵌套深度 + 命名检查）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+public class CyclomaticComplexityBenchmark {
+
+    private static final int FILES = 256;
+
+    private final ComplexityProbe engine = new ComplexityProbe();
+    private String[] sources;
+
+    @Setup
+    public void setUp() {
+        sources = new String[FILES];
+        for (int i = 0; i < FILES; i++) {
+            sources[i] = SyntheticCorpus.javaSource(7, i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public void calculateCyclomaticComplexity(Blackhole bh) {
+        for (String source : sources) {
+            bh.consume(engine.cyclomaticComplexity(source));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public void analyzeComplexity(Blackhole bh) {
+        for (String source : sources) {
+            bh.consume(engine.analyzeComplexity(source, "java"));
+        }
+    }
+
+    /**
+     * 只用于访问 protected 方法，不覆盖任何实现，也不发起请求
+     */
+    private static final class ComplexityProbe extends AbstractLLMEngine {
+        ComplexityProbe() {
+            super("", "", "", new ModelInfo("probe", "1.0", "probe", 4096, true));
+        }
+
+        int cyclomaticComplexity(String code) {
+            return calculateCyclomaticComplexity(code);
+        }
+    }
+}
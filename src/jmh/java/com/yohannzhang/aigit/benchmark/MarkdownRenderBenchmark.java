@@ -0,0 +1,91 @@
+package com.yohannzhang.aigit.benchmark;
+
+import com.vladsch.flexmark.ext.tables.TablesExtension;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.yohannzhang.aigit.ui.StreamingMarkdownRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话视图的 Markdown 渲染（{@code MessageOutputService.updateResult}、工具窗口的 updateResult）：
+ * 整篇 flexmark 解析渲染 vs {@link StreamingMarkdownRenderer} 的块缓存，以及流式输出时每帧的增量更新。
+ * flexmark 的解析渲染要十几秒才编译完，预热轮数多于其他基准。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 2)
+@Measurement(iterations = 10, time = 2)
+public class MarkdownRenderBenchmark {
+
+    private static final int FRAMES = 64;
+
+    /**
+     * 文档段落数，每段含标题、列表、代码块，每 3 段一个表格
+     */
+    @Param({"20", "200"})
+    public int sections;
+
+    private Parser parser;
+    private HtmlRenderer renderer;
+    private String markdown;
+    private String[] frames;
+    private StreamingMarkdownRenderer cached;
+
+    @Setup
+    public void setUp() {
+        MutableDataSet options = new MutableDataSet();
+        options.set(Parser.EXTENSIONS, List.of(TablesExtension.create()));
+        parser = Parser.builder(options).build();
+        renderer = HtmlRenderer.builder(options).build();
+        markdown = SyntheticCorpus.markdown(42, sections);
+
+        // 流式输出：文档按 FRAMES 帧逐步变长
+        frames = new String[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = markdown.substring(0, markdown.length() * (i + 1) / FRAMES);
+        }
+        cached = new StreamingMarkdownRenderer(parser, renderer);
+        cached.render(markdown);
+    }
+
+    @Benchmark
+    public String fullRender() {
+        return renderer.render(parser.parse(markdown));
+    }
+
+    /**
+     * 块已缓存，内容不变时重新渲染（如反复调用 updateResult）
+     */
+    @Benchmark
+    public String cachedRender() {
+        return cached.render(markdown);
+    }
+
+    /**
+     * 每帧一次增量更新，结果为单帧耗时
+     */
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void streamingUpdate(Blackhole bh) {
+        StreamingMarkdownRenderer streaming = new StreamingMarkdownRenderer(parser, renderer);
+        for (int i = 0; i < FRAMES; i++) {
+            bh.consume(streaming.update(frames[i], i == FRAMES - 1));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.yohannzhang.aigit.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yohannzhang.aigit.util.StreamDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式响应解码的单 token 开销：原先 readLine + 每行 new ObjectMapper + readTree 的写法 vs {@link StreamDecoder}。
+ * <p>
+ * 运行：./gradlew jmh，配合 gc profiler 查看 gc.alloc.rate.norm（每 token 分配字节数）。
+ * SSE 的 JSON 解析路径预热较慢，预热轮数多于其他基准。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 10, time = 2)
+@Measurement(iterations = 10, time = 2)
+public class StreamDecoderBenchmark {
+
+    private static final int TOKENS = 2000;
+
+    @Param({"OPENAI_SSE", "OLLAMA_NDJSON"})
+    public String format;
+
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < TOKENS; i++) {
+            String token = "token_" + i + " ";
+            if ("OPENAI_SSE".equals(format)) {
+                sb.append("data: {\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"created\":1700000000,")
+                        .append("\"model\":\"gpt-4o\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"")
+                        .append(token).append("\"},\"finish_reason\":null}]}\n\n");
+            } else {
+                sb.append("{\"model\":\"qwen2.5-coder\",\"created_at\":\"2024-01-01T00:00:00Z\",\"response\":\"")
+                        .append(token).append("\",\"done\":false}\n");
+            }
+        }
+        if ("OPENAI_SSE".equals(format)) {
+            sb.append("data: [DONE]\n\n");
+        }
+        payload = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOKENS)
+    public void legacyReadLineTree(Blackhole bh) throws IOException {
+        boolean sse = "OPENAI_SSE".equals(format);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(payload), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (sse) {
+                    if (line.startsWith("data: ")) {
+                        String jsonData = line.substring(6);
+                        if (!"[DONE]".equals(jsonData)) {
+                            ObjectMapper mapper = new ObjectMapper();
+                            JsonNode root = mapper.readTree(jsonData);
+                            JsonNode choices = root.path("choices");
+                            if (choices.isArray() && !choices.isEmpty()) {
+                                bh.consume(choices.get(0).path("delta").path("content").asText());
+                            }
+                        }
+                    }
+                } else {
+                    ObjectMapper mapper = new ObjectMapper();
+                    bh.consume(mapper.readTree(line).path("response").asText());
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOKENS)
+    public void streamDecoder(Blackhole bh) throws IOException {
+        new StreamDecoder(StreamDecoder.Format.valueOf(format))
+                .decode(new ByteArrayInputStream(payload), bh::consume, () -> false);
+    }
+}
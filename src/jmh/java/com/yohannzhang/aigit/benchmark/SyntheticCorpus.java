@@ -0,0 +1,143 @@
+package com.yohannzhang.aigit.benchmark;
+
+import com.yohannzhang.aigit.core.models.FileMetadata;
+import com.yohannzhang.aigit.core.models.ProjectMetadata;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 基准用的合成代码语料，固定随机种子，每次生成的内容相同。
+ * 单个文件约 1~5 KB，含 import、字段、带分支和循环的方法、注释，大小接近真实业务代码。
+ */
+final class SyntheticCorpus {
+
+    private static final String[] TYPES = {"String", "int", "long", "List<String>", "Map<String, Object>", "boolean"};
+    private static final String[] WORDS = {"order", "user", "cache", "request", "index", "payload", "result", "config",
+            "token", "stream", "session", "account", "invoice", "vector", "chunk", "module"};
+
+    private SyntheticCorpus() {
+    }
+
+    /**
+     * 生成第 index 个 Java 源文件
+     */
+    static String javaSource(long seed, int index) {
+        Random random = new Random(seed * 31 + index);
+        String className = capitalize(word(random)) + capitalize(word(random)) + "Service" + index;
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("package com.example.module").append(index % 97).append(";\n\n");
+        sb.append("import java.util.List;\nimport java.util.Map;\nimport java.util.ArrayList;\n");
+        sb.append("import com.example.common.").append(capitalize(word(random))).append("Util;\n\n");
+        sb.append("/**\n * ").append(className).append(" handles ").append(word(random)).append(" processing.\n */\n");
+        sb.append("public class ").append(className).append(" {\n");
+        int fields = 2 + random.nextInt(5);
+        for (int i = 0; i < fields; i++) {
+            sb.append("    private ").append(TYPES[random.nextInt(TYPES.length)]).append(' ')
+                    .append(word(random)).append(i).append(";\n");
+        }
+        int methods = 2 + random.nextInt(6);
+        for (int m = 0; m < methods; m++) {
+            String name = word(random) + capitalize(word(random)) + m;
+            sb.append("\n    // ").append(name).append(" 处理 ").append(word(random)).append('\n');
+            sb.append("    public ").append(TYPES[random.nextInt(TYPES.length)]).append(' ').append(name)
+                    .append("(String input, int limit) {\n");
+            sb.append("        List<String> items = new ArrayList<>();\n");
+            int statements = 1 + random.nextInt(5);
+            for (int s = 0; s < statements; s++) {
+                switch (random.nextInt(5)) {
+                    case 0 -> sb.append("        if (input != null && input.length() > ").append(s)
+                            .append(") {\n            items.add(input.substring(").append(s).append("));\n        } else {\n")
+                            .append("            items.add(\"").append(word(random)).append("\");\n        }\n");
+                    case 1 -> sb.append("        for (int i = 0; i < limit; i++) {\n")
+                            .append("            items.add(String.valueOf(i * ").append(s + 1).append("));\n        }\n");
+                    case 2 -> sb.append("        while (items.size() > limit || items.isEmpty()) {\n")
+                            .append("            items.remove(items.size() - 1);\n        }\n");
+                    case 3 -> sb.append("        switch (limit) {\n            case 1:\n                break;\n")
+                            .append("            default:\n                items.clear();\n        }\n");
+                    default -> sb.append("        try {\n            items.add(Integer.toString(limit > 0 ? limit : -limit));\n")
+                            .append("        } catch (RuntimeException e) {\n            items.clear();\n        }\n");
+                }
+            }
+            sb.append("        return null;\n    }\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * 内存中的项目，FileMetadata 带源码内容
+     */
+    static ProjectMetadata project(long seed, int files) {
+        ProjectMetadata project = new ProjectMetadata("/synthetic");
+        Map<String, FileMetadata> metadata = new HashMap<>(files * 2);
+        for (int i = 0; i < files; i++) {
+            String path = "/synthetic/src/File" + i + ".java";
+            String content = javaSource(seed, i);
+            FileMetadata file = new FileMetadata(path, "java", content.length(), (int) content.lines().count(),
+                    LocalDateTime.of(2024, 1, 1, 0, 0), String.valueOf(content.hashCode()), Map.of(), List.of(), "");
+            file.setContent(content);
+            metadata.put(path, file);
+        }
+        project.setFiles(metadata);
+        return project;
+    }
+
+    /**
+     * 写入磁盘的语料，用于需要从文件读取内容的分析
+     */
+    static Path writeProject(long seed, int files) throws IOException {
+        Path root = Files.createTempDirectory("aigit-jmh-corpus");
+        for (int i = 0; i < files; i++) {
+            Files.writeString(root.resolve("File" + i + ".java"), javaSource(seed, i));
+        }
+        return root;
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        try (var paths = Files.walk(root)) {
+            for (Path path : paths.sorted(java.util.Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * 多轮对话拼成的长 Markdown，含标题、列表、表格和代码块
+     */
+    static String markdown(long seed, int sections) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < sections; i++) {
+            sb.append("## ").append(capitalize(word(random))).append(' ').append(word(random)).append("\n\n");
+            sb.append("The ").append(word(random)).append(" layer keeps **").append(word(random))
+                    .append("** state and calls `").append(word(random)).append("()` on each ").append(word(random)).append(".\n\n");
+            sb.append("- ").append(word(random)).append(": ").append(word(random)).append('\n')
+                    .append("- ").append(word(random)).append(": ").append(word(random)).append("\n\n");
+            if (i % 3 == 0) {
+                sb.append("| Name | Type | Note |\n|------|------|------|\n");
+                for (int r = 0; r < 4; r++) {
+                    sb.append("| ").append(word(random)).append(" | ").append(TYPES[random.nextInt(TYPES.length)])
+                            .append(" | ").append(word(random)).append(" |\n");
+                }
+                sb.append('\n');
+            }
+            sb.append("```java\n").append(javaSource(seed, i), 0, 600).append("\n```\n\n");
+        }
+        return sb.toString();
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
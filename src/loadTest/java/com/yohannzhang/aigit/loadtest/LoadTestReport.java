@@ -0,0 +1,112 @@
+package com.yohannzhang.aigit.loadtest;
+
+import com.yohannzhang.aigit.util.LatencyHistogram;
+import com.yohannzhang.aigit.util.StreamDecoder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一轮压测的结果：吞吐、首 token 与总耗时分位数、线程数和连接数。耗时以微秒记录，输出为毫秒。
+ */
+public class LoadTestReport {
+
+    private final String name;
+    private final int streams;
+    private final LatencyHistogram timeToFirstToken = new LatencyHistogram();
+    private final LatencyHistogram totalDuration = new LatencyHistogram();
+    private final AtomicLong tokens = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private long wallNanos;
+    private int threadsBefore;
+    private int peakThreads;
+    private int threadsAfter;
+    private long serverRequests;
+    private int serverConnections;
+    private int serverPeakStreams;
+
+    public LoadTestReport(String name, int streams) {
+        this.name = name;
+        this.streams = streams;
+    }
+
+    void recordFirstToken(long micros) {
+        timeToFirstToken.record(micros);
+    }
+
+    void recordCompleted(long micros, long streamTokens) {
+        totalDuration.record(micros);
+        tokens.addAndGet(streamTokens);
+        completed.incrementAndGet();
+    }
+
+    void recordFailed() {
+        failed.incrementAndGet();
+    }
+
+    void finish(long wallNanos, int threadsBefore, int peakThreads, int threadsAfter, MockLLMServer server) {
+        this.wallNanos = wallNanos;
+        this.threadsBefore = threadsBefore;
+        this.peakThreads = peakThreads;
+        this.threadsAfter = threadsAfter;
+        this.serverRequests = server.getRequests();
+        this.serverConnections = server.getConnections();
+        this.serverPeakStreams = server.getPeakStreams();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public Map<String, Object> toMap() {
+        double seconds = wallNanos / 1e9;
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("name", name);
+        map.put("streams", streams);
+        map.put("completed", completed.get());
+        map.put("failed", failed.get());
+        map.put("wallSeconds", seconds);
+        map.put("streamsPerSecond", seconds > 0 ? completed.get() / seconds : 0);
+        map.put("tokensPerSecond", seconds > 0 ? tokens.get() / seconds : 0);
+        map.put("ttftMs", percentiles(timeToFirstToken));
+        map.put("totalMs", percentiles(totalDuration));
+        map.put("threadsBefore", threadsBefore);
+        map.put("peakThreads", peakThreads);
+        map.put("threadsAfter", threadsAfter);
+        map.put("serverRequests", serverRequests);
+        map.put("serverConnections", serverConnections);
+        map.put("serverPeakStreams", serverPeakStreams);
+        return map;
+    }
+
+    public String summary() {
+        Map<String, Object> map = toMap();
+        return String.format("%-24s streams=%d ok=%d failed=%d %.1f tok/s ttft=%s total=%s threads=%d->%d(peak %d) connections=%d",
+                name, streams, completed.get(), failed.get(), (double) map.get("tokensPerSecond"),
+                map.get("ttftMs"), map.get("totalMs"), threadsBefore, threadsAfter, peakThreads, serverConnections);
+    }
+
+    public void writeTo(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        StreamDecoder.MAPPER.writerWithDefaultPrettyPrinter()
+                .writeValue(dir.resolve(name + ".json").toFile(), toMap());
+    }
+
+    private static Map<String, Object> percentiles(LatencyHistogram histogram) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("p50", histogram.percentile(0.50) / 1000.0);
+        map.put("p95", histogram.percentile(0.95) / 1000.0);
+        map.put("p99", histogram.percentile(0.99) / 1000.0);
+        map.put("max", histogram.getMax() / 1000.0);
+        return map;
+    }
+}
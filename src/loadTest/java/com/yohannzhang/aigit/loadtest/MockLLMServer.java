@@ -0,0 +1,272 @@
+package com.yohannzhang.aigit.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.yohannzhang.aigit.util.StreamDecoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地模拟的 LLM 服务，按路径区分协议：
+ * <ul>
+ *     <li>{@code /v1/chat/completions}：OpenAI 兼容，请求体 stream=true 时返回 SSE，否则返回完整 JSON（Cloudflare 等）</li>
+ *     <li>{@code /api/generate}：Ollama，stream=true 时返回 NDJSON</li>
+ *     <li>{@code /v1beta/models/{model}:streamGenerateContent} 与 {@code :generateContent}：Gemini SSE 与完整 JSON</li>
+ *     <li>{@code /v1/messages}：vLLM messages 接口，返回完整 JSON</li>
+ * </ul>
+ * 首 token 延迟、token 速率、出错率和 429 比例可随时修改，对之后的请求生效。
+ */
+public class MockLLMServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "mock-llm-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile long firstTokenDelayMs = 100;
+    private volatile int tokensPerSecond = 200;
+    private volatile int tokensPerResponse = 100;
+    private volatile double errorRate;
+    private volatile double throttleRate;
+    private volatile int retryAfterSeconds = 1;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    private final AtomicInteger peakStreams = new AtomicInteger();
+    private final Set<String> connections = ConcurrentHashMap.newKeySet();
+
+    public MockLLMServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public MockLLMServer firstTokenDelayMs(long firstTokenDelayMs) {
+        this.firstTokenDelayMs = firstTokenDelayMs;
+        return this;
+    }
+
+    public MockLLMServer tokensPerSecond(int tokensPerSecond) {
+        this.tokensPerSecond = tokensPerSecond;
+        return this;
+    }
+
+    public MockLLMServer tokensPerResponse(int tokensPerResponse) {
+        this.tokensPerResponse = tokensPerResponse;
+        return this;
+    }
+
+    /**
+     * 返回 500 的请求比例（0~1）
+     */
+    public MockLLMServer errorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * 返回 429 的请求比例（0~1），响应带 Retry-After
+     */
+    public MockLLMServer throttleRate(double throttleRate, int retryAfterSeconds) {
+        this.throttleRate = throttleRate;
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    public int getPeakStreams() {
+        return peakStreams.get();
+    }
+
+    /**
+     * 客户端建立过的 TCP 连接数（按远端地址和端口去重）
+     */
+    public int getConnections() {
+        return connections.size();
+    }
+
+    public void resetCounters() {
+        requests.set(0);
+        errors.set(0);
+        throttled.set(0);
+        peakStreams.set(0);
+        connections.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        connections.add(exchange.getRemoteAddress().toString());
+        int active = activeStreams.incrementAndGet();
+        peakStreams.accumulateAndGet(active, Math::max);
+        try (exchange) {
+            JsonNode request;
+            try (InputStream body = exchange.getRequestBody()) {
+                request = StreamDecoder.MAPPER.readTree(body);
+            }
+            double roll = ThreadLocalRandom.current().nextDouble();
+            if (roll < throttleRate) {
+                throttled.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfterSeconds));
+                sendJson(exchange, 429, Map.of("error", Map.of("message", "rate limited")));
+                return;
+            }
+            if (roll < throttleRate + errorRate) {
+                errors.incrementAndGet();
+                sendJson(exchange, 500, Map.of("error", Map.of("message", "injected error")));
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            boolean stream = request != null && request.path("stream").asBoolean(false);
+            if (path.endsWith("/chat/completions")) {
+                if (stream) {
+                    streamOpenAI(exchange);
+                } else {
+                    sendJson(exchange, 200, Map.of("choices",
+                            List.of(Map.of("message", Map.of("role", "assistant", "content", fullText())))));
+                }
+            } else if (path.endsWith("/api/generate")) {
+                if (stream) {
+                    streamOllama(exchange);
+                } else {
+                    sendJson(exchange, 200, Map.of("response", fullText(), "done", true));
+                }
+            } else if (path.endsWith(":streamGenerateContent")) {
+                streamGemini(exchange);
+            } else if (path.endsWith(":generateContent")) {
+                sendJson(exchange, 200, geminiChunk(fullText()));
+            } else if (path.endsWith("/v1/messages")) {
+                sleep(firstTokenDelayMs + tokensPerResponse * 1000L / Math.max(1, tokensPerSecond));
+                sendJson(exchange, 200, Map.of("content", List.of(Map.of("type", "text", "text", fullText()))));
+            } else {
+                sendJson(exchange, 404, Map.of("error", Map.of("message", "unknown path " + path)));
+            }
+        } finally {
+            activeStreams.decrementAndGet();
+        }
+    }
+
+    private void streamOpenAI(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        streamTokens(token -> write(out, "data: " + StreamDecoder.MAPPER.writeValueAsString(Map.of("choices",
+                List.of(Map.of("index", 0, "delta", Map.of("content", token))))) + "\n\n"));
+        write(out, "data: [DONE]\n\n");
+    }
+
+    private void streamOllama(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        streamTokens(token -> write(out, StreamDecoder.MAPPER.writeValueAsString(
+                Map.of("response", token, "done", false)) + "\n"));
+        write(out, StreamDecoder.MAPPER.writeValueAsString(Map.of("response", "", "done", true)) + "\n");
+    }
+
+    private void streamGemini(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        streamTokens(token -> write(out, "data: " + StreamDecoder.MAPPER.writeValueAsString(geminiChunk(token)) + "\n\n"));
+    }
+
+    private static Map<String, Object> geminiChunk(String text) {
+        return Map.of("candidates", List.of(Map.of("content", Map.of("parts", List.of(Map.of("text", text))))));
+    }
+
+    /**
+     * 首 token 前等待 firstTokenDelayMs，之后按 tokensPerSecond 均匀输出
+     */
+    private void streamTokens(TokenWriter writer) throws IOException {
+        sleep(firstTokenDelayMs);
+        long intervalNanos = 1_000_000_000L / Math.max(1, tokensPerSecond);
+        long next = System.nanoTime();
+        for (int i = 0; i < tokensPerResponse; i++) {
+            writer.write("tok" + i + " ");
+            next += intervalNanos;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                sleep(wait / 1_000_000L);
+            }
+        }
+    }
+
+    private String fullText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < tokensPerResponse; i++) {
+            text.append("tok").append(i).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = StreamDecoder.MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void write(OutputStream out, String chunk) throws IOException {
+        out.write(chunk.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void sleep(long millis) throws IOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface TokenWriter {
+        void write(String token) throws IOException;
+    }
+}
@@ -0,0 +1,259 @@
+package com.yohannzhang.aigit.loadtest;
+
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.LLMEngine;
+import com.yohannzhang.aigit.core.llm.LLMEngineFactory;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.factory.AIServiceFactory;
+import com.yohannzhang.aigit.service.AIService;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用 {@link MockLLMServer} 对各 provider 的真实 {@link AIService} / {@link LLMEngine} 调用链做并发压测，
+ * 输出吞吐、首 token 与总耗时分位数、线程数和连接数，结果写入 build/reports/loadTest。
+ * <p>
+ * 运行：./gradlew loadTest -Pstreams=64 -PtokensPerSecond=200 -PfirstTokenMs=100 -PerrorRate=0 -PthrottleRate=0
+ */
+public class ProviderLoadTest extends BasePlatformTestCase {
+
+    private static final int STREAMS = Integer.getInteger("loadTest.streams", 32);
+    private static final int TOKENS = Integer.getInteger("loadTest.tokens", 100);
+    private static final int TOKENS_PER_SECOND = Integer.getInteger("loadTest.tokensPerSecond", 200);
+    private static final long FIRST_TOKEN_MS = Long.getLong("loadTest.firstTokenMs", 100);
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty("loadTest.errorRate", "0"));
+    private static final double THROTTLE_RATE = Double.parseDouble(System.getProperty("loadTest.throttleRate", "0"));
+    private static final long TIMEOUT_SECONDS = Long.getLong("loadTest.timeoutSeconds", 300);
+    private static final Path REPORT_DIR = Path.of(System.getProperty("loadTest.reportDir", "build/reports/loadTest"));
+
+    private MockLLMServer server;
+    private Map<String, ApiKeySettings.ModuleConfig> savedConfigs;
+    private String savedClient;
+    private String savedModule;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new MockLLMServer()
+                .firstTokenDelayMs(FIRST_TOKEN_MS)
+                .tokensPerSecond(TOKENS_PER_SECOND)
+                .tokensPerResponse(TOKENS)
+                .errorRate(ERROR_RATE)
+                .throttleRate(THROTTLE_RATE, 1);
+
+        ApiKeySettings settings = ApiKeySettings.getInstance();
+        savedConfigs = new HashMap<>(settings.getModuleConfigs());
+        savedClient = settings.getSelectedClient();
+        savedModule = settings.getSelectedModule();
+
+        Map<String, ApiKeySettings.ModuleConfig> configs = new HashMap<>(savedConfigs);
+        configs.put(Constants.OpenAI_API, mockConfig("/v1/chat/completions", "mock-gpt"));
+        configs.put(Constants.Ollama, mockConfig("/api/generate", "mock-ollama"));
+        configs.put(Constants.Gemini, mockConfig("/v1beta/models", "mock-gemini"));
+        configs.put(Constants.VLLM, mockConfig("/v1/messages", "mock-vllm"));
+        configs.put(Constants.CloudflareWorkersAI, mockConfig("/ai/v1/chat/completions", "mock-cloudflare"));
+        settings.setModuleConfigs(configs);
+        // 选中一个不参与压测的 client，各 client 的模型取自 ModuleConfig
+        settings.setSelectedClient(Constants.DeepSeek);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            ApiKeySettings settings = ApiKeySettings.getInstance();
+            settings.setModuleConfigs(savedConfigs);
+            settings.setSelectedClient(savedClient);
+            settings.setSelectedModule(savedModule);
+            server.close();
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testOpenAIServiceStream() throws Exception {
+        assertNoUnexpectedFailures(runServiceStreams("openai-service-stream", Constants.OpenAI_API));
+    }
+
+    public void testOllamaServiceStream() throws Exception {
+        assertNoUnexpectedFailures(runServiceStreams("ollama-service-stream", Constants.Ollama));
+    }
+
+    public void testGeminiServiceStream() throws Exception {
+        assertNoUnexpectedFailures(runServiceStreams("gemini-service-stream", Constants.Gemini));
+    }
+
+    public void testVllmServiceStream() throws Exception {
+        assertNoUnexpectedFailures(runServiceStreams("vllm-service-stream", Constants.VLLM));
+    }
+
+    public void testCloudflareServiceSync() throws Exception {
+        assertNoUnexpectedFailures(runServiceSync("cloudflare-service-sync", Constants.CloudflareWorkersAI));
+    }
+
+    public void testOpenAIEngineStream() throws Exception {
+        assertNoUnexpectedFailures(runEngineStreams("openai-engine-stream", Constants.OpenAI_API));
+    }
+
+    /**
+     * 经过 {@link AIServiceFactory#createUncachedAIService} 的流式调用，每路 prompt 不同，避免被合并
+     */
+    private LoadTestReport runServiceStreams(String name, String client) throws Exception {
+        AIService service = AIServiceFactory.createUncachedAIService(client);
+        return run(name, (index, stream) -> service.generateCommitMessageStream(prompt(name, index),
+                stream::token, stream::failed, stream::completed));
+    }
+
+    /**
+     * 同步接口没有逐 token 回调，首 token 时间即完整响应时间
+     */
+    private LoadTestReport runServiceSync(String name, String client) throws Exception {
+        AIService service = AIServiceFactory.createUncachedAIService(client);
+        return run(name, (index, stream) -> {
+            Thread worker = new Thread(() -> {
+                try {
+                    stream.token(service.generateCommitMessage(prompt(name, index)));
+                    stream.completed();
+                } catch (Exception e) {
+                    stream.failed(e);
+                }
+            }, "load-test-sync-" + index);
+            worker.start();
+            return RequestHandle.completed();
+        });
+    }
+
+    private LoadTestReport runEngineStreams(String name, String client) throws Exception {
+        LLMEngine engine = LLMEngineFactory.createEngine(client, ApiKeySettings.getInstance().getModuleConfigs().get(client));
+        return run(name, (index, stream) -> engine.generateText(prompt(name, index), new LLMEngine.StreamCallback() {
+            @Override
+            public void onStart() {
+            }
+
+            @Override
+            public void onToken(String token) {
+                stream.token(token);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                stream.failed(error);
+            }
+
+            @Override
+            public void onComplete() {
+                stream.completed();
+            }
+        }));
+    }
+
+    private LoadTestReport run(String name, StreamStarter starter) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        server.resetCounters();
+        LoadTestReport report = new LoadTestReport(name, STREAMS);
+        CountDownLatch done = new CountDownLatch(STREAMS);
+        List<RequestHandle> handles = new ArrayList<>();
+
+        int threadsBefore = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < STREAMS; i++) {
+            handles.add(starter.start(i, new Stream(report, done)));
+        }
+        boolean finished = done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        long wall = System.nanoTime() - start;
+        if (!finished) {
+            handles.forEach(RequestHandle::cancel);
+        }
+        report.finish(wall, threadsBefore, threads.getPeakThreadCount(), threads.getThreadCount(), server);
+
+        System.out.println(report.summary());
+        report.writeTo(REPORT_DIR);
+        assertTrue(name + " did not finish within " + TIMEOUT_SECONDS + "s", finished);
+        return report;
+    }
+
+    /**
+     * 未注入错误时所有请求都应成功；注入 429 时由限流器按 Retry-After 退避，不要求全部成功
+     */
+    private static void assertNoUnexpectedFailures(LoadTestReport report) {
+        if (ERROR_RATE == 0 && THROTTLE_RATE == 0) {
+            assertEquals(0, report.getFailed());
+            assertEquals(STREAMS, report.getCompleted());
+        }
+    }
+
+    private ApiKeySettings.ModuleConfig mockConfig(String path, String model) {
+        ApiKeySettings.ModuleConfig config = new ApiKeySettings.ModuleConfig(server.baseUrl() + path, "mock-key");
+        config.setModel(model);
+        return config;
+    }
+
+    private static String prompt(String name, int index) {
+        return "load test " + name + " #" + index + ": summarize the following change.";
+    }
+
+    @FunctionalInterface
+    private interface StreamStarter {
+        RequestHandle start(int index, Stream stream) throws Exception;
+    }
+
+    /**
+     * 单路请求的计时，完成或失败只计一次
+     */
+    private static final class Stream {
+        private final LoadTestReport report;
+        private final CountDownLatch done;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean firstToken = new AtomicBoolean();
+        private final AtomicBoolean ended = new AtomicBoolean();
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final AtomicLong tokens = new AtomicLong();
+
+        Stream(LoadTestReport report, CountDownLatch done) {
+            this.report = report;
+            this.done = done;
+        }
+
+        void token(String text) {
+            if (firstToken.compareAndSet(false, true)) {
+                report.recordFirstToken(micros());
+            }
+            tokens.addAndGet(text.isBlank() ? 0 : text.trim().split("\\s+").length);
+        }
+
+        void failed(Throwable error) {
+            failed.set(true);
+            if (ended.compareAndSet(false, true)) {
+                report.recordFailed();
+                done.countDown();
+            }
+        }
+
+        void completed() {
+            if (ended.compareAndSet(false, true)) {
+                if (failed.get()) {
+                    report.recordFailed();
+                } else {
+                    report.recordCompleted(micros(), tokens.get());
+                }
+                done.countDown();
+            }
+        }
+
+        private long micros() {
+            return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.intellij.codeInsight.lookup.LookupElementBuilder;
 import com.intellij.patterns.PlatformPatterns;
 import com.intellij.psi.PsiElement;
 import com.intellij.util.ProcessingContext;
+import com.yohannzhang.aigit.core.llm.TaskType;
 import com.yohannzhang.aigit.service.CodeService;
 import org.jetbrains.annotations.NotNull;
 
@@ -45,7 +46,7 @@ public class AICodeCompletionContributor extends CompletionContributor {
     private String getCompletionFromAI(String context) throws Exception {
         String promt = "你是一个Java代码专家，请根据给定的代码片段，进行代码补全。代码如下：" + context;
 
-        CodeService codeService = new CodeService();
+        CodeService codeService = new CodeService(TaskType.COMPLETION);
         return "";
 
 //        return codeService.generateCommitMessage(promt);
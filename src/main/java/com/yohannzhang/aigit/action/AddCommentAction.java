@@ -8,6 +8,7 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowManager;
+import com.yohannzhang.aigit.core.llm.PromptBudget;
 import com.yohannzhang.aigit.handler.CommonMessageGenerator;
 import com.yohannzhang.aigit.util.CodeUtil;
 
@@ -60,9 +61,12 @@ public class AddCommentAction extends AnAction {
 
 
     private String buildPrompt(String code) {
-        return "请基于以下 Java 方法生成 JUnit 5 单元测试，并使用 AssertJ 提供的断言方式编写更具可读性的测试逻辑。" +
-                "请覆盖主要业务路径及异常情况。\n\n" +
-                "目标代码如下：\n" + code;
+        return PromptBudget.forSelectedModel()
+                .fixed("请基于以下 Java 方法生成 JUnit 5 单元测试，并使用 AssertJ 提供的断言方式编写更具可读性的测试逻辑。" +
+                        "请覆盖主要业务路径及异常情况。\n\n" +
+                        "目标代码如下：\n")
+                .document(code, true)
+                .build();
     }
 
 
@@ -13,6 +13,8 @@ import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowManager;
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.PromptBudget;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
 import com.yohannzhang.aigit.service.CodeService;
 import com.yohannzhang.aigit.ui.CombinedWindowFactory;
 import com.yohannzhang.aigit.util.CodeUtil;
@@ -54,9 +56,10 @@ public class AskAnythingAction extends AnAction {
     }
 
     private void processSelectedText(Project project, String selectedText) {
-        CodeService codeService = new CodeService();
+        // 提问每次都重新生成，不走响应缓存
+        CodeService codeService = new CodeService(false);
         String formattedCode = CODE_UTIL.formatCode(selectedText);
-        String prompt = String.format("根据提出的问题作出回答，以Java作为默认编程语言输出，用中文回答，问题如下：%s", formattedCode);
+        String prompt = PromptBudget.forSelectedModel().fill("根据提出的问题作出回答，以Java作为默认编程语言输出，用中文回答，问题如下：%s", formattedCode, false);
 
         ProgressManager.getInstance().run(new Task.Backgroundable(project, Constants.TASK_TITLE, true) {
             @Override
@@ -64,7 +67,7 @@ public class AskAnythingAction extends AnAction {
                 try {
                     if (codeService.generateByStream()) {
                         messageBuilder.setLength(0);
-                        codeService.generateCommitMessageStream(
+                        RequestHandle handle = codeService.generateCommitMessageStream(
                                 prompt,
                                 token -> {
                                     messageBuilder.append(token);
@@ -77,6 +80,7 @@ public class AskAnythingAction extends AnAction {
 
                                 })
                         );
+                        CombinedWindowFactory.getInstance(project).registerRequest(project, handle);
                     }
                 } catch (IllegalArgumentException ex) {
                     showConfigWarning(project, ex);
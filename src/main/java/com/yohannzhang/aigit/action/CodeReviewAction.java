@@ -10,6 +10,8 @@ import com.intellij.openapi.vcs.changes.Change;
 import com.intellij.openapi.vcs.ui.CommitMessage;
 import com.intellij.vcs.commit.AbstractCommitWorkflowHandler;
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.PromptBudget;
+import com.yohannzhang.aigit.core.llm.TaskType;
 import com.yohannzhang.aigit.service.CodeService;
 import com.yohannzhang.aigit.util.GItCommitUtil;
 import com.yohannzhang.aigit.util.IdeaDialogUtil;
@@ -71,14 +73,14 @@ public class CodeReviewAction extends AnAction {
                 return;
             }
 
-            CodeService codeService = new CodeService();
-            String prompt = String.format("请对以下代码改动进行代码审查，重点关注：\n" +
+            CodeService codeService = new CodeService(TaskType.REVIEW);
+            String prompt = PromptBudget.forSelectedModel().fill("请对以下代码改动进行代码审查，重点关注：\n" +
                     "1. 代码质量和最佳实践\n" +
                     "2. 潜在的问题和风险\n" +
                     "3. 性能优化建议\n" +
                     "4. 安全性考虑\n" +
                     "5. 可维护性建议\n\n" +
-                    "代码改动如下：\n%s", diff);
+                    "代码改动如下：\n%s", GItCommitUtil.splitDiffByFile(diff));
 
             codeService.generateCommitMessageStream(
                     prompt,
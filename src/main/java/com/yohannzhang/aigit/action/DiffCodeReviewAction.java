@@ -19,6 +19,9 @@ import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowManager;
+import com.yohannzhang.aigit.core.llm.PromptBudget;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.TaskType;
 import com.yohannzhang.aigit.handler.CommonMessageGenerator;
 import com.yohannzhang.aigit.service.CodeService;
 import com.yohannzhang.aigit.ui.CombinedWindowFactory;
@@ -34,7 +37,7 @@ public class DiffCodeReviewAction extends AnAction {
     private static final String PROCESSING_TEXT = "Reviewing...";
     private volatile boolean isProcessing = false;
     private static final Logger LOG = Logger.getInstance(DiffCodeReviewAction.class);
-    private final CodeService codeService = new CodeService();
+    private final CodeService codeService = new CodeService(TaskType.REVIEW);
     private final StringBuilder messageBuilder = new StringBuilder();
 
     public DiffCodeReviewAction() {
@@ -131,7 +134,7 @@ public class DiffCodeReviewAction extends AnAction {
         update(e);
 
 //        CodeService codeService = new CodeService();
-        String prompt = String.format(
+        String prompt = PromptBudget.forSelectedModel().fill(
                 "请对以下代码 diff 进行 Code Review，并回答下列问题：\n" +
                 "\n" +
                 "### 1. \uD83E\uDDE0 总体理解\n" +
@@ -175,7 +178,7 @@ public class DiffCodeReviewAction extends AnAction {
                 "[问题点]：在 `calculateTotalPrice()` 方法中没有处理 null 的情况。\n" +
                 "[建议]：增加 null check 并抛出合适的异常。\n" +
 
-                "用中文回答，代码改动如下：\n%s", diff);
+                "用中文回答，代码改动如下：\n%s", diff, false);
 
         StringBuilder reviewResult = new StringBuilder();
         ToolWindow toolWindow = ToolWindowManager.getInstance(project).getToolWindow(RESULT_BOX_TOOL_WINDOW);
@@ -191,7 +194,7 @@ public class DiffCodeReviewAction extends AnAction {
     public void generate(String prompt,Project project,AnActionEvent ae) {
         messageBuilder.setLength(0);
         try {
-            codeService.generateCommitMessageStream(
+            RequestHandle handle = codeService.generateCommitMessageStream(
                     prompt,
                     token -> handleTokenResponse(token,project),
                     this::handleErrorResponse,
@@ -201,6 +204,7 @@ public class DiffCodeReviewAction extends AnAction {
                         CombinedWindowFactory.getInstance(project).resetButton(project);
                     })
             );
+            CombinedWindowFactory.getInstance(project).registerRequest(project, handle);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
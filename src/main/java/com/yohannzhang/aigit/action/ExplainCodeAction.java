@@ -7,6 +7,7 @@ import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiFile;
+import com.yohannzhang.aigit.core.llm.PromptBudget;
 import com.yohannzhang.aigit.service.CodeService;
 import com.yohannzhang.aigit.util.CodeUtil;
 import com.yohannzhang.aigit.util.ProgressUtil;
@@ -35,7 +36,7 @@ public class ExplainCodeAction extends AnAction {
         }
 
         String formattedCode = CODE_UTIL.formatCode(selectedText);
-        String prompt = String.format("解释以下代码的功能和实现原理：\n%s", formattedCode);
+        String prompt = PromptBudget.forSelectedModel().fill("解释以下代码的功能和实现原理：\n%s", formattedCode, true);
 
         ProgressUtil.runWithProgress(
                 project,
@@ -13,14 +13,17 @@ import com.yohannzhang.aigit.config.ApiKeySettings;
 import com.yohannzhang.aigit.core.analysis.BaseCodeAnalyzer;
 import com.yohannzhang.aigit.core.llm.LLMEngine;
 import com.yohannzhang.aigit.core.llm.LLMEngineFactory;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.TaskType;
 import com.yohannzhang.aigit.service.AnalysisService;
+import com.yohannzhang.aigit.service.StreamingExecutorService;
 import com.yohannzhang.aigit.ui.CombinedWindowFactory;
 import com.yohannzhang.aigit.util.OpenAIUtil;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class GenJUintTestAction extends AnAction {
@@ -110,60 +113,66 @@ public class GenJUintTestAction extends AnAction {
         String context = buildContext(targetClass, targetMethod, dependencies);
 
         // Create service instances
-        LLMEngine llmEngine = LLMEngineFactory.createEngine(selectedClient, moduleConfig);
+        LLMEngine llmEngine = LLMEngineFactory.createEngine(selectedClient, moduleConfig, TaskType.COMPLETION);
         AnalysisService analysisService = new AnalysisService(new BaseCodeAnalyzer(), llmEngine);
         StringBuilder result = new StringBuilder();
         // Execute test generation asynchronously
-        CompletableFuture.runAsync(() -> {
-            try {
-                analysisService.generateTests(
-                    codeContext.toString(),
-                    "java",
-                    context,
-                    new LLMEngine.StreamCallback() {
-                        @Override
-                        public void onStart() {
-                            windowFactory.submitButton(project);
-                            windowFactory.updateResult("开始生成测试用例...\n", project);
-                        }
-
-                        @Override
-                        public void onToken(String token) {
-                            if (token != null && !token.isEmpty()) {
-                                result.append(token);
-                                windowFactory.updateResult(result.toString(), project);
+        try {
+            StreamingExecutorService.getInstance().submit(project, () -> {
+                try {
+                    RequestHandle handle = analysisService.generateTests(
+                        codeContext.toString(),
+                        "java",
+                        context,
+                        new LLMEngine.StreamCallback() {
+                            @Override
+                            public void onStart() {
+                                windowFactory.submitButton(project);
+                                windowFactory.updateResult("开始生成测试用例...\n", project);
                             }
-                        }
-
-                        @Override
-                        public void onError(Throwable error) {
-//                            windowFactory.stopLoadingAnimation(project);
-                            String errorMessage = error.getMessage();
-                            if (errorMessage == null || errorMessage.isEmpty()) {
-                                errorMessage = "未知错误";
+
+                            @Override
+                            public void onToken(String token) {
+                                if (token != null && !token.isEmpty()) {
+                                    result.append(token);
+                                    windowFactory.updateResult(result.toString(), project);
+                                }
                             }
-                            windowFactory.updateResult("\n生成测试失败: " + errorMessage, project);
-                            windowFactory.resetButton(project);
-                        }
-
-                        @Override
-                        public void onComplete() {
-//                            windowFactory.stopLoadingAnimation(project);
-                            windowFactory.updateResult(result.toString(), project);
-//                            windowFactory.updateResult("\n测试生成完成", project);
-                            windowFactory.resetButton(project);
-                        }
-                    });
-            } catch (Exception ex) {
-//                windowFactory.stopLoadingAnimation(project);
-                String errorMessage = ex.getMessage();
-                if (errorMessage == null || errorMessage.isEmpty()) {
-                    errorMessage = "未知错误";
+
+                            @Override
+                            public void onError(Throwable error) {
+//                                windowFactory.stopLoadingAnimation(project);
+                                String errorMessage = error.getMessage();
+                                if (errorMessage == null || errorMessage.isEmpty()) {
+                                    errorMessage = "未知错误";
+                                }
+                                windowFactory.updateResult("\n生成测试失败: " + errorMessage, project);
+                                windowFactory.resetButton(project);
+                            }
+
+                            @Override
+                            public void onComplete() {
+//                                windowFactory.stopLoadingAnimation(project);
+                                windowFactory.updateResult(result.toString(), project);
+//                                windowFactory.updateResult("\n测试生成完成", project);
+                                windowFactory.resetButton(project);
+                            }
+                        });
+                    windowFactory.registerRequest(project, handle);
+                } catch (Exception ex) {
+//                    windowFactory.stopLoadingAnimation(project);
+                    String errorMessage = ex.getMessage();
+                    if (errorMessage == null || errorMessage.isEmpty()) {
+                        errorMessage = "未知错误";
+                    }
+                    windowFactory.updateResult("发生错误: " + errorMessage, project);
+                    windowFactory.resetButton(project);
                 }
-                windowFactory.updateResult("发生错误: " + errorMessage, project);
-                windowFactory.resetButton(project);
-            }
-        });
+            });
+        } catch (RejectedExecutionException ex) {
+            windowFactory.updateResult("发生错误: " + ex.getMessage(), project);
+            windowFactory.resetButton(project);
+        }
     }
 
     private List<PsiElement> collectDependencies(PsiClass targetClass, PsiMethod targetMethod) {
@@ -9,6 +9,8 @@ import com.yohannzhang.aigit.config.ApiKeySettings;
 import com.yohannzhang.aigit.core.analysis.BaseCodeAnalyzer;
 import com.yohannzhang.aigit.core.llm.LLMEngine;
 import com.yohannzhang.aigit.core.llm.LLMEngineFactory;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.TaskType;
 import com.yohannzhang.aigit.service.AnalysisService;
 import com.yohannzhang.aigit.ui.CombinedWindowFactory;
 import com.yohannzhang.aigit.core.llm.LLMEngine.StreamCallback;
@@ -85,7 +87,7 @@ public class GenerateBilingualDocAction extends AnAction {
             }
 
             // 创建 LLM 引擎
-            LLMEngine llmEngine = LLMEngineFactory.createEngine(selectedClient, moduleConfig);
+            LLMEngine llmEngine = LLMEngineFactory.createEngine(selectedClient, moduleConfig, TaskType.DOCS);
             if (llmEngine == null) {
                 stopLoadingAnimation(project);
                 CombinedWindowFactory.getInstance(project).updateResult("创建 LLM 引擎失败", project);
@@ -252,7 +254,10 @@ public class GenerateBilingualDocAction extends AnAction {
                             }
                         };
 
-                        analysisService.generateBilingualDocumentation(projectFiles, callback);
+                        RequestHandle handle = analysisService.generateBilingualDocumentation(projectFiles, callback);
+                        CombinedWindowFactory.getInstance(project).registerRequest(project, handle);
+                        // 阻塞到流式结束，进度条取消时同步中止请求
+                        handle.await(indicator);
                     }
 
                     @Override
@@ -19,6 +19,8 @@ import com.intellij.psi.util.PsiTreeUtil;
 import com.yohannzhang.aigit.config.ApiKeySettings;
 import com.yohannzhang.aigit.core.llm.LLMEngine;
 import com.yohannzhang.aigit.core.llm.LLMEngineFactory;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.TaskType;
 import com.yohannzhang.aigit.service.ClassDependencyAnalysisService;
 import com.yohannzhang.aigit.ui.CombinedWindowFactory;
 import org.jetbrains.annotations.NotNull;
@@ -156,7 +158,7 @@ public class GenerateClassDependencyFlowAction extends AnAction {
             return null;
         }
 
-        LLMEngine llmEngine = LLMEngineFactory.createEngine(selectedClient, moduleConfig);
+        LLMEngine llmEngine = LLMEngineFactory.createEngine(selectedClient, moduleConfig, TaskType.DOCS);
         if (llmEngine == null) {
             stopLoadingAndShowMessage(project, "创建 LLM 引擎失败");
             return null;
@@ -197,7 +199,7 @@ public class GenerateClassDependencyFlowAction extends AnAction {
                         });
                         
                         // 生成流程图
-                        analysisService.generateDependencyFlowChart(analysisResult, new LLMEngine.StreamCallback() {
+                        RequestHandle handle = analysisService.generateDependencyFlowChart(analysisResult, new LLMEngine.StreamCallback() {
                             private FileWriter writer;
 
                             @Override
@@ -255,6 +257,9 @@ public class GenerateClassDependencyFlowAction extends AnAction {
                                 }
                             }
                         });
+                        windowFactory.registerRequest(project, handle);
+                        // 阻塞到流式结束，进度条取消时同步中止请求
+                        handle.await(indicator);
                         
                     } catch (ProcessCanceledException e) {
                         handleCancel(project, docFile);
@@ -18,6 +18,7 @@ import com.intellij.openapi.vcs.changes.Change;
 import com.intellij.openapi.vcs.ui.CommitMessage;
 import com.intellij.vcs.commit.AbstractCommitWorkflowHandler;
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
 import com.yohannzhang.aigit.service.CommitMessageService;
 import com.yohannzhang.aigit.util.GItCommitUtil;
 import com.yohannzhang.aigit.util.IdeaDialogUtil;
@@ -226,7 +227,7 @@ public class GenerateCommitMessageAction extends AnAction {
                             StringBuilder messageBuilder = new StringBuilder();
                             AtomicBoolean streamCompleted = new AtomicBoolean(false);
                             
-                            commitMessageService.generateCommitMessageStream(
+                            RequestHandle handle = commitMessageService.generateCommitMessageStream(
                                     diff,
                                     token -> {
                                         if (indicator.isCanceled()) {
@@ -262,15 +263,8 @@ public class GenerateCommitMessageAction extends AnAction {
                                     }
                             );
                             
-                            // 等待流式生成完成或取消
-                            while (!streamCompleted.get() && !indicator.isCanceled()) {
-                                try {
-                                    Thread.sleep(100);
-                                } catch (InterruptedException ex) {
-                                    Thread.currentThread().interrupt();
-                                    break;
-                                }
-                            }
+                            // 等待流式生成完成或取消，取消时立即中止本次请求
+                            handle.await(indicator);
                             
                             // 确保在完成后再次检查状态
                             if (streamCompleted.get() && !indicator.isCanceled()) {
@@ -17,6 +17,8 @@ import com.yohannzhang.aigit.core.analysis.BaseCodeAnalyzer;
 import com.yohannzhang.aigit.core.llm.LLMEngine;
 import com.yohannzhang.aigit.core.llm.LLMEngine.StreamCallback;
 import com.yohannzhang.aigit.core.llm.LLMEngineFactory;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.TaskType;
 import com.yohannzhang.aigit.service.AnalysisService;
 import com.yohannzhang.aigit.ui.CombinedWindowFactory;
 import org.jetbrains.annotations.NotNull;
@@ -86,7 +88,7 @@ public class GenerateDependencyGraphAction extends AnAction {
         }
 
         // 创建 LLM 引擎
-        LLMEngine llmEngine = LLMEngineFactory.createEngine(selectedClient, moduleConfig);
+        LLMEngine llmEngine = LLMEngineFactory.createEngine(selectedClient, moduleConfig, TaskType.DOCS);
         if (llmEngine == null) {
             windowFactory.stopLoadingAnimation(project);
             windowFactory.updateResult("创建 LLM 引擎失败", project);
@@ -134,7 +136,7 @@ public class GenerateDependencyGraphAction extends AnAction {
                     
                     try {
                         // 开始生成文档
-                        analysisService.generateProjectDocumentation(promt, new StreamCallback() {
+                        RequestHandle handle = analysisService.generateProjectDocumentation(promt, new StreamCallback() {
                             private FileWriter writer;
 
                             @Override
@@ -262,6 +264,9 @@ public class GenerateDependencyGraphAction extends AnAction {
                                 windowFactory.resetButton(project);
                             }
                         });
+                        windowFactory.registerRequest(project, handle);
+                        // 阻塞到流式结束，进度条取消时同步中止请求
+                        handle.await(indicator);
                     } catch (ProcessCanceledException e) {
                         // 处理取消操作
                         isCancelled.set(true);
@@ -13,6 +13,7 @@ import com.yohannzhang.aigit.config.ApiKeySettings;
 import com.yohannzhang.aigit.core.analysis.BaseCodeAnalyzer;
 import com.yohannzhang.aigit.core.llm.LLMEngine;
 import com.yohannzhang.aigit.core.llm.LLMEngineFactory;
+import com.yohannzhang.aigit.core.llm.TaskType;
 import com.yohannzhang.aigit.core.models.FileMetadata;
 import com.yohannzhang.aigit.core.models.Symbol;
 import com.yohannzhang.aigit.service.AnalysisService;
@@ -100,7 +101,7 @@ public class GenerateProjectAnalysisAction extends AnAction {
             return;
         }
 
-        LLMEngine llmEngine = LLMEngineFactory.createEngine(selectedClient, moduleConfig);
+        LLMEngine llmEngine = LLMEngineFactory.createEngine(selectedClient, moduleConfig, TaskType.DOCS);
         if (llmEngine == null) {
             windowFactory.stopLoadingAnimation(project);
             showError("创建 LLM 引擎失败");
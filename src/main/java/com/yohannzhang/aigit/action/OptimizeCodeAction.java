@@ -12,6 +12,9 @@ import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowManager;
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.PromptBudget;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.TaskType;
 import com.yohannzhang.aigit.service.CodeService;
 import com.yohannzhang.aigit.ui.CombinedWindowFactory;
 import com.yohannzhang.aigit.util.ActionControl;
@@ -78,9 +81,9 @@ public class OptimizeCodeAction extends AnAction {
     }
 
     private void processCodeReview(Project project, String selectedText) {
-        CodeService codeService = new CodeService();
+        CodeService codeService = new CodeService(TaskType.REVIEW);
         String formattedCode = CODE_UTIL.formatCode(selectedText);
-        String prompt = String.format(
+        String prompt = PromptBudget.forSelectedModel().fill(
                 "你是一个Java代码Review专家，请对给出的代码进行全面的Code Review。" +
                         "重点检查空指针、内存溢出、线程安全、异常处理、性能问题等方面。" +
                         "\n\n**重要要求：对于发现的每个问题，必须同时提供：**\n" +
@@ -111,7 +114,7 @@ public class OptimizeCodeAction extends AnAction {
                         "✅ **代码质量评估：** 经过详细review，该代码段在以下方面表现良好：[具体说明]\n" +
                         "\n" +
                         "待Review代码如下：%s",
-                formattedCode
+                formattedCode, true
         );
 
         ProgressManager.getInstance().run(new Task.Backgroundable(project, Constants.TASK_TITLE, true) {
@@ -120,7 +123,7 @@ public class OptimizeCodeAction extends AnAction {
                 try {
                     if (codeService.generateByStream()) {
                         messageBuilder.setLength(0);
-                        codeService.generateCommitMessageStream(
+                        RequestHandle handle = codeService.generateCommitMessageStream(
                                 prompt,
                                 token -> {
                                     messageBuilder.append(token);
@@ -133,6 +136,7 @@ public class OptimizeCodeAction extends AnAction {
 
                                 })
                         );
+                        CombinedWindowFactory.getInstance(project).registerRequest(project, handle);
                     }
                 } catch (IllegalArgumentException ex) {
                     showConfigWarning(project, ex);
@@ -13,6 +13,8 @@ import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowManager;
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.PromptBudget;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
 import com.yohannzhang.aigit.service.CodeService;
 import com.yohannzhang.aigit.ui.CombinedWindowFactory;
 import com.yohannzhang.aigit.util.CodeUtil;
@@ -55,7 +57,10 @@ public class ShowMeYourCodeAction extends AnAction {
                 // 根据配置，创建对应的服务
                 CodeService codeService = new CodeService();
                 String code = ShowMeYourCodeAction.codeUtil.formatCode(selectedText);
-                String prompt = "你是一个Java代码开发专家，请根据给定的文字描述，用中文生成相应的代码及注释，格式分三部分：1.文字描述 2.代码及注释，对应注释在代码上方 3.总结。文字如下：" + code;
+                String prompt = PromptBudget.forSelectedModel()
+                        .fixed("你是一个Java代码开发专家，请根据给定的文字描述，用中文生成相应的代码及注释，格式分三部分：1.文字描述 2.代码及注释，对应注释在代码上方 3.总结。文字如下：")
+                        .document(code, false)
+                        .build();
                 // Run the time-consuming operations in a background task
                 ProgressManager.getInstance().run(new Task.Backgroundable(project, Constants.TASK_TITLE, true) {
                     @Override
@@ -67,7 +72,7 @@ public class ShowMeYourCodeAction extends AnAction {
 //                    System.out.println("diff: " + diff);
                             if (codeService.generateByStream()) {
                                 messageBuilder.setLength(0);
-                                codeService.generateCommitMessageStream(
+                                RequestHandle handle = codeService.generateCommitMessageStream(
                                         prompt,
                                         token -> {
                                             messageBuilder.append(token);
@@ -80,6 +85,7 @@ public class ShowMeYourCodeAction extends AnAction {
 
                                         })
                                 );
+                                CombinedWindowFactory.getInstance(project).registerRequest(project, handle);
                             } else {
 //                                    String commitMessageFromAi = commitMessageService.generateCommitMessage(diff).trim();
 //                                    ApplicationManager.getApplication().invokeLater(() -> {
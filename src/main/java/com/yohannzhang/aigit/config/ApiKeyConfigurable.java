@@ -15,6 +15,7 @@ import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 public class ApiKeyConfigurable implements Configurable {
 
@@ -47,6 +48,11 @@ public class ApiKeyConfigurable implements Configurable {
         return !settings.getSelectedClient().equals(ui.getClientComboBox().getSelectedItem())
                 || !settings.getSelectedModule().equals(ui.getModuleComboBox().getSelectedItem())
                 || !settings.getCommitLanguage().equals(ui.getLanguageComboBox().getSelectedItem())
+                || settings.isResponseCacheEnabled() != ui.getResponseCacheCheckBox().isSelected()
+                || isFailoverModified()
+                || isRagIndexModified()
+                || isRagEmbeddingModified()
+                || isModelRoutingModified()
                 || isCustomPromptsModified() || isCustomPromptModified() || isPromptTypeModified();
 //        return true;
     }
@@ -67,6 +73,21 @@ public class ApiKeyConfigurable implements Configurable {
         settings.setSelectedModule(selectedModule);
         settings.addCustomModule(selectedClient, selectedModule);
         settings.setCommitLanguage(commitLanguage);
+        settings.setResponseCacheEnabled(ui.getResponseCacheCheckBox().isSelected());
+        settings.setFailoverClients(parseFailoverClients());
+        settings.setHedgingEnabled(ui.getHedgingCheckBox().isSelected());
+        settings.setHedgeDelayMs((Integer) ui.getHedgeDelaySpinner().getValue());
+        settings.setMaxRetries((Integer) ui.getMaxRetriesSpinner().getValue());
+        settings.setResumeStreamsEnabled(ui.getResumeStreamsCheckBox().isSelected());
+        settings.setRagIndexM((Integer) ui.getRagIndexMSpinner().getValue());
+        settings.setRagIndexEfConstruction((Integer) ui.getRagIndexEfConstructionSpinner().getValue());
+        settings.setRagIndexEfSearch((Integer) ui.getRagIndexEfSearchSpinner().getValue());
+        settings.setRagEmbeddingClient((String) ui.getRagEmbeddingClientComboBox().getSelectedItem());
+        settings.setRagEmbeddingModel(ui.getRagEmbeddingModelField().getText().trim());
+        settings.setRagEmbeddingBatchSize((Integer) ui.getRagEmbeddingBatchSizeSpinner().getValue());
+        settings.setRagEmbeddingConcurrency((Integer) ui.getRagEmbeddingConcurrencySpinner().getValue());
+        settings.setModelRoutingEnabled(ui.getModelRoutingCheckBox().isSelected());
+        settings.setRoutingRules(readRoutingRules());
 
         // 保存prompt内容
         Object selectedPromptType = ui.getPromptTypeComboBox().getSelectedItem();
@@ -118,6 +139,23 @@ public class ApiKeyConfigurable implements Configurable {
             ui.getClientComboBox().setSelectedItem(settings.getSelectedClient());
             ui.getModuleComboBox().setSelectedItem(settings.getSelectedModule());
             ui.getLanguageComboBox().setSelectedItem(settings.getCommitLanguage());
+            ui.getResponseCacheCheckBox().setSelected(settings.isResponseCacheEnabled());
+            ui.getFailoverClientsField().setText(String.join(", ", settings.getFailoverClients()));
+            ui.getHedgingCheckBox().setSelected(settings.isHedgingEnabled());
+            ui.getHedgeDelaySpinner().setValue(settings.getHedgeDelayMs());
+            ui.getHedgeDelaySpinner().setEnabled(settings.isHedgingEnabled());
+            ui.getMaxRetriesSpinner().setValue(settings.getMaxRetries());
+            ui.getResumeStreamsCheckBox().setSelected(settings.isResumeStreamsEnabled());
+            ui.getRagIndexMSpinner().setValue(settings.getRagIndexM());
+            ui.getRagIndexEfConstructionSpinner().setValue(settings.getRagIndexEfConstruction());
+            ui.getRagIndexEfSearchSpinner().setValue(settings.getRagIndexEfSearch());
+            ui.getRagEmbeddingClientComboBox().setSelectedItem(settings.getRagEmbeddingClient());
+            ui.getRagEmbeddingModelField().setText(settings.getRagEmbeddingModel());
+            ui.getRagEmbeddingBatchSizeSpinner().setValue(settings.getRagEmbeddingBatchSize());
+            ui.getRagEmbeddingConcurrencySpinner().setValue(settings.getRagEmbeddingConcurrency());
+            ui.updateRagEmbeddingFields();
+            ui.getModelRoutingCheckBox().setSelected(settings.isModelRoutingEnabled());
+            loadRoutingRules();
 
             // 设置表格数据
             loadCustomPrompts();
@@ -173,6 +211,94 @@ public class ApiKeyConfigurable implements Configurable {
         settings.setCustomPrompts(customPrompts);
     }
 
+    private boolean isRagIndexModified() {
+        return settings.getRagIndexM() != (Integer) ui.getRagIndexMSpinner().getValue()
+                || settings.getRagIndexEfConstruction() != (Integer) ui.getRagIndexEfConstructionSpinner().getValue()
+                || settings.getRagIndexEfSearch() != (Integer) ui.getRagIndexEfSearchSpinner().getValue();
+    }
+
+    private boolean isRagEmbeddingModified() {
+        return !Objects.equals(settings.getRagEmbeddingClient(), ui.getRagEmbeddingClientComboBox().getSelectedItem())
+                || !Objects.equals(settings.getRagEmbeddingModel(), ui.getRagEmbeddingModelField().getText().trim())
+                || settings.getRagEmbeddingBatchSize() != (Integer) ui.getRagEmbeddingBatchSizeSpinner().getValue()
+                || settings.getRagEmbeddingConcurrency() != (Integer) ui.getRagEmbeddingConcurrencySpinner().getValue();
+    }
+
+    private boolean isFailoverModified() {
+        return !settings.getFailoverClients().equals(parseFailoverClients())
+                || settings.isHedgingEnabled() != ui.getHedgingCheckBox().isSelected()
+                || settings.getHedgeDelayMs() != (Integer) ui.getHedgeDelaySpinner().getValue()
+                || settings.getMaxRetries() != (Integer) ui.getMaxRetriesSpinner().getValue()
+                || settings.isResumeStreamsEnabled() != ui.getResumeStreamsCheckBox().isSelected();
+    }
+
+    /**
+     * 逗号分隔的备用 client，忽略空项
+     */
+    private List<String> parseFailoverClients() {
+        List<String> clients = new ArrayList<>();
+        for (String client : ui.getFailoverClientsField().getText().split("[,，]")) {
+            if (!client.isBlank()) {
+                clients.add(client.trim());
+            }
+        }
+        return clients;
+    }
+
+    private void loadRoutingRules() {
+        DefaultTableModel model = ui.getRoutingRulesTableModel();
+        model.setRowCount(0);
+        for (ApiKeySettings.RoutingRule rule : settings.getRoutingRules()) {
+            model.addRow(new Object[]{rule.getTaskType(), rule.getMaxInputTokens(), rule.getMaxFirstTokenMs(), rule.getClient()});
+        }
+    }
+
+    /**
+     * 表格中的路由规则，未选择 client 的行忽略
+     */
+    private List<ApiKeySettings.RoutingRule> readRoutingRules() {
+        if (ui.getRoutingRulesTable().isEditing()) {
+            ui.getRoutingRulesTable().getCellEditor().stopCellEditing();
+        }
+        DefaultTableModel model = ui.getRoutingRulesTableModel();
+        List<ApiKeySettings.RoutingRule> rules = new ArrayList<>();
+        for (int i = 0; i < model.getRowCount(); i++) {
+            Object client = model.getValueAt(i, 3);
+            if (client == null || client.toString().isBlank()) {
+                continue;
+            }
+            Object taskType = model.getValueAt(i, 0);
+            rules.add(new ApiKeySettings.RoutingRule(taskType == null ? "" : taskType.toString(),
+                    toInt(model.getValueAt(i, 1)), toInt(model.getValueAt(i, 2)), client.toString()));
+        }
+        return rules;
+    }
+
+    private static int toInt(Object value) {
+        return value instanceof Number number ? Math.max(0, number.intValue()) : 0;
+    }
+
+    private boolean isModelRoutingModified() {
+        if (settings.isModelRoutingEnabled() != ui.getModelRoutingCheckBox().isSelected()) {
+            return true;
+        }
+        List<ApiKeySettings.RoutingRule> rules = readRoutingRules();
+        if (rules.size() != settings.getRoutingRules().size()) {
+            return true;
+        }
+        for (int i = 0; i < rules.size(); i++) {
+            ApiKeySettings.RoutingRule rule = rules.get(i);
+            ApiKeySettings.RoutingRule saved = settings.getRoutingRules().get(i);
+            if (!Objects.equals(rule.getTaskType(), saved.getTaskType())
+                    || rule.getMaxInputTokens() != saved.getMaxInputTokens()
+                    || rule.getMaxFirstTokenMs() != saved.getMaxFirstTokenMs()
+                    || !Objects.equals(rule.getClient(), saved.getClient())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean isPromptTypeModified() {
         Object selectedPromptType = ui.getPromptTypeComboBox().getSelectedItem();
         return !settings.getPromptType().equals(selectedPromptType);
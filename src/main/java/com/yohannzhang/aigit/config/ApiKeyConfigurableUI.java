@@ -11,8 +11,10 @@ import com.intellij.ui.components.JBLabel;
 import com.intellij.ui.table.JBTable;
 import com.intellij.util.ui.JBUI;
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.TaskType;
+import com.yohannzhang.aigit.factory.AIServiceFactory;
 import com.yohannzhang.aigit.service.AIService;
-import com.yohannzhang.aigit.service.CommitMessageService;
+import com.yohannzhang.aigit.service.ResponseCacheService;
 import com.yohannzhang.aigit.util.PromptDialogUIUtil;
 
 import javax.swing.*;
@@ -21,6 +23,11 @@ import java.awt.*;
 
 public class ApiKeyConfigurableUI {
 
+    /**
+     * 自定义 prompt 面板所在的行，位于所有设置行之下
+     */
+    private static final int PROMPT_PANEL_ROW = 10;
+
     private JPanel mainPanel;
     private ComboBox<String> clientComboBox;
     private ComboBox<String> moduleComboBox;
@@ -34,6 +41,29 @@ public class ApiKeyConfigurableUI {
 
     private JButton configButton;
 
+    private JCheckBox responseCacheCheckBox;
+    private JButton clearCacheButton;
+
+    private JTextField failoverClientsField;
+    private JCheckBox hedgingCheckBox;
+    private JSpinner hedgeDelaySpinner;
+
+    private JSpinner maxRetriesSpinner;
+    private JCheckBox resumeStreamsCheckBox;
+
+    private JSpinner ragIndexMSpinner;
+    private JSpinner ragIndexEfConstructionSpinner;
+    private JSpinner ragIndexEfSearchSpinner;
+
+    private ComboBox<String> ragEmbeddingClientComboBox;
+    private JTextField ragEmbeddingModelField;
+    private JSpinner ragEmbeddingBatchSizeSpinner;
+    private JSpinner ragEmbeddingConcurrencySpinner;
+
+    private JCheckBox modelRoutingCheckBox;
+    private JBTable routingRulesTable;
+    private DefaultTableModel routingRulesTableModel;
+
     // 记录当前选中的行
     private int SELECTED_ROW = 0;
 
@@ -71,6 +101,56 @@ public class ApiKeyConfigurableUI {
         configButton = new JButton(AllIcons.General.Settings);
         configButton.setToolTipText("Configure Module Settings");
 
+        responseCacheCheckBox = new JCheckBox("缓存相同请求的响应（文档、提交信息等）");
+        clearCacheButton = new JButton("清空缓存");
+
+        failoverClientsField = new JTextField();
+        failoverClientsField.setToolTipText("当前 client 失败时按顺序改用的备用 client，逗号分隔，如 " + Constants.DeepSeek + ", " + Constants.Ollama);
+        hedgingCheckBox = new JCheckBox("Hedge after (ms):");
+        hedgingCheckBox.setToolTipText("主 client 超过该时间仍未输出时，同时向备用 client 发出请求，取先输出的一路");
+        hedgeDelaySpinner = new JSpinner(new SpinnerNumberModel(2000, 100, 60000, 100));
+        hedgingCheckBox.addActionListener(e -> hedgeDelaySpinner.setEnabled(hedgingCheckBox.isSelected()));
+
+        maxRetriesSpinner = new JSpinner(new SpinnerNumberModel(3, 0, 10, 1));
+        maxRetriesSpinner.setToolTipText("建连失败、超时、429 和 5xx 时的重试次数，按指数退避并遵守 Retry-After，0 表示不重试");
+        resumeStreamsCheckBox = new JCheckBox("输出中途断开时，把已输出的内容交给模型接着写");
+
+        ragIndexMSpinner = new JSpinner(new SpinnerNumberModel(16, 4, 64, 2));
+        ragIndexMSpinner.setToolTipText("HNSW 每个节点的邻居数，越大召回率越高、内存和建图时间越多");
+        ragIndexEfConstructionSpinner = new JSpinner(new SpinnerNumberModel(100, 16, 1000, 10));
+        ragIndexEfConstructionSpinner.setToolTipText("建图时的候选集大小，越大图质量越好、建图越慢");
+        ragIndexEfSearchSpinner = new JSpinner(new SpinnerNumberModel(64, 10, 1000, 8));
+        ragIndexEfSearchSpinner.setToolTipText("检索时的候选集大小，越大召回率越高、检索越慢；代码块不多时直接精确检索，不受影响");
+
+        ragEmbeddingClientComboBox = new ComboBox<>(Constants.EMBEDDING_CLIENTS);
+        ragEmbeddingClientComboBox.setToolTipText("代码块向量化使用的 embedding 接口，地址和 API Key 沿用该 client 的配置；"
+                + Constants.EMBEDDING_OFFLINE + " 为不联网的本地词哈希");
+        applyComboBoxColors(ragEmbeddingClientComboBox);
+        ragEmbeddingModelField = new JTextField(16);
+        ragEmbeddingModelField.setToolTipText("embedding 模型名，如 nomic-embed-text、BAAI/bge-m3、text-embedding-3-small；更换后索引重建");
+        ragEmbeddingBatchSizeSpinner = new JSpinner(new SpinnerNumberModel(64, 1, 2048, 16));
+        ragEmbeddingBatchSizeSpinner.setToolTipText("每次请求的代码块数");
+        ragEmbeddingConcurrencySpinner = new JSpinner(new SpinnerNumberModel(4, 1, 16, 1));
+        ragEmbeddingConcurrencySpinner.setToolTipText("同时进行的 embedding 请求数");
+        ragEmbeddingClientComboBox.addActionListener(e -> updateRagEmbeddingFields());
+
+        modelRoutingCheckBox = new JCheckBox("按任务类型和输入大小选择 client（按顺序匹配，无匹配时用上面的 client）");
+        routingRulesTableModel = new DefaultTableModel(new String[]{"Task", "Max input tokens", "Max first-token ms", "Client"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                return columnIndex == 1 || columnIndex == 2 ? Integer.class : String.class;
+            }
+        };
+        routingRulesTable = new JBTable(routingRulesTableModel);
+        routingRulesTable.getEmptyText().setText("0 = unlimited, empty task = any task");
+        String[] taskTypes = new String[TaskType.values().length + 1];
+        taskTypes[0] = "";
+        for (TaskType taskType : TaskType.values()) {
+            taskTypes[taskType.ordinal() + 1] = taskType.name();
+        }
+        routingRulesTable.getColumnModel().getColumn(0).setCellEditor(new DefaultCellEditor(new ComboBox<>(taskTypes)));
+        routingRulesTable.getColumnModel().getColumn(3).setCellEditor(new DefaultCellEditor(new ComboBox<>(Constants.LLM_CLIENTS)));
+
         // 创建包含Stream支持状态的面板
         clientPanel = new JPanel(new BorderLayout(5, 0));
         clientPanel.add(clientComboBox, BorderLayout.CENTER);
@@ -115,14 +195,74 @@ public class ApiKeyConfigurableUI {
         addComponent(new JBLabel("Module:"), gbc, 0, 1, 0.0);
         addComponent(modulePanel, gbc, 1, 1, 1.0);
 
-        addComponent(new JBLabel("Language:"), gbc, 0, 3, 0.0);
-        addComponent(languageComboBox, gbc, 1, 3, 1.0);
+        JPanel cachePanel = new JPanel(new BorderLayout(5, 0));
+        cachePanel.add(responseCacheCheckBox, BorderLayout.CENTER);
+        cachePanel.add(clearCacheButton, BorderLayout.EAST);
+
+        addComponent(new JBLabel("Response cache:"), gbc, 0, 2, 0.0);
+        addComponent(cachePanel, gbc, 1, 2, 1.0);
+
+        JPanel hedgePanel = new JPanel(new BorderLayout(5, 0));
+        hedgePanel.add(hedgingCheckBox, BorderLayout.WEST);
+        hedgePanel.add(hedgeDelaySpinner, BorderLayout.CENTER);
+        JPanel failoverPanel = new JPanel(new BorderLayout(5, 0));
+        failoverPanel.add(failoverClientsField, BorderLayout.CENTER);
+        failoverPanel.add(hedgePanel, BorderLayout.EAST);
+
+        addComponent(new JBLabel("Failover:"), gbc, 0, 3, 0.0);
+        addComponent(failoverPanel, gbc, 1, 3, 1.0);
+
+        JPanel routingRulesPanel = ToolbarDecorator.createDecorator(routingRulesTable)
+                .setAddAction(button -> routingRulesTableModel.addRow(new Object[]{"", 0, 0, clientComboBox.getSelectedItem()}))
+                .setRemoveAction(button -> removeRoutingRule())
+                .disableUpDownActions()
+                .setPreferredSize(new Dimension(-1, 110))
+                .createPanel();
+        JPanel routingPanel = new JPanel(new BorderLayout(0, 5));
+        routingPanel.add(modelRoutingCheckBox, BorderLayout.NORTH);
+        routingPanel.add(routingRulesPanel, BorderLayout.CENTER);
+
+        JPanel retryPanel = new JPanel(new BorderLayout(5, 0));
+        retryPanel.add(maxRetriesSpinner, BorderLayout.WEST);
+        retryPanel.add(resumeStreamsCheckBox, BorderLayout.CENTER);
 
-        addComponent(new JBLabel("Prompt type:"), gbc, 0, 4, 0.0);
-        addComponent(promptTypeComboBox, gbc, 1, 4, 1.0);
+        addComponent(new JBLabel("Retries:"), gbc, 0, 4, 0.0);
+        addComponent(retryPanel, gbc, 1, 4, 1.0);
+
+        JPanel ragIndexPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        ragIndexPanel.add(new JBLabel("M"));
+        ragIndexPanel.add(ragIndexMSpinner);
+        ragIndexPanel.add(new JBLabel("efConstruction"));
+        ragIndexPanel.add(ragIndexEfConstructionSpinner);
+        ragIndexPanel.add(new JBLabel("efSearch"));
+        ragIndexPanel.add(ragIndexEfSearchSpinner);
+
+        addComponent(new JBLabel("RAG index:"), gbc, 0, 5, 0.0);
+        addComponent(ragIndexPanel, gbc, 1, 5, 1.0);
+
+        JPanel ragEmbeddingPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        ragEmbeddingPanel.add(ragEmbeddingClientComboBox);
+        ragEmbeddingPanel.add(new JBLabel("Model"));
+        ragEmbeddingPanel.add(ragEmbeddingModelField);
+        ragEmbeddingPanel.add(new JBLabel("Batch"));
+        ragEmbeddingPanel.add(ragEmbeddingBatchSizeSpinner);
+        ragEmbeddingPanel.add(new JBLabel("Concurrency"));
+        ragEmbeddingPanel.add(ragEmbeddingConcurrencySpinner);
+
+        addComponent(new JBLabel("RAG embeddings:"), gbc, 0, 6, 0.0);
+        addComponent(ragEmbeddingPanel, gbc, 1, 6, 1.0);
+
+        addComponent(new JBLabel("Model routing:"), gbc, 0, 7, 0.0);
+        addComponent(routingPanel, gbc, 1, 7, 1.0);
+
+        addComponent(new JBLabel("Language:"), gbc, 0, 8, 0.0);
+        addComponent(languageComboBox, gbc, 1, 8, 1.0);
+
+        addComponent(new JBLabel("Prompt type:"), gbc, 0, 9, 0.0);
+        addComponent(promptTypeComboBox, gbc, 1, 9, 1.0);
 
         gbc.gridx = 0;
-        gbc.gridy = 5;
+        gbc.gridy = PROMPT_PANEL_ROW;
         gbc.gridwidth = 2;
         gbc.weightx = 1.0;
         gbc.weighty = 1.0;
@@ -187,6 +327,26 @@ public class ApiKeyConfigurableUI {
         return panel;
     }
 
+    /**
+     * 本地实现不需要模型和并发设置
+     */
+    public void updateRagEmbeddingFields() {
+        boolean remote = !Constants.EMBEDDING_OFFLINE.equals(ragEmbeddingClientComboBox.getSelectedItem());
+        ragEmbeddingModelField.setEnabled(remote);
+        ragEmbeddingBatchSizeSpinner.setEnabled(remote);
+        ragEmbeddingConcurrencySpinner.setEnabled(remote);
+    }
+
+    private void removeRoutingRule() {
+        int selectedRow = routingRulesTable.getSelectedRow();
+        if (selectedRow != -1) {
+            if (routingRulesTable.isEditing()) {
+                routingRulesTable.getCellEditor().stopCellEditing();
+            }
+            routingRulesTableModel.removeRow(selectedRow);
+        }
+    }
+
     private JPanel createProjectPromptPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         JLabel infoLabel = new JLabel(
@@ -203,7 +363,7 @@ public class ApiKeyConfigurableUI {
             mainPanel.remove(projectPromptPanel);
             GridBagConstraints gbc = new GridBagConstraints();
             gbc.gridx = 0;
-            gbc.gridy = 5;
+            gbc.gridy = PROMPT_PANEL_ROW;
             gbc.gridwidth = 2;
             gbc.weightx = 1.0;
             gbc.weighty = 1.0;
@@ -213,7 +373,7 @@ public class ApiKeyConfigurableUI {
             mainPanel.remove(customPromptPanel);
             GridBagConstraints gbc = new GridBagConstraints();
             gbc.gridx = 0;
-            gbc.gridy = 5;
+            gbc.gridy = PROMPT_PANEL_ROW;
             gbc.gridwidth = 2;
             gbc.weightx = 1.0;
             gbc.weighty = 0.0;
@@ -291,6 +451,10 @@ public class ApiKeyConfigurableUI {
 
     private void setupListeners() {
         configButton.addActionListener(e -> showModuleConfigDialog());
+        clearCacheButton.addActionListener(e -> {
+            ResponseCacheService.getInstance().clear();
+            Messages.showInfoMessage(mainPanel, "响应缓存已清空", "Response Cache");
+        });
     }
 
     public void updateModuleComboBox(String selectedClient) {
@@ -378,12 +542,76 @@ public class ApiKeyConfigurableUI {
         this.moduleComboBox = moduleComboBox;
     }
 
+    public JCheckBox getResponseCacheCheckBox() {
+        return responseCacheCheckBox;
+    }
+
+    public JTextField getFailoverClientsField() {
+        return failoverClientsField;
+    }
+
+    public JCheckBox getHedgingCheckBox() {
+        return hedgingCheckBox;
+    }
+
+    public JSpinner getHedgeDelaySpinner() {
+        return hedgeDelaySpinner;
+    }
+
+    public JSpinner getMaxRetriesSpinner() {
+        return maxRetriesSpinner;
+    }
+
+    public JCheckBox getResumeStreamsCheckBox() {
+        return resumeStreamsCheckBox;
+    }
+
+    public JSpinner getRagIndexMSpinner() {
+        return ragIndexMSpinner;
+    }
+
+    public JSpinner getRagIndexEfConstructionSpinner() {
+        return ragIndexEfConstructionSpinner;
+    }
+
+    public JSpinner getRagIndexEfSearchSpinner() {
+        return ragIndexEfSearchSpinner;
+    }
+
+    public ComboBox<String> getRagEmbeddingClientComboBox() {
+        return ragEmbeddingClientComboBox;
+    }
+
+    public JTextField getRagEmbeddingModelField() {
+        return ragEmbeddingModelField;
+    }
+
+    public JSpinner getRagEmbeddingBatchSizeSpinner() {
+        return ragEmbeddingBatchSizeSpinner;
+    }
+
+    public JSpinner getRagEmbeddingConcurrencySpinner() {
+        return ragEmbeddingConcurrencySpinner;
+    }
+
+    public JCheckBox getModelRoutingCheckBox() {
+        return modelRoutingCheckBox;
+    }
+
+    public JBTable getRoutingRulesTable() {
+        return routingRulesTable;
+    }
+
+    public DefaultTableModel getRoutingRulesTableModel() {
+        return routingRulesTableModel;
+    }
+
     public JComboBox<String> getClientComboBox() {
         return clientComboBox;
     }
 
     public void updateStreamStatus(JLabel streamLabel, String selectedClient) {
-        AIService aiService = CommitMessageService.getAIService(selectedClient);
+        AIService aiService = AIServiceFactory.createClientAIService(selectedClient);
         boolean supportsStream = aiService.generateByStream();
         streamLabel.setText(supportsStream ? "(Supports Stream)" : "(No Stream)");
         streamLabel.setForeground(supportsStream ? new JBColor(new Color(0, 128, 0), new Color(0, 128, 0))
@@ -34,6 +34,35 @@ public class ApiKeySettings implements PersistentStateComponent<ApiKeySettings>
     private Map<String, ModuleConfig> moduleConfigs = new HashMap<>();
     private Map<String, List<String>> customClientModules = new HashMap<>();
 
+    // 响应缓存
+    private boolean responseCacheEnabled = true;
+    private int responseCacheTtlHours = 168;
+    private int responseCacheMaxMb = 100;
+
+    // 故障转移与对冲请求
+    private List<String> failoverClients = new ArrayList<>();
+    private boolean hedgingEnabled = false;
+    private int hedgeDelayMs = 2000;
+
+    // 重试与断流续写
+    private int maxRetries = 3;
+    private boolean resumeStreamsEnabled = true;
+
+    // RAG 向量索引（HNSW）参数
+    private int ragIndexM = 16;
+    private int ragIndexEfConstruction = 100;
+    private int ragIndexEfSearch = 64;
+
+    // RAG 向量化使用的 embedding 模型，地址和 API Key 沿用所选 client 的配置
+    private String ragEmbeddingClient = Constants.EMBEDDING_OFFLINE;
+    private String ragEmbeddingModel = "";
+    private int ragEmbeddingBatchSize = 64;
+    private int ragEmbeddingConcurrency = 4;
+
+    // 按任务类型和 prompt 大小选择 client
+    private boolean modelRoutingEnabled = false;
+    private List<RoutingRule> routingRules = new ArrayList<>();
+
     public static ApiKeySettings getInstance() {
         return ApplicationManager.getApplication().getService(ApiKeySettings.class);
     }
@@ -138,6 +167,164 @@ public class ApiKeySettings implements PersistentStateComponent<ApiKeySettings>
         this.customClientModules = customClientModules;
     }
 
+    public boolean isResponseCacheEnabled() {
+        return responseCacheEnabled;
+    }
+
+    public void setResponseCacheEnabled(boolean responseCacheEnabled) {
+        this.responseCacheEnabled = responseCacheEnabled;
+    }
+
+    public int getResponseCacheTtlHours() {
+        return responseCacheTtlHours;
+    }
+
+    public void setResponseCacheTtlHours(int responseCacheTtlHours) {
+        this.responseCacheTtlHours = responseCacheTtlHours;
+    }
+
+    public int getResponseCacheMaxMb() {
+        return responseCacheMaxMb;
+    }
+
+    public void setResponseCacheMaxMb(int responseCacheMaxMb) {
+        this.responseCacheMaxMb = responseCacheMaxMb;
+    }
+
+    public List<String> getFailoverClients() {
+        if (failoverClients == null) {
+            failoverClients = new ArrayList<>();
+        }
+        return failoverClients;
+    }
+
+    public void setFailoverClients(List<String> failoverClients) {
+        this.failoverClients = failoverClients;
+    }
+
+    public boolean isHedgingEnabled() {
+        return hedgingEnabled;
+    }
+
+    public void setHedgingEnabled(boolean hedgingEnabled) {
+        this.hedgingEnabled = hedgingEnabled;
+    }
+
+    public int getHedgeDelayMs() {
+        return hedgeDelayMs;
+    }
+
+    public void setHedgeDelayMs(int hedgeDelayMs) {
+        this.hedgeDelayMs = hedgeDelayMs;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public boolean isResumeStreamsEnabled() {
+        return resumeStreamsEnabled;
+    }
+
+    public void setResumeStreamsEnabled(boolean resumeStreamsEnabled) {
+        this.resumeStreamsEnabled = resumeStreamsEnabled;
+    }
+
+    public int getRagIndexM() {
+        return ragIndexM;
+    }
+
+    public void setRagIndexM(int ragIndexM) {
+        this.ragIndexM = ragIndexM;
+    }
+
+    public int getRagIndexEfConstruction() {
+        return ragIndexEfConstruction;
+    }
+
+    public void setRagIndexEfConstruction(int ragIndexEfConstruction) {
+        this.ragIndexEfConstruction = ragIndexEfConstruction;
+    }
+
+    public int getRagIndexEfSearch() {
+        return ragIndexEfSearch;
+    }
+
+    public void setRagIndexEfSearch(int ragIndexEfSearch) {
+        this.ragIndexEfSearch = ragIndexEfSearch;
+    }
+
+    public String getRagEmbeddingClient() {
+        return ragEmbeddingClient;
+    }
+
+    public void setRagEmbeddingClient(String ragEmbeddingClient) {
+        this.ragEmbeddingClient = ragEmbeddingClient;
+    }
+
+    public String getRagEmbeddingModel() {
+        return ragEmbeddingModel;
+    }
+
+    public void setRagEmbeddingModel(String ragEmbeddingModel) {
+        this.ragEmbeddingModel = ragEmbeddingModel;
+    }
+
+    public int getRagEmbeddingBatchSize() {
+        return ragEmbeddingBatchSize;
+    }
+
+    public void setRagEmbeddingBatchSize(int ragEmbeddingBatchSize) {
+        this.ragEmbeddingBatchSize = ragEmbeddingBatchSize;
+    }
+
+    public int getRagEmbeddingConcurrency() {
+        return ragEmbeddingConcurrency;
+    }
+
+    public void setRagEmbeddingConcurrency(int ragEmbeddingConcurrency) {
+        this.ragEmbeddingConcurrency = ragEmbeddingConcurrency;
+    }
+
+    public boolean isModelRoutingEnabled() {
+        return modelRoutingEnabled;
+    }
+
+    public void setModelRoutingEnabled(boolean modelRoutingEnabled) {
+        this.modelRoutingEnabled = modelRoutingEnabled;
+    }
+
+    public List<RoutingRule> getRoutingRules() {
+        if (routingRules == null) {
+            routingRules = new ArrayList<>();
+        }
+        return routingRules;
+    }
+
+    public void setRoutingRules(List<RoutingRule> routingRules) {
+        this.routingRules = routingRules;
+    }
+
+    /**
+     * 请求 client 时使用的模型：当前选中的 client 用选中的模型，其他 client（如故障转移的备用 client）
+     * 用其配置中的模型，未配置时取该 client 的第一个模型。
+     */
+    public String getModelFor(String client) {
+        if (client != null && client.equals(selectedClient)) {
+            return selectedModule;
+        }
+        ModuleConfig config = getModuleConfigs().get(client);
+        if (config != null && config.getModel() != null && !config.getModel().trim().isEmpty()) {
+            return config.getModel().trim();
+        }
+        String[] modules = getModulesForClient(client);
+        return modules.length > 0 ? modules[0] : selectedModule;
+    }
+
     public String[] getModulesForClient(String client) {
         List<String> modules = new ArrayList<>();
         String[] defaultModules = Constants.CLIENT_MODULES.get(client);
@@ -194,6 +381,14 @@ public class ApiKeySettings implements PersistentStateComponent<ApiKeySettings>
     public static class ModuleConfig {
         private String url;
         private String apiKey;
+        // 作为备用 client 时使用的模型，为空时取该 client 的第一个模型
+        private String model;
+        // 客户端限流，0 表示不限制
+        private int requestsPerMinute = 0;
+        private int tokensPerMinute = 0;
+        private int maxConcurrentStreams = 0;
+        // 以 gzip 压缩请求体，需要服务端（或前面的 nginx 等）支持 Content-Encoding: gzip
+        private boolean gzipRequests = false;
 
         public ModuleConfig() {
         }
@@ -218,5 +413,100 @@ public class ApiKeySettings implements PersistentStateComponent<ApiKeySettings>
         public void setApiKey(String apiKey) {
             this.apiKey = apiKey;
         }
+
+        public String getModel() {
+            return model;
+        }
+
+        public void setModel(String model) {
+            this.model = model;
+        }
+
+        public int getRequestsPerMinute() {
+            return requestsPerMinute;
+        }
+
+        public void setRequestsPerMinute(int requestsPerMinute) {
+            this.requestsPerMinute = requestsPerMinute;
+        }
+
+        public int getTokensPerMinute() {
+            return tokensPerMinute;
+        }
+
+        public void setTokensPerMinute(int tokensPerMinute) {
+            this.tokensPerMinute = tokensPerMinute;
+        }
+
+        public int getMaxConcurrentStreams() {
+            return maxConcurrentStreams;
+        }
+
+        public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+            this.maxConcurrentStreams = maxConcurrentStreams;
+        }
+
+        public boolean isGzipRequests() {
+            return gzipRequests;
+        }
+
+        public void setGzipRequests(boolean gzipRequests) {
+            this.gzipRequests = gzipRequests;
+        }
+    }
+
+    /**
+     * 模型路由规则，按顺序匹配，第一条满足条件的规则决定使用的 client。
+     */
+    public static class RoutingRule {
+        // 任务类型（TaskType 名称），为空表示任意任务
+        private String taskType = "";
+        // 输入 token 上限，0 表示不限制
+        private int maxInputTokens = 0;
+        // 该 client 首 token 延迟中位数的上限（毫秒），超过时跳过本规则，0 表示不限制
+        private int maxFirstTokenMs = 0;
+        private String client;
+
+        public RoutingRule() {
+        }
+
+        public RoutingRule(String taskType, int maxInputTokens, int maxFirstTokenMs, String client) {
+            this.taskType = taskType;
+            this.maxInputTokens = maxInputTokens;
+            this.maxFirstTokenMs = maxFirstTokenMs;
+            this.client = client;
+        }
+
+        public String getTaskType() {
+            return taskType;
+        }
+
+        public void setTaskType(String taskType) {
+            this.taskType = taskType;
+        }
+
+        public int getMaxInputTokens() {
+            return maxInputTokens;
+        }
+
+        public void setMaxInputTokens(int maxInputTokens) {
+            this.maxInputTokens = maxInputTokens;
+        }
+
+        public int getMaxFirstTokenMs() {
+            return maxFirstTokenMs;
+        }
+
+        public void setMaxFirstTokenMs(int maxFirstTokenMs) {
+            this.maxFirstTokenMs = maxFirstTokenMs;
+        }
+
+        public String getClient() {
+            return client;
+        }
+
+        public void setClient(String client) {
+            this.client = client;
+        }
     }
 }
@@ -11,8 +11,9 @@ import com.intellij.ui.JBColor;
 import com.intellij.ui.components.JBPasswordField;
 import com.intellij.util.ui.JBUI;
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.factory.AIServiceFactory;
 import com.yohannzhang.aigit.service.AIService;
-import com.yohannzhang.aigit.service.CommitMessageService;
+import com.yohannzhang.aigit.service.RateLimiterService;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -28,6 +29,12 @@ import java.util.Map;
 public class ModuleConfigDialog extends DialogWrapper {
     private JTextField urlField;
     private JBPasswordField apiKeyField;
+    // 限流配置
+    private JSpinner rpmSpinner;
+    private JSpinner tpmSpinner;
+    private JSpinner maxStreamsSpinner;
+    private JCheckBox gzipRequestsCheckBox;
+    private JTextField fallbackModelField;
     private final String client;
     private final String module;
     // 文字提示
@@ -50,7 +57,7 @@ public class ModuleConfigDialog extends DialogWrapper {
     protected @Nullable JComponent createCenterPanel() {
         // 创建主面板
         JPanel panel = new JPanel(new GridBagLayout());
-        panel.setPreferredSize(new Dimension(700, 200));
+        panel.setPreferredSize(new Dimension(700, 400));
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.insets = JBUI.insets(5, 10, 5, 10); // 增加左右间距
         gbc.fill = GridBagConstraints.HORIZONTAL;
@@ -59,6 +66,13 @@ public class ModuleConfigDialog extends DialogWrapper {
         // 初始化组件
         urlField = new JTextField();
         apiKeyField = new JBPasswordField();
+        rpmSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1_000_000, 1));
+        tpmSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 100_000_000, 1000));
+        maxStreamsSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1000, 1));
+        gzipRequestsCheckBox = new JCheckBox("Gzip request bodies");
+        gzipRequestsCheckBox.setToolTipText("以 gzip 压缩请求体，大 prompt 上传更快；服务端不支持（返回 415）时自动改回不压缩");
+        fallbackModelField = new JTextField();
+        fallbackModelField.setToolTipText("作为备用 client 时使用的模型，为空时取该 client 的第一个模型");
         helpLabel = new JLabel();
         helpLabel.setForeground(JBColor.GRAY);
 
@@ -95,9 +109,43 @@ public class ModuleConfigDialog extends DialogWrapper {
         gbc.weightx = 1.0;
         panel.add(apiKeyPanel, gbc);
 
+        // 限流：每分钟请求数、每分钟 token 数、最大并发流，0 表示不限制
+        addLimitRow(panel, gbc, 2, "Requests / min:", rpmSpinner);
+        addLimitRow(panel, gbc, 3, "Tokens / min:", tpmSpinner);
+        addLimitRow(panel, gbc, 4, "Max concurrent streams:", maxStreamsSpinner);
+
+        RateLimiterService limiter = RateLimiterService.getInstance();
+        JLabel limitHint = new JLabel("0 = unlimited. Interactive requests are queued ahead of background jobs. Now: "
+                + limiter.getActiveCount(client) + " running, " + limiter.getQueuedCount(client) + " queued");
+        limitHint.setForeground(JBColor.GRAY);
+        gbc.gridx = 1;
+        gbc.gridy = 5;
+        gbc.weightx = 1.0;
+        panel.add(limitHint, gbc);
+
+        // 作为备用 client 时的模型
+        gbc.gridx = 0;
+        gbc.gridy = 6;
+        gbc.weightx = 0;
+        panel.add(new JLabel("Fallback model:"), gbc);
+
+        gbc.gridx = 1;
+        gbc.weightx = 1.0;
+        panel.add(fallbackModelField, gbc);
+
+        // 请求体压缩
+        gbc.gridx = 0;
+        gbc.gridy = 7;
+        gbc.weightx = 0;
+        panel.add(new JLabel("Compression:"), gbc);
+
+        gbc.gridx = 1;
+        gbc.weightx = 1.0;
+        panel.add(gzipRequestsCheckBox, gbc);
+
         // 帮助文本
         gbc.gridx = 1;
-        gbc.gridy = 2;
+        gbc.gridy = 8;
         gbc.gridwidth = 2;
         gbc.insets = new Insets(0, 10, 5, 10);
         updateHelpText();
@@ -106,6 +154,17 @@ public class ModuleConfigDialog extends DialogWrapper {
         return panel;
     }
 
+    private void addLimitRow(JPanel panel, GridBagConstraints gbc, int row, String label, JSpinner spinner) {
+        gbc.gridx = 0;
+        gbc.gridy = row;
+        gbc.weightx = 0;
+        panel.add(new JLabel(label), gbc);
+
+        gbc.gridx = 1;
+        gbc.weightx = 1.0;
+        panel.add(spinner, gbc);
+    }
+
     private void updateHelpText() {
         helpLabel.setText(Constants.getHelpText(client));
 
@@ -161,7 +220,7 @@ public class ModuleConfigDialog extends DialogWrapper {
                     indicator.setIndeterminate(true);
                     indicator.setText("Validating configuration...");
 
-                    AIService aiService = CommitMessageService.getAIService(client);
+                    AIService aiService = AIServiceFactory.createClientAIService(client);
                     Map<String, String> checkConfig = Map.of(
                             "url", urlField.getText(),
                             "module", module,
@@ -205,6 +264,11 @@ public class ModuleConfigDialog extends DialogWrapper {
                 });
         urlField.setText(moduleConfig.getUrl());
         apiKeyField.setText(moduleConfig.getApiKey());
+        rpmSpinner.setValue(moduleConfig.getRequestsPerMinute());
+        tpmSpinner.setValue(moduleConfig.getTokensPerMinute());
+        maxStreamsSpinner.setValue(moduleConfig.getMaxConcurrentStreams());
+        gzipRequestsCheckBox.setSelected(moduleConfig.isGzipRequests());
+        fallbackModelField.setText(moduleConfig.getModel());
     }
 
     @Override
@@ -232,6 +296,11 @@ public class ModuleConfigDialog extends DialogWrapper {
 
         moduleConfigMap.setApiKey(apiKey);
         moduleConfigMap.setUrl(url);
+        moduleConfigMap.setRequestsPerMinute((Integer) rpmSpinner.getValue());
+        moduleConfigMap.setTokensPerMinute((Integer) tpmSpinner.getValue());
+        moduleConfigMap.setMaxConcurrentStreams((Integer) maxStreamsSpinner.getValue());
+        moduleConfigMap.setGzipRequests(gzipRequestsCheckBox.isSelected());
+        moduleConfigMap.setModel(fallbackModelField.getText().trim());
 
         super.doOKAction();
     }
@@ -242,6 +311,11 @@ public class ModuleConfigDialog extends DialogWrapper {
         if (defaultConfig != null) {
             urlField.setText(defaultConfig.getUrl());
             apiKeyField.setText(defaultConfig.getApiKey());
+            rpmSpinner.setValue(defaultConfig.getRequestsPerMinute());
+            tpmSpinner.setValue(defaultConfig.getTokensPerMinute());
+            maxStreamsSpinner.setValue(defaultConfig.getMaxConcurrentStreams());
+            gzipRequestsCheckBox.setSelected(defaultConfig.isGzipRequests());
+            fallbackModelField.setText("");
         }
     }
 
@@ -38,6 +38,10 @@ public class Constants {
 
     public static final String[] LLM_CLIENTS = {Gemini, DeepSeek, OpenAI_API, Ollama, CloudflareWorkersAI, 阿里云百炼, SiliconFlow, VLLM};
 
+    // RAG 向量化可选的 embedding 来源：本地特征哈希，或提供 embedding 接口的 client
+    public static final String EMBEDDING_OFFLINE = "Offline";
+    public static final String[] EMBEDDING_CLIENTS = {EMBEDDING_OFFLINE, Ollama, OpenAI_API, SiliconFlow, VLLM};
+
     public static final Map<String, String[]> CLIENT_MODULES = new HashMap<>() {
         {
             put(Gemini, new String[]{"gemini-2.0-flash-exp", "gemini-1.5-flash-latest", "gemini-1.5-flash", "gemini-1.5-pro"});
@@ -3,23 +3,18 @@ package com.yohannzhang.aigit.core.actions;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
-import com.yohannzhang.aigit.core.analyzers.BaseCodeAnalyzer;
-import com.yohannzhang.aigit.core.models.ProjectMetadata;
 import com.yohannzhang.aigit.core.services.CodeRAGService;
 import com.yohannzhang.aigit.utils.NotificationUtils;
-
-import java.nio.file.Paths;
+import org.jetbrains.annotations.NotNull;
 
 public class CodeRAGAction extends AnAction {
-    private final CodeRAGService ragService;
-    private final BaseCodeAnalyzer codeAnalyzer;
-
-    public CodeRAGAction() {
-        this.ragService = new CodeRAGService();
-        this.codeAnalyzer = new BaseCodeAnalyzer();
-    }
 
     @Override
     public void actionPerformed(AnActionEvent e) {
@@ -43,31 +38,36 @@ public class CodeRAGAction extends AnAction {
             return;
         }
 
-        try {
-            // 分析项目
-            ProjectMetadata projectMetadata = codeAnalyzer.analyzeProject(
-                Paths.get(project.getBasePath())
-            );
+        // 索引在项目内共享并持久化，只有从未建过索引时才需要先同步再检索
+        CodeRAGService ragService = CodeRAGService.getInstance(project);
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Code RAG Search", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                try {
+                    if (ragService.isEmpty()) {
+                        indicator.setText("Indexing project code...");
+                        ragService.sync(indicator);
+                    }
 
-            // 初始化 RAG 服务
-            ragService.initializeProject(projectMetadata);
+                    // 搜索相关代码
+                    String context = ragService.generateContext(query);
 
-            // 搜索相关代码
-            String context = ragService.generateContext(query);
+                    // 显示结果
+                    ApplicationManager.getApplication().invokeLater(() -> Messages.showInfoMessage(
+                        project,
+                        context,
+                        "Code Search Results"
+                    ));
 
-            // 显示结果
-            Messages.showInfoMessage(
-                project,
-                context,
-                "Code Search Results"
-            );
-
-        } catch (Exception ex) {
-            NotificationUtils.showError("Error during code search: " + ex.getMessage());
-        } finally {
-            // 清理资源
-            ragService.clear();
-        }
+                    // 本次打开项目后首次使用时，在后台补上关闭期间的文件改动
+                    ragService.syncInBackgroundIfNeeded();
+                } catch (ProcessCanceledException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    NotificationUtils.showError("Error during code search: " + ex.getMessage());
+                }
+            }
+        });
     }
 
     @Override
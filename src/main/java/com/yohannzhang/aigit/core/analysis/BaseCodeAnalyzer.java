@@ -3,6 +3,7 @@ package com.yohannzhang.aigit.core.analysis;
 import com.yohannzhang.aigit.core.models.FileMetadata;
 import com.yohannzhang.aigit.core.models.Project;
 import com.yohannzhang.aigit.core.models.Symbol;
+import com.yohannzhang.aigit.jfr.ProjectAnalysisEvent;
 
 import java.io.IOException;
 import java.nio.file.*;
@@ -23,6 +24,8 @@ public class BaseCodeAnalyzer implements CodeAnalyzer {
 
     @Override
     public Project analyzeProject(Path projectPath) {
+        ProjectAnalysisEvent event = new ProjectAnalysisEvent();
+        event.begin();
         String projectId = UUID.randomUUID().toString();
         String projectName = projectPath.getFileName().toString();
         Project project = new Project(projectId, projectName, projectPath);
@@ -115,6 +118,15 @@ public class BaseCodeAnalyzer implements CodeAnalyzer {
             stats.put("dependencies", dependencies);
             
             project.addStat("stats", stats);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.analyzer = getClass().getName();
+                event.projectPath = projectPath.toString();
+                event.filesScanned = project.getFiles().size();
+                event.lines = totalLines[0];
+                event.commit();
+            }
             return project;
         } catch (IOException e) {
             throw new RuntimeException("Error analyzing project: " + projectPath, e);
@@ -131,7 +143,7 @@ public class BaseCodeAnalyzer implements CodeAnalyzer {
         String summary = generateSummary(content, language);
         
         BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
-        String contentHash = String.valueOf(content.hashCode());
+        String contentHash = com.yohannzhang.aigit.core.analyzers.BaseCodeAnalyzer.calculateContentHash(content);
         
         return new FileMetadata(
             filePath.toString(),
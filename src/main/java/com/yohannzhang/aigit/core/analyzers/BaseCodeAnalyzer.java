@@ -5,8 +5,12 @@ import com.intellij.psi.*;
 import com.yohannzhang.aigit.core.models.FileMetadata;
 import com.yohannzhang.aigit.core.models.Symbol;
 import com.yohannzhang.aigit.core.models.ProjectMetadata;
+import com.yohannzhang.aigit.jfr.ProjectAnalysisEvent;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -20,6 +24,8 @@ public class BaseCodeAnalyzer {
     private static final int BATCH_SIZE = 50;
 
     public ProjectMetadata analyzeProject(Path projectPath) {
+        ProjectAnalysisEvent event = new ProjectAnalysisEvent();
+        event.begin();
         ProjectMetadata project = new ProjectMetadata(projectPath.toString());
         Map<String, FileMetadata> files = new ConcurrentHashMap<>();
         
@@ -55,6 +61,15 @@ public class BaseCodeAnalyzer {
         calculateProjectMetrics(project, files);
         
         project.setFiles(files);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.analyzer = getClass().getName();
+            event.projectPath = projectPath.toString();
+            event.filesScanned = files.size();
+            event.lines = files.values().stream().mapToLong(FileMetadata::getLines).sum();
+            event.commit();
+        }
         return project;
     }
 
@@ -143,11 +158,19 @@ public class BaseCodeAnalyzer {
         return (content.length() - content.replace(pattern, "").length()) / pattern.length();
     }
 
-    private String calculateContentHash(String content) {
-        return String.valueOf(content.hashCode());
+    /**
+     * 内容的 SHA-256（十六进制），用于判断文件是否变化；32 位的 hashCode 在大项目里容易碰撞而漏掉更新
+     */
+    public static String calculateContentHash(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
     }
 
-    private boolean isSourceFile(String fileName) {
+    public static boolean isSourceFile(String fileName) {
         String lowerName = fileName.toLowerCase();
         return lowerName.endsWith(".java") || 
                lowerName.endsWith(".kt") || 
@@ -155,7 +178,7 @@ public class BaseCodeAnalyzer {
                lowerName.endsWith(".scala");
     }
 
-    private String getFileLanguage(String fileName) {
+    public static String getFileLanguage(String fileName) {
         String lowerName = fileName.toLowerCase();
         if (lowerName.endsWith(".java")) return "Java";
         if (lowerName.endsWith(".kt")) return "Kotlin";
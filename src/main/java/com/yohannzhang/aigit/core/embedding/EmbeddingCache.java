@@ -0,0 +1,266 @@
+package com.yohannzhang.aigit.core.embedding;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个 embedding 模型的磁盘缓存，以代码块文本的哈希为键。
+ * <p>
+ * 向量追加写入 {@code <模型哈希>.vec}，每条记录为 16 字节键加向量；键另外追加到 {@code .keys}，打开时只读这个小文件建立键到位置的索引，
+ * 向量在命中时按位置读取。异常退出可能使两个文件不一致，读取时比对记录中的键，对不上按未命中处理。
+ * 超过 {@link #MAX_BYTES} 后清空重来。
+ */
+public final class EmbeddingCache implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingCache.class);
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int KEY_BYTES = 16;
+    private static final int MODEL_HASH_BYTES = 32;
+    // 版本、维度、模型标识的 SHA-256
+    private static final int HEADER_BYTES = 8 + MODEL_HASH_BYTES;
+
+    static final long MAX_BYTES = 512L * 1024 * 1024;
+
+    private final String modelId;
+    private final byte[] modelHash;
+    private final FileChannel vectors;
+    private final FileChannel keys;
+    private final Map<String, Long> offsets = new ConcurrentHashMap<>();
+    private volatile int dimension;
+    // 以下由 this 保护
+    private long vectorBytes;
+    private long keyBytes;
+
+    private EmbeddingCache(String modelId, byte[] modelHash, FileChannel vectors, FileChannel keys) {
+        this.modelId = modelId;
+        this.modelHash = modelHash;
+        this.vectors = vectors;
+        this.keys = keys;
+    }
+
+    /**
+     * 打开目录下该模型的缓存，文件不存在、格式不符或属于别的模型时从空缓存开始
+     */
+    public static EmbeddingCache open(Path directory, String modelId) throws IOException {
+        Files.createDirectories(directory);
+        byte[] modelHash = sha256(modelId);
+        String name = HexFormat.of().formatHex(modelHash, 0, 16);
+        FileChannel vectors = FileChannel.open(directory.resolve(name + ".vec"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel keys;
+        try {
+            keys = FileChannel.open(directory.resolve(name + ".keys"), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            vectors.close();
+            throw e;
+        }
+        EmbeddingCache cache = new EmbeddingCache(modelId, modelHash, vectors, keys);
+        try {
+            cache.load();
+        } catch (IOException e) {
+            cache.close();
+            throw e;
+        }
+        return cache;
+    }
+
+    /**
+     * 缓存中向量的维度，还没有写入过时为 0
+     */
+    public int dimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return offsets.size();
+    }
+
+    /**
+     * 文本对应的缓存键
+     */
+    public static String key(String text) {
+        return HexFormat.of().formatHex(sha256(text), 0, KEY_BYTES);
+    }
+
+    public @Nullable float[] get(String key) {
+        Long offset = offsets.get(key);
+        int dim = dimension;
+        if (offset == null || dim == 0) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(recordBytes(dim)).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            while (record.hasRemaining()) {
+                if (vectors.read(record, offset + record.position()) < 0) {
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Failed to read cached embedding {} for {}", key, modelId, e);
+            return null;
+        }
+        record.flip();
+        byte[] stored = new byte[KEY_BYTES];
+        record.get(stored);
+        if (!Arrays.equals(stored, HexFormat.of().parseHex(key))) {
+            return null;
+        }
+        float[] vector = new float[dim];
+        record.asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    /**
+     * 追加一批向量，已有的键跳过。维度与缓存中不同时（模型换了同名的新版本）先清空缓存。
+     */
+    public synchronized void putAll(List<String> cacheKeys, List<float[]> embeddings) throws IOException {
+        if (embeddings.isEmpty()) {
+            return;
+        }
+        int dim = embeddings.get(0).length;
+        if (dim != dimension) {
+            if (dimension != 0) {
+                log.info("Embedding dimension of {} changed from {} to {}, clearing its cache", modelId, dimension, dim);
+            }
+            reset(dim);
+        }
+        int record = recordBytes(dim);
+        if (vectorBytes + (long) record * embeddings.size() > MAX_BYTES) {
+            log.info("Embedding cache for {} reached {} MB, clearing it", modelId, MAX_BYTES / (1024 * 1024));
+            reset(dim);
+        }
+        ByteBuffer vectorBuffer = ByteBuffer.allocate(record * embeddings.size()).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer keyBuffer = ByteBuffer.allocate(KEY_BYTES * embeddings.size());
+        Map<String, Long> written = new LinkedHashMap<>();
+        for (int i = 0; i < embeddings.size(); i++) {
+            String key = cacheKeys.get(i);
+            float[] vector = embeddings.get(i);
+            if (vector.length != dim || offsets.containsKey(key) || written.containsKey(key)) {
+                continue;
+            }
+            written.put(key, vectorBytes + (long) record * written.size());
+            byte[] keyBytes = HexFormat.of().parseHex(key);
+            vectorBuffer.put(keyBytes);
+            for (float v : vector) {
+                vectorBuffer.putFloat(v);
+            }
+            keyBuffer.put(keyBytes);
+        }
+        if (written.isEmpty()) {
+            return;
+        }
+        vectorBuffer.flip();
+        keyBuffer.flip();
+        writeFully(vectors, vectorBuffer, vectorBytes);
+        writeFully(keys, keyBuffer, keyBytes);
+        // 写入成功后才能被读到
+        offsets.putAll(written);
+        vectorBytes += (long) record * written.size();
+        keyBytes += (long) KEY_BYTES * written.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            vectors.close();
+        } finally {
+            keys.close();
+        }
+    }
+
+    private synchronized void load() throws IOException {
+        if (vectors.size() < HEADER_BYTES) {
+            reset(0);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(vectors, header, 0);
+        header.flip();
+        int version = header.getInt();
+        int dim = header.getInt();
+        byte[] hash = new byte[MODEL_HASH_BYTES];
+        header.get(hash);
+        if (version != FORMAT_VERSION || dim <= 0 || !Arrays.equals(hash, modelHash)) {
+            log.info("Embedding cache for {} has an incompatible format, clearing it", modelId);
+            reset(0);
+            return;
+        }
+        int record = recordBytes(dim);
+        long count = Math.min((vectors.size() - HEADER_BYTES) / record, keys.size() / KEY_BYTES);
+        ByteBuffer keyData = ByteBuffer.allocate((int) (count * KEY_BYTES));
+        readFully(keys, keyData, 0);
+        keyData.flip();
+        byte[] key = new byte[KEY_BYTES];
+        for (long i = 0; i < count; i++) {
+            keyData.get(key);
+            offsets.put(HexFormat.of().formatHex(key), HEADER_BYTES + i * record);
+        }
+        dimension = dim;
+        vectorBytes = HEADER_BYTES + count * record;
+        keyBytes = count * KEY_BYTES;
+        // 截掉异常退出时写了一半的记录
+        vectors.truncate(vectorBytes);
+        keys.truncate(keyBytes);
+    }
+
+    private void reset(int dim) throws IOException {
+        offsets.clear();
+        vectors.truncate(0);
+        keys.truncate(0);
+        vectorBytes = 0;
+        keyBytes = 0;
+        dimension = dim;
+        if (dim > 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(FORMAT_VERSION).putInt(dim).put(modelHash).flip();
+            writeFully(vectors, header, 0);
+            vectorBytes = HEADER_BYTES;
+        }
+    }
+
+    private static int recordBytes(int dimension) {
+        return KEY_BYTES + dimension * Float.BYTES;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of embedding cache");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static byte[] sha256(String text) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.yohannzhang.aigit.core.embedding;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 各 embedding 模型的磁盘缓存（见 {@link EmbeddingCache}），存放在 IDE 系统目录下，同一模型在所有项目间共用。
+ */
+public class EmbeddingCacheService implements Disposable {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingCacheService.class);
+
+    private final Path directory;
+    private final Map<String, EmbeddingCache> caches = new HashMap<>();
+
+    public EmbeddingCacheService() {
+        this(Paths.get(PathManager.getSystemPath(), "aicodemaster", "embedding-cache"));
+    }
+
+    EmbeddingCacheService(Path directory) {
+        this.directory = directory;
+    }
+
+    public static EmbeddingCacheService getInstance() {
+        return ApplicationManager.getApplication().getService(EmbeddingCacheService.class);
+    }
+
+    public synchronized EmbeddingCache cacheFor(String modelId) throws IOException {
+        EmbeddingCache cache = caches.get(modelId);
+        if (cache == null) {
+            cache = EmbeddingCache.open(directory, modelId);
+            caches.put(modelId, cache);
+            log.info("Opened embedding cache for {} with {} entries", modelId, cache.size());
+        }
+        return cache;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        for (EmbeddingCache cache : caches.values()) {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                log.warn("Failed to close embedding cache", e);
+            }
+        }
+        caches.clear();
+    }
+}
@@ -0,0 +1,28 @@
+package com.yohannzhang.aigit.core.embedding;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 把文本转换为向量的 embedding 模型。
+ * <p>
+ * 实现只负责一次请求：一批文本进，一批向量出。分批、并发、重试和缓存由 {@link EmbeddingService} 统一处理，
+ * 新的实现在 {@link EmbeddingProviderFactory} 中按 client 注册。
+ */
+public interface EmbeddingProvider {
+
+    /**
+     * 模型标识，参与缓存键并写入索引；不同模型的向量不能混用
+     */
+    String modelId();
+
+    /**
+     * 单次请求最多的文本数
+     */
+    int maxBatchSize();
+
+    /**
+     * 一批文本的向量，与 texts 一一对应且维度相同
+     */
+    List<float[]> embed(List<String> texts) throws IOException;
+}
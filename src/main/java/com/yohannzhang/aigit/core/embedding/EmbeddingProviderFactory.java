@@ -0,0 +1,51 @@
+package com.yohannzhang.aigit.core.embedding;
+
+import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.constant.Constants;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+public class EmbeddingProviderFactory {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingProviderFactory.class);
+
+    /**
+     * 按设置中的 embedding client 创建 provider；选择了 client 但没有配置地址或模型、或该 client 不支持 embedding 时退回本地实现。
+     * 地址和 API Key 沿用该 client 的对话配置。
+     */
+    public static EmbeddingProvider createProvider(ApiKeySettings settings) {
+        String client = settings.getRagEmbeddingClient();
+        if (StringUtils.isEmpty(client) || Constants.EMBEDDING_OFFLINE.equals(client)) {
+            return new OfflineEmbeddingProvider();
+        }
+        ApiKeySettings.ModuleConfig moduleConfig = settings.getModuleConfigs().get(client);
+        String model = settings.getRagEmbeddingModel();
+        if (moduleConfig == null || StringUtils.isAnyBlank(moduleConfig.getUrl(), model)) {
+            log.warn("Embedding client {} has no URL or model configured, using offline embeddings", client);
+            return new OfflineEmbeddingProvider();
+        }
+        return switch (client) {
+            case Constants.Ollama -> new OllamaEmbeddingProvider(moduleConfig.getUrl(), model.trim());
+            case Constants.OpenAI_API, Constants.SiliconFlow, Constants.VLLM ->
+                    new OpenAIEmbeddingProvider(client, moduleConfig.getUrl(), moduleConfig.getApiKey(), model.trim());
+            default -> {
+                log.warn("Embedding client {} has no embedding API, using offline embeddings", client);
+                yield new OfflineEmbeddingProvider();
+            }
+        };
+    }
+
+    /**
+     * 按设置创建带磁盘缓存的 {@link EmbeddingService}；本地实现不缓存，计算比读缓存更快
+     */
+    public static EmbeddingService createService(ApiKeySettings settings) throws IOException {
+        EmbeddingProvider provider = createProvider(settings);
+        EmbeddingCache cache = provider instanceof OfflineEmbeddingProvider
+                ? null
+                : EmbeddingCacheService.getInstance().cacheFor(provider.modelId());
+        return new EmbeddingService(provider, cache, settings.getRagEmbeddingBatchSize(),
+                settings.getRagEmbeddingConcurrency(), settings.getMaxRetries());
+    }
+}
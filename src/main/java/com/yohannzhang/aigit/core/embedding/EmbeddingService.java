@@ -0,0 +1,238 @@
+package com.yohannzhang.aigit.core.embedding;
+
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.yohannzhang.aigit.core.llm.RequestPriority;
+import com.yohannzhang.aigit.service.ProviderRoutingService;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 带缓存的批量 embedding。
+ * <p>
+ * 先按文本哈希查 {@link EmbeddingCache}，未命中的文本去重后按批请求 {@link EmbeddingProvider}，最多同时 concurrency 批；
+ * 每批成功后立即写入缓存，中途失败时已完成的部分不必重算。失败的批按 {@link ProviderRoutingService} 的退避策略重试。
+ */
+public final class EmbeddingService {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingService.class);
+
+    private static final String DIMENSION_PROBE = "dimension";
+
+    private final EmbeddingProvider provider;
+    private final @Nullable EmbeddingCache cache;
+    private final int batchSize;
+    private final int concurrency;
+    private final int maxRetries;
+    private volatile int dimension;
+    private volatile ExecutorService executor;
+
+    /**
+     * @param cache       为 null 时不缓存（本地计算比读缓存更快的实现）
+     * @param batchSize   每次请求的文本数上限，不超过 provider 自身的上限
+     * @param concurrency 同时进行的请求数
+     * @param maxRetries  每批的重试次数
+     */
+    public EmbeddingService(EmbeddingProvider provider, @Nullable EmbeddingCache cache, int batchSize, int concurrency,
+                            int maxRetries) {
+        this.provider = provider;
+        this.cache = cache;
+        this.batchSize = Math.max(1, batchSize);
+        this.concurrency = Math.max(1, concurrency);
+        this.maxRetries = Math.max(0, maxRetries);
+        if (cache != null) {
+            dimension = cache.dimension();
+        }
+    }
+
+    public String modelId() {
+        return provider.modelId();
+    }
+
+    /**
+     * 向量维度，缓存中没有记录时请求一次模型得到
+     */
+    public int dimension() throws IOException {
+        if (dimension == 0) {
+            embed(List.of(DIMENSION_PROBE));
+        }
+        return dimension;
+    }
+
+    public float[] embed(String text) throws IOException {
+        return embed(List.of(text)).get(0);
+    }
+
+    /**
+     * 一批文本的向量，与 texts 一一对应
+     */
+    public List<float[]> embed(List<String> texts) throws IOException {
+        float[][] vectors = new float[texts.size()][];
+        // 未命中缓存的文本去重，相同的代码块只请求一次
+        Map<String, Integer> uniqueIndex = new HashMap<>();
+        List<String> uniqueTexts = new ArrayList<>();
+        List<String> uniqueKeys = new ArrayList<>();
+        int[] source = new int[texts.size()];
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            String key = cache == null ? null : EmbeddingCache.key(text);
+            float[] cached = key == null ? null : cache.get(key);
+            if (cached != null && cached.length == dimension) {
+                vectors[i] = cached;
+                continue;
+            }
+            Integer unique = uniqueIndex.get(text);
+            if (unique == null) {
+                unique = uniqueTexts.size();
+                uniqueIndex.put(text, unique);
+                uniqueTexts.add(text);
+                uniqueKeys.add(key);
+            }
+            source[i] = unique;
+        }
+        if (!uniqueTexts.isEmpty()) {
+            List<float[]> fetched = fetch(uniqueTexts, uniqueKeys);
+            for (int i = 0; i < vectors.length; i++) {
+                if (vectors[i] == null) {
+                    vectors[i] = fetched.get(source[i]);
+                }
+            }
+        }
+        return Arrays.asList(vectors);
+    }
+
+    private List<float[]> fetch(List<String> texts, List<String> keys) throws IOException {
+        int size = Math.max(1, Math.min(batchSize, provider.maxBatchSize()));
+        List<int[]> batches = new ArrayList<>();
+        for (int from = 0; from < texts.size(); from += size) {
+            batches.add(new int[]{from, Math.min(from + size, texts.size())});
+        }
+        List<float[]> result = new ArrayList<>(texts.size());
+        if (batches.size() == 1 || concurrency == 1) {
+            for (int[] batch : batches) {
+                result.addAll(embedBatch(texts.subList(batch[0], batch[1]), keys.subList(batch[0], batch[1])));
+            }
+            return result;
+        }
+        List<Future<List<float[]>>> futures = new ArrayList<>(batches.size());
+        for (int[] batch : batches) {
+            futures.add(executor().submit(() -> {
+                try {
+                    return embedBatch(texts.subList(batch[0], batch[1]), keys.subList(batch[0], batch[1]));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        try {
+            for (Future<List<float[]>> future : futures) {
+                result.addAll(future.get());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Embedding interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException("Embedding failed", cause);
+        } finally {
+            // 出错后其余的批不再需要
+            for (Future<List<float[]>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private List<float[]> embedBatch(List<String> texts, List<String> keys) throws IOException {
+        List<float[]> vectors = embedWithRetry(texts);
+        for (float[] vector : vectors) {
+            checkDimension(vector.length);
+        }
+        if (cache != null) {
+            try {
+                cache.putAll(keys, vectors);
+            } catch (IOException e) {
+                log.warn("Failed to write embedding cache for {}", provider.modelId(), e);
+            }
+        }
+        return vectors;
+    }
+
+    private List<float[]> embedWithRetry(List<String> texts) throws IOException {
+        for (int retries = 0; ; retries++) {
+            try {
+                List<float[]> vectors = embedInBackground(texts);
+                if (vectors.size() != texts.size()) {
+                    throw new IOException("Expected " + texts.size() + " embeddings but got " + vectors.size());
+                }
+                return vectors;
+            } catch (IOException e) {
+                long delay = retries < maxRetries && ProviderRoutingService.isRetryableError(e)
+                        ? ProviderRoutingService.getInstance().retryDelayMillis(retries, e) : -1;
+                if (delay < 0) {
+                    throw e;
+                }
+                log.debug("Embedding {} texts with {} failed, retrying in {} ms", texts.size(), provider.modelId(), delay, e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Embedding interrupted", interrupted);
+                }
+            }
+        }
+    }
+
+    /**
+     * 以后台优先级请求 embedding，限流排队时让对话等交互请求先行
+     */
+    private List<float[]> embedInBackground(List<String> texts) throws IOException {
+        try {
+            return RequestPriority.callAs(RequestPriority.BACKGROUND, () -> {
+                try {
+                    return provider.embed(texts);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private synchronized void checkDimension(int length) throws IOException {
+        if (dimension == 0) {
+            dimension = length;
+        }
+        if (length != dimension) {
+            throw new IOException(provider.modelId() + " returned a " + length + "-dimensional embedding, expected " + dimension);
+        }
+    }
+
+    private ExecutorService executor() {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("RAG Embedding", concurrency);
+                }
+            }
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,116 @@
+package com.yohannzhang.aigit.core.embedding;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 不依赖网络的确定性 embedding，未配置 embedding 模型时使用。
+ * <p>
+ * 把文本拆成小写词，标识符再按驼峰、下划线和数字边界拆开，每个词用特征哈希映射到固定的一维并带正负号，权重为 1 + ln(词频)。
+ * 同一个词在任何文档中都落在同一维，相似度反映共同词汇的多少；不理解语义，但结果稳定、可复现。
+ */
+public final class OfflineEmbeddingProvider implements EmbeddingProvider {
+
+    public static final int DIMENSION = 384;
+
+    private static final String MODEL_ID = "offline-hashing-v1-" + DIMENSION;
+
+    @Override
+    public String modelId() {
+        return MODEL_ID;
+    }
+
+    @Override
+    public int maxBatchSize() {
+        return 1024;
+    }
+
+    @Override
+    public List<float[]> embed(List<String> texts) {
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            vectors.add(vector(text));
+        }
+        return vectors;
+    }
+
+    static float[] vector(String text) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String token : tokenize(text)) {
+            counts.merge(token, 1, Integer::sum);
+        }
+        float[] vector = new float[DIMENSION];
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            int hash = mix(entry.getKey().hashCode());
+            float weight = (float) (1 + Math.log(entry.getValue()));
+            // 低 31 位决定维度，符号位决定正负，不相关的词冲突到同一维时期望上互相抵消
+            vector[(hash & Integer.MAX_VALUE) % DIMENSION] += hash < 0 ? -weight : weight;
+        }
+        return vector;
+    }
+
+    /**
+     * 整个标识符和拆出的各段都作为词，getUserName 得到 getusername、get、user、name
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                addIdentifier(text, start, i, tokens);
+            }
+        }
+        return tokens;
+    }
+
+    private static void addIdentifier(String text, int start, int end, List<String> tokens) {
+        int parts = 0;
+        int partStart = start;
+        for (int i = start + 1; i <= end; i++) {
+            if (i == end || isBoundary(text.charAt(i - 1), text.charAt(i), i + 1 < end ? text.charAt(i + 1) : 0)) {
+                addToken(text.substring(partStart, i), tokens);
+                partStart = i;
+                parts++;
+            }
+        }
+        if (parts > 1) {
+            addToken(text.substring(start, end), tokens);
+        }
+    }
+
+    /**
+     * 小写到大写（userName）、连续大写到大写加小写（HTTPServer 的 P|S）、字母与数字之间
+     */
+    private static boolean isBoundary(char previous, char current, char next) {
+        if (Character.isLowerCase(previous) && Character.isUpperCase(current)) {
+            return true;
+        }
+        if (Character.isUpperCase(previous) && Character.isUpperCase(current) && Character.isLowerCase(next)) {
+            return true;
+        }
+        return Character.isDigit(previous) != Character.isDigit(current);
+    }
+
+    private static void addToken(String token, List<String> tokens) {
+        // 单个字符（循环变量、数字）几乎不带信息
+        if (token.length() > 1) {
+            tokens.add(token.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B1;
+        return hash ^ (hash >>> 15);
+    }
+}
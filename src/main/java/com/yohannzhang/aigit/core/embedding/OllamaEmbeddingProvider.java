@@ -0,0 +1,108 @@
+package com.yohannzhang.aigit.core.embedding;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.service.LLMTransportService;
+import com.yohannzhang.aigit.service.RateLimiterService;
+import com.yohannzhang.aigit.util.StreamDecoder;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ollama 的 embedding 接口。
+ * <p>
+ * 优先用 {@code /api/embed}，一次请求可带多条文本；旧版 Ollama 没有该接口（返回 404）时改用 {@code /api/embeddings}，
+ * 每条文本一次请求。地址取 Ollama client 配置中 {@code /api/} 之前的部分。
+ */
+public final class OllamaEmbeddingProvider implements EmbeddingProvider {
+    private static final Logger log = LoggerFactory.getLogger(OllamaEmbeddingProvider.class);
+
+    // 本地模型首次加载可能较慢
+    private static final int READ_TIMEOUT_MS = 300000;
+
+    private final String baseUrl;
+    private final String model;
+    private volatile boolean legacyApi;
+
+    public OllamaEmbeddingProvider(String url, String model) {
+        this.baseUrl = baseUrl(url);
+        this.model = model;
+    }
+
+    @Override
+    public String modelId() {
+        return Constants.Ollama + "/" + model;
+    }
+
+    @Override
+    public int maxBatchSize() {
+        return legacyApi ? 1 : 256;
+    }
+
+    @Override
+    public List<float[]> embed(List<String> texts) throws IOException {
+        if (!legacyApi) {
+            try {
+                JsonNode response = post("/api/embed", Map.of("model", model, "input", texts), texts);
+                JsonNode embeddings = response.path("embeddings");
+                if (embeddings.size() != texts.size()) {
+                    throw new IOException("Expected " + texts.size() + " embeddings from Ollama but got " + embeddings.size());
+                }
+                List<float[]> vectors = new ArrayList<>(texts.size());
+                for (JsonNode embedding : embeddings) {
+                    vectors.add(OpenAIEmbeddingProvider.toVector(embedding));
+                }
+                return vectors;
+            } catch (LLMTransportService.HttpStatusException e) {
+                // 模型不存在时 /api/embed 同样返回 404，改用旧接口后会再次失败并报出原因
+                if (e.getStatusCode() != 404) {
+                    throw e;
+                }
+                log.info("{} has no /api/embed, falling back to /api/embeddings", baseUrl);
+                legacyApi = true;
+            }
+        }
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            JsonNode response = post("/api/embeddings", Map.of("model", model, "prompt", text), List.of(text));
+            vectors.add(OpenAIEmbeddingProvider.toVector(response.path("embedding")));
+        }
+        return vectors;
+    }
+
+    private JsonNode post(String path, Object request, List<String> texts) throws IOException {
+        String url = baseUrl + path;
+        int chars = texts.stream().mapToInt(String::length).sum();
+        try (RateLimiterService.Permit permit = RateLimiterService.getInstance().acquire(Constants.Ollama, String.join("\n", texts))) {
+            HttpResponse<InputStream> httpResponse = LLMTransportService.getInstance().postJson(url,
+                    Map.of("Content-Type", "application/json"), request, chars,
+                    LLMTransportService.DEFAULT_CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS);
+            permit.observe(httpResponse);
+            LLMTransportService.ensureSuccess(httpResponse);
+            try (InputStream body = httpResponse.body()) {
+                return StreamDecoder.MAPPER.readTree(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Embedding request interrupted: " + url, e);
+        }
+    }
+
+    /**
+     * http://host:11434/api/generate 得到 http://host:11434
+     */
+    static String baseUrl(String url) {
+        String trimmed = StringUtils.removeEnd(url.trim(), "/");
+        int api = trimmed.indexOf("/api/");
+        // 没有 /api/ 时视为基础地址，保留反向代理的路径前缀
+        return api >= 0 ? trimmed.substring(0, api) : trimmed;
+    }
+}
@@ -0,0 +1,119 @@
+package com.yohannzhang.aigit.core.embedding;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.yohannzhang.aigit.service.LLMTransportService;
+import com.yohannzhang.aigit.service.RateLimiterService;
+import com.yohannzhang.aigit.util.StreamDecoder;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OpenAI 兼容的 {@code /v1/embeddings} 接口，OpenAI、vLLM、SiliconFlow 等共用。
+ * 接口地址由 client 配置的对话地址推出，同一 client 的限流额度与对话请求共享。
+ */
+public final class OpenAIEmbeddingProvider implements EmbeddingProvider {
+
+    private static final int READ_TIMEOUT_MS = 120000;
+
+    private final String client;
+    private final String url;
+    private final String apiKey;
+    private final String model;
+
+    public OpenAIEmbeddingProvider(String client, String chatUrl, String apiKey, String model) {
+        this.client = client;
+        this.url = embeddingsUrl(chatUrl);
+        this.apiKey = apiKey;
+        this.model = model;
+    }
+
+    @Override
+    public String modelId() {
+        return client + "/" + model;
+    }
+
+    @Override
+    public int maxBatchSize() {
+        // OpenAI 单次最多 2048 条，部分兼容服务更少，实际批大小另由设置限制
+        return 2048;
+    }
+
+    @Override
+    public List<float[]> embed(List<String> texts) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        if (StringUtils.isNotEmpty(apiKey)) {
+            headers.put("Authorization", "Bearer " + apiKey);
+        }
+        Map<String, Object> request = Map.of("model", model, "input", texts);
+        int chars = texts.stream().mapToInt(String::length).sum();
+
+        JsonNode response;
+        try (RateLimiterService.Permit permit = RateLimiterService.getInstance().acquire(client, String.join("\n", texts))) {
+            HttpResponse<InputStream> httpResponse = LLMTransportService.getInstance().postJson(url, headers, request,
+                    chars, LLMTransportService.DEFAULT_CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS);
+            permit.observe(httpResponse);
+            LLMTransportService.ensureSuccess(httpResponse);
+            try (InputStream body = httpResponse.body()) {
+                response = StreamDecoder.MAPPER.readTree(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Embedding request interrupted: " + url, e);
+        }
+
+        JsonNode data = response.path("data");
+        if (data.size() != texts.size()) {
+            throw new IOException("Expected " + texts.size() + " embeddings from " + url + " but got " + data.size());
+        }
+        float[][] vectors = new float[texts.size()][];
+        for (int i = 0; i < data.size(); i++) {
+            JsonNode item = data.get(i);
+            // 按 index 归位，规范没有保证返回顺序
+            int index = item.path("index").asInt(i);
+            if (index < 0 || index >= vectors.length) {
+                throw new IOException("Embedding index " + index + " out of range from " + url);
+            }
+            vectors[index] = toVector(item.path("embedding"));
+        }
+        List<float[]> result = new ArrayList<>(vectors.length);
+        for (float[] vector : vectors) {
+            if (vector == null) {
+                throw new IOException("Missing embedding in response from " + url);
+            }
+            result.add(vector);
+        }
+        return result;
+    }
+
+    /**
+     * 对话地址换成同一前缀下的 /embeddings：.../v1/chat/completions、.../v1/messages 都变为 .../v1/embeddings
+     */
+    static String embeddingsUrl(String chatUrl) {
+        String base = StringUtils.removeEnd(chatUrl.trim(), "/");
+        for (String suffix : new String[]{"/chat/completions", "/completions", "/messages", "/embeddings"}) {
+            if (base.endsWith(suffix)) {
+                return base.substring(0, base.length() - suffix.length()) + "/embeddings";
+            }
+        }
+        return base.endsWith("/v1") ? base + "/embeddings" : base + "/v1/embeddings";
+    }
+
+    static float[] toVector(JsonNode array) throws IOException {
+        if (!array.isArray() || array.isEmpty()) {
+            throw new IOException("Embedding is not a non-empty array");
+        }
+        float[] vector = new float[array.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) array.get(i).asDouble();
+        }
+        return vector;
+    }
+}
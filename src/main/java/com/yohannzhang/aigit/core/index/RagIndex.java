@@ -0,0 +1,534 @@
+package com.yohannzhang.aigit.core.index;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个项目的 RAG 索引：代码块向量（{@link HnswIndex}）、代码块文本，以及按文件路径记录内容哈希和代码块位置的清单。
+ * 代码块 id 为「文件路径#序号」。
+ * <p>
+ * 持久化时目录下的文件：
+ * <ul>
+ *   <li>{@code vectors-N.seg}：向量块，映射到内存，见 {@link VectorSegments}</li>
+ *   <li>{@code chunks.dat}：代码块文本，只追加，废弃内容多于有效内容时在 {@link #flush} 中压缩</li>
+ *   <li>{@code manifest.bin}：生成向量的 embedding 模型，各槽位上的代码块 id，各文件的内容哈希和代码块文本位置</li>
+ *   <li>{@code graph.bin}：HNSW 图</li>
+ * </ul>
+ * 清单和图在 flush 时写入临时文件后整体替换。两次 flush 之间有修改时目录下留有 {@code dirty} 标记，
+ * 打开时发现该标记说明上次没有正常 flush，向量文件可能与清单不一致，索引作废后从空开始重建。
+ * 写入串行执行，检索和读取文本可以与写入并发。
+ */
+public final class RagIndex implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(RagIndex.class);
+
+    // 3：文件内容哈希改为 SHA-256，旧索引中的哈希无法比较
+    private static final int FORMAT_VERSION = 3;
+    private static final String MANIFEST = "manifest.bin";
+    private static final String GRAPH = "graph.bin";
+    private static final String CHUNKS = "chunks.dat";
+    private static final String DIRTY = "dirty";
+
+    /**
+     * 废弃的文本少于该字节数时不压缩
+     */
+    private static final long MIN_COMPACT_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * 一个文件的代码块。持久化时记录文本在 chunks.dat 中的位置，只在内存中时直接持有文本。
+     */
+    private static final class FileEntry {
+        final String contentHash;
+        final long[] offsets;
+        final int[] lengths;
+        final String[] texts;
+
+        FileEntry(String contentHash, long[] offsets, int[] lengths, String[] texts) {
+            this.contentHash = contentHash;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.texts = texts;
+        }
+
+        int chunkCount() {
+            return texts != null ? texts.length : offsets.length;
+        }
+
+        long bytes() {
+            long total = 0;
+            if (lengths != null) {
+                for (int length : lengths) {
+                    total += length;
+                }
+            }
+            return total;
+        }
+    }
+
+    private final Path directory;
+    private final int dimension;
+    private final String model;
+    private final VectorStore store;
+    private final VectorSegments segments;
+    private final HnswIndex vectors;
+    private final Map<String, FileEntry> files;
+    private FileChannel chunks;
+    private long chunkBytes;
+    private long liveChunkBytes;
+    private boolean dirty;
+    private boolean closed;
+
+    private RagIndex(Path directory, String model, VectorStore store, VectorSegments segments, HnswIndex vectors,
+                     Map<String, FileEntry> files, FileChannel chunks, long chunkBytes) {
+        this.directory = directory;
+        this.dimension = store.dimension();
+        this.model = model;
+        this.store = store;
+        this.segments = segments;
+        this.vectors = vectors;
+        this.files = files;
+        this.chunks = chunks;
+        this.chunkBytes = chunkBytes;
+        for (FileEntry entry : files.values()) {
+            liveChunkBytes += entry.bytes();
+        }
+    }
+
+    /**
+     * 只在内存中的索引
+     */
+    public static RagIndex inMemory(int dimension, String model, HnswIndex.Params params) {
+        VectorStore store = new VectorStore(dimension);
+        return new RagIndex(null, model, store, null, new HnswIndex(store, params), new ConcurrentHashMap<>(), null, 0);
+    }
+
+    /**
+     * 打开目录下的索引，不存在、未正常关闭、格式不符或由别的 embedding 模型生成时从空索引开始
+     */
+    public static RagIndex open(Path directory, int dimension, String model, HnswIndex.Params params) throws IOException {
+        Files.createDirectories(directory);
+        if (Files.exists(directory.resolve(DIRTY))) {
+            log.warn("RAG index in {} was not flushed before shutdown, rebuilding", directory);
+            reset(directory);
+        }
+        Map<String, FileEntry> files = new ConcurrentHashMap<>();
+        String[] ids = new String[0];
+        long chunkBytes = 0;
+        Path manifest = directory.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest)))) {
+                if (in.readInt() == FORMAT_VERSION && in.readInt() == dimension && in.readUTF().equals(model)) {
+                    chunkBytes = in.readLong();
+                    ids = readIds(in);
+                    readFiles(in, files);
+                } else {
+                    log.info("RAG index in {} has an incompatible format or embedding model, rebuilding", directory);
+                    files.clear();
+                }
+            } catch (IOException e) {
+                log.warn("Failed to read RAG index manifest in {}, rebuilding", directory, e);
+                files.clear();
+                ids = new String[0];
+                chunkBytes = 0;
+            }
+        }
+        FileChannel chunks = FileChannel.open(directory.resolve(CHUNKS), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        VectorSegments segments;
+        VectorStore store;
+        try {
+            if (chunks.size() < chunkBytes) {
+                log.warn("RAG index chunk store in {} is truncated, rebuilding", directory);
+                files.clear();
+                ids = new String[0];
+                chunkBytes = 0;
+            }
+            segments = new VectorSegments(directory, dimension);
+            try {
+                store = new VectorStore(dimension, segments, ids);
+            } catch (IllegalArgumentException e) {
+                log.warn("RAG index vectors in {} are incomplete, rebuilding", directory, e);
+                files.clear();
+                chunkBytes = 0;
+                store = new VectorStore(dimension, segments, new String[0]);
+            }
+            // 文本文件末尾可能有上次 flush 之后追加的内容，截掉
+            chunks.truncate(chunkBytes);
+        } catch (IOException e) {
+            chunks.close();
+            throw e;
+        }
+        HnswIndex vectors = new HnswIndex(store, params);
+        Path graph = directory.resolve(GRAPH);
+        if (store.size() > 0 && Files.exists(graph)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(graph)))) {
+                if (!vectors.readGraph(in)) {
+                    log.info("RAG index graph in {} does not match current settings, rebuilding graph", directory);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to read RAG index graph in {}, rebuilding graph", directory, e);
+            }
+        }
+        vectors.buildIfNeeded();
+        return new RagIndex(directory, model, store, segments, vectors, files, chunks, chunkBytes);
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * 生成索引中向量的 embedding 模型
+     */
+    public String model() {
+        return model;
+    }
+
+    public int fileCount() {
+        return files.size();
+    }
+
+    public int chunkCount() {
+        return vectors.size();
+    }
+
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    /**
+     * 已收录的文件路径
+     */
+    public Set<String> paths() {
+        return Set.copyOf(files.keySet());
+    }
+
+    /**
+     * 文件已收录且内容哈希相同
+     */
+    public boolean isCurrent(String path, String contentHash) {
+        FileEntry entry = files.get(path);
+        return entry != null && entry.contentHash.equals(contentHash);
+    }
+
+    /**
+     * 写入或替换一个文件的全部代码块，vectors 与 texts 一一对应
+     */
+    public synchronized void putFile(String path, String contentHash, List<String> texts, List<float[]> chunkVectors)
+            throws IOException {
+        if (texts.size() != chunkVectors.size()) {
+            throw new IllegalArgumentException(texts.size() + " chunks but " + chunkVectors.size() + " vectors");
+        }
+        markDirty();
+        removeChunks(path);
+        FileEntry entry;
+        if (chunks == null) {
+            entry = new FileEntry(contentHash, null, null, texts.toArray(new String[0]));
+        } else {
+            long[] offsets = new long[texts.size()];
+            int[] lengths = new int[texts.size()];
+            for (int i = 0; i < texts.size(); i++) {
+                byte[] bytes = texts.get(i).getBytes(StandardCharsets.UTF_8);
+                offsets[i] = chunkBytes;
+                lengths[i] = bytes.length;
+                writeFully(chunks, ByteBuffer.wrap(bytes), chunkBytes);
+                chunkBytes += bytes.length;
+            }
+            entry = new FileEntry(contentHash, offsets, lengths, null);
+            liveChunkBytes += entry.bytes();
+        }
+        for (int i = 0; i < chunkVectors.size(); i++) {
+            vectors.put(chunkId(path, i), chunkVectors.get(i));
+        }
+        files.put(path, entry);
+    }
+
+    /**
+     * 删除一个文件的全部代码块，向量槽位和文本留给之后的写入和压缩
+     */
+    public synchronized boolean removeFile(String path) throws IOException {
+        if (!files.containsKey(path)) {
+            return false;
+        }
+        markDirty();
+        removeChunks(path);
+        return true;
+    }
+
+    /**
+     * 与查询向量最相似的 topK 个代码块，id 见 {@link #chunkId}
+     */
+    public List<VectorIndex.Hit> search(float[] query, int topK) {
+        return vectors.search(query, topK);
+    }
+
+    /**
+     * 代码块文本，不存在时返回 null
+     */
+    public @Nullable String chunkText(String chunkId) throws IOException {
+        int separator = chunkId.lastIndexOf('#');
+        if (separator < 0) {
+            return null;
+        }
+        String path = chunkId.substring(0, separator);
+        int index;
+        try {
+            index = Integer.parseInt(chunkId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        for (int attempt = 0; ; attempt++) {
+            FileEntry entry;
+            FileChannel channel;
+            synchronized (this) {
+                // 压缩会换成新文件并改写位置，位置和通道须一起取；读取放在锁外，FileChannel 的定位读取是线程安全的
+                entry = files.get(path);
+                channel = chunks;
+            }
+            if (entry == null || index < 0 || index >= entry.chunkCount()) {
+                return null;
+            }
+            if (entry.texts != null) {
+                return entry.texts[index];
+            }
+            try {
+                return readChunk(channel, entry.offsets[index], entry.lengths[index]);
+            } catch (ClosedChannelException e) {
+                // 读取期间恰好发生了压缩，用新文件重读一次
+                if (attempt > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public static String chunkId(String path, int index) {
+        return path + "#" + index;
+    }
+
+    public synchronized void clear() throws IOException {
+        markDirty();
+        vectors.clear();
+        files.clear();
+        liveChunkBytes = 0;
+        chunkBytes = 0;
+        if (chunks != null) {
+            chunks.truncate(0);
+        }
+    }
+
+    /**
+     * 把修改写回磁盘：必要时压缩文本文件，写回向量和文本，再整体替换清单和图，最后去掉 dirty 标记
+     */
+    public synchronized void flush() throws IOException {
+        if (directory == null || !dirty || closed) {
+            return;
+        }
+        long garbage = chunkBytes - liveChunkBytes;
+        if (garbage > MIN_COMPACT_BYTES && garbage > liveChunkBytes) {
+            compactChunks();
+        }
+        chunks.force(false);
+        segments.force();
+        writeAtomically(directory.resolve(MANIFEST), out -> {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(dimension);
+            out.writeUTF(model);
+            out.writeLong(chunkBytes);
+            writeIds(out, store.ids());
+            writeFiles(out);
+        });
+        writeAtomically(directory.resolve(GRAPH), vectors::writeGraph);
+        Files.deleteIfExists(directory.resolve(DIRTY));
+        dirty = false;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            if (chunks != null) {
+                chunks.close();
+            }
+        }
+    }
+
+    private void removeChunks(String path) {
+        FileEntry previous = files.remove(path);
+        if (previous == null) {
+            return;
+        }
+        for (int i = 0; i < previous.chunkCount(); i++) {
+            vectors.remove(chunkId(path, i));
+        }
+        liveChunkBytes -= previous.bytes();
+    }
+
+    private void markDirty() throws IOException {
+        if (closed) {
+            // 关闭后到达的后台更新不能再留下 dirty 标记
+            throw new IOException("RAG index is closed");
+        }
+        if (dirty || directory == null) {
+            return;
+        }
+        Path marker = directory.resolve(DIRTY);
+        if (!Files.exists(marker)) {
+            Files.createFile(marker);
+        }
+        dirty = true;
+    }
+
+    /**
+     * 只保留仍被引用的文本，写入新文件后替换
+     */
+    private void compactChunks() throws IOException {
+        Path target = directory.resolve(CHUNKS);
+        Path temp = Files.createTempFile(directory, CHUNKS, ".tmp");
+        long written = 0;
+        Map<String, FileEntry> moved = new ConcurrentHashMap<>();
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            for (Map.Entry<String, FileEntry> file : files.entrySet()) {
+                FileEntry entry = file.getValue();
+                long[] offsets = new long[entry.offsets.length];
+                for (int i = 0; i < offsets.length; i++) {
+                    ByteBuffer buffer = readFully(chunks, entry.offsets[i], entry.lengths[i]);
+                    buffer.flip();
+                    writeFully(out, buffer, written);
+                    offsets[i] = written;
+                    written += entry.lengths[i];
+                }
+                moved.put(file.getKey(), new FileEntry(entry.contentHash, offsets, entry.lengths, null));
+            }
+            out.force(false);
+        }
+        chunks.close();
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        chunks = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        files.putAll(moved);
+        log.info("Compacted RAG chunk store in {}: {} -> {} bytes", directory, chunkBytes, written);
+        chunkBytes = written;
+        liveChunkBytes = written;
+    }
+
+    private void writeFiles(DataOutputStream out) throws IOException {
+        out.writeInt(files.size());
+        for (Map.Entry<String, FileEntry> file : files.entrySet()) {
+            FileEntry entry = file.getValue();
+            out.writeUTF(file.getKey());
+            out.writeUTF(entry.contentHash);
+            out.writeInt(entry.offsets.length);
+            for (int i = 0; i < entry.offsets.length; i++) {
+                out.writeLong(entry.offsets[i]);
+                out.writeInt(entry.lengths[i]);
+            }
+        }
+    }
+
+    private static void readFiles(DataInputStream in, Map<String, FileEntry> files) throws IOException {
+        int count = in.readInt();
+        for (int f = 0; f < count; f++) {
+            String path = in.readUTF();
+            String contentHash = in.readUTF();
+            int chunkCount = in.readInt();
+            long[] offsets = new long[chunkCount];
+            int[] lengths = new int[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                offsets[i] = in.readLong();
+                lengths[i] = in.readInt();
+            }
+            files.put(path, new FileEntry(contentHash, offsets, lengths, null));
+        }
+    }
+
+    private static void writeIds(DataOutputStream out, String[] ids) throws IOException {
+        out.writeInt(ids.length);
+        for (String id : ids) {
+            out.writeBoolean(id != null);
+            if (id != null) {
+                out.writeUTF(id);
+            }
+        }
+    }
+
+    private static String[] readIds(DataInputStream in) throws IOException {
+        String[] ids = new String[in.readInt()];
+        for (int slot = 0; slot < ids.length; slot++) {
+            ids[slot] = in.readBoolean() ? in.readUTF() : null;
+        }
+        return ids;
+    }
+
+    private static String readChunk(FileChannel channel, long position, int length) throws IOException {
+        return new String(readFully(channel, position, length).array(), StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("RAG chunk store is truncated");
+            }
+        }
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @FunctionalInterface
+    private interface DataWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static void writeAtomically(Path target, DataWriter writer) throws IOException {
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                writer.write(out);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 删除清单、图和文本；向量文件保留，之后按需清零复用
+     */
+    private static void reset(Path directory) throws IOException {
+        Files.deleteIfExists(directory.resolve(MANIFEST));
+        Files.deleteIfExists(directory.resolve(GRAPH));
+        Files.deleteIfExists(directory.resolve(CHUNKS));
+        Files.deleteIfExists(directory.resolve(DIRTY));
+    }
+}
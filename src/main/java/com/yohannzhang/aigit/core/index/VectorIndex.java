@@ -0,0 +1,55 @@
+package com.yohannzhang.aigit.core.index;
+
+import java.util.List;
+
+/**
+ * 向量索引：按 id 写入、删除向量，检索与查询向量余弦相似度最高的若干个。
+ * <p>
+ * {@link VectorStore} 为精确的全量扫描，{@link HnswIndex} 为近似最近邻，实现均为线程安全。
+ */
+public interface VectorIndex {
+
+    int dimension();
+
+    /**
+     * 写入或替换 id 对应的向量，实现会复制向量，调用方的数组不变
+     */
+    void put(String id, float[] vector);
+
+    boolean remove(String id);
+
+    boolean contains(String id);
+
+    int size();
+
+    /**
+     * 与查询向量最相似的 topK 个向量，按相似度从高到低
+     */
+    List<Hit> search(float[] query, int topK);
+
+    void clear();
+
+    /**
+     * 一条检索结果
+     */
+    final class Hit {
+        private final String id;
+        private final float score;
+
+        public Hit(String id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        /**
+         * 余弦相似度
+         */
+        public float score() {
+            return score;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.yohannzhang.aigit.core.index;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link VectorStore} 向量块在磁盘上的副本：每块对应一个 {@code vectors-N.seg} 文件，映射到内存后按槽位写入，由操作系统回写。
+ * <p>
+ * 检索仍然扫描堆内的 {@code float[]} 块，映射文件只用于增量落盘和启动时整块载入，不必在每次写入后重写整个文件。
+ * 文件不会被删除：清空后再分配的块复用已有文件并清零，避免 Windows 上删除仍被映射的文件失败。
+ */
+final class VectorSegments {
+
+    private static final String PREFIX = "vectors-";
+    private static final String SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int dimension;
+    private final long segmentBytes;
+    private final List<MappedByteBuffer> buffers = new ArrayList<>();
+    private final List<FloatBuffer> segments = new ArrayList<>();
+
+    /**
+     * 映射目录下已有的、从 0 开始编号连续且大小正确的 segment 文件
+     */
+    VectorSegments(Path directory, int dimension) throws IOException {
+        this.directory = directory;
+        this.dimension = dimension;
+        this.segmentBytes = (long) VectorStore.BLOCK_SLOTS * dimension * Float.BYTES;
+        while (true) {
+            Path file = fileFor(segments.size());
+            if (!Files.isRegularFile(file) || Files.size(file) != segmentBytes) {
+                break;
+            }
+            map(file);
+        }
+    }
+
+    /**
+     * 已映射的 segment 数
+     */
+    int count() {
+        return segments.size();
+    }
+
+    /**
+     * 第 block 块的堆内副本
+     */
+    float[] load(int block) {
+        float[] data = new float[VectorStore.BLOCK_SLOTS * dimension];
+        segments.get(block).get(0, data);
+        return data;
+    }
+
+    /**
+     * 为第 block 块准备文件：已有文件清零复用，否则新建。返回对应的空白堆内块。
+     */
+    float[] allocate(int block) {
+        try {
+            while (segments.size() <= block) {
+                map(fileFor(segments.size()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create vector segment " + block + " in " + directory, e);
+        }
+        float[] data = new float[VectorStore.BLOCK_SLOTS * dimension];
+        segments.get(block).put(0, data);
+        return data;
+    }
+
+    void write(int slot, float[] vector) {
+        segments.get(slot / VectorStore.BLOCK_SLOTS).put((slot % VectorStore.BLOCK_SLOTS) * dimension, vector);
+    }
+
+    void erase(int slot) {
+        write(slot, new float[dimension]);
+    }
+
+    /**
+     * 把修改过的页写回磁盘
+     */
+    void force() {
+        for (MappedByteBuffer buffer : buffers) {
+            buffer.force();
+        }
+    }
+
+    private void map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // 映射区域超出文件长度时文件会被扩展，新文件内容全为 0
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffers.add(buffer);
+            segments.add(buffer.asFloatBuffer());
+        }
+    }
+
+    private Path fileFor(int block) {
+        return directory.resolve(PREFIX + block + SUFFIX);
+    }
+}
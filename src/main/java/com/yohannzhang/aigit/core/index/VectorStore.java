@@ -0,0 +1,346 @@
+package com.yohannzhang.aigit.core.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 向量存储：所有向量按槽位存放在连续的 {@code float[]} 块中，每块 {@link #BLOCK_SLOTS} 个向量，扩容时追加新块，不复制已有数据。
+ * <p>
+ * 写入时做 L2 归一化，检索时余弦相似度即点积，扫描只有一个乘加循环。删除的槽位打上墓碑，之后插入时复用。
+ * 读写之间由读写锁保护，多个检索可以并发执行。可以用 {@link VectorSegments} 做磁盘副本，写入和删除同时落到映射文件上。
+ */
+public final class VectorStore implements VectorIndex {
+
+    /**
+     * 每块的槽位数，384 维时一块约 6 MB
+     */
+    static final int BLOCK_SLOTS = 4096;
+
+    private final int dimension;
+    private final List<float[]> blocks = new ArrayList<>();
+    private final List<String> ids = new ArrayList<>();
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final List<Integer> freeSlots = new ArrayList<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final VectorSegments segments;
+
+    public VectorStore(int dimension) {
+        this(dimension, null, new String[0]);
+    }
+
+    /**
+     * 以 segments 为磁盘副本，从中载入已有向量。restoredIds 为各槽位上的 id，墓碑为 null。
+     */
+    VectorStore(int dimension, VectorSegments segments, String[] restoredIds) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("dimension must be positive: " + dimension);
+        }
+        this.dimension = dimension;
+        this.segments = segments;
+        int blockCount = (restoredIds.length + BLOCK_SLOTS - 1) / BLOCK_SLOTS;
+        if (blockCount > 0 && (segments == null || segments.count() < blockCount)) {
+            throw new IllegalArgumentException("expected " + blockCount + " vector segments but found "
+                    + (segments == null ? 0 : segments.count()));
+        }
+        for (int b = 0; b < blockCount; b++) {
+            blocks.add(segments.load(b));
+        }
+        for (int slot = 0; slot < restoredIds.length; slot++) {
+            String id = restoredIds[slot];
+            ids.add(id);
+            if (id == null) {
+                freeSlots.add(slot);
+            } else {
+                slots.put(id, slot);
+            }
+        }
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * 写入时归一化
+     */
+    @Override
+    public void put(String id, float[] vector) {
+        insert(id, vector);
+    }
+
+    /**
+     * 写入或替换 id 对应的向量，返回所在槽位
+     */
+    int insert(String id, float[] vector) {
+        float[] normalized = normalizedCopy(vector);
+        if (normalized == null) {
+            // 零向量照常占一个槽位，与任何查询的相似度都是 0
+            normalized = new float[dimension];
+        }
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.get(id);
+            if (slot == null) {
+                slot = freeSlots.isEmpty() ? allocate() : freeSlots.remove(freeSlots.size() - 1);
+                slots.put(id, slot);
+                ids.set(slot, id);
+            }
+            System.arraycopy(normalized, 0, blocks.get(slot / BLOCK_SLOTS), (slot % BLOCK_SLOTS) * dimension, dimension);
+            if (segments != null) {
+                segments.write(slot, normalized);
+            }
+            return slot;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除 id 对应的向量，槽位留给之后的插入
+     */
+    @Override
+    public boolean remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.remove(id);
+            if (slot == null) {
+                return false;
+            }
+            ids.set(slot, null);
+            Arrays.fill(blocks.get(slot / BLOCK_SLOTS), (slot % BLOCK_SLOTS) * dimension, (slot % BLOCK_SLOTS + 1) * dimension, 0f);
+            if (segments != null) {
+                segments.erase(slot);
+            }
+            freeSlots.add(slot);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(String id) {
+        lock.readLock().lock();
+        try {
+            return slots.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 有效向量数，不含墓碑
+     */
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 扫描全部槽位，用大小为 topK 的堆保留结果
+     */
+    @Override
+    public List<Hit> search(float[] query, int topK) {
+        if (topK <= 0) {
+            return Collections.emptyList();
+        }
+        float[] normalized = normalizedCopy(query);
+        if (normalized == null) {
+            return Collections.emptyList();
+        }
+        PriorityQueue<Hit> heap = new PriorityQueue<>(topK + 1, (a, b) -> Float.compare(a.score(), b.score()));
+        lock.readLock().lock();
+        try {
+            int capacity = ids.size();
+            for (int b = 0; b < blocks.size(); b++) {
+                float[] block = blocks.get(b);
+                int first = b * BLOCK_SLOTS;
+                int last = Math.min(capacity, first + BLOCK_SLOTS);
+                for (int slot = first; slot < last; slot++) {
+                    String id = ids.get(slot);
+                    if (id == null) {
+                        continue;
+                    }
+                    float score = dot(block, (slot - first) * dimension, normalized, 0, dimension);
+                    if (heap.size() < topK) {
+                        heap.add(new Hit(id, score));
+                    } else if (score > heap.peek().score()) {
+                        heap.poll();
+                        heap.add(new Hit(id, score));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Hit> hits = new ArrayList<>(heap);
+        hits.sort((a, b) -> Float.compare(b.score(), a.score()));
+        return hits;
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            blocks.clear();
+            ids.clear();
+            slots.clear();
+            freeSlots.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 向量数据占用的字节数（按已分配的块计）
+     */
+    public long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) blocks.size() * BLOCK_SLOTS * dimension * Float.BYTES;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 原地 L2 归一化，返回归一化前的模长；零向量保持不变
+     */
+    public static float normalize(float[] vector) {
+        double sum = 0;
+        for (float v : vector) {
+            sum += v * v;
+        }
+        float norm = (float) Math.sqrt(sum);
+        if (norm > 0) {
+            float inverse = 1f / norm;
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= inverse;
+            }
+        }
+        return norm;
+    }
+
+    /**
+     * a 中从 aOffset 开始的向量与 b 中从 bOffset 开始的向量的点积。
+     * JIT 不会把浮点累加自动向量化，这里用四个独立的累加器展开，让乘加可以流水执行。
+     */
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int dimension) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int i = 0;
+        for (int bound = dimension - 3; i < bound; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < dimension; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * 校验维度后复制并归一化，零向量返回 null
+     */
+    float[] normalizedCopy(float[] vector) {
+        checkDimension(vector);
+        float[] normalized = Arrays.copyOf(vector, dimension);
+        return normalize(normalized) == 0 ? null : normalized;
+    }
+
+    /**
+     * id 所在的槽位，不存在时返回 -1
+     */
+    int slotOf(String id) {
+        lock.readLock().lock();
+        try {
+            Integer slot = slots.get(id);
+            return slot == null ? -1 : slot;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 各槽位上的 id 的快照，墓碑为 null
+     */
+    String[] ids() {
+        lock.readLock().lock();
+        try {
+            return ids.toArray(new String[0]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 以下按槽位访问的方法不加锁，由调用方保证期间没有并发写入
+
+    /**
+     * 已分配的槽位数，含墓碑
+     */
+    int capacity() {
+        return ids.size();
+    }
+
+    /**
+     * 槽位上的 id，墓碑返回 null
+     */
+    String idAt(int slot) {
+        return ids.get(slot);
+    }
+
+    /**
+     * 槽位上的向量与已归一化的 query 的点积
+     */
+    float dot(int slot, float[] query) {
+        return dot(blocks.get(slot / BLOCK_SLOTS), (slot % BLOCK_SLOTS) * dimension, query, 0, dimension);
+    }
+
+    /**
+     * 两个槽位上的向量的点积
+     */
+    float dot(int a, int b) {
+        return dot(blocks.get(a / BLOCK_SLOTS), (a % BLOCK_SLOTS) * dimension,
+                blocks.get(b / BLOCK_SLOTS), (b % BLOCK_SLOTS) * dimension, dimension);
+    }
+
+    /**
+     * 槽位上的向量的副本
+     */
+    float[] vectorAt(int slot) {
+        int offset = (slot % BLOCK_SLOTS) * dimension;
+        return Arrays.copyOfRange(blocks.get(slot / BLOCK_SLOTS), offset, offset + dimension);
+    }
+
+    private int allocate() {
+        int slot = ids.size();
+        if (slot == blocks.size() * BLOCK_SLOTS) {
+            blocks.add(segments == null ? new float[BLOCK_SLOTS * dimension] : segments.allocate(blocks.size()));
+        }
+        ids.add(null);
+        return slot;
+    }
+
+    private void checkDimension(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("expected dimension " + dimension + " but got " + vector.length);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.yohannzhang.aigit.core.llm;
 
+import com.yohannzhang.aigit.config.ApiKeySettings;
 import com.yohannzhang.aigit.constant.Constants;
 import com.yohannzhang.aigit.util.OpenAIUtil;
 
@@ -8,7 +9,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -26,82 +27,130 @@ public abstract class AbstractLLMEngine implements LLMEngine {
         this.modelInfo = modelInfo;
     }
 
+    /**
+     * 实际配置的模型及其上下文窗口；未配置或不认识的模型沿用引擎的默认模型信息
+     */
     @Override
     public ModelInfo getModelInfo() {
-        return modelInfo;
+        String model = ApiKeySettings.getInstance().getModelFor(clientName);
+        if (model == null || model.isEmpty() || model.equals(modelInfo.getName())) {
+            return modelInfo;
+        }
+        return new ModelInfo(model, modelInfo.getVersion(), modelInfo.getProvider(),
+                ModelInfo.contextWindowOf(model, modelInfo.getMaxTokens()), modelInfo.isAvailable());
     }
 
     @Override
-    public String generateText(String prompt, String context) {
-        try {
-            AtomicReference<String> result = new AtomicReference<>();
-            CompletableFuture<Void> future = new CompletableFuture<>();
+    public String getClientName() {
+        return clientName;
+    }
 
-            OpenAIUtil.getAIResponseStream(
+    /**
+     * 按模型上下文窗口组装 prompt，超长的代码和上下文按预算裁剪
+     */
+    protected PromptBudget promptBudget() {
+        return PromptBudget.forEngine(this);
+    }
+
+    /**
+     * 以流式请求发出 prompt，输出累积为完整文本，不阻塞调用线程。取消返回的 future 会一并取消请求。
+     */
+    protected CompletableFuture<String> requestAsync(String prompt) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        StringBuilder result = new StringBuilder();
+        try {
+            RequestHandle handle = OpenAIUtil.getAIResponseStream(
                 clientName,
-                context + "\n\n" + prompt,
-                token -> result.updateAndGet(current -> current == null ? token : current + token),
-                error -> future.completeExceptionally(error),
-                () -> future.complete(null)
+                prompt,
+                token -> {
+                    synchronized (result) {
+                        result.append(token);
+                    }
+                },
+                future::completeExceptionally,
+                () -> {
+                    synchronized (result) {
+                        future.complete(result.toString());
+                    }
+                }
             );
-
-            future.get();
-            return result.get();
+            future.whenComplete((text, error) -> {
+                if (future.isCancelled()) {
+                    handle.cancel();
+                }
+            });
         } catch (Exception e) {
-            throw new RuntimeException("Error generating text: " + e.getMessage(), e);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 阻塞等待异步结果，供同步接口使用；等待期间线程被中断时取消请求。
+     */
+    protected static <T> T await(CompletableFuture<T> future, String operation) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Error " + operation + ": interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new RuntimeException("Error " + operation + ": " + cause.getMessage(), cause);
         }
     }
 
     @Override
-    public void generateText(String prompt, StreamCallback callback) {
+    public String generateText(String prompt, String context) {
+        return await(generateTextAsync(prompt, context), "generating text");
+    }
+
+    @Override
+    public CompletableFuture<String> generateTextAsync(String prompt, String context) {
+        return requestAsync(promptBudget().document(context, true).fixed("\n\n" + prompt).build());
+    }
+
+    @Override
+    public RequestHandle generateText(String prompt, StreamCallback callback) {
         try {
             callback.onStart();
-            OpenAIUtil.getAIResponseStream(
+            return OpenAIUtil.getAIResponseStream(
                 clientName,
-                prompt,
+                promptBudget().document(prompt, false).build(),
                 callback::onToken,
                 e -> callback.onError((Exception) e),
                 callback::onComplete
             );
         } catch (Exception e) {
             callback.onError(e);
+            return RequestHandle.completed();
         }
     }
 
     @Override
     public String generateCode(String prompt, String context, String language) {
-        try {
-            AtomicReference<String> result = new AtomicReference<>();
-            CompletableFuture<Void> future = new CompletableFuture<>();
-
-            String systemPrompt = "You are an expert programmer. Generate code in " + language + 
-                                " that follows best practices and includes proper documentation.";
-            String fullPrompt = systemPrompt + "\n\n" + context + "\n\n" + prompt;
-
-            OpenAIUtil.getAIResponseStream(
-                clientName,
-                fullPrompt,
-                token -> result.updateAndGet(current -> current == null ? token : current + token),
-                error -> future.completeExceptionally(error),
-                () -> future.complete(null)
-            );
+        return await(generateCodeAsync(prompt, context, language), "generating code");
+    }
 
-            future.get();
-            return result.get();
-        } catch (Exception e) {
-            throw new RuntimeException("Error generating code: " + e.getMessage(), e);
-        }
+    @Override
+    public CompletableFuture<String> generateCodeAsync(String prompt, String context, String language) {
+        String systemPrompt = "You are an expert programmer. Generate code in " + language +
+                            " that follows best practices and includes proper documentation.";
+        return requestAsync(promptBudget().fixed(systemPrompt + "\n\n").document(context, true)
+                .fixed("\n\n" + prompt).build());
     }
 
     @Override
-    public void generateCode(String prompt, String code, String language, StreamCallback callback) {
+    public RequestHandle generateCode(String prompt, String code, String language, StreamCallback callback) {
         try {
             callback.onStart();
             String systemPrompt = "你是一位经验丰富的程序员，请生成符合最佳实践的" + language +
                     "代码，并包含必要的注释和文档说明。";
-            String fullPrompt = systemPrompt + "\n\n" + code + "\n\n" + prompt;
+            String fullPrompt = promptBudget().fixed(systemPrompt + "\n\n").document(code, true)
+                    .fixed("\n\n" + prompt).build();
 
-            OpenAIUtil.getAIResponseStream(
+            return OpenAIUtil.getAIResponseStream(
                 clientName,
                 fullPrompt,
                 callback::onToken,
@@ -110,47 +159,39 @@ public abstract class AbstractLLMEngine implements LLMEngine {
             );
         } catch (Exception e) {
             callback.onError(e);
+            return RequestHandle.completed();
         }
     }
 
     @Override
     public Map<String, Object> analyzeCode(String code, String language) {
-        try {
-            AtomicReference<String> result = new AtomicReference<>();
-            CompletableFuture<Void> future = new CompletableFuture<>();
-
-            String systemPrompt = "You are a code analysis expert. Analyze the following code and provide detailed feedback.";
-            String fullPrompt = systemPrompt + "\n\nLanguage: " + language + "\n\nCode:\n" + code;
+        return await(analyzeCodeAsync(code, language), "analyzing code");
+    }
 
-            OpenAIUtil.getAIResponseStream(
-                clientName,
-                fullPrompt,
-                token -> result.updateAndGet(current -> current == null ? token : current + token),
-                error -> future.completeExceptionally(error),
-                () -> future.complete(null)
-            );
+    @Override
+    public CompletableFuture<Map<String, Object>> analyzeCodeAsync(String code, String language) {
+        String systemPrompt = "You are a code analysis expert. Analyze the following code and provide detailed feedback.";
+        String fullPrompt = promptBudget().fixed(systemPrompt + "\n\nLanguage: " + language + "\n\nCode:\n")
+                .document(code, true).build();
 
-            future.get();
-            
+        return requestAsync(fullPrompt).thenApply(analysis -> {
             Map<String, Object> analysisResult = new HashMap<>();
-            analysisResult.put("analysis", result.get());
+            analysisResult.put("analysis", analysis);
             analysisResult.put("language", language);
             analysisResult.put("timestamp", new Date());
-            
             return analysisResult;
-        } catch (Exception e) {
-            throw new RuntimeException("Error analyzing code: " + e.getMessage(), e);
-        }
+        });
     }
 
     @Override
-    public void analyzeCode(String code, String language, StreamCallback callback) {
+    public RequestHandle analyzeCode(String code, String language, StreamCallback callback) {
         try {
             callback.onStart();
             String systemPrompt = "You are a code analysis expert. Analyze the following code and provide detailed feedback.";
-            String fullPrompt = systemPrompt + "\n\nLanguage: " + language + "\n\nCode:\n" + code;
+            String fullPrompt = promptBudget().fixed(systemPrompt + "\n\nLanguage: " + language + "\n\nCode:\n")
+                    .document(code, true).build();
 
-            OpenAIUtil.getAIResponseStream(
+            return OpenAIUtil.getAIResponseStream(
                 clientName,
                 fullPrompt,
                 callback::onToken,
@@ -159,11 +200,12 @@ public abstract class AbstractLLMEngine implements LLMEngine {
             );
         } catch (Exception e) {
             callback.onError(e);
+            return RequestHandle.completed();
         }
     }
 
     @Override
-    public void optimizeCode(String code, String language, List<String> suggestions, StreamCallback callback) {
+    public RequestHandle optimizeCode(String code, String language, List<String> suggestions, StreamCallback callback) {
         try {
             callback.onStart();
             String systemPrompt = "你是一位代码优化专家。请根据以下建议和代码质量分析结果优化下面的代码。";
@@ -174,9 +216,10 @@ public abstract class AbstractLLMEngine implements LLMEngine {
                     "- 命名问题数: " + countNamingIssues(code) + "\n\n" +
                     "优化建议:\n" +
                     String.join("\n", suggestions.stream().map(s -> "- " + s).toList()) + "\n\n" +
-                    "代码:\n" + code;
+                    "代码:\n";
+            fullPrompt = promptBudget().fixed(fullPrompt).document(code, true).build();
 
-            OpenAIUtil.getAIResponseStream(
+            return OpenAIUtil.getAIResponseStream(
                 clientName,
                 fullPrompt,
                 callback::onToken,
@@ -185,11 +228,12 @@ public abstract class AbstractLLMEngine implements LLMEngine {
             );
         } catch (Exception e) {
             callback.onError(e);
+            return RequestHandle.completed();
         }
     }
 
     @Override
-    public void optimizeCode(String code, String language, StreamCallback callback) {
+    public RequestHandle optimizeCode(String code, String language, StreamCallback callback) {
         try {
             callback.onStart();
             String systemPrompt = "你是一位代码优化专家。请分析并优化下面的代码。";
@@ -198,9 +242,10 @@ public abstract class AbstractLLMEngine implements LLMEngine {
                     "- 总行数: " + code.split("\n").length + "\n" +
                     "- 圈复杂度: " + calculateCyclomaticComplexity(code) + "\n" +
                     "- 命名问题数: " + countNamingIssues(code) + "\n\n" +
-                    "代码:\n" + code;
+                    "代码:\n";
+            fullPrompt = promptBudget().fixed(fullPrompt).document(code, true).build();
 
-            OpenAIUtil.getAIResponseStream(
+            return OpenAIUtil.getAIResponseStream(
                 clientName,
                 fullPrompt,
                 callback::onToken,
@@ -209,19 +254,19 @@ public abstract class AbstractLLMEngine implements LLMEngine {
             );
         } catch (Exception e) {
             callback.onError(e);
+            return RequestHandle.completed();
         }
     }
 
     @Override
-    public void generateTests(String code, String language, String context, StreamCallback callback) {
+    public RequestHandle generateTests(String code, String language, String context, StreamCallback callback) {
         try {
             callback.onStart();
             String systemPrompt = "你是一位测试专家。请根据以下代码结构分析生成全面的测试用例。";
-            String fullPrompt = systemPrompt + "\n\n" + context + "\n\n" +
-                    "编程语言: " + language + "\n\n" +
-                    "代码:\n" + code;
+            String fullPrompt = promptBudget().fixed(systemPrompt + "\n\n").document(context, false)
+                    .fixed("\n\n编程语言: " + language + "\n\n代码:\n").document(code, true).build();
 
-            OpenAIUtil.getAIResponseStream(
+            return OpenAIUtil.getAIResponseStream(
                 clientName,
                 fullPrompt,
                 callback::onToken,
@@ -230,41 +275,31 @@ public abstract class AbstractLLMEngine implements LLMEngine {
             );
         } catch (Exception e) {
             callback.onError(e);
+            return RequestHandle.completed();
         }
     }
 
     @Override
     public String generateDocumentation(String code, String language) {
-        try {
-            AtomicReference<String> result = new AtomicReference<>();
-            CompletableFuture<Void> future = new CompletableFuture<>();
-
-            String systemPrompt = "You are a documentation expert. Generate comprehensive documentation for the following code.";
-            String fullPrompt = systemPrompt + "\n\nLanguage: " + language + "\n\nCode:\n" + code;
-
-            OpenAIUtil.getAIResponseStream(
-                clientName,
-                fullPrompt,
-                token -> result.updateAndGet(current -> current == null ? token : current + token),
-                error -> future.completeExceptionally(error),
-                () -> future.complete(null)
-            );
+        return await(generateDocumentationAsync(code, language), "generating documentation");
+    }
 
-            future.get();
-            return result.get();
-        } catch (Exception e) {
-            throw new RuntimeException("Error generating documentation: " + e.getMessage(), e);
-        }
+    @Override
+    public CompletableFuture<String> generateDocumentationAsync(String code, String language) {
+        String systemPrompt = "You are a documentation expert. Generate comprehensive documentation for the following code.";
+        return requestAsync(promptBudget().fixed(systemPrompt + "\n\nLanguage: " + language + "\n\nCode:\n")
+                .document(code, true).build());
     }
 
     @Override
-    public void generateDocumentation(String code, String language, StreamCallback callback) {
+    public RequestHandle generateDocumentation(String code, String language, StreamCallback callback) {
         try {
             callback.onStart();
             String systemPrompt = "你是一个文档专家。请为以下代码生成详细的文档说明。";
-            String fullPrompt = systemPrompt + "\n\n语言: " + language + "\n\n代码:\n" + code;
+            String fullPrompt = promptBudget().fixed(systemPrompt + "\n\n语言: " + language + "\n\n代码:\n")
+                    .document(code, true).build();
 
-            OpenAIUtil.getAIResponseStream(
+            return OpenAIUtil.getAIResponseStream(
                 clientName,
                 fullPrompt,
                 callback::onToken,
@@ -273,6 +308,7 @@ public abstract class AbstractLLMEngine implements LLMEngine {
             );
         } catch (Exception e) {
             callback.onError(e);
+            return RequestHandle.completed();
         }
     }
 
@@ -291,7 +327,7 @@ public abstract class AbstractLLMEngine implements LLMEngine {
         // Count control flow statements
         String[] patterns = {
             "\\bif\\b", "\\belse\\b", "\\bfor\\b", "\\bwhile\\b", "\\bdo\\b",
-            "\\bswitch\\b", "\\bcase\\b", "\\bcatch\\b", "\\b&&\\b", "\\b\\|\\|\\b", "\\?"
+            "\\bswitch\\b", "\\bcase\\b", "\\bcatch\\b", "&&", "\\|\\|", "\\?"
         };
         
         for (String pattern : patterns) {
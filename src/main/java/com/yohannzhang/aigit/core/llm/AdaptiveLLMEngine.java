@@ -0,0 +1,124 @@
+package com.yohannzhang.aigit.core.llm;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 每次请求按 {@link ModelRoutingPolicy} 选择 client 的 {@link LLMEngine}，输入大小按各方法的全部文本参数估算。
+ * 请求在 {@link TaskType#callAs} 内发起；{@link TaskType#DOCS} 等后台任务按 {@link RequestPriority#BACKGROUND} 排队限流，
+ * 其他任务沿用调用方线程的优先级。
+ * 模型信息和本地计算的方法按默认 client。
+ */
+public class AdaptiveLLMEngine implements LLMEngine {
+
+    private final String defaultClient;
+    private final TaskType task;
+    private final Function<String, LLMEngine> factory;
+    private final Map<String, LLMEngine> engines = new ConcurrentHashMap<>();
+
+    public AdaptiveLLMEngine(String defaultClient, LLMEngine defaultEngine, TaskType task, Function<String, LLMEngine> factory) {
+        this.defaultClient = defaultClient;
+        this.task = task;
+        this.factory = factory;
+        engines.put(defaultClient, defaultEngine);
+    }
+
+    @Override
+    public ModelInfo getModelInfo() {
+        return engines.get(defaultClient).getModelInfo();
+    }
+
+    @Override
+    public String getClientName() {
+        return engines.get(defaultClient).getClientName();
+    }
+
+    @Override
+    public String generateText(String prompt, String context) {
+        return route(engine -> engine.generateText(prompt, context), prompt, context);
+    }
+
+    @Override
+    public CompletableFuture<String> generateTextAsync(String prompt, String context) {
+        return route(engine -> engine.generateTextAsync(prompt, context), prompt, context);
+    }
+
+    @Override
+    public String generateCode(String prompt, String context, String language) {
+        return route(engine -> engine.generateCode(prompt, context, language), prompt, context);
+    }
+
+    @Override
+    public CompletableFuture<String> generateCodeAsync(String prompt, String context, String language) {
+        return route(engine -> engine.generateCodeAsync(prompt, context, language), prompt, context);
+    }
+
+    @Override
+    public Map<String, Object> analyzeCode(String code, String language) {
+        return route(engine -> engine.analyzeCode(code, language), code);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> analyzeCodeAsync(String code, String language) {
+        return route(engine -> engine.analyzeCodeAsync(code, language), code);
+    }
+
+    @Override
+    public RequestHandle optimizeCode(String code, String language, List<String> suggestions, StreamCallback callback) {
+        return route(engine -> engine.optimizeCode(code, language, suggestions, callback), code, String.join("\n", suggestions));
+    }
+
+    @Override
+    public RequestHandle generateTests(String code, String language, String context, StreamCallback callback) {
+        return route(engine -> engine.generateTests(code, language, context, callback), code, context);
+    }
+
+    @Override
+    public String generateDocumentation(String code, String language) {
+        return route(engine -> engine.generateDocumentation(code, language), code);
+    }
+
+    @Override
+    public CompletableFuture<String> generateDocumentationAsync(String code, String language) {
+        return route(engine -> engine.generateDocumentationAsync(code, language), code);
+    }
+
+    @Override
+    public RequestHandle generateDocumentation(String code, String language, StreamCallback callback) {
+        return route(engine -> engine.generateDocumentation(code, language, callback), code);
+    }
+
+    @Override
+    public Map<String, Object> analyzeComplexity(String code, String language) {
+        return engines.get(defaultClient).analyzeComplexity(code, language);
+    }
+
+    @Override
+    public RequestHandle generateText(String prompt, StreamCallback callback) {
+        return route(engine -> engine.generateText(prompt, callback), prompt);
+    }
+
+    @Override
+    public RequestHandle generateCode(String prompt, String code, String language, StreamCallback callback) {
+        return route(engine -> engine.generateCode(prompt, code, language, callback), prompt, code);
+    }
+
+    @Override
+    public RequestHandle analyzeCode(String code, String language, StreamCallback callback) {
+        return route(engine -> engine.analyzeCode(code, language, callback), code);
+    }
+
+    @Override
+    public RequestHandle optimizeCode(String code, String language, StreamCallback callback) {
+        return route(engine -> engine.optimizeCode(code, language, callback), code);
+    }
+
+    private <T> T route(Function<LLMEngine, T> request, String... inputs) {
+        LLMEngine engine = engines.computeIfAbsent(ModelRoutingPolicy.chooseClient(defaultClient, task, inputs), factory);
+        RequestPriority priority = task == TaskType.DOCS ? RequestPriority.BACKGROUND : RequestPriority.current();
+        return RequestPriority.callAs(priority, () -> TaskType.callAs(task, () -> request.apply(engine)));
+    }
+}
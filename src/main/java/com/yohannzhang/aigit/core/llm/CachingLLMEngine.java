@@ -0,0 +1,215 @@
+package com.yohannzhang.aigit.core.llm;
+
+import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.service.ResponseCacheService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 为 {@link LLMEngine} 加上响应缓存。
+ * <p>
+ * 以方法名和全部入参作为缓存键的一部分，命中时先回调 onStart，再通过 onToken 回放缓存内容；
+ * 结果中带时间戳或本地计算的方法（analyzeCode、analyzeComplexity）不缓存。
+ * 请求沿用调用方线程的 {@link RequestPriority}，后台任务由入口设置，见 {@link AdaptiveLLMEngine}。
+ */
+public class CachingLLMEngine implements LLMEngine {
+
+    private final String client;
+    private final String apiEndpoint;
+    private final LLMEngine delegate;
+
+    public CachingLLMEngine(String client, String apiEndpoint, LLMEngine delegate) {
+        this.client = client;
+        this.apiEndpoint = apiEndpoint;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ModelInfo getModelInfo() {
+        return delegate.getModelInfo();
+    }
+
+    @Override
+    public String getClientName() {
+        return delegate.getClientName();
+    }
+
+    @Override
+    public String generateText(String prompt, String context) {
+        return cachedText(() -> delegate.generateText(prompt, context), "generateText", prompt, context);
+    }
+
+    @Override
+    public CompletableFuture<String> generateTextAsync(String prompt, String context) {
+        return cachedTextAsync(() -> delegate.generateTextAsync(prompt, context), "generateText", prompt, context);
+    }
+
+    @Override
+    public String generateCode(String prompt, String context, String language) {
+        return cachedText(() -> delegate.generateCode(prompt, context, language), "generateCode", prompt, context, language);
+    }
+
+    @Override
+    public CompletableFuture<String> generateCodeAsync(String prompt, String context, String language) {
+        return cachedTextAsync(() -> delegate.generateCodeAsync(prompt, context, language),
+                "generateCode", prompt, context, language);
+    }
+
+    @Override
+    public Map<String, Object> analyzeCode(String code, String language) {
+        return delegate.analyzeCode(code, language);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> analyzeCodeAsync(String code, String language) {
+        return delegate.analyzeCodeAsync(code, language);
+    }
+
+    @Override
+    public RequestHandle optimizeCode(String code, String language, List<String> suggestions, StreamCallback callback) {
+        return cachedStream(callback, cb -> delegate.optimizeCode(code, language, suggestions, cb),
+                "optimizeCode", code, language, String.join("\n", suggestions));
+    }
+
+    @Override
+    public RequestHandle generateTests(String code, String language, String context, StreamCallback callback) {
+        return cachedStream(callback, cb -> delegate.generateTests(code, language, context, cb),
+                "generateTests", code, language, context);
+    }
+
+    @Override
+    public String generateDocumentation(String code, String language) {
+        return cachedText(() -> delegate.generateDocumentation(code, language), "generateDocumentation", code, language);
+    }
+
+    @Override
+    public CompletableFuture<String> generateDocumentationAsync(String code, String language) {
+        return cachedTextAsync(() -> delegate.generateDocumentationAsync(code, language),
+                "generateDocumentation", code, language);
+    }
+
+    @Override
+    public RequestHandle generateDocumentation(String code, String language, StreamCallback callback) {
+        return cachedStream(callback, cb -> delegate.generateDocumentation(code, language, cb),
+                "generateDocumentationStream", code, language);
+    }
+
+    @Override
+    public Map<String, Object> analyzeComplexity(String code, String language) {
+        return delegate.analyzeComplexity(code, language);
+    }
+
+    @Override
+    public RequestHandle generateText(String prompt, StreamCallback callback) {
+        return cachedStream(callback, cb -> delegate.generateText(prompt, cb), "generateTextStream", prompt);
+    }
+
+    @Override
+    public RequestHandle generateCode(String prompt, String code, String language, StreamCallback callback) {
+        return cachedStream(callback, cb -> delegate.generateCode(prompt, code, language, cb),
+                "generateCodeStream", prompt, code, language);
+    }
+
+    @Override
+    public RequestHandle analyzeCode(String code, String language, StreamCallback callback) {
+        return cachedStream(callback, cb -> delegate.analyzeCode(code, language, cb), "analyzeCodeStream", code, language);
+    }
+
+    @Override
+    public RequestHandle optimizeCode(String code, String language, StreamCallback callback) {
+        return cachedStream(callback, cb -> delegate.optimizeCode(code, language, cb), "optimizeCodeStream", code, language);
+    }
+
+    private String cachedText(Supplier<String> request, String operation, String... args) {
+        ResponseCacheService cache = ResponseCacheService.getInstance();
+        if (!cache.isEnabled()) {
+            return request.get();
+        }
+        String key = cacheKey(operation, args);
+        String cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        String response = request.get();
+        if (response != null) {
+            cache.put(key, response);
+        }
+        return response;
+    }
+
+    /**
+     * 与 {@link #cachedText} 共用缓存键；返回的 future 即委托方的 future，取消时仍能中止请求。
+     */
+    private CompletableFuture<String> cachedTextAsync(Supplier<CompletableFuture<String>> request,
+                                                      String operation, String... args) {
+        ResponseCacheService cache = ResponseCacheService.getInstance();
+        if (!cache.isEnabled()) {
+            return request.get();
+        }
+        String key = cacheKey(operation, args);
+        String cached = cache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<String> response = request.get();
+        response.thenAccept(text -> {
+            if (text != null) {
+                cache.put(key, text);
+            }
+        });
+        return response;
+    }
+
+    private RequestHandle cachedStream(StreamCallback callback, Function<StreamCallback, RequestHandle> request,
+                                       String operation, String... args) {
+        ResponseCacheService cache = ResponseCacheService.getInstance();
+        if (!cache.isEnabled()) {
+            return request.apply(callback);
+        }
+        String key = cacheKey(operation, args);
+        String cached = cache.get(key);
+        if (cached != null) {
+            callback.onStart();
+            return cache.replay(cached, callback::onToken, callback::onComplete);
+        }
+        try {
+            return cache.record(key, callback::onToken, callback::onError, callback::onComplete,
+                    (onNext, onError, onComplete) -> request.apply(new StreamCallback() {
+                        @Override
+                        public void onStart() {
+                            callback.onStart();
+                        }
+
+                        @Override
+                        public void onToken(String token) {
+                            onNext.accept(token);
+                        }
+
+                        @Override
+                        public void onError(Throwable error) {
+                            onError.accept(error);
+                        }
+
+                        @Override
+                        public void onComplete() {
+                            onComplete.run();
+                        }
+                    }));
+        } catch (Exception e) {
+            callback.onError(e);
+            return RequestHandle.completed();
+        }
+    }
+
+    private String cacheKey(String operation, String... args) {
+        String[] parts = new String[args.length + 2];
+        parts[0] = operation;
+        parts[1] = apiEndpoint;
+        System.arraycopy(args, 0, parts, 2, args.length);
+        return ResponseCacheService.key(client, ApiKeySettings.getInstance().getModelFor(client), parts);
+    }
+}
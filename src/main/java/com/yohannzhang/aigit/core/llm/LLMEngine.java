@@ -2,6 +2,8 @@ package com.yohannzhang.aigit.core.llm;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
 
 public interface LLMEngine {
     interface StreamCallback {
@@ -17,6 +19,12 @@ public interface LLMEngine {
      */
     ModelInfo getModelInfo();
 
+    /**
+     * 发出请求使用的 client，与 {@link #getModelInfo()} 对应
+     * @return client 名称
+     */
+    String getClientName();
+
     /**
      * 生成文本
      * @param prompt 提示词
@@ -25,6 +33,14 @@ public interface LLMEngine {
      */
     String generateText(String prompt, String context);
 
+    /**
+     * 异步生成文本，不阻塞调用线程；取消返回的 future 会一并取消请求
+     * @param prompt 提示词
+     * @param context 上下文
+     * @return 完整的生成文本
+     */
+    CompletableFuture<String> generateTextAsync(String prompt, String context);
+
     /**
      * 生成代码
      * @param prompt 提示词
@@ -34,6 +50,11 @@ public interface LLMEngine {
      */
     String generateCode(String prompt, String context, String language);
 
+    /**
+     * 异步生成代码，见 {@link #generateTextAsync(String, String)}
+     */
+    CompletableFuture<String> generateCodeAsync(String prompt, String context, String language);
+
     /**
      * 分析代码
      * @param code 源代码
@@ -42,14 +63,20 @@ public interface LLMEngine {
      */
     Map<String, Object> analyzeCode(String code, String language);
 
+    /**
+     * 异步分析代码，见 {@link #generateTextAsync(String, String)}
+     */
+    CompletableFuture<Map<String, Object>> analyzeCodeAsync(String code, String language);
+
     /**
      * 优化代码
      * @param code 源代码
      * @param language 编程语言
      * @param suggestions 优化建议
      * @param callback 回调函数
+     * @return 本次请求的取消句柄
      */
-    void optimizeCode(String code, String language, List<String> suggestions, StreamCallback callback);
+    RequestHandle optimizeCode(String code, String language, List<String> suggestions, StreamCallback callback);
 
     /**
      * 生成测试用例
@@ -57,8 +84,9 @@ public interface LLMEngine {
      * @param language 编程语言
      * @param context 上下文信息
      * @param callback 回调函数
+     * @return 本次请求的取消句柄
      */
-    void generateTests(String code, String language, String context, StreamCallback callback);
+    RequestHandle generateTests(String code, String language, String context, StreamCallback callback);
 
     /**
      * 生成代码文档
@@ -68,13 +96,19 @@ public interface LLMEngine {
      */
     String generateDocumentation(String code, String language);
 
+    /**
+     * 异步生成代码文档，见 {@link #generateTextAsync(String, String)}
+     */
+    CompletableFuture<String> generateDocumentationAsync(String code, String language);
+
     /**
      * 流式生成代码文档
      * @param code 源代码
      * @param language 编程语言
      * @param callback 回调接口
+     * @return 本次请求的取消句柄
      */
-    void generateDocumentation(String code, String language, StreamCallback callback);
+    RequestHandle generateDocumentation(String code, String language, StreamCallback callback);
 
     /**
      * 分析代码复杂度
@@ -84,8 +118,19 @@ public interface LLMEngine {
      */
     Map<String, Object> analyzeComplexity(String code, String language);
 
-    void generateText(String prompt, StreamCallback callback);
-    void generateCode(String prompt, String code, String language, StreamCallback callback);
-    void analyzeCode(String code, String language, StreamCallback callback);
-    void optimizeCode(String code, String language, StreamCallback callback);
+    RequestHandle generateText(String prompt, StreamCallback callback);
+
+    /**
+     * 以 {@link Flow.Publisher} 形式输出 token，按订阅方的 request(n) 推送。
+     * 每次订阅在首次 request 时发起一次请求，订阅方取消时中止请求。
+     * @param prompt 提示词
+     * @return token 流
+     */
+    default Flow.Publisher<String> streamText(String prompt) {
+        return new TokenPublisher(callback -> generateText(prompt, callback));
+    }
+
+    RequestHandle generateCode(String prompt, String code, String language, StreamCallback callback);
+    RequestHandle analyzeCode(String code, String language, StreamCallback callback);
+    RequestHandle optimizeCode(String code, String language, StreamCallback callback);
 }
\ No newline at end of file
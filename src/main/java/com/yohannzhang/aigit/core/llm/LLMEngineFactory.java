@@ -2,14 +2,40 @@ package com.yohannzhang.aigit.core.llm;
 
 import com.yohannzhang.aigit.constant.Constants;
 import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.service.ProviderRoutingService;
+
+import java.util.List;
 
 public class LLMEngineFactory {
+    private static final ModelInfo DEFAULT_MODEL_INFO = new ModelInfo("unknown", "1.0", "unknown", 32768, true);
+
+    /**
+     * 创建带响应缓存的引擎。请求经由 {@link ProviderRoutingService}，配置了备用 client 时失败会故障转移到备用 client。
+     */
     public static LLMEngine createEngine(String selectedClient, ApiKeySettings.ModuleConfig moduleConfig) {
         if (moduleConfig == null) {
             throw new IllegalArgumentException("ModuleConfig cannot be null");
         }
 
-        return switch (selectedClient) {
+        LLMEngine primary = createClientEngine(selectedClient, moduleConfig);
+        List<String> backups = ProviderRoutingService.getInstance().backupsFor(selectedClient);
+        LLMEngine engine = new RoutingLLMEngine(selectedClient, backups, client -> client.equals(selectedClient)
+                ? primary
+                : createClientEngine(client, ApiKeySettings.getInstance().getModuleConfigs().get(client)));
+        return new CachingLLMEngine(selectedClient, moduleConfig.getUrl(), engine);
+    }
+
+    /**
+     * 按任务类型和每次请求的输入大小选择 client，见 {@link ModelRoutingPolicy}；未开启模型路由时使用 selectedClient。
+     * 请求按 task 统计调用指标。
+     */
+    public static LLMEngine createEngine(String selectedClient, ApiKeySettings.ModuleConfig moduleConfig, TaskType task) {
+        return new AdaptiveLLMEngine(selectedClient, createEngine(selectedClient, moduleConfig), task,
+                client -> createEngine(client, ApiKeySettings.getInstance().getModuleConfigs().get(client)));
+    }
+
+    private static LLMEngine createClientEngine(String client, ApiKeySettings.ModuleConfig moduleConfig) {
+        return switch (client) {
             case Constants.Gemini -> new GeminiEngine(moduleConfig.getApiKey(), moduleConfig.getUrl());
             case Constants.DeepSeek -> new DeepSeekEngine(moduleConfig.getApiKey(), moduleConfig.getUrl());
             case Constants.OpenAI_API -> new OpenAIEngine(moduleConfig.getApiKey(), moduleConfig.getUrl());
@@ -18,7 +44,25 @@ public class LLMEngineFactory {
             case Constants.阿里云百炼 -> new AliyunTongyiEngine(moduleConfig.getApiKey(), moduleConfig.getUrl());
             case Constants.SiliconFlow -> new SiliconFlowEngine(moduleConfig.getApiKey(), moduleConfig.getUrl());
             case Constants.VLLM -> new VllmEngine(moduleConfig.getApiKey(), moduleConfig.getUrl());
-            default -> throw new IllegalStateException("Unsupported LLM client: " + selectedClient);
+            default -> throw new IllegalStateException("Unsupported LLM client: " + client);
         };
     }
+
+    /**
+     * client 对应引擎的模型信息，用于确定上下文窗口。
+     */
+    public static ModelInfo getModelInfo(String selectedClient) {
+        ApiKeySettings.ModuleConfig moduleConfig = ApiKeySettings.getInstance().getModuleConfigs().get(selectedClient);
+        if (moduleConfig == null) {
+            moduleConfig = Constants.moduleConfigs.get(selectedClient);
+        }
+        if (moduleConfig == null) {
+            return DEFAULT_MODEL_INFO;
+        }
+        try {
+            return createClientEngine(selectedClient, moduleConfig).getModelInfo();
+        } catch (IllegalStateException e) {
+            return DEFAULT_MODEL_INFO;
+        }
+    }
 } 
@@ -1,9 +1,53 @@
 package com.yohannzhang.aigit.core.llm;
 
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 public class ModelInfo {
+    /**
+     * 常见模型的上下文窗口（token），按模型名前缀匹配，取最长的前缀
+     */
+    private static final Map<String, Integer> CONTEXT_WINDOWS = Map.ofEntries(
+            Map.entry("gpt-5", 400_000),
+            Map.entry("gpt-4.1", 1_047_576),
+            Map.entry("gpt-4o", 128_000),
+            Map.entry("gpt-4-turbo", 128_000),
+            Map.entry("gpt-4-32k", 32_768),
+            Map.entry("gpt-4", 8_192),
+            Map.entry("gpt-3.5-turbo", 16_385),
+            Map.entry("o1", 200_000),
+            Map.entry("o1-mini", 128_000),
+            Map.entry("o3", 200_000),
+            Map.entry("o4-mini", 200_000),
+            Map.entry("deepseek-chat", 65_536),
+            Map.entry("deepseek-reasoner", 65_536),
+            Map.entry("deepseek-v3", 65_536),
+            Map.entry("deepseek-r1", 65_536),
+            Map.entry("deepseek-coder", 16_384),
+            Map.entry("gemini-pro", 32_760),
+            Map.entry("gemini-1.0-pro", 32_760),
+            Map.entry("gemini-1.5-pro", 2_097_152),
+            Map.entry("gemini-1.5-flash", 1_048_576),
+            Map.entry("gemini-2.0-flash", 1_048_576),
+            Map.entry("gemini-2.5", 1_048_576),
+            Map.entry("qwen-max", 32_768),
+            Map.entry("qwen-plus", 131_072),
+            Map.entry("qwen-turbo", 1_000_000),
+            Map.entry("qwen-long", 10_000_000),
+            Map.entry("qwen2.5", 32_768),
+            Map.entry("qwen3", 40_960),
+            Map.entry("llama-2", 4_096),
+            Map.entry("llama2", 4_096),
+            Map.entry("llama-3", 8_192),
+            Map.entry("llama3", 8_192),
+            Map.entry("llama-3.1", 131_072),
+            Map.entry("llama-3.2", 131_072),
+            Map.entry("llama-3.3", 131_072),
+            Map.entry("llama3.1", 131_072),
+            Map.entry("llama3.2", 131_072),
+            Map.entry("llama3.3", 131_072));
+
     private final String name;
     private final String version;
     private final String provider;
@@ -20,6 +64,25 @@ public class ModelInfo {
         this.capabilities = new HashMap<>();
     }
 
+    /**
+     * 模型的上下文窗口，模型名可带路径（如 deepseek-ai/DeepSeek-V3、@cf/meta/llama-2-7b-chat-int8）和 Ollama 的标签；
+     * 不认识的模型返回 defaultWindow
+     */
+    public static int contextWindowOf(String model, int defaultWindow) {
+        if (model == null) {
+            return defaultWindow;
+        }
+        String name = model.toLowerCase(Locale.ROOT);
+        name = name.substring(name.lastIndexOf('/') + 1);
+        String matched = null;
+        for (String prefix : CONTEXT_WINDOWS.keySet()) {
+            if (name.startsWith(prefix) && (matched == null || prefix.length() > matched.length())) {
+                matched = prefix;
+            }
+        }
+        return matched == null ? defaultWindow : CONTEXT_WINDOWS.get(matched);
+    }
+
     public String getName() {
         return name;
     }
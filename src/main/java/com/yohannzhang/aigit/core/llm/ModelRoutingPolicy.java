@@ -0,0 +1,82 @@
+package com.yohannzhang.aigit.core.llm;
+
+import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.service.ProviderRoutingService;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 模型路由：按任务类型、估算的输入 token 数和观测到的首 token 延迟为每次请求选择 client。
+ * <p>
+ * 规则在 {@link ApiKeySettings#getRoutingRules()} 中按顺序配置，第一条满足条件的规则生效，例如
+ * 小于 2000 token 的提交信息交给本地 Ollama，其余交给长上下文的远程模型。规则指向的 client 须已配置 URL、
+ * 上下文窗口放得下本次输入，且首 token 延迟中位数不超过规则的上限；都不满足时使用当前选中的 client。
+ * 规则只选择 client，模型按 {@link ApiKeySettings#getModelFor(String)}。
+ */
+public final class ModelRoutingPolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelRoutingPolicy.class);
+
+    private ModelRoutingPolicy() {
+    }
+
+    public static boolean isEnabled() {
+        ApiKeySettings settings = ApiKeySettings.getInstance();
+        return settings.isModelRoutingEnabled() && !settings.getRoutingRules().isEmpty();
+    }
+
+    /**
+     * 按输入内容选择 client，token 数按默认 client 的分词器估算。
+     */
+    public static String chooseClient(String defaultClient, TaskType task, String... inputs) {
+        TokenCounter counter = TokenCounter.forModel(defaultClient, ApiKeySettings.getInstance().getModelFor(defaultClient));
+        int tokens = 0;
+        for (String input : inputs) {
+            tokens += counter.count(input);
+        }
+        return chooseClient(defaultClient, task, tokens);
+    }
+
+    public static String chooseClient(String defaultClient, TaskType task, int inputTokens) {
+        if (!isEnabled()) {
+            return defaultClient;
+        }
+        for (ApiKeySettings.RoutingRule rule : ApiKeySettings.getInstance().getRoutingRules()) {
+            if (matches(rule, defaultClient, task, inputTokens)) {
+                log.debug("{} request with ~{} input tokens routed to {}", task, inputTokens, rule.getClient());
+                return rule.getClient();
+            }
+        }
+        return defaultClient;
+    }
+
+    private static boolean matches(ApiKeySettings.RoutingRule rule, String defaultClient, TaskType task, int inputTokens) {
+        String client = rule.getClient();
+        if (StringUtils.isBlank(client)) {
+            return false;
+        }
+        if (StringUtils.isNotBlank(rule.getTaskType()) && !rule.getTaskType().trim().equalsIgnoreCase(task.name())) {
+            return false;
+        }
+        if (rule.getMaxInputTokens() > 0 && inputTokens > rule.getMaxInputTokens()) {
+            return false;
+        }
+        ApiKeySettings settings = ApiKeySettings.getInstance();
+        ApiKeySettings.ModuleConfig config = settings.getModuleConfigs().get(client);
+        if (!client.equals(defaultClient) && (config == null || StringUtils.isEmpty(config.getUrl()))) {
+            return false;
+        }
+        // 输入放不进该 client 的上下文窗口
+        PromptBudget budget = new PromptBudget(TokenCounter.forModel(client, settings.getModelFor(client)),
+                LLMEngineFactory.getModelInfo(client).getMaxTokens());
+        if (inputTokens > budget.getAvailableTokens()) {
+            return false;
+        }
+        if (rule.getMaxFirstTokenMs() > 0) {
+            long median = ProviderRoutingService.getInstance().firstTokenLatencyMillis(client, 0.5);
+            return median < 0 || median <= rule.getMaxFirstTokenMs();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,405 @@
+package com.yohannzhang.aigit.core.llm;
+
+import com.yohannzhang.aigit.config.ApiKeySettings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 按模型上下文窗口组装 prompt。
+ * <p>
+ * prompt 由若干段按顺序拼接：固定段（系统提示、问题、输出要求）、会话轮次段和文档段（上下文文件、diff 等）。
+ * 窗口扣除预留给输出的 token 和估算余量后，先分给固定段，剩余部分在可裁剪的段之间、再在段内各文档之间
+ * 按“小的全给、大的均分”的方式分配。超出分配的文档先尝试只保留声明行的结构概要，仍放不下时保留首尾、省略中间；
+ * 会话轮次从最新一轮开始保留，放不下的旧轮次整体丢弃。同样的输入总是得到同样的结果。
+ */
+public final class PromptBudget {
+
+    /**
+     * 预留给输出的 token 上限
+     */
+    private static final int MAX_RESERVED_OUTPUT_TOKENS = 4096;
+
+    /**
+     * 本地估算与服务端计数之间的误差余量
+     */
+    private static final double ESTIMATE_MARGIN = 0.1;
+
+    private static final Pattern DECLARATION = Pattern.compile(
+            "^\\s*(@\\w+|(public|protected|private|static|final|abstract|class|interface|enum|record|def|func|fun|function|fn|export|struct|impl|trait|type)\\b).*");
+
+    private final TokenCounter counter;
+    private final int available;
+    private final List<Section> sections = new ArrayList<>();
+
+    public PromptBudget(TokenCounter counter, int contextWindow) {
+        this.counter = counter;
+        int reserved = Math.min(MAX_RESERVED_OUTPUT_TOKENS, contextWindow / 4);
+        this.available = Math.max(0, (int) ((contextWindow - reserved) * (1 - ESTIMATE_MARGIN)));
+    }
+
+    /**
+     * 当前选中的 client 和模型
+     */
+    public static PromptBudget forSelectedModel() {
+        ApiKeySettings settings = ApiKeySettings.getInstance();
+        String client = settings.getSelectedClient();
+        return new PromptBudget(TokenCounter.forModel(client, settings.getSelectedModule()),
+                LLMEngineFactory.getModelInfo(client).getMaxTokens());
+    }
+
+    /**
+     * 使用引擎自身的 client、模型和上下文窗口
+     */
+    public static PromptBudget forEngine(LLMEngine engine) {
+        ModelInfo modelInfo = engine.getModelInfo();
+        return new PromptBudget(TokenCounter.forModel(engine.getClientName(), modelInfo.getName()),
+                modelInfo.getMaxTokens());
+    }
+
+    public TokenCounter getCounter() {
+        return counter;
+    }
+
+    /**
+     * 可用于 prompt 的 token 数
+     */
+    public int getAvailableTokens() {
+        return available;
+    }
+
+    /**
+     * 固定段，优先保留；只有固定段本身超出窗口时才会被截断
+     */
+    public PromptBudget fixed(String text) {
+        sections.add(new FixedSection(text));
+        return this;
+    }
+
+    /**
+     * 会话轮次段，按时间顺序传入，放不下时从最旧的一轮开始丢弃。全部丢弃时 header、footer 也不输出。
+     */
+    public PromptBudget turns(String header, List<String> turns, String footer) {
+        sections.add(new TurnsSection(header, turns, footer));
+        return this;
+    }
+
+    /**
+     * 单个文档
+     */
+    public PromptBudget document(String text, boolean outline) {
+        return documents("", List.of(new Document("", text, "", outline)), "");
+    }
+
+    /**
+     * 文档段，header、footer 随文档一起输出。
+     */
+    public PromptBudget documents(String header, List<Document> documents, String footer) {
+        sections.add(new DocumentsSection(header, documents, footer));
+        return this;
+    }
+
+    /**
+     * 按只含一个 %s 的 String.format 模板组装：模板文字作为固定段，content 作为文档按预算裁剪。
+     */
+    public String fill(String template, String content, boolean outline) {
+        return fill(template, List.of(new Document("", content, "", outline)));
+    }
+
+    /**
+     * 同 {@link #fill(String, String, boolean)}，%s 处依次放入多个文档。
+     */
+    public String fill(String template, List<Document> documents) {
+        int index = template.indexOf("%s");
+        if (index < 0) {
+            throw new IllegalArgumentException("Template must contain %s");
+        }
+        return fixed(template.substring(0, index).replace("%%", "%"))
+                .documents("", documents, "")
+                .fixed(template.substring(index + 2).replace("%%", "%"))
+                .build();
+    }
+
+    /**
+     * 单个文档，prefix、suffix 为其前后说明。
+     */
+    public static final class Document {
+        final String prefix;
+        final String text;
+        final String suffix;
+        final boolean outline;
+
+        /**
+         * @param outline 为 true 时放不下的文档先尝试只保留声明行（适用于源码）
+         */
+        public Document(String prefix, String text, String suffix, boolean outline) {
+            this.prefix = prefix == null ? "" : prefix;
+            this.text = text == null ? "" : text;
+            this.suffix = suffix == null ? "" : suffix;
+            this.outline = outline;
+        }
+    }
+
+    /**
+     * 按顺序拼接各段，总长度不超过可用预算。
+     */
+    public String build() {
+        int[] fixedDemand = new int[sections.size()];
+        int[] flexibleDemand = new int[sections.size()];
+        for (int i = 0; i < sections.size(); i++) {
+            Section section = sections.get(i);
+            if (section instanceof FixedSection) {
+                fixedDemand[i] = section.demand();
+            } else {
+                flexibleDemand[i] = section.demand();
+            }
+        }
+        int[] fixedShare = share(fixedDemand, available);
+        int used = 0;
+        for (int share : fixedShare) {
+            used += share;
+        }
+        int[] flexibleShare = share(flexibleDemand, available - used);
+
+        StringBuilder prompt = new StringBuilder();
+        for (int i = 0; i < sections.size(); i++) {
+            Section section = sections.get(i);
+            section.render(prompt, section instanceof FixedSection ? fixedShare[i] : flexibleShare[i]);
+        }
+        return prompt.toString();
+    }
+
+    /**
+     * 按需求分配预算：需求不超过均分额度的全额分配，余下的在其余需求之间继续均分。
+     */
+    static int[] share(int[] demands, int budget) {
+        int[] result = new int[demands.length];
+        int remaining = Math.max(0, budget);
+        List<Integer> open = new ArrayList<>();
+        for (int i = 0; i < demands.length; i++) {
+            if (demands[i] > 0) {
+                open.add(i);
+            }
+        }
+        while (!open.isEmpty()) {
+            int fair = remaining / open.size();
+            List<Integer> unsatisfied = new ArrayList<>();
+            for (int i : open) {
+                if (demands[i] <= fair) {
+                    result[i] = demands[i];
+                    remaining -= demands[i];
+                } else {
+                    unsatisfied.add(i);
+                }
+            }
+            if (unsatisfied.size() == open.size()) {
+                // 余下的需求都超过均分额度，按均分截断，零头给前面的
+                int extra = remaining - fair * open.size();
+                for (int i : open) {
+                    result[i] = fair + (extra-- > 0 ? 1 : 0);
+                }
+                break;
+            }
+            open = unsatisfied;
+        }
+        return result;
+    }
+
+    /**
+     * 把文本裁剪到 maxTokens 以内：保留前 2/3 和后 1/3 的整行，中间以说明替代。
+     */
+    String truncate(String text, int maxTokens) {
+        if (counter.count(text) <= maxTokens) {
+            return text;
+        }
+        if (maxTokens <= 0) {
+            return "";
+        }
+        String marker = "\n...（此处省略部分内容）...\n";
+        int budget = maxTokens - counter.count(marker);
+        if (budget <= 0) {
+            return "";
+        }
+        int headBudget = budget * 2 / 3;
+        int tailBudget = budget - headBudget;
+
+        int headEnd = 0;
+        int headTokens = 0;
+        while (headEnd < text.length()) {
+            int lineEnd = text.indexOf('\n', headEnd);
+            lineEnd = lineEnd < 0 ? text.length() : lineEnd + 1;
+            int lineTokens = counter.count(text, headEnd, lineEnd);
+            if (headTokens + lineTokens > headBudget) {
+                break;
+            }
+            headTokens += lineTokens;
+            headEnd = lineEnd;
+        }
+        int tailStart = text.length();
+        int tailTokens = 0;
+        while (tailStart > headEnd) {
+            int lineStart = text.lastIndexOf('\n', tailStart - 2) + 1;
+            lineStart = Math.max(lineStart, headEnd);
+            int lineTokens = counter.count(text, lineStart, tailStart);
+            if (tailTokens + lineTokens > tailBudget) {
+                break;
+            }
+            tailTokens += lineTokens;
+            tailStart = lineStart;
+        }
+        if (headEnd == 0 && tailStart == text.length()) {
+            // 单行超长，按字符比例截取开头
+            int chars = (int) ((long) text.length() * budget / Math.max(1, counter.count(text)));
+            if (chars > 0 && Character.isHighSurrogate(text.charAt(chars - 1))) {
+                chars--;
+            }
+            return text.substring(0, chars) + marker;
+        }
+        return text.substring(0, headEnd) + marker + text.substring(tailStart);
+    }
+
+    /**
+     * 只保留声明行，作为源码的结构概要
+     */
+    static String outline(String text) {
+        StringBuilder outline = new StringBuilder();
+        for (String line : text.split("\n")) {
+            if (DECLARATION.matcher(line).matches()) {
+                outline.append(line).append('\n');
+            }
+        }
+        return outline.toString();
+    }
+
+    private interface Section {
+        int demand();
+
+        void render(StringBuilder prompt, int budget);
+    }
+
+    private final class FixedSection implements Section {
+        final String text;
+
+        FixedSection(String text) {
+            this.text = text == null ? "" : text;
+        }
+
+        @Override
+        public int demand() {
+            return counter.count(text);
+        }
+
+        @Override
+        public void render(StringBuilder prompt, int budget) {
+            prompt.append(truncate(text, budget));
+        }
+    }
+
+    private final class TurnsSection implements Section {
+        final String header;
+        final List<String> turns;
+        final String footer;
+
+        TurnsSection(String header, List<String> turns, String footer) {
+            this.header = header == null ? "" : header;
+            this.turns = turns;
+            this.footer = footer == null ? "" : footer;
+        }
+
+        @Override
+        public int demand() {
+            if (turns.isEmpty()) {
+                return 0;
+            }
+            int demand = counter.count(header) + counter.count(footer);
+            for (String turn : turns) {
+                demand += counter.count(turn);
+            }
+            return demand;
+        }
+
+        @Override
+        public void render(StringBuilder prompt, int budget) {
+            int remaining = budget - counter.count(header) - counter.count(footer);
+            int first = turns.size();
+            while (first > 0) {
+                int tokens = counter.count(turns.get(first - 1));
+                if (tokens > remaining) {
+                    break;
+                }
+                remaining -= tokens;
+                first--;
+            }
+            if (first == turns.size()) {
+                return;
+            }
+            prompt.append(header);
+            for (int i = first; i < turns.size(); i++) {
+                prompt.append(turns.get(i));
+            }
+            prompt.append(footer);
+        }
+    }
+
+    private final class DocumentsSection implements Section {
+        final String header;
+        final List<Document> documents;
+        final String footer;
+
+        DocumentsSection(String header, List<Document> documents, String footer) {
+            this.header = header == null ? "" : header;
+            this.documents = documents;
+            this.footer = footer == null ? "" : footer;
+        }
+
+        @Override
+        public int demand() {
+            if (documents.isEmpty()) {
+                return 0;
+            }
+            int demand = counter.count(header) + counter.count(footer);
+            for (Document document : documents) {
+                demand += counter.count(document.prefix) + counter.count(document.text) + counter.count(document.suffix);
+            }
+            return demand;
+        }
+
+        @Override
+        public void render(StringBuilder prompt, int budget) {
+            if (documents.isEmpty()) {
+                return;
+            }
+            int remaining = budget - counter.count(header) - counter.count(footer);
+            int[] demands = new int[documents.size()];
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                remaining -= counter.count(document.prefix) + counter.count(document.suffix);
+                demands[i] = counter.count(document.text);
+            }
+            int[] shares = share(demands, remaining);
+
+            prompt.append(header);
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                prompt.append(document.prefix).append(fit(document, demands[i], shares[i])).append(document.suffix);
+            }
+            prompt.append(footer);
+        }
+
+        private String fit(Document document, int demand, int share) {
+            if (demand <= share) {
+                return document.text;
+            }
+            if (document.outline) {
+                String note = "（内容过长，仅保留声明部分）\n";
+                String outline = outline(document.text);
+                int outlineBudget = share - counter.count(note);
+                if (!outline.isEmpty() && counter.count(outline) <= outlineBudget) {
+                    return note + outline;
+                }
+            }
+            return truncate(document.text, share);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.yohannzhang.aigit.core.llm;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 单次流式请求的取消句柄。
+ * <p>
+ * 每个流式调用各自持有一个句柄，取消时关闭响应体（中止 socket 上的这一路流，HTTP/2 连接本身仍留在连接池）
+ * 并中断正在阻塞读取的工作线程，不影响同时进行的其他请求。
+ */
+public final class RequestHandle {
+
+    private static final long PROGRESS_POLL_INTERVAL_MS = 100;
+
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final AtomicBoolean done = new AtomicBoolean(false);
+    private final List<Runnable> cancelListeners = new CopyOnWriteArrayList<>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private volatile Closeable body;
+    private volatile ScheduledFuture<?> progressWatcher;
+    private Thread worker;
+
+    /**
+     * 返回一个已结束的句柄，用于同步完成或不支持流式的实现。
+     */
+    public static RequestHandle completed() {
+        RequestHandle handle = new RequestHandle();
+        handle.markDone();
+        return handle;
+    }
+
+    /**
+     * 由执行流式读取的线程在开始时调用，取消时会中断该线程。
+     */
+    public synchronized void attachWorker() {
+        if (!done.get()) {
+            worker = Thread.currentThread();
+        }
+    }
+
+    /**
+     * 关联响应体；若已取消则立即关闭。
+     */
+    public void attachBody(Closeable body) {
+        this.body = body;
+        if (cancelled.get()) {
+            closeQuietly(body);
+        }
+    }
+
+    /**
+     * 流式读取结束（正常、异常或取消）时调用。
+     */
+    public void markDone() {
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            worker = null;
+        }
+        finished.countDown();
+        stopProgressWatcher();
+    }
+
+    /**
+     * 取消请求，可重复调用。
+     */
+    public void cancel() {
+        if (!cancelled.compareAndSet(false, true)) {
+            return;
+        }
+        // 先通知监听方置位取消状态，再中止读取，保证随后触发的 onComplete 能感知到取消
+        for (Runnable listener : cancelListeners) {
+            // remove 成功才执行，避免与 onCancel 并发时重复回调
+            if (cancelListeners.remove(listener)) {
+                listener.run();
+            }
+        }
+        closeQuietly(body);
+        synchronized (this) {
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+        stopProgressWatcher();
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    public boolean isDone() {
+        return done.get();
+    }
+
+    /**
+     * 注册取消回调；若已取消则立即执行。
+     */
+    public void onCancel(@NotNull Runnable listener) {
+        cancelListeners.add(listener);
+        if (cancelled.get() && cancelListeners.remove(listener)) {
+            listener.run();
+        }
+    }
+
+    /**
+     * 绑定到 IntelliJ 进度条：用户点击进度条上的取消时同步取消本次请求。
+     */
+    public RequestHandle bindTo(@NotNull ProgressIndicator indicator) {
+        if (done.get() || cancelled.get()) {
+            return this;
+        }
+        progressWatcher = AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay(() -> {
+            if (done.get()) {
+                stopProgressWatcher();
+            } else if (indicator.isCanceled()) {
+                cancel();
+            }
+        }, PROGRESS_POLL_INTERVAL_MS, PROGRESS_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (done.get()) {
+            stopProgressWatcher();
+        }
+        return this;
+    }
+
+    /**
+     * 在后台任务中阻塞等待请求结束，期间进度条被取消时一并取消请求。
+     */
+    public void await(@NotNull ProgressIndicator indicator) {
+        try {
+            while (!finished.await(PROGRESS_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                if (indicator.isCanceled()) {
+                    cancel();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+        }
+    }
+
+    private void stopProgressWatcher() {
+        ScheduledFuture<?> watcher = progressWatcher;
+        if (watcher != null) {
+            watcher.cancel(false);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // 取消时关闭失败无需处理
+        }
+    }
+}
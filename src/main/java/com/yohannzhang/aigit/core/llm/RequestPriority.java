@@ -0,0 +1,35 @@
+package com.yohannzhang.aigit.core.llm;
+
+import java.util.function.Supplier;
+
+/**
+ * 请求优先级，限流排队时高优先级的请求先放行。
+ * <p>
+ * 优先级随调用线程传递：在 {@link #callAs} 内发起的请求使用指定的优先级，未指定时视为交互请求。
+ */
+public enum RequestPriority {
+    /**
+     * 对话、提交信息等用户正在等待的请求
+     */
+    INTERACTIVE,
+    /**
+     * 文档生成、项目分析等后台任务
+     */
+    BACKGROUND;
+
+    private static final ThreadLocal<RequestPriority> CURRENT = ThreadLocal.withInitial(() -> INTERACTIVE);
+
+    public static RequestPriority current() {
+        return CURRENT.get();
+    }
+
+    public static <T> T callAs(RequestPriority priority, Supplier<T> body) {
+        RequestPriority previous = CURRENT.get();
+        CURRENT.set(priority);
+        try {
+            return body.get();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+}
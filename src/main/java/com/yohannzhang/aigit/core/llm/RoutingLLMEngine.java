@@ -0,0 +1,161 @@
+package com.yohannzhang.aigit.core.llm;
+
+import com.yohannzhang.aigit.service.ProviderRoutingService;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 在主 client 和备用 client 的引擎之间路由的 {@link LLMEngine}，见 {@link ProviderRoutingService}。
+ * 模型信息和本地计算的方法按主 client。
+ */
+public class RoutingLLMEngine implements LLMEngine {
+
+    private final List<String> clients;
+    private final Map<String, LLMEngine> engines = new LinkedHashMap<>();
+
+    public RoutingLLMEngine(String primary, List<String> backups, Function<String, LLMEngine> factory) {
+        this.clients = new ArrayList<>();
+        clients.add(primary);
+        clients.addAll(backups);
+        for (String client : clients) {
+            engines.put(client, factory.apply(client));
+        }
+    }
+
+    @Override
+    public ModelInfo getModelInfo() {
+        return primary().getModelInfo();
+    }
+
+    @Override
+    public String getClientName() {
+        return primary().getClientName();
+    }
+
+    @Override
+    public String generateText(String prompt, String context) {
+        return AbstractLLMEngine.await(generateTextAsync(prompt, context), "generating text");
+    }
+
+    @Override
+    public CompletableFuture<String> generateTextAsync(String prompt, String context) {
+        return routeAsync(engine -> engine.generateTextAsync(prompt, context));
+    }
+
+    @Override
+    public String generateCode(String prompt, String context, String language) {
+        return AbstractLLMEngine.await(generateCodeAsync(prompt, context, language), "generating code");
+    }
+
+    @Override
+    public CompletableFuture<String> generateCodeAsync(String prompt, String context, String language) {
+        return routeAsync(engine -> engine.generateCodeAsync(prompt, context, language));
+    }
+
+    @Override
+    public Map<String, Object> analyzeCode(String code, String language) {
+        return AbstractLLMEngine.await(analyzeCodeAsync(code, language), "analyzing code");
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Object>> analyzeCodeAsync(String code, String language) {
+        return routeAsync(engine -> engine.analyzeCodeAsync(code, language));
+    }
+
+    @Override
+    public RequestHandle optimizeCode(String code, String language, List<String> suggestions, StreamCallback callback) {
+        return route(callback, (engine, cb) -> engine.optimizeCode(code, language, suggestions, cb));
+    }
+
+    @Override
+    public RequestHandle generateTests(String code, String language, String context, StreamCallback callback) {
+        return route(callback, (engine, cb) -> engine.generateTests(code, language, context, cb));
+    }
+
+    @Override
+    public String generateDocumentation(String code, String language) {
+        return AbstractLLMEngine.await(generateDocumentationAsync(code, language), "generating documentation");
+    }
+
+    @Override
+    public CompletableFuture<String> generateDocumentationAsync(String code, String language) {
+        return routeAsync(engine -> engine.generateDocumentationAsync(code, language));
+    }
+
+    @Override
+    public RequestHandle generateDocumentation(String code, String language, StreamCallback callback) {
+        return route(callback, (engine, cb) -> engine.generateDocumentation(code, language, cb));
+    }
+
+    @Override
+    public Map<String, Object> analyzeComplexity(String code, String language) {
+        return primary().analyzeComplexity(code, language);
+    }
+
+    @Override
+    public RequestHandle generateText(String prompt, StreamCallback callback) {
+        return route(callback, (engine, cb) -> engine.generateText(prompt, cb));
+    }
+
+    @Override
+    public RequestHandle generateCode(String prompt, String code, String language, StreamCallback callback) {
+        return route(callback, (engine, cb) -> engine.generateCode(prompt, code, language, cb));
+    }
+
+    @Override
+    public RequestHandle analyzeCode(String code, String language, StreamCallback callback) {
+        return route(callback, (engine, cb) -> engine.analyzeCode(code, language, cb));
+    }
+
+    @Override
+    public RequestHandle optimizeCode(String code, String language, StreamCallback callback) {
+        return route(callback, (engine, cb) -> engine.optimizeCode(code, language, cb));
+    }
+
+    private LLMEngine primary() {
+        return engines.get(clients.get(0));
+    }
+
+    private <T> CompletableFuture<T> routeAsync(Function<LLMEngine, CompletableFuture<T>> request) {
+        return ProviderRoutingService.getInstance().callAsync(clients, client -> request.apply(engines.get(client)));
+    }
+
+    /**
+     * 各路尝试都会回调 onStart，只转发第一次。
+     */
+    private RequestHandle route(StreamCallback callback, BiFunction<LLMEngine, StreamCallback, RequestHandle> request) {
+        AtomicBoolean started = new AtomicBoolean(false);
+        return ProviderRoutingService.getInstance().stream(clients,
+                client -> (onNext, onError, onComplete) -> request.apply(engines.get(client), new StreamCallback() {
+                    @Override
+                    public void onStart() {
+                        if (started.compareAndSet(false, true)) {
+                            callback.onStart();
+                        }
+                    }
+
+                    @Override
+                    public void onToken(String token) {
+                        onNext.accept(token);
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        onError.accept(error);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        onComplete.run();
+                    }
+                }),
+                callback::onToken, callback::onError, callback::onComplete);
+    }
+}
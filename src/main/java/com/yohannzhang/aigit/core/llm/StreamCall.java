@@ -0,0 +1,15 @@
+package com.yohannzhang.aigit.core.llm;
+
+import java.util.function.Consumer;
+
+/**
+ * 一次尚未发起的流式调用，参数为（可能被包装过的）回调。
+ * 缓存、合并请求等中间层通过它在需要时才真正发起请求。
+ * <p>
+ * 无论成功与否最后都回调 onComplete。没有回调 onError 且未被取消时，响应是完整的：
+ * 流式实现只在收到结束标记后才这样结束，连接提前关闭时以 {@link com.yohannzhang.aigit.util.StreamDecoder.TruncatedStreamException} 报错。
+ */
+@FunctionalInterface
+public interface StreamCall {
+    RequestHandle start(Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception;
+}
@@ -0,0 +1,50 @@
+package com.yohannzhang.aigit.core.llm;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 断流后续写请求的上下文：已经输出的部分内容作为 assistant 前缀交给模型，让模型从断开处接着写。
+ * <p>
+ * 前缀随调用线程传递：在 {@link #callWith} 内发起的流式请求把前缀拼进请求体，
+ * 支持多轮消息的接口以「user prompt → assistant 前缀 → user 续写指令」发送，只接受单段文本的接口用 {@link #inlinePrompt}。
+ */
+public final class StreamContinuation {
+
+    /**
+     * 续写指令，要求模型不要重复已输出的内容
+     */
+    public static final String INSTRUCTION = "Your previous reply was cut off. Continue exactly where it stopped. "
+            + "Do not repeat any text that was already written and do not add any preamble.";
+
+    private static final ThreadLocal<String> PREFIX = new ThreadLocal<>();
+
+    private StreamContinuation() {
+    }
+
+    /**
+     * 当前线程上的续写前缀，普通请求返回 null
+     */
+    public static @Nullable String current() {
+        return PREFIX.get();
+    }
+
+    public static <T> T callWith(@Nullable String prefix, Callable<T> body) throws Exception {
+        String previous = PREFIX.get();
+        PREFIX.set(prefix);
+        try {
+            return body.call();
+        } finally {
+            PREFIX.set(previous);
+        }
+    }
+
+    /**
+     * 把续写前缀拼进单段 prompt，用于没有消息角色的接口
+     */
+    public static String inlinePrompt(String prompt, String prefix) {
+        return prompt + "\n\n---\nThe beginning of your answer is below, between the markers.\n<partial_answer>\n"
+                + prefix + "\n</partial_answer>\n" + INSTRUCTION;
+    }
+}
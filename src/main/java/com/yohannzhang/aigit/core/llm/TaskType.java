@@ -0,0 +1,61 @@
+package com.yohannzhang.aigit.core.llm;
+
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * 请求的任务类型，模型路由规则按它选择 client（见 {@link ModelRoutingPolicy}），调用指标按它分组统计。
+ * <p>
+ * 任务类型随调用线程传递：在 {@link #callAs} 内发起的请求使用指定的类型，未指定时视为 {@link #CHAT}。
+ */
+public enum TaskType {
+    /**
+     * 生成提交信息
+     */
+    COMMIT,
+    /**
+     * 代码补全、生成代码和测试
+     */
+    COMPLETION,
+    /**
+     * 代码评审、优化建议
+     */
+    REVIEW,
+    /**
+     * 文档、UML、项目分析等
+     */
+    DOCS,
+    /**
+     * 对话、解释代码等其他请求
+     */
+    CHAT;
+
+    private static final ThreadLocal<TaskType> CURRENT = ThreadLocal.withInitial(() -> CHAT);
+
+    public static TaskType current() {
+        return CURRENT.get();
+    }
+
+    public static <T> T callAs(TaskType task, Supplier<T> body) {
+        TaskType previous = CURRENT.get();
+        CURRENT.set(task);
+        try {
+            return body.get();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * 同 {@link #callAs}，用于会抛出受检异常的调用。
+     */
+    public static <T> T call(TaskType task, Callable<T> body) throws Exception {
+        TaskType previous = CURRENT.get();
+        CURRENT.set(task);
+        try {
+            return body.call();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.yohannzhang.aigit.core.llm;
+
+import com.yohannzhang.aigit.constant.Constants;
+
+import java.util.Locale;
+
+/**
+ * 本地 token 计数。
+ * <p>
+ * 不加载词表，按 BPE 分词器的预切分规则把文本切成单词、数字、空白、标点和 CJK 字符等片段，
+ * 再按各模型族分词器的平均压缩率估算每个片段的 token 数。结果用于预算和限流，与服务端计数的偏差一般在 10% 左右，
+ * 预算时需留出余量。
+ */
+public final class TokenCounter {
+
+    /**
+     * 模型族及其分词器的平均压缩率
+     */
+    public enum Family {
+        // cl100k / o200k
+        OPENAI(4.0, 3, 1.1),
+        QWEN(3.8, 1, 0.7),
+        DEEPSEEK(3.8, 3, 0.65),
+        GEMINI(4.0, 1, 0.6),
+        LLAMA(3.6, 1, 1.3);
+
+        /**
+         * 英文单词平均每个 token 的字符数
+         */
+        final double lettersPerToken;
+        /**
+         * 数字最多合并成一个 token 的位数
+         */
+        final int digitsPerToken;
+        /**
+         * 每个 CJK 字符的平均 token 数
+         */
+        final double tokensPerCjkChar;
+
+        Family(double lettersPerToken, int digitsPerToken, double tokensPerCjkChar) {
+            this.lettersPerToken = lettersPerToken;
+            this.digitsPerToken = digitsPerToken;
+            this.tokensPerCjkChar = tokensPerCjkChar;
+        }
+    }
+
+    private static final TokenCounter[] COUNTERS = new TokenCounter[Family.values().length];
+
+    static {
+        for (Family family : Family.values()) {
+            COUNTERS[family.ordinal()] = new TokenCounter(family);
+        }
+    }
+
+    private final Family family;
+
+    private TokenCounter(Family family) {
+        this.family = family;
+    }
+
+    public static TokenCounter of(Family family) {
+        return COUNTERS[family.ordinal()];
+    }
+
+    /**
+     * 按模型名识别模型族，识别不出时按 client 的默认模型族。
+     */
+    public static TokenCounter forModel(String client, String model) {
+        return of(familyOf(client, model));
+    }
+
+    static Family familyOf(String client, String model) {
+        String name = model == null ? "" : model.toLowerCase(Locale.ROOT);
+        if (name.contains("qwen") || name.contains("qwq")) {
+            return Family.QWEN;
+        }
+        if (name.contains("deepseek")) {
+            return Family.DEEPSEEK;
+        }
+        if (name.contains("gemini") || name.contains("gemma")) {
+            return Family.GEMINI;
+        }
+        if (name.contains("llama") || name.contains("mistral")) {
+            return Family.LLAMA;
+        }
+        if (name.startsWith("gpt") || name.startsWith("o1") || name.startsWith("o3") || name.startsWith("o4")) {
+            return Family.OPENAI;
+        }
+        if (client == null) {
+            return Family.OPENAI;
+        }
+        return switch (client) {
+            case Constants.DeepSeek -> Family.DEEPSEEK;
+            case Constants.Gemini -> Family.GEMINI;
+            case Constants.阿里云百炼, Constants.SiliconFlow, Constants.Ollama -> Family.QWEN;
+            case Constants.CloudflareWorkersAI -> Family.LLAMA;
+            default -> Family.OPENAI;
+        };
+    }
+
+    public Family getFamily() {
+        return family;
+    }
+
+    public int count(CharSequence text) {
+        return count(text, 0, text == null ? 0 : text.length());
+    }
+
+    /**
+     * 统计 text[from, to) 的 token 数。
+     */
+    public int count(CharSequence text, int from, int to) {
+        if (text == null || from >= to) {
+            return 0;
+        }
+        double tokens = 0;
+        int i = from;
+        while (i < to) {
+            char c = text.charAt(i);
+            int start = i;
+            if (isAsciiLetter(c)) {
+                while (i < to && isAsciiLetter(text.charAt(i))) {
+                    i++;
+                }
+                tokens += Math.ceil((i - start) / family.lettersPerToken);
+            } else if (c >= '0' && c <= '9') {
+                while (i < to && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                    i++;
+                }
+                tokens += Math.ceil((double) (i - start) / family.digitsPerToken);
+            } else if (c == ' ') {
+                i++;
+                // 单词前的单个空格与单词合并为一个 token
+                if (i < to && text.charAt(i) != ' ' && !Character.isWhitespace(text.charAt(i))) {
+                    continue;
+                }
+                while (i < to && text.charAt(i) == ' ') {
+                    i++;
+                }
+                tokens += 1;
+            } else if (Character.isWhitespace(c)) {
+                // 连续的换行与缩进合并
+                while (i < to && Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                tokens += 1;
+            } else if (c < 128) {
+                // 标点，常见的双字符运算符（->、==、// 等）合并
+                while (i < to && text.charAt(i) < 128 && isPunctuation(text.charAt(i))) {
+                    i++;
+                }
+                tokens += Math.ceil((i - start) / 2.0);
+            } else if (isCjk(c)) {
+                while (i < to && isCjk(text.charAt(i))) {
+                    i++;
+                }
+                tokens += Math.max(1, Math.round((i - start) * family.tokensPerCjkChar));
+            } else {
+                // 其他非 ASCII 字符，代理对按一个字符计
+                i += Character.isHighSurrogate(c) && i + 1 < to ? 2 : 1;
+                tokens += 1;
+            }
+        }
+        return (int) Math.ceil(tokens);
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isPunctuation(char c) {
+        return !isAsciiLetter(c) && !(c >= '0' && c <= '9') && !Character.isWhitespace(c);
+    }
+
+    private static boolean isCjk(char c) {
+        return (c >= '\u4e00' && c <= '\u9fff')
+                || (c >= '\u3400' && c <= '\u4dbf')
+                || (c >= '\u3000' && c <= '\u303f')
+                || (c >= '\uff00' && c <= '\uffef')
+                || (c >= '\u3040' && c <= '\u30ff')
+                || (c >= '\uac00' && c <= '\ud7af');
+    }
+}
@@ -0,0 +1,233 @@
+package com.yohannzhang.aigit.core.llm;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+/**
+ * 把回调式的流式请求包装为 {@link Flow.Publisher}。
+ * <p>
+ * 每个订阅在首次 request 时发起一次请求，token 先进入有界缓冲，再按订阅方请求的数量推送；
+ * 缓冲满时后续 token 合并为一项，等订阅方继续 request 时一次推送。上游回调可能运行在共享的定时线程上
+ * （{@link com.yohannzhang.aigit.util.TokenCoalescer} 的定时刷新），因此从不阻塞回调线程。
+ * 订阅方取消时通过 {@link RequestHandle} 中止请求。
+ */
+public final class TokenPublisher implements Flow.Publisher<String> {
+
+    /**
+     * 每个订阅最多缓冲的 token 数，超出的部分合并为一项
+     */
+    static final int BUFFER_SIZE = 256;
+
+    private final Function<LLMEngine.StreamCallback, RequestHandle> request;
+
+    /**
+     * @param request 以给定回调发起一次流式请求
+     */
+    public TokenPublisher(Function<LLMEngine.StreamCallback, RequestHandle> request) {
+        this.request = request;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        subscriber.onSubscribe(new TokenSubscription(subscriber));
+    }
+
+    private final class TokenSubscription implements Flow.Subscription, LLMEngine.StreamCallback {
+        private final Flow.Subscriber<? super String> subscriber;
+        private final ArrayDeque<String> buffer = new ArrayDeque<>();
+        // 缓冲满后到达的 token，排在缓冲之后
+        private final StringBuilder merged = new StringBuilder();
+        private long demand;
+        private boolean started;
+        private boolean upstreamDone;
+        private Throwable error;
+        private boolean cancelled;
+        // 订阅方违反协议，需中止请求
+        private boolean aborted;
+        private boolean terminated;
+        // 同一时刻只有一个线程向订阅方推送
+        private boolean draining;
+        private RequestHandle handle;
+
+        TokenSubscription(Flow.Subscriber<? super String> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested count must be positive: " + n));
+                return;
+            }
+            boolean start;
+            synchronized (this) {
+                if (cancelled || terminated) {
+                    return;
+                }
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                start = !started;
+                started = true;
+            }
+            if (start) {
+                start();
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            RequestHandle current;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                buffer.clear();
+                merged.setLength(0);
+                current = handle;
+            }
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        @Override
+        public void onStart() {
+        }
+
+        @Override
+        public void onToken(String token) {
+            synchronized (this) {
+                if (cancelled || upstreamDone) {
+                    return;
+                }
+                if (merged.length() > 0 || buffer.size() >= BUFFER_SIZE) {
+                    merged.append(token);
+                } else {
+                    buffer.add(token);
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            synchronized (this) {
+                if (upstreamDone) {
+                    return;
+                }
+                upstreamDone = true;
+                this.error = error;
+            }
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (this) {
+                if (upstreamDone) {
+                    return;
+                }
+                upstreamDone = true;
+            }
+            drain();
+        }
+
+        private void start() {
+            RequestHandle requestHandle;
+            try {
+                requestHandle = request.apply(this);
+            } catch (RuntimeException e) {
+                onError(e);
+                return;
+            }
+            boolean abort;
+            synchronized (this) {
+                handle = requestHandle;
+                abort = cancelled || aborted;
+            }
+            if (abort) {
+                requestHandle.cancel();
+            }
+        }
+
+        /**
+         * 订阅方违反协议（request 非正数）时丢弃缓冲、中止请求并通知 onError。
+         */
+        private void fail(Throwable failure) {
+            RequestHandle current;
+            synchronized (this) {
+                if (cancelled || terminated) {
+                    return;
+                }
+                buffer.clear();
+                merged.setLength(0);
+                aborted = true;
+                upstreamDone = true;
+                error = failure;
+                current = handle;
+            }
+            if (current != null) {
+                current.cancel();
+            }
+            drain();
+        }
+
+        private void drain() {
+            synchronized (this) {
+                if (draining) {
+                    // 推送中的线程会在下一轮看到新的状态
+                    return;
+                }
+                draining = true;
+            }
+            while (true) {
+                String token = null;
+                Throwable failure;
+                synchronized (this) {
+                    if (cancelled || terminated) {
+                        draining = false;
+                        return;
+                    }
+                    if (demand > 0 && (!buffer.isEmpty() || merged.length() > 0)) {
+                        if (!buffer.isEmpty()) {
+                            token = buffer.poll();
+                        } else {
+                            token = merged.toString();
+                            merged.setLength(0);
+                        }
+                        if (demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                        failure = null;
+                    } else if (buffer.isEmpty() && merged.length() == 0 && upstreamDone) {
+                        terminated = true;
+                        failure = error;
+                    } else {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    if (token != null) {
+                        subscriber.onNext(token);
+                    } else if (failure != null) {
+                        subscriber.onError(failure);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                } catch (RuntimeException e) {
+                    // 订阅方抛出异常（如 ProcessCanceledException）视为取消
+                    synchronized (this) {
+                        draining = false;
+                    }
+                    cancel();
+                    throw e;
+                }
+            }
+        }
+    }
+}
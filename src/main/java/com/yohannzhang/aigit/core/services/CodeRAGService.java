@@ -1,54 +1,320 @@
 package com.yohannzhang.aigit.core.services;
 
-import com.yohannzhang.aigit.core.models.ProjectMetadata;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.core.analyzers.BaseCodeAnalyzer;
+import com.yohannzhang.aigit.core.embedding.EmbeddingProviderFactory;
+import com.yohannzhang.aigit.core.embedding.EmbeddingService;
+import com.yohannzhang.aigit.core.index.HnswIndex;
+import com.yohannzhang.aigit.core.index.RagIndex;
 import com.yohannzhang.aigit.core.models.FileMetadata;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
-public class CodeRAGService {
-    private final CodeVectorizationService vectorizationService;
-    private ProjectMetadata currentProject;
+/**
+ * 项目级的代码检索服务，同一项目内共享一份索引。
+ * <p>
+ * 索引持久化在 IDE 系统目录下（见 {@link RagIndex}），首次使用时载入，项目关闭时写回，重启后无需重新向量化。
+ * 每次打开项目后首次同步时按内容哈希比对项目文件，只重新向量化新增和改动过的文件；
+ * 索引打开后由 {@link RagIndexUpdater} 跟随文件变更增量更新。
+ * 向量由设置中的 embedding 模型生成，换了模型后重新打开索引，旧模型的向量整体作废。
+ */
+public class CodeRAGService implements Disposable {
+    private static final Logger log = LoggerFactory.getLogger(CodeRAGService.class);
+
     private static final int DEFAULT_TOP_K = 5;
 
-    public CodeRAGService() {
-        this.vectorizationService = new CodeVectorizationService();
+    /**
+     * 同步时每批读取并向量化的文件数，限制同时驻留在内存中的文件内容
+     */
+    private static final int SYNC_BATCH_SIZE = 200;
+
+    private final Project project;
+    private final Object syncLock = new Object();
+    // 本次打开项目后已同步或已安排同步
+    private final AtomicBoolean synced = new AtomicBoolean();
+    private volatile RagIndex index;
+    private CodeVectorizationService vectorizationService;
+    private String embeddingModel;
+    private RagIndexUpdater updater;
+    private volatile boolean disposed;
+
+    public CodeRAGService(Project project) {
+        this.project = project;
     }
 
-    public void initializeProject(ProjectMetadata project) {
-        this.currentProject = project;
-        vectorizationService.vectorizeProject(project);
+    public static CodeRAGService getInstance(Project project) {
+        return project.getService(CodeRAGService.class);
     }
 
-    public List<CodeSearchResult> searchCode(String query) {
-        return searchCode(query, DEFAULT_TOP_K);
+    /**
+     * 首次调用时打开持久化索引；设置中的 embedding 模型变了时关闭旧索引，按新模型重新打开
+     */
+    private synchronized CodeVectorizationService vectorization() throws IOException {
+        if (disposed) {
+            throw new IOException("Project " + project.getName() + " is closed");
+        }
+        ApiKeySettings settings = ApiKeySettings.getInstance();
+        if (vectorizationService != null
+                && !embeddingModel.equals(EmbeddingProviderFactory.createProvider(settings).modelId())) {
+            log.info("Embedding model changed from {}, reopening RAG index for {}", embeddingModel, project.getName());
+            vectorizationService = null;
+            RagIndex previous = index;
+            index = null;
+            synced.set(false);
+            previous.close();
+        }
+        if (vectorizationService == null) {
+            EmbeddingService embeddings = EmbeddingProviderFactory.createService(settings);
+            Path directory = Paths.get(PathManager.getSystemPath(), "aicodemaster", "rag-index", project.getLocationHash());
+            long start = System.nanoTime();
+            index = RagIndex.open(directory, embeddings.dimension(), embeddings.modelId(), indexParams());
+            log.info("Loaded RAG index for {}: {} files, {} chunks in {} ms", project.getName(), index.fileCount(),
+                    index.chunkCount(), (System.nanoTime() - start) / 1_000_000);
+            vectorizationService = new CodeVectorizationService(index, embeddings);
+            embeddingModel = embeddings.modelId();
+            if (updater == null) {
+                updater = new RagIndexUpdater(project, this);
+                Disposer.register(this, updater);
+                updater.start();
+            }
+        }
+        return vectorizationService;
+    }
+
+    private static HnswIndex.Params indexParams() {
+        ApiKeySettings settings = ApiKeySettings.getInstance();
+        int m = settings.getRagIndexM();
+        return new HnswIndex.Params(m, Math.max(m, settings.getRagIndexEfConstruction()),
+                settings.getRagIndexEfSearch(), HnswIndex.Params.DEFAULT.exactThreshold());
+    }
+
+    /**
+     * 索引中还没有任何文件，需要先同步才能检索
+     */
+    public boolean isEmpty() throws IOException {
+        return vectorization().isEmpty();
+    }
+
+    /**
+     * 与项目文件同步：内容哈希未变的文件跳过，新增和改动的重新向量化，已删除的移除，完成后写回磁盘
+     */
+    public void sync(@NotNull ProgressIndicator indicator) throws IOException {
+        CodeVectorizationService vectorization = vectorization();
+        synced.set(true);
+        try {
+            synchronized (syncLock) {
+                syncFiles(vectorization, indicator);
+            }
+        } catch (IOException | RuntimeException e) {
+            // 失败或取消后允许再次同步
+            synced.set(false);
+            throw e;
+        }
+    }
+
+    private void syncFiles(CodeVectorizationService vectorization, ProgressIndicator indicator) throws IOException {
+        List<VirtualFile> sources = ReadAction.compute(this::collectSourceFiles);
+        indicator.setIndeterminate(false);
+        vectorizeInBatches(vectorization, sources, indicator);
+        vectorization.retainFiles(sources.stream().map(VirtualFile::getPath).collect(Collectors.toSet()));
+        vectorization.flush();
+    }
+
+    /**
+     * 增量更新：先移除 removed 中的文件和目录下的文件，再向量化 changed 中内容哈希变化的源文件，目录展开为其下的源文件
+     *
+     * @return 新生成的代码块数
+     */
+    int update(Collection<VirtualFile> changed, Set<String> removed) throws IOException {
+        CodeVectorizationService vectorization = vectorization();
+        synchronized (syncLock) {
+            if (disposed) {
+                return 0;
+            }
+            if (!removed.isEmpty()) {
+                vectorization.removeFilesUnder(removed);
+            }
+            List<VirtualFile> sources = ReadAction.compute(() -> collectSourceFiles(changed));
+            return vectorizeInBatches(vectorization, sources, null);
+        }
+    }
+
+    /**
+     * 把增量更新写回磁盘
+     */
+    void flush() throws IOException {
+        synchronized (syncLock) {
+            RagIndex current = index;
+            if (!disposed && current != null) {
+                current.flush();
+            }
+        }
+    }
+
+    private int vectorizeInBatches(CodeVectorizationService vectorization, List<VirtualFile> sources,
+                                   @Nullable ProgressIndicator indicator) {
+        int chunks = 0;
+        for (int i = 0; i < sources.size(); i += SYNC_BATCH_SIZE) {
+            if (indicator != null) {
+                indicator.checkCanceled();
+                indicator.setFraction((double) i / sources.size());
+            }
+            List<FileMetadata> batch = new ArrayList<>();
+            for (VirtualFile file : sources.subList(i, Math.min(i + SYNC_BATCH_SIZE, sources.size()))) {
+                FileMetadata metadata = readFile(file);
+                if (metadata != null) {
+                    batch.add(metadata);
+                }
+            }
+            chunks += vectorization.vectorizeFiles(batch);
+        }
+        return chunks;
+    }
+
+    /**
+     * 本次打开项目后还没有同步过时，在后台同步一次
+     */
+    public void syncInBackgroundIfNeeded() {
+        if (!synced.compareAndSet(false, true)) {
+            return;
+        }
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Updating code index", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                try {
+                    sync(indicator);
+                } catch (IOException | UncheckedIOException e) {
+                    log.warn("Failed to update RAG index for {}", project.getName(), e);
+                }
+            }
+        });
+    }
+
+    private List<VirtualFile> collectSourceFiles() {
+        List<VirtualFile> sources = new ArrayList<>();
+        ProjectFileIndex.getInstance(project).iterateContent(file -> {
+            if (!file.isDirectory() && BaseCodeAnalyzer.isSourceFile(file.getName())) {
+                sources.add(file);
+            }
+            return true;
+        });
+        return sources;
+    }
+
+    private List<VirtualFile> collectSourceFiles(Collection<VirtualFile> roots) {
+        ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+        Set<VirtualFile> sources = new LinkedHashSet<>();
+        for (VirtualFile root : roots) {
+            if (!root.isValid() || !fileIndex.isInContent(root)) {
+                continue;
+            }
+            if (!root.isDirectory()) {
+                if (BaseCodeAnalyzer.isSourceFile(root.getName())) {
+                    sources.add(root);
+                }
+                continue;
+            }
+            fileIndex.iterateContentUnderDirectory(root, file -> {
+                if (!file.isDirectory() && BaseCodeAnalyzer.isSourceFile(file.getName())) {
+                    sources.add(file);
+                }
+                return true;
+            });
+        }
+        return new ArrayList<>(sources);
     }
 
-    public List<CodeSearchResult> searchCode(String query, int topK) {
-        if (currentProject == null) {
-            throw new IllegalStateException("Project not initialized");
+    private @Nullable FileMetadata readFile(VirtualFile file) {
+        try {
+            String content = ReadAction.compute(() -> loadText(file));
+            if (content == null) {
+                return null;
+            }
+            FileMetadata metadata = new FileMetadata(
+                file.getPath(),
+                BaseCodeAnalyzer.getFileLanguage(file.getName()),
+                file.getLength(),
+                (int) content.lines().count(),
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(file.getTimeStamp()), ZoneId.systemDefault()),
+                BaseCodeAnalyzer.calculateContentHash(content),
+                new HashMap<>(),
+                new ArrayList<>(),
+                ""
+            );
+            metadata.setContent(content);
+            return metadata;
+        } catch (IOException e) {
+            log.debug("Skipping unreadable file {}", file.getPath(), e);
+            return null;
         }
+    }
 
-        List<String> similarChunkIds = vectorizationService.searchSimilarCode(query, topK);
+    /**
+     * 编辑器中已载入的文件取 Document 中的文本，包含未保存的修改；否则读磁盘并统一换行符，两种来源的内容哈希一致
+     */
+    private static @Nullable String loadText(VirtualFile file) throws IOException {
+        if (!file.isValid()) {
+            return null;
+        }
+        Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+        if (document != null) {
+            return document.getText();
+        }
+        return StringUtil.convertLineSeparators(VfsUtilCore.loadText(file));
+    }
+
+    public List<CodeSearchResult> searchCode(String query) throws IOException {
+        return searchCode(query, DEFAULT_TOP_K);
+    }
+
+    public List<CodeSearchResult> searchCode(String query, int topK) throws IOException {
+        CodeVectorizationService vectorization = vectorization();
+        List<String> similarChunkIds = vectorization.searchSimilarCode(query, topK);
         return similarChunkIds.stream()
             .map(chunkId -> {
-                String[] parts = chunkId.split("#");
-                String filePath = parts[0];
-                int chunkIndex = Integer.parseInt(parts[1]);
-                String codeChunk = vectorizationService.getCodeChunk(chunkId);
-                
-                FileMetadata fileMetadata = currentProject.getFiles().get(filePath);
+                int separator = chunkId.lastIndexOf('#');
+                String filePath = chunkId.substring(0, separator);
+                int chunkIndex = Integer.parseInt(chunkId.substring(separator + 1));
+                String codeChunk = vectorization.getCodeChunk(chunkId);
                 return new CodeSearchResult(
                     filePath,
-                    fileMetadata != null ? fileMetadata.getLanguage() : "Unknown",
+                    BaseCodeAnalyzer.getFileLanguage(filePath),
                     codeChunk,
                     chunkIndex
                 );
             })
+            .filter(result -> result.codeChunk() != null)
             .collect(Collectors.toList());
     }
 
-    public String generateContext(String query) {
+    public String generateContext(String query) throws IOException {
         List<CodeSearchResult> results = searchCode(query);
         if (results.isEmpty()) {
             return "No relevant code found.";
@@ -56,7 +322,7 @@ public class CodeRAGService {
 
         StringBuilder context = new StringBuilder();
         context.append("Relevant code snippets:\n\n");
-        
+
         for (CodeSearchResult result : results) {
             context.append("File: ").append(result.filePath())
                   .append(" (Language: ").append(result.language()).append(")\n")
@@ -68,9 +334,28 @@ public class CodeRAGService {
         return context.toString();
     }
 
-    public void clear() {
-        vectorizationService.clear();
-        currentProject = null;
+    /**
+     * 清空索引，下次使用时重新同步
+     */
+    public void clear() throws IOException {
+        CodeVectorizationService vectorization = vectorization();
+        vectorization.clear();
+        vectorization.flush();
+        synced.set(false);
+    }
+
+    @Override
+    public synchronized void dispose() {
+        // 此时 RagIndexUpdater 已先行释放；仍在执行的更新写入已关闭的索引时会失败，不会留下 dirty 标记
+        disposed = true;
+        if (index == null) {
+            return;
+        }
+        try {
+            index.close();
+        } catch (IOException e) {
+            log.warn("Failed to write RAG index for {}", project.getName(), e);
+        }
     }
 
     public static class CodeSearchResult {
@@ -102,4 +387,4 @@ public class CodeRAGService {
             return chunkIndex;
         }
     }
-} 
\ No newline at end of file
+}
@@ -1,41 +1,171 @@
 package com.yohannzhang.aigit.core.services;
 
 import com.intellij.openapi.project.Project;
+import com.yohannzhang.aigit.core.analyzers.BaseCodeAnalyzer;
+import com.yohannzhang.aigit.core.embedding.EmbeddingService;
+import com.yohannzhang.aigit.core.embedding.OfflineEmbeddingProvider;
+import com.yohannzhang.aigit.core.index.HnswIndex;
+import com.yohannzhang.aigit.core.index.RagIndex;
+import com.yohannzhang.aigit.core.index.VectorIndex;
 import com.yohannzhang.aigit.core.models.FileMetadata;
 import com.yohannzhang.aigit.core.models.ProjectMetadata;
+import com.yohannzhang.aigit.jfr.RagIndexEvent;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class CodeVectorizationService {
-    private final Map<String, List<Float>> codeVectors = new ConcurrentHashMap<>();
-    private final Map<String, String> codeChunks = new ConcurrentHashMap<>();
+    private final RagIndex index;
+    private final EmbeddingService embeddings;
     private static final int CHUNK_SIZE = 1000; // 每个代码块的最大字符数
     private static final int OVERLAP_SIZE = 200; // 代码块之间的重叠字符数
 
+    /**
+     * 只在内存中的索引，使用本地 embedding
+     */
+    public CodeVectorizationService() {
+        this(RagIndex.inMemory(OfflineEmbeddingProvider.DIMENSION, new OfflineEmbeddingProvider().modelId(), HnswIndex.Params.DEFAULT),
+                new EmbeddingService(new OfflineEmbeddingProvider(), null, Integer.MAX_VALUE, 1, 0));
+    }
+
+    public CodeVectorizationService(RagIndex index, EmbeddingService embeddings) {
+        if (!index.model().equals(embeddings.modelId())) {
+            throw new IllegalArgumentException("index was built with " + index.model() + " but got " + embeddings.modelId());
+        }
+        this.index = index;
+        this.embeddings = embeddings;
+    }
+
+    /**
+     * 向量化项目中的全部文件，并移除索引中项目已不存在的文件
+     */
     public void vectorizeProject(ProjectMetadata project) {
-        project.getFiles().values().parallelStream().forEach(this::vectorizeFile);
+        vectorizeFiles(project.getFiles().values());
+        retainFiles(project.getFiles().keySet());
     }
 
-    private void vectorizeFile(FileMetadata file) {
-        String content = file.getContent();
-        if (content == null || content.isEmpty()) {
-            return;
+    /**
+     * 向量化一批文件，内容哈希与索引中相同的文件跳过。整批文件的代码块一起交给 {@link EmbeddingService}，按批请求模型。
+     *
+     * @return 新生成的代码块数
+     */
+    public int vectorizeFiles(Collection<FileMetadata> files) {
+        RagIndexEvent event = new RagIndexEvent();
+        event.begin();
+        List<PendingFile> pending = files.parallelStream()
+                .map(this::prepareFile)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        List<String> texts = new ArrayList<>();
+        for (PendingFile file : pending) {
+            texts.addAll(file.chunks);
+        }
+        List<float[]> vectors;
+        try {
+            vectors = embeddings.embed(texts);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to embed " + texts.size() + " code chunks", e);
         }
+        int offset = 0;
+        for (PendingFile file : pending) {
+            int count = file.chunks.size();
+            try {
+                index.putFile(file.path, file.contentHash, file.chunks, vectors.subList(offset, offset + count));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to index " + file.path, e);
+            }
+            offset += count;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.files = files.size();
+            event.chunks = offset;
+            event.contentChars = files.stream()
+                    .map(FileMetadata::getContent)
+                    .filter(Objects::nonNull)
+                    .mapToLong(String::length)
+                    .sum();
+            event.commit();
+        }
+        return offset;
+    }
 
+    /**
+     * 切分需要重新向量化的文件，内容未变时返回 null
+     */
+    private PendingFile prepareFile(FileMetadata file) {
+        String content = file.getContent();
+        if (content == null) {
+            return null;
+        }
+        String contentHash = file.getContentHash() != null ? file.getContentHash()
+                : BaseCodeAnalyzer.calculateContentHash(content);
+        if (index.isCurrent(file.getPath(), contentHash)) {
+            return null;
+        }
         // 将文件内容分割成重叠的代码块
-        List<String> chunks = splitIntoChunks(content);
-        
-        // 为每个代码块生成向量
-        for (int i = 0; i < chunks.size(); i++) {
-            String chunk = chunks.get(i);
-            String chunkId = file.getPath() + "#" + i;
-            codeChunks.put(chunkId, chunk);
-            
-            // 使用简单的向量化方法（这里可以替换为实际的向量化模型）
-            List<Float> vector = generateVector(chunk);
-            codeVectors.put(chunkId, vector);
+        List<String> chunks = content.isEmpty() ? List.of() : splitIntoChunks(content);
+        return new PendingFile(file.getPath(), contentHash, chunks);
+    }
+
+    private static final class PendingFile {
+        final String path;
+        final String contentHash;
+        final List<String> chunks;
+
+        PendingFile(String path, String contentHash, List<String> chunks) {
+            this.path = path;
+            this.contentHash = contentHash;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * 移除索引中不在 paths 内的文件
+     */
+    public void retainFiles(Set<String> paths) {
+        for (String path : index.paths()) {
+            if (!paths.contains(path)) {
+                removeFile(path);
+            }
+        }
+    }
+
+    /**
+     * 移除索引中等于 roots 中某个路径或位于其下的文件，roots 可以是文件也可以是目录
+     *
+     * @return 移除的文件数
+     */
+    public int removeFilesUnder(Set<String> roots) {
+        int removed = 0;
+        for (String path : index.paths()) {
+            if (isUnder(path, roots)) {
+                removeFile(path);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private static boolean isUnder(String path, Set<String> roots) {
+        // 逐级取父目录比对，整批删除只需扫描一遍索引
+        for (String current = path; current != null; ) {
+            if (roots.contains(current)) {
+                return true;
+            }
+            int separator = current.lastIndexOf('/');
+            current = separator > 0 ? current.substring(0, separator) : null;
+        }
+        return false;
+    }
+
+    public void removeFile(String path) {
+        try {
+            index.removeFile(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to remove " + path + " from index", e);
         }
     }
 
@@ -49,82 +179,62 @@ public class CodeVectorizationService {
             // 如果不是文件末尾，尝试在合适的位置分割
             if (end < content.length()) {
                 // 尝试在换行符处分割
+                // 换行符离起点太近时不采用，保证扣除重叠后仍向前推进
                 int lastNewline = content.lastIndexOf('\n', end);
-                if (lastNewline > start) {
+                if (lastNewline > start + OVERLAP_SIZE) {
                     end = lastNewline;
                 }
             }
             
             chunks.add(content.substring(start, end));
+            if (end == content.length()) {
+                break;
+            }
             start = end - OVERLAP_SIZE;
         }
         
         return chunks;
     }
 
-    private List<Float> generateVector(String text) {
-        // 这里使用一个简单的向量化方法，实际应用中应该使用专业的向量化模型
-        // 例如：OpenAI的text-embedding-ada-002、HuggingFace的sentence-transformers等
-        List<Float> vector = new ArrayList<>();
-        String[] words = text.toLowerCase().split("\\s+");
-        Map<String, Integer> wordFreq = new HashMap<>();
-        
-        // 计算词频
-        for (String word : words) {
-            wordFreq.merge(word, 1, Integer::sum);
-        }
-        
-        // 生成简单的词频向量
-        for (String word : wordFreq.keySet()) {
-            vector.add((float) wordFreq.get(word) / words.length);
-        }
-        
-        // 确保向量维度一致
-        while (vector.size() < 384) { // 使用384维向量
-            vector.add(0.0f);
-        }
-        if (vector.size() > 384) {
-            vector = vector.subList(0, 384);
-        }
-        
-        return vector;
-    }
-
+    /**
+     * 代码块较少时精确检索，较多时走 HNSW 近似检索，见 {@link HnswIndex}
+     */
     public List<String> searchSimilarCode(String query, int topK) {
-        List<Float> queryVector = generateVector(query);
-        
-        // 计算相似度并排序
-        return codeVectors.entrySet().parallelStream()
-            .map(entry -> new AbstractMap.SimpleEntry<>(
-                entry.getKey(),
-                cosineSimilarity(queryVector, entry.getValue())
-            ))
-            .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
-            .limit(topK)
-            .map(Map.Entry::getKey)
+        float[] vector;
+        try {
+            vector = embeddings.embed(query);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to embed query", e);
+        }
+        return index.search(vector, topK).stream()
+            .map(VectorIndex.Hit::id)
             .collect(Collectors.toList());
     }
 
-    private double cosineSimilarity(List<Float> v1, List<Float> v2) {
-        double dotProduct = 0.0;
-        double norm1 = 0.0;
-        double norm2 = 0.0;
-        
-        for (int i = 0; i < v1.size(); i++) {
-            dotProduct += v1.get(i) * v2.get(i);
-            norm1 += v1.get(i) * v1.get(i);
-            norm2 += v2.get(i) * v2.get(i);
+    public String getCodeChunk(String chunkId) {
+        try {
+            return index.chunkText(chunkId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read chunk " + chunkId, e);
         }
-        
-        return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
     }
 
-    public String getCodeChunk(String chunkId) {
-        return codeChunks.get(chunkId);
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /**
+     * 把索引写回磁盘
+     */
+    public void flush() throws IOException {
+        index.flush();
     }
 
     public void clear() {
-        codeVectors.clear();
-        codeChunks.clear();
+        try {
+            index.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to clear index", e);
+        }
     }
 } 
\ No newline at end of file
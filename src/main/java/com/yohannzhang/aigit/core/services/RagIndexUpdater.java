@@ -0,0 +1,266 @@
+package com.yohannzhang.aigit.core.services;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.yohannzhang.aigit.core.analyzers.BaseCodeAnalyzer;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 跟随文件变更增量更新 {@link CodeRAGService} 的索引。
+ * <p>
+ * 订阅 VFS 批量事件（保存、新建、删除、移动、重命名）和 PSI 变更（编辑器中尚未保存的修改），只记录涉及的文件，
+ * 最后一次变更后安静 {@link #DEBOUNCE_MS} 再统一处理：内容哈希未变的文件跳过，变化的重新切块和向量化，
+ * 删除的文件从索引中移除，向量槽位打上墓碑留给之后的写入。写回磁盘另行合并，最迟 {@link #FLUSH_DELAY_MS} 一次。
+ */
+final class RagIndexUpdater implements Disposable {
+    private static final Logger log = LoggerFactory.getLogger(RagIndexUpdater.class);
+
+    /**
+     * 最后一次变更后等待的安静期
+     */
+    static final long DEBOUNCE_MS = 1_500;
+
+    /**
+     * 持续编辑时最多推迟这么久，保证索引不会一直落后
+     */
+    static final long MAX_DELAY_MS = 10_000;
+
+    /**
+     * 增量更新后写回磁盘的延迟，期间的更新合并为一次写入
+     */
+    static final long FLUSH_DELAY_MS = 30_000;
+
+    private final Project project;
+    private final CodeRAGService service;
+    // 更新串行执行，两批变更不会同时处理同一个文件
+    private final Executor executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("RAG Index Updater", 1);
+
+    private final Object lock = new Object();
+    private final Set<VirtualFile> changed = new LinkedHashSet<>();
+    private final Set<String> removed = new LinkedHashSet<>();
+    private long firstPendingAt;
+    private ScheduledFuture<?> pendingUpdate;
+    private ScheduledFuture<?> pendingFlush;
+    private boolean disposed;
+
+    RagIndexUpdater(Project project, CodeRAGService service) {
+        this.project = project;
+        this.service = service;
+    }
+
+    void start() {
+        project.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+            @Override
+            public void after(@NotNull List<? extends VFileEvent> events) {
+                onFileEvents(events);
+            }
+        });
+        PsiManager.getInstance(project).addPsiTreeChangeListener(new PsiTreeChangeAdapter() {
+            @Override
+            public void childAdded(@NotNull PsiTreeChangeEvent event) {
+                onPsiChange(event);
+            }
+
+            @Override
+            public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+                onPsiChange(event);
+            }
+
+            @Override
+            public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+                onPsiChange(event);
+            }
+
+            @Override
+            public void childMoved(@NotNull PsiTreeChangeEvent event) {
+                onPsiChange(event);
+            }
+
+            @Override
+            public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+                onPsiChange(event);
+            }
+        }, this);
+    }
+
+    /**
+     * 在 EDT 的写操作中调用，只做记录
+     */
+    private void onFileEvents(List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+            if (event instanceof VFileDeleteEvent delete) {
+                markRemoved(delete.getFile(), delete.getPath());
+            } else if (event instanceof VFileMoveEvent move) {
+                markRemoved(move.getFile(), move.getOldPath());
+                markChanged(move.getFile());
+            } else if (event instanceof VFilePropertyChangeEvent property) {
+                if (property.isRename()) {
+                    markRemoved(property.getFile(), property.getOldPath());
+                    markChanged(property.getFile());
+                }
+            } else if (event instanceof VFileCopyEvent copy) {
+                VirtualFile created = copy.findCreatedFile();
+                if (created != null) {
+                    markChanged(created);
+                }
+            } else if (event instanceof VFileContentChangeEvent || event instanceof VFileCreateEvent) {
+                VirtualFile file = event.getFile();
+                if (file != null) {
+                    markChanged(file);
+                }
+            }
+        }
+    }
+
+    private void onPsiChange(PsiTreeChangeEvent event) {
+        PsiFile file = event.getFile();
+        if (file == null || !file.isPhysical()) {
+            return;
+        }
+        VirtualFile virtualFile = file.getVirtualFile();
+        if (virtualFile != null) {
+            markChanged(virtualFile);
+        }
+    }
+
+    private void markChanged(VirtualFile file) {
+        if (!file.isValid() || !isRelevant(file)) {
+            return;
+        }
+        if (!ProjectFileIndex.getInstance(project).isInContent(file)) {
+            return;
+        }
+        synchronized (lock) {
+            changed.add(file);
+            scheduleUpdate();
+        }
+    }
+
+    /**
+     * 文件已删除或移走，无法再判断是否属于项目，按 path 在索引中查找；目录移除索引中位于其下的全部文件
+     */
+    private void markRemoved(VirtualFile file, String path) {
+        if (!isRelevant(file)) {
+            return;
+        }
+        synchronized (lock) {
+            removed.add(path);
+            scheduleUpdate();
+        }
+    }
+
+    private static boolean isRelevant(VirtualFile file) {
+        return file.isDirectory() || BaseCodeAnalyzer.isSourceFile(file.getName());
+    }
+
+    /**
+     * 每次变更都把更新推迟到 {@link #DEBOUNCE_MS} 之后，但不晚于第一次未处理变更后的 {@link #MAX_DELAY_MS}
+     */
+    private void scheduleUpdate() {
+        if (disposed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (pendingUpdate == null) {
+            firstPendingAt = now;
+        } else {
+            pendingUpdate.cancel(false);
+        }
+        long delay = Math.min(DEBOUNCE_MS, Math.max(0, firstPendingAt + MAX_DELAY_MS - now));
+        pendingUpdate = AppExecutorUtil.getAppScheduledExecutorService()
+                .schedule(() -> executor.execute(this::update), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void update() {
+        Set<VirtualFile> files;
+        Set<String> paths;
+        synchronized (lock) {
+            pendingUpdate = null;
+            if (disposed || changed.isEmpty() && removed.isEmpty()) {
+                return;
+            }
+            files = new LinkedHashSet<>(changed);
+            paths = new LinkedHashSet<>(removed);
+            changed.clear();
+            removed.clear();
+        }
+        try {
+            long start = System.nanoTime();
+            int chunks = service.update(files, paths);
+            log.debug("Updated RAG index for {}: {} changed, {} removed, {} chunks in {} ms", project.getName(),
+                    files.size(), paths.size(), chunks, (System.nanoTime() - start) / 1_000_000);
+            scheduleFlush();
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Failed to update RAG index for {}", project.getName(), e);
+        }
+    }
+
+    private void scheduleFlush() {
+        synchronized (lock) {
+            if (disposed || pendingFlush != null) {
+                return;
+            }
+            pendingFlush = AppExecutorUtil.getAppScheduledExecutorService()
+                    .schedule(() -> executor.execute(this::flush), FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        synchronized (lock) {
+            pendingFlush = null;
+            if (disposed) {
+                return;
+            }
+        }
+        try {
+            service.flush();
+        } catch (IOException e) {
+            log.warn("Failed to write RAG index for {}", project.getName(), e);
+        }
+    }
+
+    /**
+     * 未处理的变更直接丢弃：关闭项目时文件已保存，下次打开后的同步会按内容哈希补上
+     */
+    @Override
+    public void dispose() {
+        synchronized (lock) {
+            disposed = true;
+            if (pendingUpdate != null) {
+                pendingUpdate.cancel(false);
+            }
+            if (pendingFlush != null) {
+                pendingFlush.cancel(false);
+            }
+            changed.clear();
+            removed.clear();
+        }
+    }
+}
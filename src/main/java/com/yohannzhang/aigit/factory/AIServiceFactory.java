@@ -1,14 +1,50 @@
 package com.yohannzhang.aigit.factory;
 
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.ModelRoutingPolicy;
+import com.yohannzhang.aigit.core.llm.TaskType;
+import com.yohannzhang.aigit.service.AdaptiveAIService;
 import com.yohannzhang.aigit.service.AIService;
+import com.yohannzhang.aigit.service.CachingAIService;
+import com.yohannzhang.aigit.service.ProviderRoutingService;
+import com.yohannzhang.aigit.service.RoutingAIService;
 import com.yohannzhang.aigit.service.impl.*;
 
+import java.util.List;
+import java.util.function.Function;
+
 
 public class AIServiceFactory {
 
     public static AIService createAIService(String selectedClient) {
-        return switch (selectedClient) {
+        return new CachingAIService(selectedClient, createUncachedAIService(selectedClient));
+    }
+
+    /**
+     * 按任务类型和 prompt 大小选择 client，见 {@link ModelRoutingPolicy}；未开启模型路由时使用 selectedClient。
+     * 请求按 task 统计调用指标。
+     */
+    public static AIService createAIService(String selectedClient, TaskType task, boolean useResponseCache) {
+        Function<String, AIService> factory = useResponseCache
+                ? AIServiceFactory::createAIService
+                : AIServiceFactory::createUncachedAIService;
+        return new AdaptiveAIService(selectedClient, task, factory);
+    }
+
+    /**
+     * 不经过响应缓存的实现，用于需要每次都重新生成的场景（如对话）。
+     * 请求经由 {@link ProviderRoutingService}，配置了备用 client 时失败会故障转移到备用 client。
+     */
+    public static AIService createUncachedAIService(String selectedClient) {
+        List<String> backups = ProviderRoutingService.getInstance().backupsFor(selectedClient);
+        return new RoutingAIService(selectedClient, backups, AIServiceFactory::createClientAIService);
+    }
+
+    /**
+     * 单个 client 的实现，不经过响应缓存和故障转移，用于校验配置、查询能力等针对该 client 本身的场景。
+     */
+    public static AIService createClientAIService(String client) {
+        return switch (client) {
             case Constants.Ollama -> new OllamaService();
             case Constants.Gemini -> new GeminiService();
             case Constants.DeepSeek -> new DeepSeekAPIService();
@@ -17,7 +53,7 @@ public class AIServiceFactory {
             case Constants.阿里云百炼 -> new AliYunBaiLianService();
             case Constants.SiliconFlow -> new SiliconFlowService();
             case Constants.VLLM -> new VllmService();
-            default -> throw new IllegalArgumentException("Invalid LLM client: " + selectedClient);
+            default -> throw new IllegalArgumentException("Invalid LLM client: " + client);
         };
     }
 }
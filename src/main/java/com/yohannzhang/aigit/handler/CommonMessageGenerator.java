@@ -3,6 +3,7 @@ package com.yohannzhang.aigit.handler;
 
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
 import com.yohannzhang.aigit.service.CodeService;
 import com.yohannzhang.aigit.ui.CombinedWindowFactory;
 import com.yohannzhang.aigit.util.IdeaDialogUtil;
@@ -22,7 +23,7 @@ public class CommonMessageGenerator {
     public void generate(String prompt) {
         messageBuilder.setLength(0);
         try {
-            codeService.generateCommitMessageStream(
+            RequestHandle handle = codeService.generateCommitMessageStream(
                     prompt,
                     token -> handleTokenResponse(token),
                     this::handleErrorResponse,
@@ -30,6 +31,7 @@ public class CommonMessageGenerator {
                         CombinedWindowFactory.getInstance(project).resetButton(project);
                     })
             );
+            CombinedWindowFactory.getInstance(project).registerRequest(project, handle);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,28 @@
+package com.yohannzhang.aigit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 对话视图的一次 Markdown 渲染，在渲染线程上执行。
+ */
+@Name("com.yohannzhang.aigit.ChatRender")
+@Label("Chat Render")
+@Category({"AICodeMaster", "UI"})
+@Description("Rendering Markdown to HTML for the chat view")
+@StackTrace(false)
+public class ChatRenderEvent extends Event {
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Markdown Length")
+    public long markdownChars;
+
+    @Label("HTML Length")
+    public long htmlChars;
+}
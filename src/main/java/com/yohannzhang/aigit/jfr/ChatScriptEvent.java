@@ -0,0 +1,25 @@
+package com.yohannzhang.aigit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 在 EDT 上向对话视图提交一批脚本，与 EDT 卡顿对照时使用。
+ */
+@Name("com.yohannzhang.aigit.ChatScript")
+@Label("Chat Script Dispatch")
+@Category({"AICodeMaster", "UI"})
+@Description("Dispatching a batch of chat view scripts on the EDT")
+@StackTrace(false)
+public class ChatScriptEvent extends Event {
+
+    @Label("Scripts")
+    public int scripts;
+
+    @Label("Script Length")
+    public long scriptChars;
+}
@@ -0,0 +1,52 @@
+package com.yohannzhang.aigit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 一次上游 LLM 调用，从发起（含排队）到结束。由 {@link com.yohannzhang.aigit.service.LLMMetricsService} 提交。
+ */
+@Name("com.yohannzhang.aigit.LLMRequest")
+@Label("LLM Request")
+@Category({"AICodeMaster", "LLM"})
+@Description("Upstream LLM call, including rate limiter queueing")
+@StackTrace(false)
+public class LLMRequestEvent extends Event {
+
+    @Label("Provider")
+    public String provider;
+
+    @Label("Model")
+    public String model;
+
+    @Label("Action")
+    public String action;
+
+    @Label("Prompt Length")
+    public long promptChars;
+
+    @Label("Input Tokens")
+    public long inputTokens;
+
+    @Label("Output Tokens")
+    public long outputTokens;
+
+    @Label("Queue Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long queueTime;
+
+    @Label("Time To First Token")
+    @Timespan(Timespan.NANOSECONDS)
+    public long timeToFirstToken;
+
+    @Label("Failed")
+    public boolean failed;
+
+    @Label("Cancelled")
+    public boolean cancelled;
+}
@@ -0,0 +1,31 @@
+package com.yohannzhang.aigit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 一次项目分析（扫描源文件、提取符号和统计）。
+ */
+@Name("com.yohannzhang.aigit.ProjectAnalysis")
+@Label("Project Analysis")
+@Category({"AICodeMaster", "Indexing"})
+@Description("Scanning source files for project analysis")
+@StackTrace(false)
+public class ProjectAnalysisEvent extends Event {
+
+    @Label("Analyzer")
+    public String analyzer;
+
+    @Label("Project Path")
+    public String projectPath;
+
+    @Label("Files Scanned")
+    public int filesScanned;
+
+    @Label("Lines")
+    public long lines;
+}
@@ -0,0 +1,28 @@
+package com.yohannzhang.aigit.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 一次 RAG 向量化（切块并生成向量）。
+ */
+@Name("com.yohannzhang.aigit.RagIndex")
+@Label("RAG Indexing")
+@Category({"AICodeMaster", "Indexing"})
+@Description("Chunking and vectorizing project files for RAG")
+@StackTrace(false)
+public class RagIndexEvent extends Event {
+
+    @Label("Files")
+    public int files;
+
+    @Label("Chunks")
+    public int chunks;
+
+    @Label("Content Length")
+    public long contentChars;
+}
@@ -1,5 +1,6 @@
 package com.yohannzhang.aigit.pojo;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.List;
@@ -22,6 +23,11 @@ public class GeminiRequestBO {
     }
 
     public static class Content {
+        // user 或 model，单轮请求可省略
+        @JsonProperty("role")
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private String role;
+
         @JsonProperty("parts")
         private List<Part> parts;
 
@@ -29,6 +35,19 @@ public class GeminiRequestBO {
             this.parts = parts;
         }
 
+        public Content(String role, List<Part> parts) {
+            this.role = role;
+            this.parts = parts;
+        }
+
+        public String getRole() {
+            return role;
+        }
+
+        public void setRole(String role) {
+            this.role = role;
+        }
+
         public List<Part> getParts() {
             return parts;
         }
@@ -1,9 +1,11 @@
 package com.yohannzhang.aigit.service;
 
+import com.yohannzhang.aigit.core.llm.RequestHandle;
 import com.yohannzhang.aigit.util.OpenAIUtil;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
 import java.util.Map;
 import java.util.function.Consumer;
 
@@ -18,7 +20,10 @@ public interface AIService {
 
     String generateCommitMessage(String content) throws Exception;
 
-    void generateCommitMessageStream(String prompt, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception;
+    /**
+     * 流式生成，返回本次请求的取消句柄
+     */
+    RequestHandle generateCommitMessageStream(String prompt, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception;
 
     boolean checkNecessaryModuleConfigIsRight();
 
@@ -26,13 +31,12 @@ public interface AIService {
     default boolean validateConfig(Map<String, String> config) {
         int statusCode;
         try {
-            HttpURLConnection connection = OpenAIUtil.getHttpURLConnection(config.get("url"), config.get("module"), config.get("apiKey"), "hi");
-            statusCode = connection.getResponseCode();
+            HttpResponse<InputStream> response = OpenAIUtil.getHttpResponse(config.get("url"), config.get("module"), config.get("apiKey"), "hi");
+            statusCode = response.statusCode();
+            response.body().close();
         } catch (IOException e) {
             return false;
         }
-        // 打印状态码
-        System.out.println("HTTP Status Code: " + statusCode);
         return statusCode == 200;
     }
 }
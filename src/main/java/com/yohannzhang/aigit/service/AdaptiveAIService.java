@@ -0,0 +1,59 @@
+package com.yohannzhang.aigit.service;
+
+import com.yohannzhang.aigit.core.llm.ModelRoutingPolicy;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.TaskType;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 每次请求按 {@link ModelRoutingPolicy} 选择 client 的 {@link AIService}，请求在 {@link TaskType#call} 内发起。
+ * 配置检查、是否流式等按默认 client。
+ */
+public class AdaptiveAIService implements AIService {
+
+    private final String defaultClient;
+    private final TaskType task;
+    private final Function<String, AIService> factory;
+    private final Map<String, AIService> services = new ConcurrentHashMap<>();
+
+    public AdaptiveAIService(String defaultClient, TaskType task, Function<String, AIService> factory) {
+        this.defaultClient = defaultClient;
+        this.task = task;
+        this.factory = factory;
+    }
+
+    @Override
+    public boolean generateByStream() {
+        return service(defaultClient).generateByStream();
+    }
+
+    @Override
+    public String generateCommitMessage(String content) throws Exception {
+        AIService service = service(ModelRoutingPolicy.chooseClient(defaultClient, task, content));
+        return TaskType.call(task, () -> service.generateCommitMessage(content));
+    }
+
+    @Override
+    public RequestHandle generateCommitMessageStream(String prompt, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
+        AIService service = service(ModelRoutingPolicy.chooseClient(defaultClient, task, prompt));
+        return TaskType.call(task, () -> service.generateCommitMessageStream(prompt, onNext, onError, onComplete));
+    }
+
+    @Override
+    public boolean checkNecessaryModuleConfigIsRight() {
+        return service(defaultClient).checkNecessaryModuleConfigIsRight();
+    }
+
+    @Override
+    public boolean validateConfig(Map<String, String> config) {
+        return service(defaultClient).validateConfig(config);
+    }
+
+    private AIService service(String client) {
+        return services.computeIfAbsent(client, factory);
+    }
+}
@@ -4,8 +4,8 @@ import com.intellij.openapi.progress.ProcessCanceledException;
 import com.yohannzhang.aigit.core.analysis.BaseCodeAnalyzer;
 import com.yohannzhang.aigit.core.llm.LLMEngine;
 import com.yohannzhang.aigit.core.llm.LLMEngine.StreamCallback;
-import com.yohannzhang.aigit.util.OpenAIUtil;
-import com.yohannzhang.aigit.service.impl.OllamaService;
+import com.yohannzhang.aigit.core.llm.PromptBudget;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
 
 import java.util.List;
 import java.util.Map;
@@ -18,6 +18,7 @@ public class AnalysisService {
     private final BaseCodeAnalyzer codeAnalyzer;
     private final LLMEngine llmEngine;
     private final AtomicBoolean isCancelled;
+    private volatile RequestHandle currentHandle;
 
     public AnalysisService(BaseCodeAnalyzer codeAnalyzer, LLMEngine llmEngine) {
         this.codeAnalyzer = codeAnalyzer;
@@ -27,25 +28,44 @@ public class AnalysisService {
 
     public void setCancelled(boolean cancelled) {
         isCancelled.set(cancelled);
+        if (cancelled) {
+            cancelCurrentRequest();
+        }
+    }
+
+    /**
+     * 只取消本服务发起的请求，不影响其他并行中的对话或任务
+     */
+    private void cancelCurrentRequest() {
+        RequestHandle handle = currentHandle;
+        if (handle != null) {
+            handle.cancel();
+        }
+    }
+
+    private RequestHandle track(RequestHandle handle) {
+        currentHandle = handle;
+        handle.onCancel(() -> isCancelled.set(true));
+        return handle;
     }
 
     public Map<String, Object> analyzeCode(String code, String language) {
         return llmEngine.analyzeCode(code, language);
     }
 
-    public void optimizeCode(String code, String language, List<String> suggestions, StreamCallback callback) {
-        llmEngine.optimizeCode(code, language, suggestions, callback);
+    public RequestHandle optimizeCode(String code, String language, List<String> suggestions, StreamCallback callback) {
+        return track(llmEngine.optimizeCode(code, language, suggestions, callback));
     }
 
-    public void generateTests(String code, String language, String context, StreamCallback callback) {
-        llmEngine.generateTests(code, language, context, callback);
+    public RequestHandle generateTests(String code, String language, String context, StreamCallback callback) {
+        return track(llmEngine.generateTests(code, language, context, callback));
     }
 
     public String generateDocumentation(String code, String language) {
         return llmEngine.generateDocumentation(code, language);
     }
 
-    public void generateProjectDocumentation(String prompt, StreamCallback callback) {
+    public RequestHandle generateProjectDocumentation(String prompt, StreamCallback callback) {
         try {
             if (isCancelled.get()) {
                 throw new ProcessCanceledException();
@@ -56,7 +76,7 @@ public class AnalysisService {
 
 
             // 使用 LLM 引擎生成文档
-            llmEngine.generateText(prompt, new StreamCallback() {
+            RequestHandle handle = llmEngine.generateText(prompt, new StreamCallback() {
                 @Override
                 public void onStart() {
                     if (isCancelled.get()) {
@@ -69,8 +89,7 @@ public class AnalysisService {
                 public void onToken(String token) {
                     if (isCancelled.get()) {
                         // 立即取消 LLM 请求
-                        OpenAIUtil.cancelRequest();
-                        OllamaService.cancelRequest();
+                        cancelCurrentRequest();
                         throw new ProcessCanceledException();
                     }
                     callback.onToken(token);
@@ -80,8 +99,7 @@ public class AnalysisService {
                 public void onError(Throwable error) {
                     if (error instanceof ProcessCanceledException || isCancelled.get()) {
                         // 确保 LLM 请求被取消
-                        OpenAIUtil.cancelRequest();
-                        OllamaService.cancelRequest();
+                        cancelCurrentRequest();
                         callback.onError(new ProcessCanceledException());
                     } else {
                         callback.onError(error);
@@ -97,14 +115,15 @@ public class AnalysisService {
                     }
                 }
             });
+            return track(handle);
         } catch (ProcessCanceledException e) {
             // 确保 LLM 请求被取消
-            OpenAIUtil.cancelRequest();
-            OllamaService.cancelRequest();
+            cancelCurrentRequest();
             callback.onError(e);
         } catch (Exception e) {
             callback.onError(e);
         }
+        return RequestHandle.completed();
     }
 
     public String generateApiDocumentation(List<String> files) {
@@ -137,10 +156,9 @@ public class AnalysisService {
                 "3. 请求参数说明\n" +
                 "4. 响应格式和示例\n" +
                 "5. 错误码说明\n" +
-                "6. 使用示例\n\n" +
-                fileOverview.toString();
+                "6. 使用示例\n\n";
 
-        return initialPrompt;
+        return PromptBudget.forEngine(llmEngine).fixed(initialPrompt).document(fileOverview.toString(), false).build();
     }
 
     public String generateUmlDiagram(List<String> files) {
@@ -217,9 +235,9 @@ public class AnalysisService {
                 "4. 包含重要的字段和方法\n" +
                 "5. 使用合适的布局和样式\n" +
                 "6. 添加适当的注释说明\n\n" +
-                "项目结构分析：\n" + structureInfo.toString();
+                "项目结构分析：\n";
 
-        return prompt;
+        return PromptBudget.forEngine(llmEngine).fixed(prompt).document(structureInfo.toString(), false).build();
     }
 
     private String extractPackageName(String content) {
@@ -314,12 +332,12 @@ public class AnalysisService {
                 "3. 包之间的依赖关系\n" +
                 "4. 外部依赖\n" +
                 "5. 循环依赖（如果有）\n\n" +
-                "代码内容：\n" + readFiles(files);
-        return prompt;
+                "代码内容：\n";
+        return PromptBudget.forEngine(llmEngine).fixed(prompt).documents("", readFiles(files), "").build();
 //        llmEngine.generateText(prompt, callback);
     }
 
-    public void generateBilingualDocumentation(List<String> files, LLMEngine.StreamCallback callback) {
+    public RequestHandle generateBilingualDocumentation(List<String> files, LLMEngine.StreamCallback callback) {
         String prompt = "请为以下代码生成中英双语文档，包括：\n" +
                 "1. 项目概述（中英文）\n" +
                 "2. 架构设计（中英文）\n" +
@@ -327,24 +345,27 @@ public class AnalysisService {
                 "4. 关键方法说明（中英文）\n" +
                 "5. 配置说明（中英文）\n" +
                 "6. 部署说明（中英文）\n\n" +
-                "代码内容：\n" + readFiles(files);
-        llmEngine.generateText(prompt, callback);
+                "代码内容：\n";
+        prompt = PromptBudget.forEngine(llmEngine).fixed(prompt).documents("", readFiles(files), "").build();
+        return track(llmEngine.generateText(prompt, callback));
     }
 
-    public String readFiles(List<String> files) {
-        StringBuilder content = new StringBuilder();
+    /**
+     * 读取文件内容，每个文件作为一个文档，由 {@link PromptBudget} 按模型窗口分配篇幅。
+     */
+    public List<PromptBudget.Document> readFiles(List<String> files) {
+        List<PromptBudget.Document> documents = new ArrayList<>();
         for (String file : files) {
             if (isCancelled.get()) {
                 throw new ProcessCanceledException();
             }
             try {
                 String fileContent = new String(java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(file)));
-                content.append("文件：").append(file).append("\n");
-                content.append(fileContent).append("\n\n");
+                documents.add(new PromptBudget.Document("文件：" + file + "\n", fileContent, "\n\n", true));
             } catch (Exception e) {
-                content.append("无法读取文件：").append(file).append("\n");
+                documents.add(new PromptBudget.Document("无法读取文件：" + file + "\n", "", "", false));
             }
         }
-        return content.toString();
+        return documents;
     }
 } 
\ No newline at end of file
@@ -0,0 +1,68 @@
+package com.yohannzhang.aigit.service;
+
+import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 为 {@link AIService} 加上响应缓存，命中时通过流式回调回放缓存内容。
+ */
+public class CachingAIService implements AIService {
+
+    private final String client;
+    private final AIService delegate;
+
+    public CachingAIService(String client, AIService delegate) {
+        this.client = client;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean generateByStream() {
+        return delegate.generateByStream();
+    }
+
+    @Override
+    public String generateCommitMessage(String content) throws Exception {
+        ResponseCacheService cache = ResponseCacheService.getInstance();
+        if (!cache.isEnabled()) {
+            return delegate.generateCommitMessage(content);
+        }
+        String key = cacheKey("generateCommitMessage", content);
+        String cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        String response = delegate.generateCommitMessage(content);
+        if (response != null) {
+            cache.put(key, response);
+        }
+        return response;
+    }
+
+    @Override
+    public RequestHandle generateCommitMessageStream(String prompt, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
+        return ResponseCacheService.getInstance().stream(cacheKey("generateCommitMessageStream", prompt),
+                onNext, onError, onComplete,
+                (next, error, complete) -> delegate.generateCommitMessageStream(prompt, next, error, complete));
+    }
+
+    @Override
+    public boolean checkNecessaryModuleConfigIsRight() {
+        return delegate.checkNecessaryModuleConfigIsRight();
+    }
+
+    @Override
+    public boolean validateConfig(Map<String, String> config) {
+        return delegate.validateConfig(config);
+    }
+
+    private String cacheKey(String operation, String prompt) {
+        ApiKeySettings settings = ApiKeySettings.getInstance();
+        ApiKeySettings.ModuleConfig moduleConfig = settings.getModuleConfigs().get(client);
+        String endpoint = moduleConfig == null ? "" : moduleConfig.getUrl();
+        return ResponseCacheService.key(client, settings.getModelFor(client), operation, endpoint, prompt);
+    }
+}
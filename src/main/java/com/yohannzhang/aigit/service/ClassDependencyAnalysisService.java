@@ -6,6 +6,8 @@ import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.search.searches.ReferencesSearch;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.yohannzhang.aigit.core.llm.LLMEngine;
+import com.yohannzhang.aigit.core.llm.PromptBudget;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
@@ -252,10 +254,10 @@ public class ClassDependencyAnalysisService {
         return report.toString();
     }
 
-    public void generateDependencyFlowChart(String analysisResult, LLMEngine.StreamCallback callback) {
+    public RequestHandle generateDependencyFlowChart(String analysisResult, LLMEngine.StreamCallback callback) {
         if (isCancelled.get()) {
             callback.onError(new InterruptedException("Analysis cancelled"));
-            return;
+            return RequestHandle.completed();
         }
 
         // 构建提示词
@@ -272,9 +274,10 @@ public class ClassDependencyAnalysisService {
                        "6. 说明异常情况的处理方式\n" +
                        "7. 如果依赖关系过于复杂，只展示最重要的部分\n" +
                        "8. 使用简洁的语言，避免冗长的描述\n\n" +
-                       "分析结果：\n" + analysisResult;
+                       "分析结果：\n";
+        prompt = PromptBudget.forEngine(llmEngine).fixed(prompt).document(analysisResult, false).build();
 
         // 使用LLM生成伪代码
-        llmEngine.generateText(prompt, callback);
+        return llmEngine.generateText(prompt, callback);
     }
 } 
\ No newline at end of file
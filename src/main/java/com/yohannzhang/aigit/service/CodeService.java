@@ -2,6 +2,8 @@ package com.yohannzhang.aigit.service;
 
 
 import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.TaskType;
 import com.yohannzhang.aigit.factory.AIServiceFactory;
 
 import java.util.function.Consumer;
@@ -25,8 +27,8 @@ public class CodeService {
         return aiService.generateCommitMessage(prompt);
     }
 
-    public void generateCommitMessageStream(String prompt, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
-        aiService.generateCommitMessageStream(prompt, onNext, onError, onComplete);
+    public RequestHandle generateCommitMessageStream(String prompt, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
+        return aiService.generateCommitMessageStream(prompt, onNext, onError, onComplete);
     }
 
 
@@ -36,8 +38,26 @@ public class CodeService {
 
 
     public CodeService() {
+        this(true);
+    }
+
+    /**
+     * @param useResponseCache 为 false 时每次都请求模型，不读写响应缓存
+     */
+    public CodeService(boolean useResponseCache) {
+        this(useResponseCache, TaskType.CHAT);
+    }
+
+    public CodeService(TaskType task) {
+        this(true, task);
+    }
+
+    /**
+     * @param task 任务类型，开启模型路由时按它和 prompt 大小选择 client
+     */
+    public CodeService(boolean useResponseCache, TaskType task) {
         String selectedClient = settings.getSelectedClient();
-        this.aiService = AIServiceFactory.createAIService(selectedClient);
+        this.aiService = AIServiceFactory.createAIService(selectedClient, task, useResponseCache);
     }
 
 }
@@ -2,8 +2,9 @@ package com.yohannzhang.aigit.service;
 
 
 import com.yohannzhang.aigit.config.ApiKeySettings;
-import com.yohannzhang.aigit.constant.Constants;
-import com.yohannzhang.aigit.service.impl.*;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.TaskType;
+import com.yohannzhang.aigit.factory.AIServiceFactory;
 import com.yohannzhang.aigit.util.PromptUtil;
 
 import java.util.function.Consumer;
@@ -15,7 +16,7 @@ public class CommitMessageService {
 
     public CommitMessageService() {
         String selectedClient = settings.getSelectedClient();
-        this.aiService = getAIService(selectedClient);
+        this.aiService = AIServiceFactory.createAIService(selectedClient, TaskType.COMMIT, true);
     }
 
     public boolean checkNecessaryModuleConfigIsRight() {
@@ -27,29 +28,13 @@ public class CommitMessageService {
         return aiService.generateCommitMessage(prompt);
     }
 
-    public void generateCommitMessageStream(String diff, Consumer<String> onNext, Consumer<Throwable> onError,Runnable onComplete) throws Exception {
+    public RequestHandle generateCommitMessageStream(String diff, Consumer<String> onNext, Consumer<Throwable> onError,Runnable onComplete) throws Exception {
         String prompt = PromptUtil.constructPrompt(diff);
 //        System.out.println(prompt);
-        aiService.generateCommitMessageStream(prompt, onNext, onError, onComplete);
+        return aiService.generateCommitMessageStream(prompt, onNext, onError, onComplete);
     }
 
     public boolean generateByStream() {
         return aiService.generateByStream();
     }
-
-
-    public static AIService getAIService(String selectedClient) {
-        return switch (selectedClient) {
-            case Constants.Ollama -> new OllamaService();
-            case Constants.Gemini -> new GeminiService();
-            case Constants.DeepSeek -> new DeepSeekAPIService();
-            case Constants.OpenAI_API -> new OpenAIAPIService();
-            case Constants.CloudflareWorkersAI -> new CloudflareWorkersAIService();
-            case Constants.阿里云百炼 -> new AliYunBaiLianService();
-            case Constants.SiliconFlow -> new SiliconFlowService();
-            case Constants.VLLM -> new VllmService();
-            default -> throw new IllegalArgumentException("Invalid LLM client: " + selectedClient);
-        };
-    }
-
 }
@@ -0,0 +1,135 @@
+package com.yohannzhang.aigit.service;
+
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 响应体的读空闲超时。
+ * <p>
+ * {@link java.net.http.HttpRequest#timeout} 只限制等待响应头的时间，流式响应中途停住时读取会一直阻塞。
+ * 这里包装响应体的订阅者：下游已请求数据、但超过 idleTimeoutMs 没有收到任何数据时取消连接，
+ * 并以 {@link HttpTimeoutException} 结束下游，阻塞在读取上的线程随即抛出异常。下游读得慢（没有请求数据）时不计时。
+ */
+final class IdleTimeoutSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+
+    private final HttpResponse.BodySubscriber<T> delegate;
+    private final long idleTimeoutNanos;
+    private final AtomicBoolean done = new AtomicBoolean();
+    // 下游已请求但尚未收到的数据项数
+    private final AtomicLong outstanding = new AtomicLong();
+    private volatile long lastActivity = System.nanoTime();
+    private volatile Flow.Subscription subscription;
+    private volatile ScheduledFuture<?> check;
+
+    private IdleTimeoutSubscriber(HttpResponse.BodySubscriber<T> delegate, long idleTimeoutMs) {
+        this.delegate = delegate;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+    }
+
+    /**
+     * 给 handler 生成的订阅者加上读空闲超时，idleTimeoutMs 不大于 0 时不限制
+     */
+    static <T> HttpResponse.BodyHandler<T> wrap(HttpResponse.BodyHandler<T> handler, long idleTimeoutMs) {
+        if (idleTimeoutMs <= 0) {
+            return handler;
+        }
+        return info -> new IdleTimeoutSubscriber<>(handler.apply(info), idleTimeoutMs);
+    }
+
+    @Override
+    public CompletionStage<T> getBody() {
+        return delegate.getBody();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription upstream) {
+        subscription = upstream;
+        delegate.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                long before = outstanding.getAndAccumulate(n, (current, add) -> current + add < current ? Long.MAX_VALUE : current + add);
+                if (before <= 0) {
+                    // 从空闲转为等待数据，从此刻开始计时
+                    lastActivity = System.nanoTime();
+                }
+                upstream.request(n);
+            }
+
+            @Override
+            public void cancel() {
+                finish();
+                upstream.cancel();
+            }
+        });
+        schedule(idleTimeoutNanos);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {
+        if (done.get()) {
+            return;
+        }
+        lastActivity = System.nanoTime();
+        outstanding.decrementAndGet();
+        delegate.onNext(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (finish()) {
+            delegate.onError(throwable);
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        if (finish()) {
+            delegate.onComplete();
+        }
+    }
+
+    private boolean finish() {
+        if (!done.compareAndSet(false, true)) {
+            return false;
+        }
+        ScheduledFuture<?> pending = check;
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        return true;
+    }
+
+    private void schedule(long delayNanos) {
+        if (!done.get()) {
+            check = AppExecutorUtil.getAppScheduledExecutorService().schedule(this::checkIdle, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void checkIdle() {
+        long idle = System.nanoTime() - lastActivity;
+        if (outstanding.get() <= 0) {
+            schedule(idleTimeoutNanos);
+            return;
+        }
+        if (idle < idleTimeoutNanos) {
+            schedule(idleTimeoutNanos - idle);
+            return;
+        }
+        if (finish()) {
+            // 先结束下游，读取方拿到的是超时而不是取消连接引起的错误
+            delegate.onError(new HttpTimeoutException("No data received for "
+                    + TimeUnit.NANOSECONDS.toMillis(idle) + " ms"));
+            subscription.cancel();
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package com.yohannzhang.aigit.service;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.yohannzhang.aigit.core.llm.TaskType;
+import com.yohannzhang.aigit.core.llm.TokenCounter;
+import com.yohannzhang.aigit.jfr.LLMRequestEvent;
+import com.yohannzhang.aigit.util.LatencyHistogram;
+import com.yohannzhang.aigit.util.StreamDecoder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * LLM 调用的延迟与吞吐统计。
+ * <p>
+ * 按 client、模型和任务类型（{@link TaskType#current()}）分组，记录排队时间（限流与线程池）、建连时间（收到响应头）、
+ * 首 token 延迟、token 间隔、总耗时、输入输出 token 数（{@link TokenCounter} 本地估算）和出错、取消次数。
+ * 耗时以微秒记入 {@link LatencyHistogram}。只统计实际发出的上游请求，缓存命中和合并的请求不计入。
+ * <p>
+ * 每次调用同时提交一个 JFR 事件 {@link LLMRequestEvent}，未录制时不产生开销。
+ */
+public class LLMMetricsService {
+
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    public static LLMMetricsService getInstance() {
+        return ApplicationManager.getApplication().getService(LLMMetricsService.class);
+    }
+
+    /**
+     * 开始一次调用，须在发起请求的线程上调用以取得任务类型；结束时（包括出错、取消）调用 {@link Call#end}。
+     */
+    public Call start(@NotNull String client, @Nullable String model, @Nullable String prompt) {
+        String action = TaskType.current().name();
+        String modelName = model == null ? "" : model;
+        Stats target = stats.computeIfAbsent(client + '\n' + modelName + '\n' + action,
+                k -> new Stats(client, modelName, action));
+        TokenCounter counter = TokenCounter.forModel(client, model);
+        return new Call(target, counter, counter.count(prompt), prompt == null ? 0 : prompt.length());
+    }
+
+    /**
+     * 当前各分组统计的副本，按 client、模型、任务类型排序
+     */
+    public List<Stats> snapshot() {
+        List<Stats> snapshot = new ArrayList<>();
+        for (Stats value : stats.values()) {
+            snapshot.add(value.copy());
+        }
+        snapshot.sort(Comparator.comparing(Stats::getClient).thenComparing(Stats::getModel).thenComparing(Stats::getAction));
+        return snapshot;
+    }
+
+    public void reset() {
+        stats.clear();
+    }
+
+    /**
+     * 导出为 JSON，耗时单位为毫秒，直方图只列出非空桶（桶上界, 数量）。
+     */
+    public String exportJson() throws IOException {
+        List<Map<String, Object>> calls = new ArrayList<>();
+        for (Stats s : snapshot()) {
+            Map<String, Object> call = new LinkedHashMap<>();
+            call.put("provider", s.getClient());
+            call.put("model", s.getModel());
+            call.put("action", s.getAction());
+            call.put("calls", s.getCalls());
+            call.put("errors", s.getErrors());
+            call.put("cancels", s.getCancels());
+            call.put("tokensIn", s.getTokensIn());
+            call.put("tokensOut", s.getTokensOut());
+            call.put("queueTime", histogramJson(s.getQueueTime(), 1000.0));
+            call.put("connectTime", histogramJson(s.getConnectTime(), 1000.0));
+            call.put("timeToFirstToken", histogramJson(s.getTimeToFirstToken(), 1000.0));
+            call.put("interTokenLatency", histogramJson(s.getInterTokenLatency(), 1000.0));
+            call.put("totalDuration", histogramJson(s.getTotalDuration(), 1000.0));
+            call.put("outputTokensPerSecond", histogramJson(s.getOutputTokensPerSecond(), 1.0));
+            calls.add(call);
+        }
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("exportedAt", Instant.now().toString());
+        root.put("unit", "ms");
+        root.put("calls", calls);
+        return StreamDecoder.MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(root);
+    }
+
+    private static Map<String, Object> histogramJson(LatencyHistogram histogram, double divisor) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("count", histogram.getCount());
+        json.put("min", histogram.getMin() / divisor);
+        json.put("max", histogram.getMax() / divisor);
+        json.put("mean", histogram.getMean() / divisor);
+        json.put("p50", histogram.percentile(0.50) / divisor);
+        json.put("p90", histogram.percentile(0.90) / divisor);
+        json.put("p95", histogram.percentile(0.95) / divisor);
+        json.put("p99", histogram.percentile(0.99) / divisor);
+        List<double[]> buckets = new ArrayList<>();
+        for (long[] bucket : histogram.buckets()) {
+            buckets.add(new double[]{bucket[0] / divisor, bucket[1]});
+        }
+        json.put("buckets", buckets);
+        return json;
+    }
+
+    /**
+     * 一次上游调用的计时，各方法在读取响应的线程上按顺序调用。
+     */
+    public static final class Call {
+        private final Stats stats;
+        private final TokenCounter counter;
+        private final int inputTokens;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean ended = new AtomicBoolean(false);
+        private final LLMRequestEvent event = new LLMRequestEvent();
+        private final int promptChars;
+        private long acquiredNanos;
+        private long connectedNanos;
+        private long firstTokenNanos;
+        private long lastTokenNanos;
+        private int outputTokens;
+        private boolean failed;
+        private boolean cancelled;
+
+        private Call(Stats stats, TokenCounter counter, int inputTokens, int promptChars) {
+            this.stats = stats;
+            this.counter = counter;
+            this.inputTokens = inputTokens;
+            this.promptChars = promptChars;
+            event.begin();
+        }
+
+        /**
+         * 排队结束（取得限流许可），即将发出请求
+         */
+        public synchronized void acquired() {
+            acquiredNanos = System.nanoTime();
+        }
+
+        /**
+         * 收到响应头
+         */
+        public synchronized void connected() {
+            connectedNanos = System.nanoTime();
+        }
+
+        /**
+         * 包装输出回调，经过的内容计入首 token 延迟、token 间隔和输出 token 数
+         */
+        public Consumer<String> counting(@NotNull Consumer<String> onNext) {
+            return text -> {
+                output(text);
+                onNext.accept(text);
+            };
+        }
+
+        /**
+         * 记录一段输出；非流式接口在拿到完整响应时调用一次
+         */
+        public void output(@Nullable String text) {
+            long now = System.nanoTime();
+            long gap;
+            synchronized (this) {
+                gap = firstTokenNanos == 0 ? -1 : now - lastTokenNanos;
+                if (firstTokenNanos == 0) {
+                    firstTokenNanos = now;
+                }
+                lastTokenNanos = now;
+                outputTokens += counter.count(text);
+            }
+            if (gap >= 0) {
+                stats.interTokenLatency.record(TimeUnit.NANOSECONDS.toMicros(gap));
+            }
+        }
+
+        /**
+         * 请求出错；InterruptedException 视为取消
+         */
+        public synchronized void failed(@NotNull Throwable error) {
+            if (error instanceof InterruptedException) {
+                cancelled = true;
+            } else {
+                failed = true;
+            }
+        }
+
+        /**
+         * 调用结束，重复调用时只统计第一次
+         */
+        public void end(boolean cancelled) {
+            if (!ended.compareAndSet(false, true)) {
+                return;
+            }
+            long now = System.nanoTime();
+            synchronized (this) {
+                stats.record(this, now, cancelled || this.cancelled);
+                commitEvent(cancelled || this.cancelled);
+            }
+        }
+
+        private void commitEvent(boolean cancelled) {
+            event.end();
+            if (!event.shouldCommit()) {
+                return;
+            }
+            long sent = acquiredNanos != 0 ? acquiredNanos : startNanos;
+            event.provider = stats.client;
+            event.model = stats.model;
+            event.action = stats.action;
+            event.promptChars = promptChars;
+            event.inputTokens = inputTokens;
+            event.outputTokens = outputTokens;
+            event.queueTime = acquiredNanos != 0 ? acquiredNanos - startNanos : 0;
+            event.timeToFirstToken = firstTokenNanos != 0 ? firstTokenNanos - sent : 0;
+            event.failed = failed && !cancelled;
+            event.cancelled = cancelled;
+            event.commit();
+        }
+    }
+
+    /**
+     * 一个分组（client、模型、任务类型）的统计。
+     */
+    public static final class Stats {
+        private final String client;
+        private final String model;
+        private final String action;
+        private final LatencyHistogram queueTime;
+        private final LatencyHistogram connectTime;
+        private final LatencyHistogram timeToFirstToken;
+        private final LatencyHistogram interTokenLatency;
+        private final LatencyHistogram totalDuration;
+        private final LatencyHistogram outputTokensPerSecond;
+        private long calls;
+        private long errors;
+        private long cancels;
+        private long tokensIn;
+        private long tokensOut;
+
+        private Stats(String client, String model, String action) {
+            this(client, model, action, new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram(),
+                    new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram());
+        }
+
+        private Stats(String client, String model, String action, LatencyHistogram queueTime, LatencyHistogram connectTime,
+                      LatencyHistogram timeToFirstToken, LatencyHistogram interTokenLatency,
+                      LatencyHistogram totalDuration, LatencyHistogram outputTokensPerSecond) {
+            this.client = client;
+            this.model = model;
+            this.action = action;
+            this.queueTime = queueTime;
+            this.connectTime = connectTime;
+            this.timeToFirstToken = timeToFirstToken;
+            this.interTokenLatency = interTokenLatency;
+            this.totalDuration = totalDuration;
+            this.outputTokensPerSecond = outputTokensPerSecond;
+        }
+
+        private void record(Call call, long endNanos, boolean cancelled) {
+            long sent = call.acquiredNanos != 0 ? call.acquiredNanos : call.startNanos;
+            if (call.acquiredNanos != 0) {
+                queueTime.record(micros(call.acquiredNanos - call.startNanos));
+            }
+            if (call.connectedNanos != 0) {
+                connectTime.record(micros(call.connectedNanos - sent));
+            }
+            if (call.firstTokenNanos != 0) {
+                timeToFirstToken.record(micros(call.firstTokenNanos - sent));
+            }
+            totalDuration.record(micros(endNanos - call.startNanos));
+            long streaming = call.lastTokenNanos - call.firstTokenNanos;
+            if (call.outputTokens > 0 && streaming > 0) {
+                outputTokensPerSecond.record(Math.round(call.outputTokens * 1e9 / streaming));
+            }
+            synchronized (this) {
+                calls++;
+                if (cancelled) {
+                    cancels++;
+                } else if (call.failed) {
+                    errors++;
+                }
+                tokensIn += call.inputTokens;
+                tokensOut += call.outputTokens;
+            }
+        }
+
+        private synchronized Stats copy() {
+            Stats copy = new Stats(client, model, action, queueTime.copy(), connectTime.copy(), timeToFirstToken.copy(),
+                    interTokenLatency.copy(), totalDuration.copy(), outputTokensPerSecond.copy());
+            copy.calls = calls;
+            copy.errors = errors;
+            copy.cancels = cancels;
+            copy.tokensIn = tokensIn;
+            copy.tokensOut = tokensOut;
+            return copy;
+        }
+
+        private static long micros(long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+
+        public String getClient() {
+            return client;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public synchronized long getCalls() {
+            return calls;
+        }
+
+        public synchronized long getErrors() {
+            return errors;
+        }
+
+        public synchronized long getCancels() {
+            return cancels;
+        }
+
+        public synchronized long getTokensIn() {
+            return tokensIn;
+        }
+
+        public synchronized long getTokensOut() {
+            return tokensOut;
+        }
+
+        /**
+         * 本地排队时间（微秒）
+         */
+        public LatencyHistogram getQueueTime() {
+            return queueTime;
+        }
+
+        /**
+         * 发出请求到收到响应头（微秒）
+         */
+        public LatencyHistogram getConnectTime() {
+            return connectTime;
+        }
+
+        /**
+         * 发出请求到第一段输出（微秒）
+         */
+        public LatencyHistogram getTimeToFirstToken() {
+            return timeToFirstToken;
+        }
+
+        /**
+         * 相邻两段输出的间隔（微秒）
+         */
+        public LatencyHistogram getInterTokenLatency() {
+            return interTokenLatency;
+        }
+
+        /**
+         * 开始到结束的总耗时，含排队（微秒）
+         */
+        public LatencyHistogram getTotalDuration() {
+            return totalDuration;
+        }
+
+        /**
+         * 首 token 之后的输出速度（token/s）
+         */
+        public LatencyHistogram getOutputTokensPerSecond() {
+            return outputTokensPerSecond;
+        }
+    }
+}
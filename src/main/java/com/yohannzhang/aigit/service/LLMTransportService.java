@@ -0,0 +1,283 @@
+package com.yohannzhang.aigit.service;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.util.StreamDecoder;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 所有 LLM 供应商共享的 HTTP 传输层。
+ * <p>
+ * 每个 endpoint（scheme + host + port）复用一个 {@link HttpClient}，连接由 JDK 连接池保持 keep-alive；
+ * https 走 HTTP/2 多路复用，明文 http（Ollama、内网 vLLM）固定 HTTP/1.1，避免 h2c 升级被反向代理拒绝。
+ * 大请求体边序列化边发送，可按 endpoint 开启 gzip 压缩，见 {@link #postJson}。
+ * <p>
+ * 超时按请求设置：建连加等待响应头不超过 connectTimeoutMs + readTimeoutMs；之后读取响应体时，
+ * 超过 readTimeoutMs 收不到数据即中止，见 {@link IdleTimeoutSubscriber}。
+ */
+public class LLMTransportService implements Disposable {
+
+    private static final Logger log = LoggerFactory.getLogger(LLMTransportService.class);
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 30000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 30000;
+
+    /**
+     * prompt 不少于该字符数时边序列化边发送，不在内存中生成完整请求体
+     */
+    private static final int STREAMING_BODY_MIN_CHARS = 64 * 1024;
+
+    /**
+     * 小于该字节数的请求体不压缩，压缩省下的传输时间抵不过开销
+     */
+    private static final int GZIP_MIN_BYTES = 4096;
+
+    private final Map<String, HttpClient> clients = new ConcurrentHashMap<>();
+    // 对 gzip 请求体返回过 415 的 endpoint，之后不再压缩
+    private final Set<String> gzipRejected = ConcurrentHashMap.newKeySet();
+
+    public static LLMTransportService getInstance() {
+        return ApplicationManager.getApplication().getService(LLMTransportService.class);
+    }
+
+    /**
+     * 发送 POST 请求并以流的形式返回响应体，调用方负责关闭 body。
+     *
+     * @param url           请求地址
+     * @param headers       请求头
+     * @param body          请求体
+     * @param connectTimeoutMs 建连超时
+     * @param readTimeoutMs 等待响应头、读取响应体时的空闲超时
+     * @return 响应
+     */
+    public HttpResponse<InputStream> post(String url, Map<String, String> headers, byte[] body,
+                                          int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        URI uri = URI.create(url);
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout(connectTimeoutMs, readTimeoutMs))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        headers.forEach(builder::header);
+
+        try {
+            return clientFor(uri).send(builder.build(),
+                    IdleTimeoutSubscriber.wrap(HttpResponse.BodyHandlers.ofInputStream(), readTimeoutMs));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Request interrupted: " + uri, e);
+        }
+    }
+
+    /**
+     * 以 JSON 发送 POST 请求并以流的形式返回响应体，调用方负责关闭 body。
+     * <p>
+     * prompt 较大时请求体由 Jackson 直接写入连接，不经过完整的 byte[]；endpoint 对应的 {@link ApiKeySettings.ModuleConfig}
+     * 开启了请求压缩时以 gzip 发送，服务端返回 415 后该 endpoint 改回不压缩并重发一次。
+     *
+     * @param body        请求对象，由 {@link StreamDecoder#MAPPER} 序列化
+     * @param promptChars 请求中 prompt 的字符数，用于决定是否边序列化边发送
+     */
+    public HttpResponse<InputStream> postJson(String url, Map<String, String> headers, Object body, int promptChars,
+                                              int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        URI uri = URI.create(url);
+        String endpoint = endpointKey(uri);
+        boolean gzip = !gzipRejected.contains(endpoint) && isGzipEnabled(endpoint);
+        HttpResponse<InputStream> response = sendJson(uri, headers, body, promptChars, gzip, connectTimeoutMs, readTimeoutMs);
+        if (gzip && response.statusCode() == 415) {
+            response.body().close();
+            gzipRejected.add(endpoint);
+            log.warn("{} does not accept gzip request bodies, sending uncompressed from now on", endpoint);
+            response = sendJson(uri, headers, body, promptChars, false, connectTimeoutMs, readTimeoutMs);
+        }
+        return response;
+    }
+
+    private HttpResponse<InputStream> sendJson(URI uri, Map<String, String> headers, Object body, int promptChars,
+                                               boolean gzip, int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(requestTimeout(connectTimeoutMs, readTimeoutMs));
+        headers.forEach(builder::header);
+        StreamingJsonBody streaming = null;
+        if (promptChars >= STREAMING_BODY_MIN_CHARS) {
+            streaming = new StreamingJsonBody(body, gzip, readTimeoutMs);
+            builder.POST(streaming.publisher());
+            if (gzip) {
+                builder.header("Content-Encoding", "gzip");
+            }
+        } else {
+            byte[] bytes = StreamDecoder.MAPPER.writeValueAsBytes(body);
+            if (gzip && bytes.length >= GZIP_MIN_BYTES) {
+                bytes = gzip(bytes);
+                builder.header("Content-Encoding", "gzip");
+            }
+            builder.POST(HttpRequest.BodyPublishers.ofByteArray(bytes));
+        }
+
+        try {
+            return clientFor(uri).send(builder.build(),
+                    IdleTimeoutSubscriber.wrap(HttpResponse.BodyHandlers.ofInputStream(), readTimeoutMs));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Request interrupted: " + uri, e);
+        } finally {
+            // 服务端提前响应或请求失败时，中止仍在写入的序列化线程
+            if (streaming != null) {
+                streaming.close();
+            }
+        }
+    }
+
+    /**
+     * 配置了该 endpoint 的 client 中有开启请求压缩的（vLLM、Ollama 等部署在 nginx 之后时可开启）
+     */
+    private static boolean isGzipEnabled(String endpoint) {
+        for (ApiKeySettings.ModuleConfig config : ApiKeySettings.getInstance().getModuleConfigs().values()) {
+            if (config.isGzipRequests() && StringUtils.isNotEmpty(config.getUrl())) {
+                try {
+                    if (endpoint.equals(endpointKey(URI.create(config.getUrl())))) {
+                        return true;
+                    }
+                } catch (IllegalArgumentException ignored) {
+                    // 配置中的 URL 不合法，跳过
+                }
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 发送 POST 请求并读取完整响应体（非流式接口使用）。
+     */
+    public HttpResponse<String> postForString(String url, Map<String, String> headers, byte[] body,
+                                              int connectTimeoutMs, int readTimeoutMs) throws IOException {
+        URI uri = URI.create(url);
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout(connectTimeoutMs, readTimeoutMs))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        headers.forEach(builder::header);
+
+        try {
+            return clientFor(uri).send(builder.build(),
+                    IdleTimeoutSubscriber.wrap(HttpResponse.BodyHandlers.ofString(), readTimeoutMs));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Request interrupted: " + uri, e);
+        }
+    }
+
+    /**
+     * 非 2xx 响应时读取错误体并抛出异常，保持与 HttpURLConnection#getInputStream 一致的失败语义。
+     */
+    public static void ensureSuccess(HttpResponse<InputStream> response) throws IOException {
+        int status = response.statusCode();
+        if (status >= 200 && status < 300) {
+            return;
+        }
+        String body;
+        try (InputStream in = response.body()) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        throw new HttpStatusException(status, "Server returned HTTP response code: " + status + " for URL: " + response.uri()
+                + (body.isEmpty() ? "" : ", body=" + body), retryAfterMillis(response));
+    }
+
+    /**
+     * 响应头 Retry-After 的等待时间（毫秒），没有或无法解析时返回 -1。只处理秒数形式，HTTP 日期形式视为没有。
+     */
+    public static long retryAfterMillis(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse(null);
+        if (value != null) {
+            try {
+                return Math.max(0, Long.parseLong(value.trim()) * 1000);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 服务端返回非 2xx 状态码，保留状态码和 Retry-After 供故障转移、重试等判断。
+     */
+    public static class HttpStatusException extends IOException {
+        private final int statusCode;
+        private final long retryAfterMillis;
+
+        public HttpStatusException(int statusCode, String message) {
+            this(statusCode, message, -1);
+        }
+
+        public HttpStatusException(int statusCode, String message, long retryAfterMillis) {
+            super(message);
+            this.statusCode = statusCode;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * 服务端要求的等待时间（毫秒），未给出时为 -1
+         */
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+    }
+
+    private static String endpointKey(URI uri) {
+        String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase(Locale.ROOT);
+        int port = uri.getPort() != -1 ? uri.getPort() : ("https".equals(scheme) ? 443 : 80);
+        return scheme + "://" + uri.getHost() + ":" + port;
+    }
+
+    /**
+     * HttpClient 的建连超时是整个 client 共用的，client 又按 endpoint 共享，因此建连超时并入请求超时：
+     * 从发出请求到收到响应头不超过两者之和
+     */
+    private static Duration requestTimeout(int connectTimeoutMs, int readTimeoutMs) {
+        return Duration.ofMillis((long) Math.max(0, connectTimeoutMs) + Math.max(1, readTimeoutMs));
+    }
+
+    private HttpClient clientFor(URI uri) {
+        String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase(Locale.ROOT);
+        return clients.computeIfAbsent(endpointKey(uri), k -> {
+            log.debug("Creating HTTP client for endpoint {}", k);
+            return HttpClient.newBuilder()
+                    .version("https".equals(scheme) ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                    .proxy(ProxySelector.getDefault())
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .build();
+        });
+    }
+
+    @Override
+    public void dispose() {
+        // HttpClient 没有显式关闭接口（JDK 21 之前），释放引用后空闲连接随 selector 线程回收
+        clients.clear();
+    }
+}
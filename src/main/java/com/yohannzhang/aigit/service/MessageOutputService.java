@@ -6,11 +6,13 @@ import com.vladsch.flexmark.ext.tables.TablesExtension;
 import com.vladsch.flexmark.html.HtmlRenderer;
 import com.vladsch.flexmark.parser.Parser;
 import com.vladsch.flexmark.util.data.MutableDataSet;
+import com.yohannzhang.aigit.ui.StreamingMarkdownRenderer;
 
 import java.awt.*;
 import java.util.List;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class MessageOutputService {
     private static final Parser parser;
@@ -19,6 +21,10 @@ public class MessageOutputService {
     private final Color backgroundColor;
     private final Color fontColor;
     private final float fontSize;
+    // 已闭合的块按内容缓存，流式追加时只重新渲染尾部
+    private final StreamingMarkdownRenderer markdownRenderer = new StreamingMarkdownRenderer(parser, renderer);
+    // 待执行的最新脚本，EDT 积压时中间帧被覆盖
+    private final AtomicReference<String> pendingScript = new AtomicReference<>();
 
     static {
         MutableDataSet options = new MutableDataSet();
@@ -43,8 +49,7 @@ public class MessageOutputService {
                 .replace("```\n    </div>", "```\n\n    </div>");
 
         // 解析 Markdown 到 HTML
-        com.vladsch.flexmark.util.ast.Document document = parser.parse(processedMarkdown);
-        String htmlBody = renderer.render(document);
+        String htmlBody = markdownRenderer.render(processedMarkdown);
 
         // 转义反引号防止 JS 注入问题
         String safeHtml = htmlBody.replace("`", "\\`");
@@ -58,9 +63,14 @@ public class MessageOutputService {
                 safeHtml
         );
 
-        ApplicationManager.getApplication().invokeLater(() -> {
-            browser.getCefBrowser().executeJavaScript(script, "about:blank", 0);
-        });
+        if (pendingScript.getAndSet(script) == null) {
+            ApplicationManager.getApplication().invokeLater(() -> {
+                String latest = pendingScript.getAndSet(null);
+                if (latest != null) {
+                    browser.getCefBrowser().executeJavaScript(latest, "about:blank", 0);
+                }
+            });
+        }
     }
 
     public void showError(String message) {
@@ -0,0 +1,641 @@
+package com.yohannzhang.aigit.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.RequestPriority;
+import com.yohannzhang.aigit.core.llm.StreamCall;
+import com.yohannzhang.aigit.core.llm.TaskType;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 多个 client 之间的故障转移与对冲请求。
+ * <p>
+ * 请求先发给当前选中的 client，建连失败、超时或服务端返回 5xx/429 且尚未输出任何内容时，按配置顺序改发备用 client。
+ * 开启对冲后，主 client 在阈值内还没有输出第一个 token 时，再向下一个备用 client 发出同样的请求，
+ * 先输出的一路胜出，另一路被取消。阈值取主 client 最近首 token 延迟的 p95，不超过配置值。
+ * 已经开始输出后出错不再切换，避免输出重复内容。
+ * <p>
+ * 切换之前先在同一 client 上重试：建连失败、超时、429 和 5xx 按带抖动的指数退避重新发起，遵守 Retry-After；
+ * 流式输出中途断开时发起续写请求，见 {@link ResumableStream}。
+ */
+public class ProviderRoutingService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProviderRoutingService.class);
+
+    /**
+     * 样本数达到该值后才用观测到的 p95 作为对冲阈值
+     */
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    /**
+     * 第一次重试前的基础等待时间，之后每次翻倍
+     */
+    private static final long RETRY_BASE_DELAY_MS = 500;
+
+    /**
+     * 指数退避的上限
+     */
+    private static final long RETRY_MAX_DELAY_MS = 30000;
+
+    /**
+     * Retry-After 超过该值时不再等待，交给备用 client 或返回错误
+     */
+    private static final long MAX_RETRY_AFTER_MS = 60000;
+
+    private final Map<String, LatencyWindow> firstTokenLatency = new ConcurrentHashMap<>();
+    private final AtomicLong failoverCount = new AtomicLong();
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong resumeCount = new AtomicLong();
+
+    public static ProviderRoutingService getInstance() {
+        return ApplicationManager.getApplication().getService(ProviderRoutingService.class);
+    }
+
+    /**
+     * 主 client 之后按顺序尝试的备用 client，只包含已配置 URL 的 client。
+     */
+    public List<String> backupsFor(String primary) {
+        ApiKeySettings settings = ApiKeySettings.getInstance();
+        List<String> backups = new ArrayList<>();
+        for (String client : settings.getFailoverClients()) {
+            ApiKeySettings.ModuleConfig config = settings.getModuleConfigs().get(client);
+            if (client.equals(primary) || backups.contains(client) || config == null || StringUtils.isEmpty(config.getUrl())) {
+                continue;
+            }
+            backups.add(client);
+        }
+        return backups;
+    }
+
+    /**
+     * 按顺序在 clients 上发起流式请求，失败时故障转移，开启时对冲。
+     *
+     * @param callFor 为指定 client 构造一次流式调用
+     * @return 整个路由请求的取消句柄
+     */
+    public RequestHandle stream(@NotNull List<String> clients, @NotNull Function<String, StreamCall> callFor,
+                                @NotNull Consumer<String> onNext, @NotNull Consumer<Throwable> onError,
+                                @NotNull Runnable onComplete) {
+        RoutedStream stream = new RoutedStream(clients,
+                client -> new ResumableStream(this, client, callFor.apply(client)), onNext, onError, onComplete);
+        stream.start();
+        return stream.handle;
+    }
+
+    /**
+     * 同步调用的故障转移：可重试的异常先在同一 client 上退避重试，仍失败且可转移时按顺序改用下一个 client，
+     * 其他异常直接抛出。
+     */
+    public <T> T call(@NotNull List<String> clients, @NotNull ClientCall<T> call) throws Exception {
+        for (int i = 0; ; i++) {
+            try {
+                return callWithRetry(clients.get(i), call);
+            } catch (Exception e) {
+                if (!isFailoverError(e) || i + 1 >= clients.size()) {
+                    throw e;
+                }
+                failedOver(clients.get(i), clients.get(i + 1), e);
+            }
+        }
+    }
+
+    private <T> T callWithRetry(String client, ClientCall<T> call) throws Exception {
+        int maxRetries = Math.max(0, ApiKeySettings.getInstance().getMaxRetries());
+        for (int retries = 0; ; retries++) {
+            try {
+                return call.call(client);
+            } catch (Exception e) {
+                long delay = retries < maxRetries && isRetryableError(e) ? retryDelayMillis(retries, e) : -1;
+                if (delay < 0) {
+                    throw e;
+                }
+                retried(client, retries + 1, delay, e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * 异步调用的故障转移，取消返回的 future 会取消正在进行的那一次调用。
+     */
+    public <T> CompletableFuture<T> callAsync(@NotNull List<String> clients,
+                                              @NotNull Function<String, CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attemptAsync(clients, 0, 0, call, RequestPriority.current(), TaskType.current(), result);
+        return result;
+    }
+
+    private <T> void attemptAsync(List<String> clients, int index, int retries, Function<String, CompletableFuture<T>> call,
+                                  RequestPriority priority, TaskType task, CompletableFuture<T> result) {
+        CompletableFuture<T> attempt;
+        try {
+            attempt = RequestPriority.callAs(priority, () -> TaskType.callAs(task, () -> call.apply(clients.get(index))));
+        } catch (RuntimeException e) {
+            attempt = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> current = attempt;
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                current.cancel(true);
+            }
+        });
+        current.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            long delay = !result.isDone() && retries < ApiKeySettings.getInstance().getMaxRetries() && isRetryableError(cause)
+                    ? retryDelayMillis(retries, cause) : -1;
+            if (delay >= 0) {
+                retried(clients.get(index), retries + 1, delay, cause);
+                ScheduledFuture<?> timer = AppExecutorUtil.getAppScheduledExecutorService().schedule(
+                        () -> attemptAsync(clients, index, retries + 1, call, priority, task, result), delay, TimeUnit.MILLISECONDS);
+                result.whenComplete((ignored, e) -> timer.cancel(false));
+            } else if (!result.isDone() && isFailoverError(cause) && index + 1 < clients.size()) {
+                failedOver(clients.get(index), clients.get(index + 1), cause);
+                attemptAsync(clients, index + 1, 0, call, priority, task, result);
+            } else {
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    /**
+     * 建连失败、超时、5xx 和 429 可以改用其他 client；鉴权失败、请求错误等换 client 也无济于事。
+     */
+    public static boolean isFailoverError(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof LLMTransportService.HttpStatusException statusError) {
+                int status = statusError.getStatusCode();
+                return status >= 500 || status == 429;
+            }
+            if (t instanceof ConnectException || t instanceof NoRouteToHostException || t instanceof UnknownHostException
+                    || t instanceof HttpTimeoutException || t instanceof SocketTimeoutException) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 可以在同一 client 上重试的错误：除可故障转移的错误外，还包括读取中途连接被重置、提前关闭等 I/O 错误。
+     * 4xx（429 除外）和响应解析失败重试也无济于事。
+     */
+    public static boolean isRetryableError(Throwable error) {
+        if (isFailoverError(error)) {
+            return true;
+        }
+        boolean io = false;
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof LLMTransportService.HttpStatusException || t instanceof JsonProcessingException) {
+                return false;
+            }
+            io |= t instanceof IOException;
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return io;
+    }
+
+    /**
+     * 第 retries 次重试前的等待时间（毫秒）：带抖动的指数退避，服务端给出 Retry-After 时不少于该值。
+     * Retry-After 超过上限时返回 -1，表示不在同一 client 上等待。
+     */
+    public long retryDelayMillis(int retries, Throwable error) {
+        long backoff = Math.min(RETRY_MAX_DELAY_MS, RETRY_BASE_DELAY_MS << Math.min(retries, 16));
+        // 一半固定、一半随机，避免同时失败的请求同时重试
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof LLMTransportService.HttpStatusException statusError) {
+                long retryAfter = statusError.getRetryAfterMillis();
+                if (retryAfter > MAX_RETRY_AFTER_MS) {
+                    return -1;
+                }
+                return Math.max(delay, retryAfter);
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * 对冲阈值（毫秒），0 表示不对冲。
+     */
+    public long hedgeDelayMillis(String client) {
+        ApiKeySettings settings = ApiKeySettings.getInstance();
+        if (!settings.isHedgingEnabled() || settings.getHedgeDelayMs() <= 0) {
+            return 0;
+        }
+        long p95 = firstTokenLatencyMillis(client, 0.95);
+        return p95 < 0 ? settings.getHedgeDelayMs() : Math.min(p95, settings.getHedgeDelayMs());
+    }
+
+    /**
+     * client 最近首 token 延迟的百分位数（毫秒），样本不足时返回 -1。
+     * 所有经过 {@link #stream} 的流式请求都会记录首 token 延迟。
+     */
+    public long firstTokenLatencyMillis(String client, double percentile) {
+        LatencyWindow window = firstTokenLatency.get(client);
+        return window == null ? -1 : window.percentile(percentile, MIN_LATENCY_SAMPLES);
+    }
+
+    public long getFailoverCount() {
+        return failoverCount.get();
+    }
+
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * 对冲请求先于原请求输出的次数
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * 同一 client 上的重试次数（不含续写）
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * 流式输出中途断开后发起续写的次数
+     */
+    public long getResumeCount() {
+        return resumeCount.get();
+    }
+
+    void retried(String client, int attempt, long delayMillis, Throwable error) {
+        long count = retryCount.incrementAndGet();
+        log.warn("{} failed ({}), retry #{} in {} ms (retry total={})", client, error.toString(), attempt, delayMillis, count);
+    }
+
+    void resumed(String client, int attempt, int outputChars, Throwable error) {
+        long count = resumeCount.incrementAndGet();
+        log.warn("{} stream broke after {} chars ({}), continuing, attempt #{} (resume total={})",
+                client, outputChars, error.toString(), attempt, count);
+    }
+
+    private void failedOver(String from, String to, Throwable error) {
+        long count = failoverCount.incrementAndGet();
+        log.warn("{} failed ({}), failing over to {} (failover total={})", from, error.toString(), to, count);
+    }
+
+    private void recordFirstToken(String client, long millis) {
+        firstTokenLatency.computeIfAbsent(client, k -> new LatencyWindow()).add(millis);
+    }
+
+    @FunctionalInterface
+    public interface ClientCall<T> {
+        T call(String client) throws Exception;
+    }
+
+    /**
+     * 最近若干次首 token 延迟
+     */
+    private static final class LatencyWindow {
+        private final long[] samples = new long[100];
+        private int size;
+        private int next;
+
+        synchronized void add(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            size = Math.min(size + 1, samples.length);
+        }
+
+        synchronized long percentile(double p, int minSamples) {
+            if (size < minSamples) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (int) Math.ceil(p * size) - 1)];
+        }
+    }
+
+    /**
+     * 一次路由请求。各路尝试的回调可能在不同线程上到达，状态变更都在本对象的锁内完成，
+     * 回调下游和取消上游放在锁外。
+     */
+    private final class RoutedStream {
+        final RequestHandle handle = new RequestHandle();
+        private final List<String> clients;
+        private final Function<String, StreamCall> callFor;
+        private final Consumer<String> onNext;
+        private final Consumer<Throwable> onError;
+        private final Runnable onComplete;
+        // 后续尝试在回调线程上发起，沿用调用方的优先级和任务类型
+        private final RequestPriority priority = RequestPriority.current();
+        private final TaskType task = TaskType.current();
+        private final List<Attempt> attempts = new ArrayList<>();
+        private int next;
+        private Attempt winner;
+        private boolean hedged;
+        private boolean cancelled;
+        private boolean finished;
+        private ScheduledFuture<?> hedgeTimer;
+
+        RoutedStream(List<String> clients, Function<String, StreamCall> callFor,
+                     Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) {
+            this.clients = clients;
+            this.callFor = callFor;
+            this.onNext = onNext;
+            this.onError = onError;
+            this.onComplete = onComplete;
+        }
+
+        void start() {
+            handle.onCancel(this::cancel);
+            long hedgeDelay = clients.size() > 1 ? hedgeDelayMillis(clients.get(0)) : 0;
+            Attempt first = launch();
+            if (first != null && hedgeDelay > 0) {
+                ScheduledFuture<?> timer = AppExecutorUtil.getAppScheduledExecutorService()
+                        .schedule(() -> hedge(first), hedgeDelay, TimeUnit.MILLISECONDS);
+                synchronized (this) {
+                    if (finished || winner != null) {
+                        timer.cancel(false);
+                    } else {
+                        hedgeTimer = timer;
+                    }
+                }
+            }
+        }
+
+        private Attempt launch() {
+            Attempt attempt;
+            synchronized (this) {
+                if (finished || cancelled || next >= clients.size()) {
+                    return null;
+                }
+                attempt = new Attempt(clients.get(next++));
+                attempts.add(attempt);
+            }
+            attempt.start();
+            return attempt;
+        }
+
+        private void hedge(Attempt first) {
+            synchronized (this) {
+                if (finished || cancelled || winner != null || first.ended || next >= clients.size()) {
+                    return;
+                }
+                hedged = true;
+            }
+            long count = hedgeCount.incrementAndGet();
+            log.debug("{} has not responded, hedging to {} (hedged total={})", first.client, clients.get(next), count);
+            launch();
+        }
+
+        private void cancel() {
+            List<Attempt> running = new ArrayList<>();
+            boolean idle;
+            synchronized (this) {
+                if (cancelled || finished) {
+                    return;
+                }
+                cancelled = true;
+                stopHedgeTimer();
+                for (Attempt attempt : attempts) {
+                    if (!attempt.ended) {
+                        attempt.cancelRequested = true;
+                        running.add(attempt);
+                    }
+                }
+                idle = running.isEmpty();
+            }
+            for (Attempt attempt : running) {
+                attempt.cancelUpstream();
+            }
+            // 没有进行中的尝试时不会再有回调，直接结束
+            if (idle) {
+                finish(null);
+            }
+        }
+
+        /**
+         * 选出胜出的一路，取消其余进行中的尝试。须在锁内调用，返回需要在锁外取消的尝试。
+         */
+        private List<Attempt> win(Attempt attempt) {
+            winner = attempt;
+            stopHedgeTimer();
+            List<Attempt> losers = new ArrayList<>();
+            for (Attempt other : attempts) {
+                if (other != attempt && !other.ended) {
+                    other.cancelRequested = true;
+                    losers.add(other);
+                }
+            }
+            if (hedged && attempt != attempts.get(0)) {
+                hedgeWinCount.incrementAndGet();
+            }
+            return losers;
+        }
+
+        private boolean anyRunning() {
+            for (Attempt attempt : attempts) {
+                if (!attempt.ended) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void finish(Throwable failure) {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                stopHedgeTimer();
+            }
+            try {
+                if (failure != null) {
+                    onError.accept(failure);
+                }
+                onComplete.run();
+            } finally {
+                handle.markDone();
+            }
+        }
+
+        private void stopHedgeTimer() {
+            if (hedgeTimer != null) {
+                hedgeTimer.cancel(false);
+                hedgeTimer = null;
+            }
+        }
+
+        private final class Attempt {
+            final String client;
+            final long startNanos = System.nanoTime();
+            private RequestHandle upstream;
+            private boolean firstToken = true;
+            private Throwable error;
+            private boolean ended;
+            private boolean cancelRequested;
+
+            Attempt(String client) {
+                this.client = client;
+            }
+
+            void start() {
+                RequestHandle started = RequestPriority.callAs(priority, () -> TaskType.callAs(task, this::open));
+                if (started == null) {
+                    return;
+                }
+                boolean cancel;
+                synchronized (RoutedStream.this) {
+                    upstream = started;
+                    cancel = cancelRequested;
+                }
+                if (cancel) {
+                    started.cancel();
+                }
+                // 同步失败的实现只回调 onError、不回调 onComplete，以句柄状态判断已结束
+                if (started.isDone()) {
+                    ended();
+                }
+            }
+
+            private RequestHandle open() {
+                try {
+                    return callFor.apply(client).start(this::token, this::failed, this::ended);
+                } catch (Exception e) {
+                    failed(e);
+                    ended();
+                    return null;
+                }
+            }
+
+            void cancelUpstream() {
+                RequestHandle current;
+                synchronized (RoutedStream.this) {
+                    current = upstream;
+                }
+                if (current != null) {
+                    current.cancel();
+                }
+            }
+
+            private void token(String token) {
+                List<Attempt> losers = List.of();
+                boolean deliver;
+                synchronized (RoutedStream.this) {
+                    if (winner == null && !cancelled && !finished) {
+                        losers = win(this);
+                    }
+                    deliver = winner == this && !cancelled && !finished;
+                    if (deliver && firstToken) {
+                        firstToken = false;
+                        recordFirstToken(client, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                    }
+                }
+                for (Attempt loser : losers) {
+                    loser.cancelUpstream();
+                }
+                if (deliver) {
+                    onNext.accept(token);
+                }
+            }
+
+            private void failed(Throwable failure) {
+                boolean deliver;
+                synchronized (RoutedStream.this) {
+                    if (error != null) {
+                        return;
+                    }
+                    error = failure;
+                    deliver = winner == this && !finished;
+                }
+                // 已经输出过内容，原样交给下游
+                if (deliver) {
+                    onError.accept(failure);
+                }
+            }
+
+            private void ended() {
+                List<Attempt> losers = List.of();
+                boolean failover = false;
+                boolean complete = false;
+                Throwable failure = null;
+                synchronized (RoutedStream.this) {
+                    if (ended) {
+                        return;
+                    }
+                    ended = true;
+                    if (finished || (winner != null && winner != this)) {
+                        return;
+                    }
+                    if (winner == this) {
+                        complete = true;
+                    } else if (cancelled) {
+                        complete = !anyRunning();
+                    } else if (error == null && !cancelRequested) {
+                        // 正常结束但没有输出内容
+                        losers = win(this);
+                        complete = true;
+                    } else if (error != null && isFailoverError(error) && next < clients.size()) {
+                        failover = true;
+                    } else if (!anyRunning()) {
+                        failure = error;
+                        complete = true;
+                    }
+                }
+                for (Attempt loser : losers) {
+                    loser.cancelUpstream();
+                }
+                if (failover) {
+                    failedOver(client, clients.get(next), error);
+                    launch();
+                } else if (complete) {
+                    // 胜出一路的错误已在 failed 中交给下游
+                    finish(winner == this ? null : failure);
+                }
+            }
+        }
+    }
+}
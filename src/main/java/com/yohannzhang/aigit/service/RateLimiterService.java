@@ -0,0 +1,426 @@
+package com.yohannzhang.aigit.service;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.RequestPriority;
+import com.yohannzhang.aigit.core.llm.TokenCounter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 按 client 的客户端限流。
+ * <p>
+ * 每个 {@link ApiKeySettings.ModuleConfig} 对应一组令牌桶（每分钟请求数、每分钟 token 数）和一个并发流上限，
+ * 额度不足时请求在发起前排队等待，按 {@link RequestPriority} 先放行交互请求，同优先级按到达顺序。
+ * 发出请求前按 prompt 的 token 数（{@link TokenCounter} 本地估算）扣减，结束时再补扣输出的 token；
+ * 服务端返回 429 时按 Retry-After 暂停该 client。
+ * 配置项为 0 表示不限制。
+ */
+public class RateLimiterService {
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimiterService.class);
+
+    private static final long MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * 单次等待上限，修改后的配置最迟在此时间后生效
+     */
+    private static final long MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 429 响应未带 Retry-After 时的暂停时间
+     */
+    private static final long DEFAULT_RETRY_AFTER_MS = 5000;
+
+    private final Map<String, ProviderLimiter> limiters = new ConcurrentHashMap<>();
+    private final AtomicLong throttledCount = new AtomicLong();
+
+    public static RateLimiterService getInstance() {
+        return ApplicationManager.getApplication().getService(RateLimiterService.class);
+    }
+
+    /**
+     * 以当前线程的优先级申请发起请求，见 {@link #acquire(String, String, RequestPriority)}。
+     */
+    public Permit acquire(@NotNull String client, @Nullable String prompt) throws InterruptedException {
+        return acquire(client, prompt, RequestPriority.current());
+    }
+
+    /**
+     * 申请发起一次请求，额度不足时阻塞等待。返回的许可须在请求结束（包括出错、取消）后关闭。
+     *
+     * @throws InterruptedException 排队期间线程被中断（请求被取消）
+     */
+    public Permit acquire(@NotNull String client, @Nullable String prompt, @NotNull RequestPriority priority)
+            throws InterruptedException {
+        CompletableFuture<Permit> future = acquireAsync(client, prompt, priority);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            if (!future.cancel(false)) {
+                // 中断的同时已经放行，归还许可
+                future.getNow(null).close();
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 申请发起一次请求，放行时完成返回的 future，排队不占用线程。
+     * 取消 future 即退出排队；放行后得到的许可须在请求结束（包括出错、取消）后关闭。
+     */
+    public CompletableFuture<Permit> acquireAsync(@NotNull String client, @Nullable String prompt,
+                                                  @NotNull RequestPriority priority) {
+        TokenCounter counter = TokenCounter.forModel(client, ApiKeySettings.getInstance().getModelFor(client));
+        return limiters.computeIfAbsent(client, ProviderLimiter::new).acquire(counter, counter.count(prompt), priority);
+    }
+
+    /**
+     * 排队拿到许可后再把流式任务交给 {@link StreamingExecutorService}，排队期间不占用执行器线程，
+     * 高优先级请求可以越过已在排队的后台请求。
+     * <p>
+     * task 在执行器线程上运行，负责关闭许可；handle 在排队期间被取消或执行器拒绝任务时不会运行 task，
+     * 改为调用 onAbort（取消时为 {@link CancellationException}）。
+     */
+    public void submitWhenPermitted(@NotNull String client, @Nullable String prompt, @NotNull RequestPriority priority,
+                                    @NotNull RequestHandle handle, @NotNull Consumer<Permit> task,
+                                    @NotNull Consumer<Throwable> onAbort) {
+        CompletableFuture<Permit> future = acquireAsync(client, prompt, priority);
+        handle.onCancel(() -> future.cancel(false));
+        future.whenComplete((permit, error) -> {
+            if (error != null) {
+                onAbort.accept(error);
+                return;
+            }
+            try {
+                StreamingExecutorService.getInstance().submit(() -> task.accept(permit));
+            } catch (RejectedExecutionException e) {
+                permit.close();
+                onAbort.accept(e);
+            }
+        });
+    }
+
+    public int getActiveCount(@NotNull String client) {
+        ProviderLimiter limiter = limiters.get(client);
+        return limiter == null ? 0 : limiter.activeCount();
+    }
+
+    public int getQueuedCount(@NotNull String client) {
+        ProviderLimiter limiter = limiters.get(client);
+        return limiter == null ? 0 : limiter.queuedCount();
+    }
+
+    /**
+     * 收到 429 响应的次数
+     */
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    /**
+     * 一次请求的许可。
+     */
+    public static final class Permit implements AutoCloseable {
+        private final ProviderLimiter limiter;
+        private final TokenCounter counter;
+        private final AtomicInteger outputTokens = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Permit(ProviderLimiter limiter, TokenCounter counter) {
+            this.limiter = limiter;
+            this.counter = counter;
+        }
+
+        /**
+         * 记录输出内容，关闭时按 token 数补扣
+         */
+        public void recordOutput(@Nullable String text) {
+            outputTokens.addAndGet(counter.count(text));
+        }
+
+        /**
+         * 包装输出回调，经过的内容计入输出 token
+         */
+        public Consumer<String> counting(@NotNull Consumer<String> onNext) {
+            return text -> {
+                recordOutput(text);
+                onNext.accept(text);
+            };
+        }
+
+        /**
+         * 检查响应状态码，429 时按 Retry-After 暂停该 client 的后续请求。
+         */
+        public void observe(@NotNull HttpResponse<?> response) {
+            if (response.statusCode() == 429) {
+                limiter.throttled(retryAfterMillis(response));
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                limiter.release(outputTokens.get());
+            }
+        }
+
+        private static long retryAfterMillis(HttpResponse<?> response) {
+            long retryAfter = LLMTransportService.retryAfterMillis(response);
+            return retryAfter < 0 ? DEFAULT_RETRY_AFTER_MS : retryAfter;
+        }
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        final RequestPriority priority;
+        final long sequence;
+        final TokenCounter counter;
+        final int tokens;
+        final CompletableFuture<Permit> future = new CompletableFuture<>();
+
+        Waiter(RequestPriority priority, long sequence, TokenCounter counter, int tokens) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.counter = counter;
+            this.tokens = tokens;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final class ProviderLimiter {
+        final String client;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+        private long sequence;
+        // 队首额度不足时，到期后重新放行的定时任务
+        private ScheduledFuture<?> timer;
+        private long timerDeadline;
+
+        // 令牌桶余量，补充时不超过每分钟额度；输出超出预估时可为负
+        private double requestBucket = Double.MAX_VALUE;
+        private double tokenBucket = Double.MAX_VALUE;
+        private long lastRefill = System.nanoTime();
+        private int active;
+        private long pausedUntil;
+        private boolean paused;
+
+        ProviderLimiter(String client) {
+            this.client = client;
+        }
+
+        CompletableFuture<Permit> acquire(TokenCounter counter, int tokens, RequestPriority priority) {
+            Waiter waiter;
+            lock.lock();
+            try {
+                waiter = new Waiter(priority, sequence++, counter, tokens);
+                waiters.add(waiter);
+            } finally {
+                lock.unlock();
+            }
+            waiter.future.whenComplete((permit, error) -> {
+                if (waiter.future.isCancelled()) {
+                    // 排队期间被取消，出队后让后面的请求有机会放行
+                    lock.lock();
+                    try {
+                        waiters.remove(waiter);
+                    } finally {
+                        lock.unlock();
+                    }
+                    dispatch();
+                }
+            });
+            dispatch();
+            return waiter.future;
+        }
+
+        /**
+         * 按优先级依次放行额度足够的队首请求；队首额度不足时定时重试，后面的请求继续等待。
+         */
+        private void dispatch() {
+            List<Waiter> granted = new ArrayList<>();
+            lock.lock();
+            try {
+                while (!waiters.isEmpty()) {
+                    Waiter head = waiters.peek();
+                    if (head.future.isDone()) {
+                        waiters.poll();
+                        continue;
+                    }
+                    ApiKeySettings.ModuleConfig config = ApiKeySettings.getInstance().getModuleConfigs().get(client);
+                    if (config != null) {
+                        long delay = delayFor(config, head.tokens);
+                        if (delay > 0) {
+                            scheduleDispatch(Math.min(delay, MAX_WAIT_NANOS));
+                            break;
+                        }
+                        take(config, head.tokens);
+                    }
+                    waiters.poll();
+                    active++;
+                    granted.add(head);
+                }
+            } finally {
+                lock.unlock();
+            }
+            // 在锁外完成 future，回调里可能直接提交任务或再次申请
+            for (Waiter waiter : granted) {
+                Permit permit = new Permit(this, waiter.counter);
+                if (!waiter.future.complete(permit)) {
+                    permit.close();
+                }
+            }
+        }
+
+        private void scheduleDispatch(long delayNanos) {
+            long deadline = System.nanoTime() + delayNanos;
+            if (timer != null && deadline - timerDeadline >= 0) {
+                return;
+            }
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            timerDeadline = deadline;
+            timer = AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> {
+                lock.lock();
+                try {
+                    timer = null;
+                } finally {
+                    lock.unlock();
+                }
+                dispatch();
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void release(int outputTokens) {
+            lock.lock();
+            try {
+                active--;
+                tokenBucket -= outputTokens;
+            } finally {
+                lock.unlock();
+            }
+            dispatch();
+        }
+        void throttled(long retryAfterMillis) {
+            long count = throttledCount.incrementAndGet();
+            log.warn("{} returned 429, pausing requests for {} ms (throttled total={})", client, retryAfterMillis, count);
+            lock.lock();
+            try {
+                long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+                if (!paused || until - pausedUntil > 0) {
+                    pausedUntil = until;
+                    paused = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int activeCount() {
+            lock.lock();
+            try {
+                return active;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int queuedCount() {
+            lock.lock();
+            try {
+                return waiters.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 距离可以放行还需等待的纳秒数，0 表示可以立即放行。
+         */
+        private long delayFor(ApiKeySettings.ModuleConfig config, int tokens) {
+            long now = System.nanoTime();
+            refill(config, now);
+            long delay = 0;
+            if (paused) {
+                if (pausedUntil - now > 0) {
+                    delay = pausedUntil - now;
+                } else {
+                    paused = false;
+                }
+            }
+            int maxConcurrent = config.getMaxConcurrentStreams();
+            if (maxConcurrent > 0 && active >= maxConcurrent) {
+                // 其他请求结束时会重新放行，这里只是兜底
+                delay = Math.max(delay, MAX_WAIT_NANOS);
+            }
+            int rpm = config.getRequestsPerMinute();
+            if (rpm > 0 && requestBucket < 1) {
+                delay = Math.max(delay, nanosToRefill(1 - requestBucket, rpm));
+            }
+            int tpm = config.getTokensPerMinute();
+            if (tpm > 0) {
+                // 超过每分钟额度的大请求等桶满后放行，避免永远等不到
+                double needed = Math.min(tokens, tpm);
+                if (tokenBucket < needed) {
+                    delay = Math.max(delay, nanosToRefill(needed - tokenBucket, tpm));
+                }
+            }
+            return delay;
+        }
+
+        private void take(ApiKeySettings.ModuleConfig config, int tokens) {
+            if (config.getRequestsPerMinute() > 0) {
+                requestBucket -= 1;
+            }
+            if (config.getTokensPerMinute() > 0) {
+                tokenBucket -= tokens;
+            }
+        }
+
+        private void refill(ApiKeySettings.ModuleConfig config, long now) {
+            double elapsed = now - lastRefill;
+            lastRefill = now;
+            int rpm = config.getRequestsPerMinute();
+            if (rpm > 0) {
+                requestBucket = Math.min(rpm, requestBucket + elapsed * rpm / MINUTE_NANOS);
+            }
+            int tpm = config.getTokensPerMinute();
+            if (tpm > 0) {
+                tokenBucket = Math.min(tpm, tokenBucket + elapsed * tpm / MINUTE_NANOS);
+            }
+        }
+
+        private long nanosToRefill(double amount, int perMinute) {
+            return (long) Math.ceil(amount * MINUTE_NANOS / perMinute);
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.yohannzhang.aigit.service;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.StreamCall;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * LLM 响应的磁盘缓存。
+ * <p>
+ * 以 client、模型、参数和 prompt 的 SHA-256 为键，响应 gzip 压缩后存放在 IDE 系统目录下，
+ * 按最近访问时间做容量上限内的 LRU 淘汰，并按写入时间判断过期。命中时通过原有的流式回调回放，
+ * 调用方无需区分结果来自缓存还是网络。
+ */
+public class ResponseCacheService {
+
+    private static final Logger log = LoggerFactory.getLogger(ResponseCacheService.class);
+
+    private static final String ENTRY_SUFFIX = ".gz";
+    // 2：此前的版本可能缓存了截断的响应，全部作废
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * 回放时每次回调的字符数
+     */
+    private static final int REPLAY_CHUNK_CHARS = 1024;
+
+    private static final class Entry {
+        final long size;
+        volatile long lastAccess;
+
+        Entry(long size, long lastAccess) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private final Path directory;
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicBoolean indexLoaded = new AtomicBoolean(false);
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public ResponseCacheService() {
+        this(Paths.get(PathManager.getSystemPath(), "aicodemaster", "response-cache"));
+    }
+
+    ResponseCacheService(Path directory) {
+        this.directory = directory;
+    }
+
+    public static ResponseCacheService getInstance() {
+        return ApplicationManager.getApplication().getService(ResponseCacheService.class);
+    }
+
+    /**
+     * 计算缓存键。parts 为 prompt 及其他影响输出的参数（接口名、endpoint、语言等），按顺序参与计算。
+     */
+    public static String key(String client, String model, String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, "v" + FORMAT_VERSION);
+            update(digest, client);
+            update(digest, model);
+            for (String part : parts) {
+                update(digest, part);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return ApiKeySettings.getInstance().isResponseCacheEnabled();
+    }
+
+    /**
+     * 读取未过期的缓存响应，未命中返回 null。
+     */
+    public @Nullable String get(@NotNull String key) {
+        ensureIndexLoaded();
+        Entry entry = index.get(key);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        Path file = fileFor(key);
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                remove(key);
+                missCount.incrementAndGet();
+                return null;
+            }
+            long createdAt = in.readLong();
+            if (System.currentTimeMillis() - createdAt > ttlMillis()) {
+                remove(key);
+                missCount.incrementAndGet();
+                return null;
+            }
+            String response = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            touch(key, entry, file);
+            hitCount.incrementAndGet();
+            return response;
+        } catch (IOException e) {
+            log.warn("Failed to read cached response {}, dropping it", key, e);
+            remove(key);
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * 写入响应；写临时文件后原子替换，写入后按容量上限淘汰最久未访问的条目。
+     */
+    public void put(@NotNull String key, @NotNull String response) {
+        if (response.isBlank()) {
+            return;
+        }
+        ensureIndexLoaded();
+        Path file = fileFor(key);
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try (OutputStream raw = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new GZIPOutputStream(raw))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(System.currentTimeMillis());
+                out.write(response.getBytes(StandardCharsets.UTF_8));
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Entry previous = index.put(key, new Entry(Files.size(file), System.currentTimeMillis()));
+            totalBytes.addAndGet(Files.size(file) - (previous == null ? 0 : previous.size));
+        } catch (IOException e) {
+            log.warn("Failed to write cached response {}", key, e);
+            return;
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * 带缓存的流式调用：命中时回放缓存内容，未命中时调用 call 并在正常结束后写入缓存，见 {@link #record}。
+     */
+    public RequestHandle stream(@NotNull String key, @NotNull Consumer<String> onNext,
+                                @NotNull Consumer<Throwable> onError, @NotNull Runnable onComplete,
+                                @NotNull StreamCall call) throws Exception {
+        if (!isEnabled()) {
+            return call.start(onNext, onError, onComplete);
+        }
+        String cached = get(key);
+        if (cached != null) {
+            log.debug("Response cache hit {}", key);
+            return replay(cached, onNext, onComplete);
+        }
+        return record(key, onNext, onError, onComplete, call);
+    }
+
+    /**
+     * 调用 call 并记录输出，只有完整的响应才写入缓存：出错（包括连接在结束标记之前关闭，见 {@link StreamCall}）、
+     * 被取消或内容为空白的响应不写入，避免截断的回答在过期前被反复回放。
+     */
+    public RequestHandle record(@NotNull String key, @NotNull Consumer<String> onNext,
+                                @NotNull Consumer<Throwable> onError, @NotNull Runnable onComplete,
+                                @NotNull StreamCall call) throws Exception {
+        StringBuilder recorded = new StringBuilder();
+        AtomicBoolean failed = new AtomicBoolean(false);
+        AtomicReference<RequestHandle> handleRef = new AtomicReference<>();
+        RequestHandle handle = call.start(
+                token -> {
+                    synchronized (recorded) {
+                        recorded.append(token);
+                    }
+                    onNext.accept(token);
+                },
+                error -> {
+                    failed.set(true);
+                    onError.accept(error);
+                },
+                () -> {
+                    try {
+                        RequestHandle current = handleRef.get();
+                        if (!failed.get() && (current == null || !current.isCancelled())) {
+                            String response;
+                            synchronized (recorded) {
+                                response = recorded.toString();
+                            }
+                            put(key, response);
+                        }
+                    } finally {
+                        onComplete.run();
+                    }
+                });
+        handleRef.set(handle);
+        return handle;
+    }
+
+    /**
+     * 在流式执行器上分段回放缓存内容，回调线程与真实请求一致。
+     */
+    public RequestHandle replay(@NotNull String response, @NotNull Consumer<String> onNext, @NotNull Runnable onComplete) {
+        RequestHandle handle = new RequestHandle();
+        StreamingExecutorService.getInstance().submit(() -> {
+            handle.attachWorker();
+            try {
+                int offset = 0;
+                while (offset < response.length() && !handle.isCancelled()) {
+                    int end = Math.min(response.length(), offset + REPLAY_CHUNK_CHARS);
+                    // 不在代理对中间切分
+                    if (end < response.length() && Character.isHighSurrogate(response.charAt(end - 1))) {
+                        end++;
+                    }
+                    onNext.accept(response.substring(offset, end));
+                    offset = end;
+                }
+            } finally {
+                try {
+                    onComplete.run();
+                } finally {
+                    handle.markDone();
+                }
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * 清空缓存。
+     */
+    public void clear() {
+        ensureIndexLoaded();
+        for (String key : new ArrayList<>(index.keySet())) {
+            remove(key);
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getSizeBytes() {
+        return totalBytes.get();
+    }
+
+    public int getEntryCount() {
+        return index.size();
+    }
+
+    private void ensureIndexLoaded() {
+        if (indexLoaded.get()) {
+            return;
+        }
+        synchronized (indexLoaded) {
+            if (indexLoaded.get()) {
+                return;
+            }
+            if (Files.isDirectory(directory)) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                    for (Path file : files) {
+                        String name = file.getFileName().toString();
+                        if (name.endsWith(".tmp")) {
+                            // 上次写入中断留下的临时文件
+                            Files.deleteIfExists(file);
+                        } else if (name.endsWith(ENTRY_SUFFIX)) {
+                            long size = Files.size(file);
+                            index.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()),
+                                    new Entry(size, Files.getLastModifiedTime(file).toMillis()));
+                            totalBytes.addAndGet(size);
+                        }
+                    }
+                } catch (IOException e) {
+                    log.warn("Failed to scan response cache directory {}", directory, e);
+                }
+            }
+            indexLoaded.set(true);
+        }
+        evictIfNeeded();
+    }
+
+    private void evictIfNeeded() {
+        long maxBytes = ApiKeySettings.getInstance().getResponseCacheMaxMb() * 1024L * 1024L;
+        if (totalBytes.get() <= maxBytes) {
+            return;
+        }
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>(index.entrySet());
+        entries.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+        for (Map.Entry<String, Entry> entry : entries) {
+            if (totalBytes.get() <= maxBytes) {
+                break;
+            }
+            remove(entry.getKey());
+        }
+    }
+
+    private void touch(String key, Entry entry, Path file) {
+        long now = System.currentTimeMillis();
+        entry.lastAccess = now;
+        try {
+            // 访问时间记在文件修改时间上，重启后仍能按 LRU 淘汰
+            Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+        } catch (IOException e) {
+            log.debug("Failed to touch cached response {}", key, e);
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = index.remove(key);
+        if (entry != null) {
+            totalBytes.addAndGet(-entry.size);
+        }
+        try {
+            Files.deleteIfExists(fileFor(key));
+        } catch (IOException e) {
+            log.debug("Failed to delete cached response {}", key, e);
+        }
+    }
+
+    private Path fileFor(String key) {
+        return directory.resolve(key + ENTRY_SUFFIX);
+    }
+
+    private static long ttlMillis() {
+        return TimeUnit.HOURS.toMillis(ApiKeySettings.getInstance().getResponseCacheTtlHours());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        // 带长度前缀，避免字段拼接产生歧义
+        digest.update(new byte[]{
+                (byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16), (byte) (bytes.length >>> 8), (byte) bytes.length});
+        digest.update(bytes);
+    }
+}
@@ -0,0 +1,308 @@
+package com.yohannzhang.aigit.service;
+
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.RequestPriority;
+import com.yohannzhang.aigit.core.llm.StreamCall;
+import com.yohannzhang.aigit.core.llm.StreamContinuation;
+import com.yohannzhang.aigit.core.llm.TaskType;
+import com.yohannzhang.aigit.util.StreamDecoder;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 单个 client 上的流式调用，出错后在同一 client 上重试或续写，下游看到的是一路连续的输出。
+ * <p>
+ * 尚未输出内容时，可重试的错误（见 {@link ProviderRoutingService#isRetryableError}）按指数退避重新发起；
+ * 已经输出过内容时，以已输出的内容为前缀发起续写请求（见 {@link StreamContinuation}），
+ * 续写开头与已输出内容末尾重复的部分会被去掉。重试和续写共用次数上限，用尽后把最后一次的错误交给下游。
+ * 连接在结束标记之前正常关闭时，上游以 {@link StreamDecoder.TruncatedStreamException} 报错，同样重试或续写。
+ */
+final class ResumableStream implements StreamCall {
+
+    /**
+     * 续写开头先缓存这么多字符，再与已输出内容比对去重
+     */
+    private static final int OVERLAP_WINDOW = 256;
+
+    /**
+     * 重叠不少于该长度才视为模型重复了已输出的内容
+     */
+    private static final int MIN_OVERLAP = 16;
+
+    private final ProviderRoutingService routing;
+    private final String client;
+    private final StreamCall call;
+
+    ResumableStream(ProviderRoutingService routing, String client, StreamCall call) {
+        this.routing = routing;
+        this.client = client;
+        this.call = call;
+    }
+
+    @Override
+    public RequestHandle start(Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) {
+        ApiKeySettings settings = ApiKeySettings.getInstance();
+        Run run = new Run(onNext, onError, onComplete, Math.max(0, settings.getMaxRetries()), settings.isResumeStreamsEnabled());
+        run.start();
+        return run.handle;
+    }
+
+    /**
+     * 去掉续写开头与已输出内容末尾重叠的部分。取最短的重叠，内容有重复段落时宁可多留也不误删。
+     */
+    static String trimOverlap(CharSequence output, String head) {
+        int max = Math.min(output.length(), head.length());
+        String tail = output.subSequence(output.length() - max, output.length()).toString();
+        for (int length = MIN_OVERLAP; length <= max; length++) {
+            if (tail.regionMatches(max - length, head, 0, length)) {
+                return head.substring(length);
+            }
+        }
+        return head;
+    }
+
+    /**
+     * 一次调用。各段请求的回调可能在不同线程上到达，状态变更在本对象的锁内完成，回调下游放在锁外。
+     */
+    private final class Run {
+        final RequestHandle handle = new RequestHandle();
+        private final Consumer<String> onNext;
+        private final Consumer<Throwable> onError;
+        private final Runnable onComplete;
+        private final int maxRetries;
+        private final boolean resume;
+        // 重试在定时线程上发起，沿用调用方的优先级和任务类型
+        private final RequestPriority priority = RequestPriority.current();
+        private final TaskType task = TaskType.current();
+        private final StringBuilder output = new StringBuilder();
+        private Segment current;
+        private int retries;
+        private boolean cancelled;
+        private boolean finished;
+        private ScheduledFuture<?> retryTimer;
+
+        Run(Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete, int maxRetries, boolean resume) {
+            this.onNext = onNext;
+            this.onError = onError;
+            this.onComplete = onComplete;
+            this.maxRetries = maxRetries;
+            this.resume = resume;
+        }
+
+        void start() {
+            handle.onCancel(this::cancel);
+            launch(null);
+        }
+
+        private void launch(String prefix) {
+            Segment segment;
+            synchronized (this) {
+                retryTimer = null;
+                if (finished || cancelled) {
+                    return;
+                }
+                segment = new Segment(prefix);
+                current = segment;
+            }
+            segment.start();
+        }
+
+        private void cancel() {
+            Segment running;
+            synchronized (this) {
+                if (cancelled || finished) {
+                    return;
+                }
+                cancelled = true;
+                if (retryTimer != null) {
+                    retryTimer.cancel(false);
+                    retryTimer = null;
+                }
+                running = current != null && !current.ended ? current : null;
+                if (running != null) {
+                    running.cancelRequested = true;
+                }
+            }
+            if (running != null) {
+                running.cancelUpstream();
+            } else {
+                // 等待重试期间没有进行中的请求，不会再有回调，直接结束
+                finish(null);
+            }
+        }
+
+        private void finish(Throwable failure) {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+            }
+            try {
+                if (failure != null) {
+                    onError.accept(failure);
+                }
+                onComplete.run();
+            } finally {
+                handle.markDone();
+            }
+        }
+
+        /**
+         * 一段上游请求：首次请求、重试或续写
+         */
+        private final class Segment {
+            private final String prefix;
+            private final StringBuilder head = new StringBuilder();
+            private boolean headChecked;
+            private RequestHandle upstream;
+            private Throwable error;
+            private boolean ended;
+            private boolean cancelRequested;
+
+            Segment(String prefix) {
+                this.prefix = prefix;
+                this.headChecked = prefix == null;
+            }
+
+            void start() {
+                RequestHandle started = RequestPriority.callAs(priority, () -> TaskType.callAs(task, this::open));
+                if (started == null) {
+                    return;
+                }
+                boolean cancel;
+                synchronized (Run.this) {
+                    upstream = started;
+                    cancel = cancelRequested;
+                }
+                if (cancel) {
+                    started.cancel();
+                }
+                // 同步失败的实现只回调 onError、不回调 onComplete，以句柄状态判断已结束
+                if (started.isDone()) {
+                    ended();
+                }
+            }
+
+            private RequestHandle open() {
+                try {
+                    return StreamContinuation.callWith(prefix, () -> call.start(this::token, this::failed, this::ended));
+                } catch (Exception e) {
+                    failed(e);
+                    ended();
+                    return null;
+                }
+            }
+
+            void cancelUpstream() {
+                RequestHandle running;
+                synchronized (Run.this) {
+                    running = upstream;
+                }
+                if (running != null) {
+                    running.cancel();
+                }
+            }
+
+            private void token(String token) {
+                String text;
+                synchronized (Run.this) {
+                    if (current != this || finished || cancelled) {
+                        return;
+                    }
+                    if (headChecked) {
+                        text = token;
+                    } else {
+                        head.append(token);
+                        if (head.length() < OVERLAP_WINDOW) {
+                            return;
+                        }
+                        text = checkHead();
+                    }
+                    output.append(text);
+                }
+                if (!text.isEmpty()) {
+                    onNext.accept(text);
+                }
+            }
+
+            /**
+             * 续写开头缓存够了或续写已结束，去掉重复部分后一并输出。须在锁内调用。
+             */
+            private String checkHead() {
+                headChecked = true;
+                String text = trimOverlap(output, head.toString());
+                head.setLength(0);
+                return text;
+            }
+
+            private void failed(Throwable failure) {
+                synchronized (Run.this) {
+                    if (error == null) {
+                        error = failure;
+                    }
+                }
+            }
+
+            private void ended() {
+                String rest = "";
+                Throwable failure = null;
+                boolean complete = false;
+                long delay = -1;
+                String nextPrefix = null;
+                int attempt = 0;
+                synchronized (Run.this) {
+                    if (ended) {
+                        return;
+                    }
+                    ended = true;
+                    if (current != this || finished) {
+                        return;
+                    }
+                    if (!headChecked && !cancelled) {
+                        rest = checkHead();
+                        output.append(rest);
+                    }
+                    if (cancelled || (error == null && !cancelRequested)) {
+                        complete = true;
+                    } else if (error != null && retries < maxRetries && (output.length() == 0 || resume)
+                            && ProviderRoutingService.isRetryableError(error)) {
+                        delay = routing.retryDelayMillis(retries, error);
+                        attempt = ++retries;
+                        nextPrefix = output.length() == 0 ? null : output.toString();
+                    }
+                    if (!complete && delay < 0) {
+                        failure = error;
+                        complete = true;
+                    }
+                }
+                if (!rest.isEmpty()) {
+                    onNext.accept(rest);
+                }
+                if (complete) {
+                    finish(failure);
+                    return;
+                }
+                if (nextPrefix == null) {
+                    routing.retried(client, attempt, delay, error);
+                } else {
+                    routing.resumed(client, attempt, nextPrefix.length(), error);
+                }
+                String prefixForRetry = nextPrefix;
+                ScheduledFuture<?> timer = AppExecutorUtil.getAppScheduledExecutorService()
+                        .schedule(() -> launch(prefixForRetry), delay, TimeUnit.MILLISECONDS);
+                synchronized (Run.this) {
+                    if (cancelled || finished) {
+                        timer.cancel(false);
+                    } else if (current == this) {
+                        retryTimer = timer;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.yohannzhang.aigit.service;
+
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 在主 client 和备用 client 之间路由的 {@link AIService}，见 {@link ProviderRoutingService}。
+ * 配置检查、是否流式等按主 client。
+ */
+public class RoutingAIService implements AIService {
+
+    private final List<String> clients;
+    private final Map<String, AIService> services = new LinkedHashMap<>();
+
+    public RoutingAIService(String primary, List<String> backups, Function<String, AIService> factory) {
+        this.clients = new ArrayList<>();
+        clients.add(primary);
+        clients.addAll(backups);
+        for (String client : clients) {
+            services.put(client, factory.apply(client));
+        }
+    }
+
+    @Override
+    public boolean generateByStream() {
+        return primary().generateByStream();
+    }
+
+    @Override
+    public String generateCommitMessage(String content) throws Exception {
+        return ProviderRoutingService.getInstance().call(clients, client -> services.get(client).generateCommitMessage(content));
+    }
+
+    @Override
+    public RequestHandle generateCommitMessageStream(String prompt, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) {
+        return ProviderRoutingService.getInstance().stream(clients,
+                client -> (next, error, complete) -> services.get(client).generateCommitMessageStream(prompt, next, error, complete),
+                onNext, onError, onComplete);
+    }
+
+    @Override
+    public boolean checkNecessaryModuleConfigIsRight() {
+        return primary().checkNecessaryModuleConfigIsRight();
+    }
+
+    @Override
+    public boolean validateConfig(Map<String, String> config) {
+        return primary().validateConfig(config);
+    }
+
+    private AIService primary() {
+        return services.get(clients.get(0));
+    }
+}
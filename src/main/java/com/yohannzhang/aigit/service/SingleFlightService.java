@@ -0,0 +1,339 @@
+package com.yohannzhang.aigit.service;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.StreamCall;
+import com.yohannzhang.aigit.core.llm.StreamContinuation;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 进行中请求的合并（single-flight）。
+ * <p>
+ * 同一模型、同一 prompt 的并发流式请求共用一路上游流，token 分发给每个订阅者；后加入的订阅者先收到已输出的内容。
+ * 每个订阅者持有自己的 {@link RequestHandle}，取消只影响自己，所有订阅者都取消后才中止上游请求。
+ * <p>
+ * 回调按订阅者排队，在锁外按顺序执行，慢的订阅者不会挡住上游和新加入的订阅者。
+ * 已输出内容超过 {@link #MAX_REPLAY_CHARS} 后不再保留，之后的同 key 请求发起新的上游请求。
+ */
+public class SingleFlightService {
+
+    private static final Logger log = LoggerFactory.getLogger(SingleFlightService.class);
+
+    /**
+     * 为后加入的订阅者保留的已输出内容上限
+     */
+    private static final int MAX_REPLAY_CHARS = 256 * 1024;
+
+    private final Map<String, Flight> flights = new HashMap<>();
+    private final AtomicLong sharedCount = new AtomicLong();
+
+    public static SingleFlightService getInstance() {
+        return ApplicationManager.getApplication().getService(SingleFlightService.class);
+    }
+
+    /**
+     * 组合合并键：client、模型、endpoint 与 prompt 都相同才视为同一请求。
+     * 续写请求（见 {@link StreamContinuation}）的键带上已输出的前缀，不会并入同一 prompt 的普通请求。
+     */
+    public static String key(String client, String model, String endpoint, String prompt) {
+        String prefix = StreamContinuation.current();
+        return client + '\u0000' + model + '\u0000' + endpoint + '\u0000' + prompt
+                + (prefix == null ? "" : '\u0000' + prefix);
+    }
+
+    /**
+     * 加入相同 key 的进行中请求；没有时调用 call 发起新的上游请求。
+     *
+     * @return 当前订阅者的取消句柄
+     */
+    public RequestHandle join(@NotNull String key, @NotNull Consumer<String> onNext,
+                              @NotNull Consumer<Throwable> onError, @NotNull Runnable onComplete,
+                              @NotNull StreamCall call) throws Exception {
+        Subscriber subscriber = new Subscriber(onNext, onError, onComplete);
+        Flight flight;
+        boolean leader;
+        synchronized (flights) {
+            flight = flights.get(key);
+            leader = flight == null || !flight.subscribe(subscriber);
+            if (leader) {
+                flight = new Flight(key);
+                flights.put(key, flight);
+                flight.subscribe(subscriber);
+            }
+        }
+        // 回放已输出的内容，不持有任何锁
+        subscriber.drain();
+        Flight joined = flight;
+        subscriber.handle.onCancel(() -> joined.unsubscribe(subscriber));
+
+        if (!leader) {
+            long shared = sharedCount.incrementAndGet();
+            log.debug("Joined in-flight LLM request (shared total={})", shared);
+            return subscriber.handle;
+        }
+
+        try {
+            joined.attachUpstream(call.start(joined::emit, joined::fail, joined::complete));
+        } catch (Exception e) {
+            joined.abort(subscriber, e);
+            throw e;
+        }
+        return subscriber.handle;
+    }
+
+    /**
+     * 因合并而少发起的上游请求数
+     */
+    public long getSharedCount() {
+        return sharedCount.get();
+    }
+
+    public int getInFlightCount() {
+        synchronized (flights) {
+            return flights.size();
+        }
+    }
+
+    private void removeFlight(Flight flight) {
+        synchronized (flights) {
+            flights.remove(flight.key, flight);
+        }
+    }
+
+    private static final class Subscriber {
+        final Consumer<String> onNext;
+        final Consumer<Throwable> onError;
+        final Runnable onComplete;
+        final RequestHandle handle = new RequestHandle();
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        // 待执行的回调，同一时刻只有一个线程在执行，保证顺序
+        private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger draining = new AtomicInteger();
+
+        Subscriber(Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) {
+            this.onNext = onNext;
+            this.onError = onError;
+            this.onComplete = onComplete;
+        }
+
+        void enqueueToken(String token) {
+            pending.add(() -> {
+                if (!finished.get()) {
+                    onNext.accept(token);
+                }
+            });
+        }
+
+        void enqueueError(Throwable error) {
+            pending.add(() -> {
+                if (!finished.get()) {
+                    onError.accept(error);
+                }
+            });
+        }
+
+        void enqueueFinish() {
+            pending.add(this::finish);
+        }
+
+        /**
+         * 执行排队的回调。不得在持有锁时调用；其他线程正在执行时交给它执行
+         */
+        void drain() {
+            if (draining.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                Runnable callback;
+                while ((callback = pending.poll()) != null) {
+                    try {
+                        callback.run();
+                    } catch (RuntimeException e) {
+                        log.warn("Single-flight subscriber callback failed", e);
+                    }
+                }
+            } while (draining.decrementAndGet() != 0);
+        }
+
+        /**
+         * 与直接请求时一致：无论正常结束、出错还是取消，onComplete 都只回调一次。
+         */
+        void finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                onComplete.run();
+            } finally {
+                handle.markDone();
+            }
+        }
+    }
+
+    private final class Flight {
+        final String key;
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        // 已输出的内容，回放给后加入的订阅者；超过上限后为 null，不再接受新的订阅者
+        private StringBuilder emitted = new StringBuilder();
+        private RequestHandle upstream;
+        private boolean upstreamCancelled;
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        /**
+         * 只排队回放内容，回调由调用方在锁外执行
+         *
+         * @return false 表示已输出内容超过回放上限，不能再加入
+         */
+        synchronized boolean subscribe(Subscriber subscriber) {
+            if (emitted == null) {
+                return false;
+            }
+            if (emitted.length() > 0) {
+                subscriber.enqueueToken(emitted.toString());
+            }
+            subscribers.add(subscriber);
+            return true;
+        }
+
+        void emit(String token) {
+            Subscriber[] current;
+            boolean overflow = false;
+            synchronized (this) {
+                if (emitted != null) {
+                    if (emitted.length() + token.length() > MAX_REPLAY_CHARS) {
+                        emitted = null;
+                        overflow = true;
+                    } else {
+                        emitted.append(token);
+                    }
+                }
+                current = subscribers.toArray(new Subscriber[0]);
+                for (Subscriber subscriber : current) {
+                    subscriber.enqueueToken(token);
+                }
+            }
+            if (overflow) {
+                removeFlight(this);
+            }
+            for (Subscriber subscriber : current) {
+                subscriber.drain();
+            }
+        }
+
+        void fail(Throwable error) {
+            Subscriber[] current;
+            synchronized (this) {
+                current = subscribers.toArray(new Subscriber[0]);
+                for (Subscriber subscriber : current) {
+                    subscriber.enqueueError(error);
+                }
+            }
+            for (Subscriber subscriber : current) {
+                subscriber.drain();
+            }
+        }
+
+        void complete() {
+            // 先从表中移除，之后的同 key 请求会发起新的上游请求
+            removeFlight(this);
+            Subscriber[] current;
+            synchronized (this) {
+                current = subscribers.toArray(new Subscriber[0]);
+                subscribers.clear();
+                for (Subscriber subscriber : current) {
+                    subscriber.enqueueFinish();
+                }
+            }
+            for (Subscriber subscriber : current) {
+                subscriber.drain();
+            }
+        }
+
+        void unsubscribe(Subscriber subscriber) {
+            boolean last;
+            synchronized (this) {
+                if (!subscribers.remove(subscriber)) {
+                    return;
+                }
+                last = subscribers.isEmpty();
+            }
+            finishAsync(subscriber);
+            if (last) {
+                removeFlight(this);
+                cancelUpstream();
+            }
+        }
+
+        void attachUpstream(RequestHandle handle) {
+            boolean cancel;
+            synchronized (this) {
+                upstream = handle;
+                cancel = upstreamCancelled;
+            }
+            // 发起请求期间所有订阅者都已取消
+            if (cancel) {
+                handle.cancel();
+            }
+        }
+
+        /**
+         * 发起上游请求时抛出异常：发起者自己收到异常，期间加入的订阅者通过 onError 得到同一异常。
+         */
+        void abort(Subscriber leader, Exception error) {
+            removeFlight(this);
+            Subscriber[] others;
+            synchronized (this) {
+                subscribers.remove(leader);
+                others = subscribers.toArray(new Subscriber[0]);
+                subscribers.clear();
+                for (Subscriber subscriber : others) {
+                    subscriber.enqueueError(error);
+                    subscriber.enqueueFinish();
+                }
+            }
+            leader.handle.markDone();
+            for (Subscriber subscriber : others) {
+                subscriber.drain();
+            }
+        }
+
+        private void cancelUpstream() {
+            RequestHandle handle;
+            synchronized (this) {
+                upstreamCancelled = true;
+                handle = upstream;
+            }
+            if (handle != null) {
+                handle.cancel();
+            }
+        }
+
+        /**
+         * 取消可能发生在 EDT 上，onComplete 与直接请求时一样放到流式执行器上回调。
+         */
+        private void finishAsync(Subscriber subscriber) {
+            try {
+                StreamingExecutorService.getInstance().submit(subscriber::finish);
+            } catch (RejectedExecutionException e) {
+                subscriber.finish();
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.yohannzhang.aigit.service;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.project.ProjectManagerListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 插件自有的流式响应执行器。
+ * <p>
+ * 所有读取 LLM 流式响应、以及文档/测试生成等后台任务统一在这里执行，替代随手 new Thread 与公共 ForkJoinPool。
+ * 并发数和排队数都有上限，超出时直接拒绝并计数；JDK 21+ 使用虚拟线程，JDK 17 回退为固定大小的平台线程池。
+ * 绑定到项目的任务会在项目关闭时取消，插件卸载/IDE 退出时整体关闭。
+ */
+public class StreamingExecutorService implements Disposable {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingExecutorService.class);
+
+    private static final String THREAD_NAME_PREFIX = "AICodeMaster-stream-";
+
+    /**
+     * 同时运行的任务上限
+     */
+    public static final int MAX_CONCURRENT_TASKS = 16;
+
+    /**
+     * 等待队列上限
+     */
+    public static final int MAX_QUEUED_TASKS = 64;
+
+    private final ThreadPoolExecutor executor;
+    private final boolean virtualThreads;
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final Map<Project, Set<Future<?>>> projectTasks = new ConcurrentHashMap<>();
+
+    public StreamingExecutorService() {
+        ThreadFactory virtualFactory = createVirtualThreadFactory();
+        this.virtualThreads = virtualFactory != null;
+        ThreadFactory threadFactory = virtualThreads ? virtualFactory : createPlatformThreadFactory();
+
+        this.executor = new ThreadPoolExecutor(
+                MAX_CONCURRENT_TASKS,
+                MAX_CONCURRENT_TASKS,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_TASKS),
+                threadFactory,
+                (task, pool) -> {
+                    long rejected = rejectedCount.incrementAndGet();
+                    log.warn("Streaming executor saturated, task rejected (active={}, queued={}, rejectedTotal={})",
+                            pool.getActiveCount(), pool.getQueue().size(), rejected);
+                    throw new RejectedExecutionException("AI 请求过多，请稍后重试 (active="
+                            + pool.getActiveCount() + ", queued=" + pool.getQueue().size() + ")");
+                });
+        // 空闲线程超时回收，没有请求时不常驻线程
+        this.executor.allowCoreThreadTimeOut(true);
+
+        ApplicationManager.getApplication().getMessageBus().connect(this)
+                .subscribe(ProjectManager.TOPIC, new ProjectManagerListener() {
+                    @Override
+                    public void projectClosing(@NotNull Project project) {
+                        cancelProjectTasks(project);
+                    }
+                });
+
+        log.info("Streaming executor started (virtualThreads={}, maxConcurrent={}, maxQueued={})",
+                virtualThreads, MAX_CONCURRENT_TASKS, MAX_QUEUED_TASKS);
+    }
+
+    public static StreamingExecutorService getInstance() {
+        return ApplicationManager.getApplication().getService(StreamingExecutorService.class);
+    }
+
+    /**
+     * 提交一个不绑定项目的任务。
+     *
+     * @throws RejectedExecutionException 执行器已满或已关闭
+     */
+    public Future<?> submit(@NotNull Runnable task) {
+        return submit(null, task);
+    }
+
+    /**
+     * 提交任务；传入 project 时，该任务会在项目关闭时被取消（中断线程）。
+     *
+     * @throws RejectedExecutionException 执行器已满或已关闭
+     */
+    public Future<?> submit(@Nullable Project project, @NotNull Runnable task) {
+        FutureTask<Void> future = new FutureTask<>(task, null) {
+            @Override
+            protected void done() {
+                if (project != null) {
+                    untrack(project, this);
+                }
+            }
+        };
+        if (project != null) {
+            projectTasks.computeIfAbsent(project, p -> ConcurrentHashMap.newKeySet()).add(future);
+        }
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            if (project != null) {
+                untrack(project, future);
+            }
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * 取消某个项目下仍在运行或排队的任务。
+     */
+    public void cancelProjectTasks(@NotNull Project project) {
+        Set<Future<?>> tasks = projectTasks.remove(project);
+        if (tasks == null || tasks.isEmpty()) {
+            return;
+        }
+        log.info("Cancelling {} streaming task(s) for closing project {}", tasks.size(), project.getName());
+        for (Future<?> task : tasks) {
+            task.cancel(true);
+        }
+        // 已取消的任务仍留在队列中占位，主动清理
+        executor.purge();
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    private void untrack(Project project, Future<?> future) {
+        projectTasks.computeIfPresent(project, (p, tasks) -> {
+            tasks.remove(future);
+            return tasks.isEmpty() ? null : tasks;
+        });
+    }
+
+    /**
+     * 编译目标为 JDK 17，通过反射使用 Thread.ofVirtual()；运行时低于 21 返回 null。
+     */
+    private static @Nullable ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME_PREFIX, 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory createPlatformThreadFactory() {
+        AtomicInteger counter = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public void dispose() {
+        projectTasks.clear();
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(2, TimeUnit.SECONDS)) {
+                log.warn("Streaming executor did not terminate in time, {} task(s) still running",
+                        executor.getActiveCount());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.yohannzhang.aigit.service;
+
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.yohannzhang.aigit.util.StreamDecoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 边序列化边发送的 JSON 请求体，不在内存中生成完整的请求字节。
+ * <p>
+ * 后台线程用 Jackson 把对象（可选经 gzip 压缩）写入一个有界的分块管道，HttpClient 从管道另一端读取并发送，
+ * 同一时刻缓冲的数据不超过几个分块。发送结束后须调用 {@link #close}，中止仍在写入的序列化线程。
+ */
+final class StreamingJsonBody implements Closeable {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_BUFFERED_CHUNKS = 4;
+    private static final long POLL_INTERVAL_MS = 100;
+    private static final byte[] END = new byte[0];
+
+    private final Object value;
+    private final boolean gzip;
+    private final long stallTimeoutMs;
+    private final List<Pipe> pipes = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * @param stallTimeoutMs 管道写满后等待 HttpClient 读取的最长时间，超过后放弃发送
+     */
+    StreamingJsonBody(Object value, boolean gzip, long stallTimeoutMs) {
+        this.value = value;
+        this.gzip = gzip;
+        this.stallTimeoutMs = stallTimeoutMs;
+    }
+
+    /**
+     * 长度未知的请求体，HTTP/1.1 下以 chunked 编码发送。重定向等需要重发时会重新序列化。
+     */
+    HttpRequest.BodyPublisher publisher() {
+        return HttpRequest.BodyPublishers.ofInputStream(this::open);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Pipe pipe : pipes) {
+            pipe.abort();
+        }
+    }
+
+    private InputStream open() {
+        Pipe pipe = new Pipe();
+        pipes.add(pipe);
+        if (closed) {
+            pipe.abort();
+        } else {
+            AppExecutorUtil.getAppExecutorService().execute(() -> write(pipe));
+        }
+        return pipe.in;
+    }
+
+    private void write(Pipe pipe) {
+        try {
+            try (OutputStream out = gzip ? new GZIPOutputStream(pipe.out, CHUNK_SIZE) : pipe.out) {
+                StreamDecoder.MAPPER.writeValue(out, value);
+            }
+            // 序列化失败时 Jackson 也会关闭输出流，只有完整写完才标记结束，避免发出截断的请求体
+            pipe.finish();
+        } catch (IOException e) {
+            pipe.fail(e);
+        }
+    }
+
+    /**
+     * 单生产者、单消费者的分块管道。与 PipedInputStream 不同，不要求读写两端固定在某个线程上。
+     */
+    private final class Pipe {
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_BUFFERED_CHUNKS);
+        private volatile IOException failure;
+        private volatile boolean aborted;
+
+        final OutputStream out = new OutputStream() {
+            private final byte[] buffer = new byte[CHUNK_SIZE];
+            private int count;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (count == buffer.length) {
+                    flushBuffer();
+                }
+                buffer[count++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (count == buffer.length) {
+                        flushBuffer();
+                    }
+                    int n = Math.min(len, buffer.length - count);
+                    System.arraycopy(b, off, buffer, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                flushBuffer();
+            }
+
+            private void flushBuffer() throws IOException {
+                if (count > 0) {
+                    put(Arrays.copyOf(buffer, count));
+                    count = 0;
+                }
+            }
+        };
+
+        final InputStream in = new InputStream() {
+            private byte[] current;
+            private int position;
+            private boolean eof;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                while (!eof && (current == null || position == current.length)) {
+                    byte[] next = take();
+                    if (next == END) {
+                        eof = true;
+                    } else {
+                        current = next;
+                        position = 0;
+                    }
+                }
+                if (eof) {
+                    return -1;
+                }
+                int n = Math.min(len, current.length - position);
+                System.arraycopy(current, position, b, off, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+                abort();
+            }
+        };
+
+        void finish() throws IOException {
+            put(END);
+        }
+
+        void fail(IOException e) {
+            failure = e;
+        }
+
+        void abort() {
+            aborted = true;
+            chunks.clear();
+        }
+
+        private void put(byte[] chunk) throws IOException {
+            if (aborted) {
+                throw new IOException("Request body aborted");
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(stallTimeoutMs);
+            try {
+                while (!chunks.offer(chunk, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    if (aborted) {
+                        throw new IOException("Request body aborted");
+                    }
+                    if (System.nanoTime() - deadline > 0) {
+                        throw new IOException("Request body not consumed within " + stallTimeoutMs + " ms");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Request body interrupted");
+            }
+        }
+
+        private byte[] take() throws IOException {
+            try {
+                while (true) {
+                    byte[] chunk = chunks.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    if (chunk != null) {
+                        return chunk;
+                    }
+                    if (failure != null) {
+                        throw new IOException("Failed to serialize request body", failure);
+                    }
+                    if (aborted) {
+                        throw new IOException("Request body aborted");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Request body interrupted");
+            }
+        }
+    }
+}
@@ -2,8 +2,8 @@ package com.yohannzhang.aigit.service;
 
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiClass;
-import com.yohannzhang.aigit.config.ApiKeySettings;
-import com.yohannzhang.aigit.util.OpenAIUtil;
+import com.yohannzhang.aigit.core.llm.PromptBudget;
+import com.yohannzhang.aigit.core.llm.TaskType;
 
 public class TestClassGeneratorService {
     private final Project project;
@@ -18,13 +18,9 @@ public class TestClassGeneratorService {
         // 构建提示词
         String prompt = buildPrompt();
 
-        // 获取当前选择的模型
-        String selectedModel = ApiKeySettings.getInstance().getSelectedModule();
-
         try {
-            // 调用 AI 生成测试类
-            OpenAIUtil.getAIResponseStream(
-                    selectedModel,
+            // 调用 AI 生成测试类，经由当前 client（及备用 client）
+            new CodeService(TaskType.COMPLETION).generateCommitMessageStream(
                     prompt,
                     token -> {
                         // 处理流式响应
@@ -51,9 +47,11 @@ public class TestClassGeneratorService {
         prompt.append("4. 添加适当的测试注释\n");
         prompt.append("5. 遵循测试最佳实践\n\n");
         prompt.append("源类代码：\n");
-        prompt.append(sourceClass.getText());
 
-        return prompt.toString();
+        return PromptBudget.forSelectedModel()
+                .fixed(prompt.toString())
+                .document(sourceClass.getText(), true)
+                .build();
     }
 
     public interface TestGenerationCallback {
@@ -1,6 +1,7 @@
 package com.yohannzhang.aigit.service.impl;
 
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
 import com.yohannzhang.aigit.service.AIService;
 import com.yohannzhang.aigit.util.OpenAIUtil;
 import org.slf4j.Logger;
@@ -28,8 +29,8 @@ public class AliYunBaiLianService implements AIService {
     }
 
     @Override
-    public void generateCommitMessageStream(String prompt, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
-        OpenAIUtil.getAIResponseStream(Constants.阿里云百炼, prompt, onNext, onError, onComplete);
+    public RequestHandle generateCommitMessageStream(String prompt, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
+        return OpenAIUtil.getAIResponseStream(Constants.阿里云百炼, prompt, onNext, onError, onComplete);
     }
 
 //    @Override
@@ -1,11 +1,15 @@
 package com.yohannzhang.aigit.service.impl;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yohannzhang.aigit.config.ApiKeySettings;
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
 import com.yohannzhang.aigit.pojo.OpenAIRequestBO;
 import com.yohannzhang.aigit.service.AIService;
+import com.yohannzhang.aigit.service.LLMMetricsService;
+import com.yohannzhang.aigit.service.LLMTransportService;
+import com.yohannzhang.aigit.service.RateLimiterService;
+import com.yohannzhang.aigit.util.StreamDecoder;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
@@ -13,11 +17,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URI;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
@@ -39,14 +43,27 @@ public class CloudflareWorkersAIService implements AIService {
     @Override
     public String generateCommitMessage(String content) throws Exception {
         ApiKeySettings settings = ApiKeySettings.getInstance();
-        String selectedModule = settings.getSelectedModule();
+        String selectedModule = settings.getModelFor(Constants.CloudflareWorkersAI);
         ApiKeySettings.ModuleConfig moduleConfig = settings.getModuleConfigs().get(Constants.CloudflareWorkersAI);
-        return getAIResponse(moduleConfig.getUrl(), selectedModule, moduleConfig.getApiKey(), content);
+        LLMMetricsService.Call call = LLMMetricsService.getInstance().start(Constants.CloudflareWorkersAI, selectedModule, content);
+        try (RateLimiterService.Permit permit = RateLimiterService.getInstance().acquire(Constants.CloudflareWorkersAI, content)) {
+            call.acquired();
+            String aiResponse = getAIResponse(moduleConfig.getUrl(), selectedModule, moduleConfig.getApiKey(), content);
+            permit.recordOutput(aiResponse);
+            call.output(aiResponse);
+            return aiResponse;
+        } catch (Exception e) {
+            call.failed(e);
+            throw e;
+        } finally {
+            call.end(false);
+        }
     }
 
     @Override
-    public void generateCommitMessageStream(String prompt, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
-
+    public RequestHandle generateCommitMessageStream(String prompt, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
+        // 不支持流式，generateByStream() 返回 false
+        return RequestHandle.completed();
     }
 
 
@@ -57,7 +74,7 @@ public class CloudflareWorkersAIService implements AIService {
         if (moduleConfig == null) {
             return false;
         }
-        String selectedModule = settings.getSelectedModule();
+        String selectedModule = settings.getModelFor(Constants.CloudflareWorkersAI);
         String url = moduleConfig.getUrl();
         String apiKey = moduleConfig.getApiKey();
         return StringUtils.isNotEmpty(selectedModule) && StringUtils.isNotEmpty(url) && StringUtils.isNotEmpty(apiKey);
@@ -67,8 +84,9 @@ public class CloudflareWorkersAIService implements AIService {
     public boolean validateConfig(Map<String, String> config) {
         int statusCode;
         try {
-            HttpURLConnection connection = getHttpURLConnection(config.get("url"), config.get("module"), config.get("apiKey"), "hi");
-            statusCode = connection.getResponseCode();
+            HttpResponse<InputStream> response = getHttpResponse(config.get("url"), config.get("module"), config.get("apiKey"), "hi");
+            statusCode = response.statusCode();
+            response.body().close();
         } catch (IOException e) {
             return false;
         } catch (Exception e) {
@@ -78,17 +96,17 @@ public class CloudflareWorkersAIService implements AIService {
     }
 
     public static String getAIResponse(String url, String module, String apiKey, String textContent) throws Exception {
-        HttpURLConnection connection = getHttpURLConnection(url, module, apiKey, textContent);
+        HttpResponse<InputStream> httpResponse = getHttpResponse(url, module, apiKey, textContent);
+        LLMTransportService.ensureSuccess(httpResponse);
 
         StringBuilder response = new StringBuilder();
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(httpResponse.body(), StandardCharsets.UTF_8))) {
             String responseLine;
             while ((responseLine = br.readLine()) != null) {
                 response.append(responseLine.trim());
             }
         }
-        ObjectMapper objectMapper = new ObjectMapper();
-        JsonNode jsonResponse = objectMapper.readTree(response.toString());
+        JsonNode jsonResponse = StreamDecoder.MAPPER.readTree(response.toString());
         JsonNode choices = jsonResponse.path("choices");
         if (choices.isArray() && !choices.isEmpty()) {
             JsonNode firstChoices = choices.get(0);
@@ -99,27 +117,14 @@ public class CloudflareWorkersAIService implements AIService {
         return "sth error when request ai api";
     }
 
-    private static @NotNull HttpURLConnection getHttpURLConnection(String url, String module, String apiKey, String textContent) throws IOException {
+    private static @NotNull HttpResponse<InputStream> getHttpResponse(String url, String module, String apiKey, String textContent) throws IOException {
         OpenAIRequestBO openAIRequestBO = new OpenAIRequestBO();
         openAIRequestBO.setModel(module);
         openAIRequestBO.setMessages(List.of(new OpenAIRequestBO.OpenAIRequestMessage("user", textContent)));
 
-        ObjectMapper objectMapper1 = new ObjectMapper();
-        String jsonInputString = objectMapper1.writeValueAsString(openAIRequestBO);
-
-        URI uri = URI.create(url);
-        HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setRequestProperty("Authorization", "Bearer " + apiKey);
-        connection.setDoOutput(true);
-        connection.setConnectTimeout(20000);
-        connection.setReadTimeout(20000);
-
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = jsonInputString.getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
-        }
-        return connection;
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/json");
+        headers.put("Authorization", "Bearer " + apiKey);
+        return LLMTransportService.getInstance().postJson(url, headers, openAIRequestBO, textContent.length(), 20000, 20000);
     }
 }
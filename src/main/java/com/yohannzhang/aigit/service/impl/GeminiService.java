@@ -1,22 +1,30 @@
 package com.yohannzhang.aigit.service.impl;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yohannzhang.aigit.config.ApiKeySettings;
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.RequestPriority;
+import com.yohannzhang.aigit.core.llm.StreamContinuation;
 import com.yohannzhang.aigit.pojo.GeminiRequestBO;
 import com.yohannzhang.aigit.service.AIService;
+import com.yohannzhang.aigit.service.LLMMetricsService;
+import com.yohannzhang.aigit.service.LLMTransportService;
+import com.yohannzhang.aigit.service.RateLimiterService;
+import com.yohannzhang.aigit.service.SingleFlightService;
+import com.yohannzhang.aigit.util.StreamDecoder;
+import com.yohannzhang.aigit.util.TokenCoalescer;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URI;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
@@ -39,17 +47,29 @@ public class GeminiService implements AIService {
     @Override
     public String generateCommitMessage(String content) throws Exception {
         ApiKeySettings settings = ApiKeySettings.getInstance();
-        String selectedModule = settings.getSelectedModule();
+        String selectedModule = settings.getModelFor(Constants.Gemini);
         ApiKeySettings.ModuleConfig moduleConfig = settings.getModuleConfigs().get(Constants.Gemini);
-        String aiResponse = getAIResponse(moduleConfig.getUrl(), selectedModule, moduleConfig.getApiKey(), content);
+        String aiResponse;
+        LLMMetricsService.Call call = LLMMetricsService.getInstance().start(Constants.Gemini, selectedModule, content);
+        try (RateLimiterService.Permit permit = RateLimiterService.getInstance().acquire(Constants.Gemini, content)) {
+            call.acquired();
+            aiResponse = getAIResponse(moduleConfig.getUrl(), selectedModule, moduleConfig.getApiKey(), content);
+            permit.recordOutput(aiResponse);
+            call.output(aiResponse);
+        } catch (Exception e) {
+            call.failed(e);
+            throw e;
+        } finally {
+            call.end(false);
+        }
         log.info("aiResponse is  :\n{}", aiResponse);
         return aiResponse.replaceAll("```", "");
     }
 
     @Override
-    public void generateCommitMessageStream(String content, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete)
+    public RequestHandle generateCommitMessageStream(String content, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete)
             throws Exception {
-        getAIResponseStream(content, onNext);
+        return getAIResponseStream(content, onNext, onError, onComplete);
     }
 
     @Override
@@ -59,7 +79,7 @@ public class GeminiService implements AIService {
         if (moduleConfig == null) {
             return false;
         }
-        String selectedModule = settings.getSelectedModule();
+        String selectedModule = settings.getModelFor(Constants.Gemini);
         String url = moduleConfig.getUrl();
         String apiKey = moduleConfig.getApiKey();
         return StringUtils.isNotEmpty(selectedModule) && StringUtils.isNotEmpty(url) && StringUtils.isNotEmpty(apiKey);
@@ -69,9 +89,10 @@ public class GeminiService implements AIService {
     public boolean validateConfig(Map<String, String> config) {
         int statusCode;
         try {
-            HttpURLConnection connection = getHttpURLConnection(config.get("url"), config.get("module"),
+            HttpResponse<InputStream> response = getHttpResponse(config.get("url"), config.get("module"),
                     config.get("apiKey"), "hi");
-            statusCode = connection.getResponseCode();
+            statusCode = response.statusCode();
+            response.body().close();
         } catch (IOException e) {
             return false;
         }
@@ -81,19 +102,19 @@ public class GeminiService implements AIService {
     }
 
     public static String getAIResponse(String url, String module, String apiKey, String textContent) throws Exception {
-        HttpURLConnection connection = getStreamHttpURLConnection(url, module, apiKey, textContent);
+        HttpResponse<InputStream> httpResponse = getStreamHttpResponse(url, module, apiKey, textContent, null);
+        LLMTransportService.ensureSuccess(httpResponse);
 
         StringBuilder response = new StringBuilder();
         try (BufferedReader br = new BufferedReader(
-                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                new InputStreamReader(httpResponse.body(), StandardCharsets.UTF_8))) {
             String responseLine;
             while ((responseLine = br.readLine()) != null) {
                 response.append(responseLine.trim());
             }
         }
 
-        ObjectMapper objectMapper = new ObjectMapper();
-        JsonNode jsonResponse = objectMapper.readTree(response.toString());
+        JsonNode jsonResponse = StreamDecoder.MAPPER.readTree(response.toString());
         JsonNode candidates = jsonResponse.path("candidates");
         if (candidates.isArray() && !candidates.isEmpty()) {
             JsonNode firstCandidate = candidates.get(0);
@@ -107,86 +128,107 @@ public class GeminiService implements AIService {
         return "sth error when request ai api";
     }
 
-    private static @NotNull HttpURLConnection getHttpURLConnection(String url, String module, String apiKey,
-                                                                   String textContent) throws IOException {
+    private static @NotNull HttpResponse<InputStream> getHttpResponse(String url, String module, String apiKey,
+                                                                     String textContent) throws IOException {
         // String apiUrl =
         // "https://generativelanguage.googleapis.com/v1beta/models/gemini-1.5-flash-latest:generateContent?key="
         // + apiKey;
         String apiUrl = url + "/" + module + ":generateContent?key=" + apiKey;
-        GeminiRequestBO geminiRequestBO = new GeminiRequestBO();
-        geminiRequestBO
-                .setContents(List.of(new GeminiRequestBO.Content(List.of(new GeminiRequestBO.Part(textContent)))));
-        ObjectMapper objectMapper1 = new ObjectMapper();
-        String jsonInputString = objectMapper1.writeValueAsString(geminiRequestBO);
-
-        URI uri = URI.create(apiUrl);
-        HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setDoOutput(true);
-        connection.setConnectTimeout(10000); // 连接超时：10秒
-        connection.setReadTimeout(10000); // 读取超时：10秒
-
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = jsonInputString.getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
-        }
-        return connection;
+        return postGeminiRequest(apiUrl, textContent, null);
     }
 
-    private static @NotNull HttpURLConnection getStreamHttpURLConnection(String url, String module, String apiKey,
-                                                                         String textContent) throws IOException {
-        // String apiUrl =
-        // "https://generativelanguage.googleapis.com/v1beta/models/gemini-1.5-flash-latest:generateContent?key="
-        // + apiKey;
+    private static @NotNull HttpResponse<InputStream> getStreamHttpResponse(String url, String module, String apiKey,
+                                                                           String textContent, @Nullable String prefix) throws IOException {
         String apiUrl = url + "/" + module + ":streamGenerateContent?alt=sse&key=" + apiKey;
+        return postGeminiRequest(apiUrl, textContent, prefix);
+    }
+
+    private static @NotNull HttpResponse<InputStream> postGeminiRequest(String apiUrl, String textContent,
+                                                                       @Nullable String prefix) throws IOException {
         GeminiRequestBO geminiRequestBO = new GeminiRequestBO();
-        geminiRequestBO
-                .setContents(List.of(new GeminiRequestBO.Content(List.of(new GeminiRequestBO.Part(textContent)))));
-        ObjectMapper objectMapper1 = new ObjectMapper();
-        String jsonInputString = objectMapper1.writeValueAsString(geminiRequestBO);
-
-        URI uri = URI.create(apiUrl);
-        HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setDoOutput(true);
-        connection.setConnectTimeout(10000); // 连接超时：10秒
-        connection.setReadTimeout(10000); // 读取超时：10秒
-
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = jsonInputString.getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
+        if (StringUtils.isEmpty(prefix)) {
+            geminiRequestBO
+                    .setContents(List.of(new GeminiRequestBO.Content(List.of(new GeminiRequestBO.Part(textContent)))));
+        } else {
+            // 续写：已输出的内容作为 model 轮次，再追加续写指令
+            geminiRequestBO.setContents(List.of(
+                    new GeminiRequestBO.Content("user", List.of(new GeminiRequestBO.Part(textContent))),
+                    new GeminiRequestBO.Content("model", List.of(new GeminiRequestBO.Part(prefix))),
+                    new GeminiRequestBO.Content("user", List.of(new GeminiRequestBO.Part(StreamContinuation.INSTRUCTION)))));
         }
-        return connection;
+        // 连接超时：10秒，读取超时：10秒
+        return LLMTransportService.getInstance().postJson(apiUrl, Map.of("Content-Type", "application/json"), geminiRequestBO,
+                textContent.length() + StringUtils.length(prefix), 10000, 10000);
+    }
+
+    private RequestHandle getAIResponseStream(String textContent, Consumer<String> onNext,
+                                              Consumer<Throwable> onError, Runnable onComplete) throws Exception {
+        ApiKeySettings settings = ApiKeySettings.getInstance();
+        ApiKeySettings.ModuleConfig moduleConfig = settings.getModuleConfigs().get(Constants.Gemini);
+        String prefix = StreamContinuation.current();
+        // 同一模型、同一 prompt 的并发请求共用一路上游流
+        return SingleFlightService.getInstance().join(
+                SingleFlightService.key(Constants.Gemini, settings.getModelFor(Constants.Gemini), moduleConfig.getUrl(), textContent),
+                onNext, onError, onComplete,
+                (next, error, complete) -> openStream(textContent, prefix, next, error, complete));
     }
 
-    private void getAIResponseStream(String textContent, Consumer<String> onNext) throws Exception {
+    private RequestHandle openStream(String textContent, @Nullable String prefix, Consumer<String> onNext,
+                                     Consumer<Throwable> onError, Runnable onComplete) throws Exception {
         ApiKeySettings settings = ApiKeySettings.getInstance();
-        String selectedModule = settings.getSelectedModule();
+        String selectedModule = settings.getModelFor(Constants.Gemini);
         ApiKeySettings.ModuleConfig moduleConfig = settings.getModuleConfigs().get(Constants.Gemini);
 
-        HttpURLConnection connection = getStreamHttpURLConnection(moduleConfig.getUrl(), selectedModule,
-                moduleConfig.getApiKey(), textContent);
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("data: ")) {
-                    String jsonData = line.substring(6);
-                    if (!"[DONE]".equals(jsonData)) {
-                        ObjectMapper mapper = new ObjectMapper();
-                        JsonNode root = mapper.readTree(jsonData);
-                        JsonNode candidates = root.path("candidates");
-                        if (candidates.isArray() && !candidates.isEmpty()) {
-                            String text = candidates.get(0).path("content").path("parts").get(0).path("text")
-                                    .asText();
-                            onNext.accept(text);
-                        }
+        RequestPriority priority = RequestPriority.current();
+        RequestHandle handle = new RequestHandle();
+        TokenCoalescer tokens = new TokenCoalescer(onNext);
+        LLMMetricsService.Call call = LLMMetricsService.getInstance().start(Constants.Gemini, selectedModule, textContent);
+        Runnable finish = () -> {
+            call.end(handle.isCancelled());
+            try {
+                tokens.close();
+                onComplete.run();
+            } finally {
+                handle.markDone();
+            }
+        };
+        RateLimiterService.getInstance().submitWhenPermitted(Constants.Gemini, textContent, priority, handle, permit -> {
+            handle.attachWorker();
+            try (permit) {
+                call.acquired();
+                if (handle.isCancelled()) {
+                    return;
+                }
+                HttpResponse<InputStream> httpResponse = getStreamHttpResponse(moduleConfig.getUrl(), selectedModule,
+                        moduleConfig.getApiKey(), textContent, prefix);
+                call.connected();
+                handle.attachBody(httpResponse.body());
+                permit.observe(httpResponse);
+                LLMTransportService.ensureSuccess(httpResponse);
+
+                try (InputStream body = httpResponse.body()) {
+                    boolean complete = new StreamDecoder(StreamDecoder.Format.GEMINI_SSE).decode(body, call.counting(permit.counting(tokens)), handle::isCancelled);
+                    if (!complete && !handle.isCancelled()) {
+                        throw new StreamDecoder.TruncatedStreamException();
                     }
                 }
+            } catch (IOException e) {
+                call.failed(e);
+                tokens.close();
+                if (!handle.isCancelled()) {
+                    onError.accept(e);
+                }
+            } finally {
+                finish.run();
             }
-        }
-
+        }, error -> {
+            // 排队期间被取消或执行器已满，请求没有发出
+            call.failed(error);
+            if (!handle.isCancelled()) {
+                onError.accept(error);
+            }
+            finish.run();
+        });
+        return handle;
     }
 }
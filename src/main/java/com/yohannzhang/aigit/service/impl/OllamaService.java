@@ -1,21 +1,30 @@
 package com.yohannzhang.aigit.service.impl;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yohannzhang.aigit.config.ApiKeySettings;
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.RequestPriority;
+import com.yohannzhang.aigit.core.llm.StreamContinuation;
 import com.yohannzhang.aigit.service.AIService;
+import com.yohannzhang.aigit.service.LLMMetricsService;
+import com.yohannzhang.aigit.service.LLMTransportService;
+import com.yohannzhang.aigit.service.RateLimiterService;
+import com.yohannzhang.aigit.service.SingleFlightService;
+import com.yohannzhang.aigit.util.StreamDecoder;
+import com.yohannzhang.aigit.util.TokenCoalescer;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URI;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 /**
@@ -24,33 +33,40 @@ import java.util.function.Consumer;
  * @author hmydk
  */
 public class OllamaService implements AIService {
-    private static volatile boolean isCancelled = false;
 
     @Override
     public boolean generateByStream() {
         return true;
     }
 
-    public static void cancelRequest() {
-        isCancelled = true;
-    }
-
     // private static final Logger log =
     // LoggerFactory.getLogger(OllamaService.class);
     @Override
     public String generateCommitMessage(String content) throws Exception {
 
         ApiKeySettings settings = ApiKeySettings.getInstance();
-        String selectedModule = settings.getSelectedModule();
+        String selectedModule = settings.getModelFor(Constants.Ollama);
         ApiKeySettings.ModuleConfig moduleConfig = settings.getModuleConfigs().get(Constants.Ollama);
-        String aiResponse = getAIResponse(selectedModule, moduleConfig.getUrl(), content);
+        String aiResponse;
+        LLMMetricsService.Call call = LLMMetricsService.getInstance().start(Constants.Ollama, selectedModule, content);
+        try (RateLimiterService.Permit permit = RateLimiterService.getInstance().acquire(Constants.Ollama, content)) {
+            call.acquired();
+            aiResponse = getAIResponse(selectedModule, moduleConfig.getUrl(), content);
+            permit.recordOutput(aiResponse);
+            call.output(aiResponse);
+        } catch (Exception e) {
+            call.failed(e);
+            throw e;
+        } finally {
+            call.end(false);
+        }
 
         return aiResponse.replaceAll("```", "");
     }
 
     @Override
-    public void generateCommitMessageStream(String content, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
-        getAIResponseStream(content, onNext, onError, onComplete);
+    public RequestHandle generateCommitMessageStream(String content, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
+        return getAIResponseStream(content, onNext, onError, onComplete);
     }
 
     @Override
@@ -60,7 +76,7 @@ public class OllamaService implements AIService {
         if (moduleConfig == null) {
             return false;
         }
-        String selectedModule = settings.getSelectedModule();
+        String selectedModule = settings.getModelFor(Constants.Ollama);
         String url = moduleConfig.getUrl();
         return StringUtils.isNotEmpty(selectedModule) && StringUtils.isNotEmpty(url);
     }
@@ -69,8 +85,9 @@ public class OllamaService implements AIService {
     public boolean validateConfig(Map<String, String> config) {
         int statusCode;
         try {
-            HttpURLConnection connection = getHttpURLConnection(config.get("module"), config.get("url"), "hi");
-            statusCode = connection.getResponseCode();
+            HttpResponse<InputStream> response = getHttpResponse(config.get("module"), config.get("url"), "hi");
+            statusCode = response.statusCode();
+            response.body().close();
         } catch (IOException e) {
             return false;
         }
@@ -80,19 +97,19 @@ public class OllamaService implements AIService {
     }
 
     private static String getAIResponse(String module, String url, String textContent) throws Exception {
-        HttpURLConnection connection = getHttpURLConnection(module, url, textContent);
+        HttpResponse<InputStream> httpResponse = getHttpResponse(module, url, textContent);
+        LLMTransportService.ensureSuccess(httpResponse);
 
         StringBuilder response = new StringBuilder();
         try (BufferedReader br = new BufferedReader(
-                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                new InputStreamReader(httpResponse.body(), StandardCharsets.UTF_8))) {
             String responseLine;
             while ((responseLine = br.readLine()) != null) {
                 response.append(responseLine.trim());
             }
         }
 
-        ObjectMapper objectMapper = new ObjectMapper();
-        JsonNode jsonResponse = objectMapper.readTree(response.toString());
+        JsonNode jsonResponse = StreamDecoder.MAPPER.readTree(response.toString());
         String rawResponse = jsonResponse.path("response").asText();
         return removeThinkTags(rawResponse);
     }
@@ -128,25 +145,16 @@ public class OllamaService implements AIService {
         return result.toString().trim();
     }
 
-    private static @NotNull HttpURLConnection getHttpURLConnection(String module, String url, String textContent)
+    private static @NotNull HttpResponse<InputStream> getHttpResponse(String module, String url, String textContent)
             throws IOException {
+        return postGenerateRequest(url, new GenerateRequest(module, textContent, false));
+    }
 
-        GenerateRequest request = new GenerateRequest(module, textContent, false);
-        ObjectMapper objectMapper = new ObjectMapper();
-        String jsonInputString = objectMapper.writeValueAsString(request);
-
-        URI uri = URI.create(url);
-        HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setDoOutput(true);
-
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = jsonInputString.getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
-        }
-
-        return connection;
+    private static @NotNull HttpResponse<InputStream> postGenerateRequest(String url, GenerateRequest request)
+            throws IOException {
+        // 本地模型首个 token 可能较慢，保持与原先不设读取超时相近的宽松上限
+        return LLMTransportService.getInstance().postJson(url, Map.of("Content-Type", "application/json"), request,
+                StringUtils.length(request.getPrompt()), LLMTransportService.DEFAULT_CONNECT_TIMEOUT_MS, 600000);
     }
 
     private static class GenerateRequest {
@@ -185,71 +193,105 @@ public class OllamaService implements AIService {
         }
     }
 
-    private void getAIResponseStream(String textContent, Consumer<String> onNext,
+    private RequestHandle getAIResponseStream(String textContent, Consumer<String> onNext,
+                                              Consumer<Throwable> onError, Runnable onComplete) throws Exception {
+        ApiKeySettings settings = ApiKeySettings.getInstance();
+        ApiKeySettings.ModuleConfig moduleConfig = settings.getModuleConfigs().get(Constants.Ollama);
+        String prefix = StreamContinuation.current();
+        // 同一模型、同一 prompt 的并发请求共用一路上游流
+        return SingleFlightService.getInstance().join(
+                SingleFlightService.key(Constants.Ollama, settings.getModelFor(Constants.Ollama), moduleConfig.getUrl(), textContent),
+                onNext, onError, onComplete,
+                (next, error, complete) -> openStream(textContent, prefix, next, error, complete));
+    }
+
+    private RequestHandle openStream(String textContent, @Nullable String prefix, Consumer<String> onNext,
                                      Consumer<Throwable> onError, Runnable onComplete) throws Exception {
-        isCancelled = false;
 
         ApiKeySettings settings = ApiKeySettings.getInstance();
-        String selectedModule = settings.getSelectedModule();
+        String selectedModule = settings.getModelFor(Constants.Ollama);
         ApiKeySettings.ModuleConfig moduleConfig = settings.getModuleConfigs().get(Constants.Ollama);
 
-        GenerateRequest request = new GenerateRequest(selectedModule, textContent, true);
-        ObjectMapper objectMapper = new ObjectMapper();
-        String jsonInputString = objectMapper.writeValueAsString(request);
+        // /api/generate 只接受单段 prompt，续写前缀拼进 prompt
+        GenerateRequest request = new GenerateRequest(selectedModule,
+                StringUtils.isEmpty(prefix) ? textContent : StreamContinuation.inlinePrompt(textContent, prefix), true);
         //定义一个字符串存储响应结果
         StringBuilder fullResponse = new StringBuilder();
-
-        new Thread(() -> {
-            HttpURLConnection connection = null;
+        AtomicBoolean thinkOpened = new AtomicBoolean(false);
+        AtomicBoolean thinkClosed = new AtomicBoolean(false);
+
+        RequestPriority priority = RequestPriority.current();
+        RequestHandle handle = new RequestHandle();
+        TokenCoalescer tokens = new TokenCoalescer(onNext);
+        LLMMetricsService.Call call = LLMMetricsService.getInstance().start(Constants.Ollama, selectedModule, textContent);
+        Runnable finish = () -> {
+            call.end(handle.isCancelled());
             try {
-                URI uri = URI.create(moduleConfig.getUrl());
-                connection = (HttpURLConnection) uri.toURL().openConnection();
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", "application/json");
-                connection.setDoOutput(true);
-
-                try (OutputStream os = connection.getOutputStream()) {
-                    byte[] input = jsonInputString.getBytes(StandardCharsets.UTF_8);
-                    os.write(input, 0, input.length);
+                tokens.close();
+                onComplete.run();
+            } finally {
+                handle.markDone();
+            }
+        };
+        RateLimiterService.getInstance().submitWhenPermitted(Constants.Ollama, textContent, priority, handle, permit -> {
+            handle.attachWorker();
+            try (permit) {
+                call.acquired();
+                if (handle.isCancelled()) {
+                    return;
                 }
+                HttpResponse<InputStream> httpResponse = postGenerateRequest(moduleConfig.getUrl(), request);
+                call.connected();
+                handle.attachBody(httpResponse.body());
+                permit.observe(httpResponse);
+                LLMTransportService.ensureSuccess(httpResponse);
+
+                try (InputStream body = httpResponse.body()) {
+                    boolean complete = new StreamDecoder(StreamDecoder.Format.OLLAMA_NDJSON).decode(body, response -> {
+                        permit.recordOutput(response);
+                        call.output(response);
+                        // 只回看新增内容附近，标签可能跨 token 拆分
+                        int from = Math.max(0, fullResponse.length() - 8);
+                        //拼接响应结果
+                        fullResponse.append(response);
+                        //判断响应结果中是否包含<think>内容</think>,如只包含<think>则跳过，若包含</think>,则取</think>之后的内容返回
+                        if (!thinkOpened.get() && fullResponse.indexOf("<think>", from) >= 0) {
+                            thinkOpened.set(true);
+                        }
+                        if (thinkOpened.get() && !thinkClosed.get() && fullResponse.indexOf("</think>", from) >= 0) {
+                            thinkClosed.set(true);
+                        }
+                        if (thinkOpened.get() && !thinkClosed.get()) {
+                            return;
+                        }
 
-                try (BufferedReader br = new BufferedReader(
-                        new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-                    String line;
-                    while ((line = br.readLine()) != null && !isCancelled) {
-                        JsonNode jsonResponse = objectMapper.readTree(line);
-                        String response = jsonResponse.path("response").asText();
-                        if (!response.isEmpty()) {
-                            //拼接响应结果
-                            fullResponse.append(response);
-                            //判断响应结果中是否包含<think>内容</think>,如只包含<think>则跳过，若包含</think>,则取</think>之后的内容返回
-                            if (fullResponse.toString().contains("<think>") && !fullResponse.toString().contains("</think>")) {
-                                continue;
-                            }
-
-//                          System.out.println("==="+fullResponse);
-
-
-                            if (!response.isEmpty()) {
-                                if(response.contains("</think>")){
-                                    response = response.replaceAll("</think>","");
-                                }
-                                onNext.accept(response);
-                            }
+                        if (response.contains("</think>")) {
+                            response = response.replaceAll("</think>", "");
                         }
+                        tokens.accept(response);
+                    }, handle::isCancelled);
+                    if (!complete && !handle.isCancelled()) {
+                        throw new StreamDecoder.TruncatedStreamException();
                     }
                 }
             } catch (Exception e) {
-                if (!isCancelled) {
+                call.failed(e);
+                tokens.close();
+                if (!handle.isCancelled()) {
                     onError.accept(e);
                 }
             } finally {
-                onComplete.run();
-                if (connection != null) {
-                    connection.disconnect();
-                }
+                finish.run();
+            }
+        }, error -> {
+            // 排队期间被取消或执行器已满，请求没有发出
+            call.failed(error);
+            if (!handle.isCancelled()) {
+                onError.accept(error);
             }
-        }).start();
+            finish.run();
+        });
+        return handle;
     }
 
     // public static void main(String[] args) {
@@ -1,6 +1,7 @@
 package com.yohannzhang.aigit.service.impl;
 
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
 import com.yohannzhang.aigit.service.AIService;
 import com.yohannzhang.aigit.util.OpenAIUtil;
 import org.slf4j.Logger;
@@ -34,8 +35,8 @@ public class SiliconFlowService implements AIService {
 //    }
 
     @Override
-    public void generateCommitMessageStream(String prompt, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
-        OpenAIUtil.getAIResponseStream(Constants.SiliconFlow, prompt, onNext, onError, onComplete);
+    public RequestHandle generateCommitMessageStream(String prompt, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
+        return OpenAIUtil.getAIResponseStream(Constants.SiliconFlow, prompt, onNext, onError, onComplete);
     }
 
     @Override
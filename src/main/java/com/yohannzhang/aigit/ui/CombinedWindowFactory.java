@@ -1,5 +1,6 @@
 package com.yohannzhang.aigit.ui;
 
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.intellij.icons.AllIcons;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
@@ -26,6 +27,7 @@ import com.intellij.ui.components.JBScrollPane;
 import com.intellij.ui.components.JBTextField;
 import com.intellij.ui.content.Content;
 import com.intellij.ui.jcef.JBCefBrowser;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.messages.MessageBusConnection;
 import com.vladsch.flexmark.ext.tables.TablesExtension;
 import com.vladsch.flexmark.html.HtmlRenderer;
@@ -34,12 +36,14 @@ import com.vladsch.flexmark.util.data.MutableDataSet;
 import com.yohannzhang.aigit.config.ApiKeySettings;
 import com.yohannzhang.aigit.config.ChatHistoryService;
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.PromptBudget;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.jfr.ChatRenderEvent;
+import com.yohannzhang.aigit.jfr.ChatScriptEvent;
 import com.yohannzhang.aigit.service.CodeService;
-import com.yohannzhang.aigit.service.impl.OllamaService;
 import com.yohannzhang.aigit.service.RagService;
 import com.yohannzhang.aigit.util.CodeUtil;
 import com.yohannzhang.aigit.util.IdeaDialogUtil;
-import com.yohannzhang.aigit.util.OpenAIUtil;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
@@ -49,11 +53,16 @@ import java.awt.*;
 import java.awt.event.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class CombinedWindowFactory implements ToolWindowFactory, EditorColorsListener {
@@ -85,6 +94,9 @@ public class CombinedWindowFactory implements ToolWindowFactory, EditorColorsLis
     private float fontSize;
     private Color ideFontColor;
     public static final Map<Project, UIState> uiStates = Collections.synchronizedMap(new HashMap<>());
+    // Markdown 解析放到单线程池，既不占用流式读取线程，也保证帧按顺序渲染
+    private static final ExecutorService RENDER_EXECUTOR =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("AICodeMaster Render", 1);
 
     public static class UIState {
         JTextArea questionTextArea;
@@ -95,7 +107,6 @@ public class CombinedWindowFactory implements ToolWindowFactory, EditorColorsLis
         JPanel outputPanel;
         JBCefBrowser markdownViewer;
         StringBuilder chatHistory = new StringBuilder();
-        StringBuilder currentAnswer = new StringBuilder();
         List<ConversationTurn> conversationTurns = new ArrayList<>();
         boolean isHistoryView = false;
         JPanel historyPanel;
@@ -116,6 +127,20 @@ public class CombinedWindowFactory implements ToolWindowFactory, EditorColorsLis
         // 界面组件引用（用于更新显示）
         JLabel fileCountLabel;
         JBScrollPane fileListScrollPane;
+        // 当前窗口发起、尚未结束的请求
+        final Set<RequestHandle> activeRequests = ConcurrentHashMap.newKeySet();
+        // 待渲染的最新 Markdown / 当前回答的最新内容，渲染跟不上时中间帧被覆盖
+        final AtomicReference<String> pendingMarkdown = new AtomicReference<>();
+        final AtomicReference<String> pendingAnswer = new AtomicReference<>();
+        // 等待在 EDT 上按顺序执行的脚本
+        final Deque<String> pendingScripts = new ArrayDeque<>();
+        // 以下字段只在渲染线程上读写
+        // #content 当前是否为对话视图，被整体替换后需要用 chatHistory 重建一次
+        boolean chatViewActive;
+        String activeAnswerId;
+        // 整体渲染与当前回答各用一个增量渲染器，已闭合的块不再重复解析
+        final StreamingMarkdownRenderer documentRenderer = new StreamingMarkdownRenderer(parser, renderer);
+        final StreamingMarkdownRenderer answerRenderer = new StreamingMarkdownRenderer(parser, renderer);
     }
 
     private static class ConversationTurn {
@@ -195,8 +220,12 @@ public class CombinedWindowFactory implements ToolWindowFactory, EditorColorsLis
         gbc.weighty = 0.1;
         panel.add(createInputPanel(project), gbc);
 
-        Content content = toolWindow.getContentManager().getFactory().createContent(panel, "", false);
+        Content content = toolWindow.getContentManager().getFactory().createContent(panel, "Chat", false);
         toolWindow.getContentManager().addContent(content);
+        // LLM 调用延迟与吞吐统计
+        Content performance = toolWindow.getContentManager().getFactory()
+                .createContent(new PerformancePanel(project), "Performance", false);
+        toolWindow.getContentManager().addContent(performance);
 
         instances.put(project, this);
     }
@@ -327,30 +356,183 @@ public class CombinedWindowFactory implements ToolWindowFactory, EditorColorsLis
         UIState state = getOrCreateState(project);
         if (state.markdownViewer == null) return;
 
+        // 只保留最新一帧：已有渲染任务排队时仅替换内容，不再重复提交
+        if (state.pendingMarkdown.getAndSet(markdownResult) == null) {
+            RENDER_EXECUTOR.execute(() -> renderPending(state));
+        }
+    }
+
+    private void renderPending(UIState state) {
+        String markdownResult = state.pendingMarkdown.getAndSet(null);
+        if (markdownResult == null) return;
+
         // Add spacing between code blocks and HTML elements
         String processedMarkdown = markdownResult
                 .replace("```\n</div>", "```\n\n</div>")
                 .replace("```</div>", "```\n\n</div>")
                 .replace("```\n    </div>", "```\n\n    </div>");
 
-        // 解析 Markdown 到 HTML
-        com.vladsch.flexmark.util.ast.Document document = parser.parse(processedMarkdown);
-        String htmlBody = renderer.render(document);
+        // 整体替换后对话视图失效，之前排队的增量脚本也不再需要
+        state.chatViewActive = false;
+        state.activeAnswerId = null;
+        ChatRenderEvent event = new ChatRenderEvent();
+        event.begin();
+        String html = state.documentRenderer.render(processedMarkdown);
+        commitRenderEvent(event, "reset", markdownResult.length(), html.length());
+        postScript(state, jsCall("aiChat.reset", html), true);
+    }
+
+    private static void commitRenderEvent(ChatRenderEvent event, String operation, int markdownChars, int htmlChars) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.markdownChars = markdownChars;
+            event.htmlChars = htmlChars;
+            event.commit();
+        }
+    }
 
-        // 转义反引号防止 JS 注入问题
-        String safeHtml = htmlBody.replace("`", "\\`");
+    /**
+     * 在对话视图末尾追加一段已完成的内容（问题气泡、分割线等），不重绘已有内容。
+     */
+    private void appendChatHtml(Project project, String html) {
+        UIState state = getOrCreateState(project);
+        if (state.markdownViewer == null) return;
 
-        // 使用 JS 更新内容并触发高亮和滚动
-        String script = String.format(
-                "document.getElementById('content').innerHTML = `%s`; " +
-                        "document.querySelectorAll('pre code').forEach((block) => { hljs.highlightElement(block); }); " +
-                        "addCopyButtons(); " +
-                        "window.scrollTo(0, document.body.scrollHeight);",
-                safeHtml
+        String history = state.chatHistory.toString();
+        RENDER_EXECUTOR.execute(() -> {
+            if (state.chatViewActive) {
+                postScript(state, jsCall("aiChat.append", renderMarkdown(html)), false);
+            } else {
+                // 内容曾被整体替换（欢迎页、文档输出等），用完整历史重建一次，history 已包含本次追加的内容
+                postScript(state, jsCall("aiChat.reset", state.documentRenderer.render(history)), true);
+                state.chatViewActive = true;
+            }
+        });
+    }
+
+    /**
+     * 在对话末尾创建一个正在生成的回答气泡。
+     */
+    private void beginAnswer(Project project, String qaId, String timestamp) {
+        UIState state = getOrCreateState(project);
+        if (state.markdownViewer == null) return;
+
+        String html = String.format(
+                "<div class='chat-item message-row answer-item' id='answer-%s'>" +
+                        "<div class='message-bubble'>" +
+                        "<div class='message-meta'>" +
+                        "<span class='message-role'><span class='role-dot'></span>AI</span>" +
+                        "<span>%s</span>" +
+                        "</div>" +
+                        "<div class='message-content'><div class='answer-frozen'></div><div class='answer-tail'></div></div>" +
+                        "</div>" +
+                        "</div>",
+                qaId, timestamp
         );
+        state.pendingAnswer.set(null);
+        RENDER_EXECUTOR.execute(() -> {
+            state.activeAnswerId = qaId;
+            state.answerRenderer.reset();
+            postScript(state, jsCall("aiChat.beginAnswer", qaId, html), false);
+        });
+    }
+
+    /**
+     * 更新正在生成的回答：只渲染新闭合的块和未闭合的尾部，已输出的块不再解析和重绘。
+     */
+    private void patchAnswer(Project project, String qaId, String answerMarkdown) {
+        UIState state = getOrCreateState(project);
+        if (state.markdownViewer == null) return;
+
+        if (state.pendingAnswer.getAndSet(answerMarkdown) == null) {
+            RENDER_EXECUTOR.execute(() -> {
+                String markdown = state.pendingAnswer.getAndSet(null);
+                if (markdown != null) {
+                    renderAnswer(state, qaId, markdown, false);
+                }
+            });
+        }
+    }
+
+    /**
+     * 回答结束，尾部作为冻结节点输出。
+     */
+    private void finishAnswer(Project project, String qaId, String answerMarkdown) {
+        UIState state = getOrCreateState(project);
+        if (state.markdownViewer == null) return;
+
+        RENDER_EXECUTOR.execute(() -> {
+            state.pendingAnswer.set(null);
+            renderAnswer(state, qaId, answerMarkdown, true);
+            state.activeAnswerId = null;
+        });
+    }
+
+    private void renderAnswer(UIState state, String qaId, String markdown, boolean finished) {
+        // 回答气泡已被整体替换掉，剩余内容在完成后随 chatHistory 重建
+        if (!state.chatViewActive || !qaId.equals(state.activeAnswerId)) return;
+
+        // 回答只在末尾追加，新闭合的块追加为冻结节点，未闭合的尾部（含未结束的代码块）每帧替换
+        ChatRenderEvent event = new ChatRenderEvent();
+        event.begin();
+        StreamingMarkdownRenderer.Frame frame = state.answerRenderer.update(markdown, finished);
+        commitRenderEvent(event, finished ? "finishAnswer" : "patchAnswer", markdown.length(),
+                frame.getAppendedHtml().length() + frame.getTailHtml().length());
+        postScript(state, jsCall("aiChat.patchAnswer", qaId, frame.getAppendedHtml(), frame.getTailHtml()), false);
+    }
+
+    private static String renderMarkdown(String markdown) {
+        return renderer.render(parser.parse(markdown));
+    }
+
+    /**
+     * 生成对页面固定函数的调用，参数按 JSON 字符串转义，不再把 HTML 拼进脚本模板。
+     */
+    private static String jsCall(String function, String... args) {
+        StringBuilder script = new StringBuilder(function).append('(');
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                script.append(',');
+            }
+            script.append('"').append(JsonStringEncoder.getInstance().quoteAsString(args[i])).append('"');
+        }
+        return script.append(");").toString();
+    }
+
+    /**
+     * 脚本按提交顺序在 EDT 上批量执行；replacesAll 的脚本会丢弃之前尚未执行的脚本。
+     */
+    private static void postScript(UIState state, String script, boolean replacesAll) {
+        boolean schedule;
+        synchronized (state.pendingScripts) {
+            if (replacesAll) {
+                state.pendingScripts.clear();
+            }
+            schedule = state.pendingScripts.isEmpty();
+            state.pendingScripts.add(script);
+        }
+        if (!schedule) return;
 
         ApplicationManager.getApplication().invokeLater(() -> {
-            state.markdownViewer.getCefBrowser().executeJavaScript(script, "about:blank", 0);
+            String batch;
+            int scripts;
+            synchronized (state.pendingScripts) {
+                scripts = state.pendingScripts.size();
+                batch = String.join("\n", state.pendingScripts);
+                state.pendingScripts.clear();
+            }
+            if (!batch.isEmpty() && state.markdownViewer != null) {
+                ChatScriptEvent event = new ChatScriptEvent();
+                event.begin();
+                state.markdownViewer.getCefBrowser().executeJavaScript(batch, "about:blank", 0);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.scripts = scripts;
+                    event.scriptChars = batch.length();
+                    event.commit();
+                }
+            }
         });
     }
 
@@ -1214,10 +1396,26 @@ public class CombinedWindowFactory implements ToolWindowFactory, EditorColorsLis
     }
 
 
+    /**
+     * 登记输出到本窗口的请求，取消按钮只会取消当前项目窗口内的请求
+     */
+    public void registerRequest(Project project, RequestHandle handle) {
+        if (handle == null || handle.isDone()) {
+            return;
+        }
+        UIState state = getOrCreateState(project);
+        state.activeRequests.removeIf(RequestHandle::isDone);
+        state.activeRequests.add(handle);
+    }
+
     private void handleCancel(Project project) {
-        OpenAIUtil.cancelRequest();
-        OllamaService.cancelRequest();
         UIState state = uiStates.get(project);
+        if (state != null) {
+            for (RequestHandle handle : state.activeRequests) {
+                handle.cancel();
+            }
+            state.activeRequests.clear();
+        }
         if (state != null && state.askButton != null && state.cancelButton != null) {
             ApplicationManager.getApplication().invokeLater(() -> {
 //            loadingLabel.setVisible(false);
@@ -1328,7 +1526,6 @@ public class CombinedWindowFactory implements ToolWindowFactory, EditorColorsLis
 
         // 不清空聊天历史，保持累积对话
         state.messageBuilder.setLength(0);
-        state.currentAnswer.setLength(0);
 
         String qaId = String.valueOf(System.currentTimeMillis());
         String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss"));
@@ -1349,71 +1546,53 @@ public class CombinedWindowFactory implements ToolWindowFactory, EditorColorsLis
         state.chatHistory.append(formattedQuestion);
         // 不在这里添加分割线，等答案完成后统一添加
         
-        // 立即显示问题到答案区域（显示完整的历史记录，包括刚添加的问题）
-        updateResult(state.chatHistory.toString(), project);
+        // 立即把问题追加到答案区域，已有的历史内容不重绘
+        appendChatHtml(project, formattedQuestion);
 
-        CodeService codeService = new CodeService();
+        // 对话每次提问都应重新生成，不走响应缓存
+        CodeService codeService = new CodeService(false);
         
-        // 构建包含上下文文件的提示词
-        StringBuilder promptBuilder = new StringBuilder();
-        appendConversationContext(promptBuilder, state);
+        // 按模型上下文窗口组装提示词：历史对话、上下文文件放不下时按预算裁剪
+        PromptBudget budget = PromptBudget.forSelectedModel();
+        appendConversationContext(budget, state);
         
         // 添加上下文文件内容
-        if (!state.selectedFilesPaths.isEmpty()) {
-            promptBuilder.append("以下是相关的上下文文件内容，请结合这些文件内容来回答问题：\n\n");
-            
-            for (String filePath : state.selectedFilesPaths) {
-                String content = state.fileContentsCache.get(filePath);
-                if (content != null) {
-                    String fileName = filePath.substring(filePath.lastIndexOf('/') + 1);
-                    promptBuilder.append("### 文件: ").append(fileName).append("\n");
-                    promptBuilder.append("```\n").append(content).append("\n```\n\n");
-                }
+        List<PromptBudget.Document> contextFiles = new ArrayList<>();
+        for (String filePath : state.selectedFilesPaths) {
+            String content = state.fileContentsCache.get(filePath);
+            if (content != null) {
+                String fileName = filePath.substring(filePath.lastIndexOf('/') + 1);
+                contextFiles.add(new PromptBudget.Document("### 文件: " + fileName + "\n```\n", content, "\n```\n\n", true));
             }
-            
-            promptBuilder.append("---\n\n");
         }
+        budget.documents("以下是相关的上下文文件内容，请结合这些文件内容来回答问题：\n\n", contextFiles, "---\n\n");
         
         // 添加用户问题
-        promptBuilder.append("问题：").append(question).append("\n\n");
-        promptBuilder.append("请根据提出的问题作出回答，用中文回答；若需编程，请给出示例，以Java作为默认编程语言输出");
+        StringBuilder questionBuilder = new StringBuilder();
+        questionBuilder.append("问题：").append(question).append("\n\n");
+        questionBuilder.append("请根据提出的问题作出回答，用中文回答；若需编程，请给出示例，以Java作为默认编程语言输出");
         if (!state.selectedFilesPaths.isEmpty()) {
-            promptBuilder.append("；如果上下文文件与问题相关，请结合文件内容进行分析和回答");
+            questionBuilder.append("；如果上下文文件与问题相关，请结合文件内容进行分析和回答");
         }
-        promptBuilder.append("。");
+        questionBuilder.append("。");
+        budget.fixed(questionBuilder.toString());
         
-        String prompt = promptBuilder.toString();
+        String prompt = budget.build();
 
         try {
             ProgressManager.getInstance().run(new Task.Backgroundable(project, "处理中", true) {
                 @Override
                 public void run(@NotNull ProgressIndicator indicator) {
                     state.messageBuilder.setLength(0);
-                    state.currentAnswer.setLength(0);
-                    // 保持完整的历史记录
-                    state.currentAnswer.append(state.chatHistory.toString());
 
-                    AtomicReference<String> displayContent = new AtomicReference<>();
                     try {
                         if (codeService.generateByStream()) {
-                            codeService.generateCommitMessageStream(
+                            beginAnswer(project, qaId, timestamp);
+                            RequestHandle handle = codeService.generateCommitMessageStream(
                                     prompt,
                                     token -> {
                                         state.messageBuilder.append(token);
-                                        String formattedAnswer = String.format(
-                                                "<div class='chat-item message-row answer-item' id='answer-%s'>" +
-                                                        "<div class='message-bubble'>" +
-                                                        "<div class='message-meta'>" +
-                                                        "<span class='message-role'><span class='role-dot'></span>AI</span>" +
-                                                        "<span>%s</span>" +
-                                                        "</div>" +
-                                                        "<div class='message-content'>%s</div>" +
-                                                        "</div>" +
-                                                        "</div>",
-                                                qaId, timestamp, state.messageBuilder.toString()
-                                        );
-                                        displayContent.set(state.currentAnswer + formattedAnswer);
-                                        updateResult(displayContent.get(), project);
+                                        patchAnswer(project, qaId, state.messageBuilder.toString());
                                     },
                                     error -> ApplicationManager.getApplication().invokeLater(() ->
                                             IdeaDialogUtil.showError(project, "处理失败: " + error.getMessage(), "Error")),
@@ -1433,9 +1612,11 @@ public class CombinedWindowFactory implements ToolWindowFactory, EditorColorsLis
                                         );
                                         // 只在答案后面添加一条分割线，为下一轮对话做准备
                                         String answerText = state.messageBuilder.toString();
+                                        finishAnswer(project, qaId, answerText);
                                         addConversationTurn(state, question, answerText);
                                         state.chatHistory.append(finalAnswer);
                                         state.chatHistory.append("<hr class='chat-separator'>");
+                                        appendChatHtml(project, "<hr class='chat-separator'>");
                                         
                                         saveHistory(project, question, answerText);
                                         ApplicationManager.getApplication().invokeLater(() -> {
@@ -1444,6 +1625,7 @@ public class CombinedWindowFactory implements ToolWindowFactory, EditorColorsLis
                                         });
                                     }
                             );
+                            registerRequest(project, handle);
                         }
                     } catch (Exception e) {
                         IdeaDialogUtil.showError(project, "处理失败: " + e.getMessage(), "Error");
@@ -1488,19 +1670,16 @@ public class CombinedWindowFactory implements ToolWindowFactory, EditorColorsLis
     }
     // 在CombinedWindowFactory中添加:
 
-    private void appendConversationContext(StringBuilder promptBuilder, UIState state) {
-        if (state.conversationTurns.isEmpty()) {
-            return;
-        }
-
-        promptBuilder.append("以下是当前会话的历史对话，请结合上下文理解用户最新问题；如果历史与最新问题无关，可以忽略。\n\n");
+    private void appendConversationContext(PromptBudget budget, UIState state) {
+        List<String> turns = new ArrayList<>();
         int start = Math.max(0, state.conversationTurns.size() - MAX_CONVERSATION_CONTEXT_TURNS);
         for (int i = start; i < state.conversationTurns.size(); i++) {
             ConversationTurn turn = state.conversationTurns.get(i);
-            promptBuilder.append("用户：").append(turn.question).append("\n");
-            promptBuilder.append("助手：").append(turn.answer).append("\n\n");
+            turns.add("用户：" + turn.question + "\n" + "助手：" + turn.answer + "\n\n");
         }
-        promptBuilder.append("---\n\n");
+        // 放不下时丢弃较早的轮次
+        budget.turns("以下是当前会话的历史对话，请结合上下文理解用户最新问题；如果历史与最新问题无关，可以忽略。\n\n",
+                turns, "---\n\n");
     }
 
     private void addConversationTurn(UIState state, String question, String answer) {
@@ -0,0 +1,132 @@
+package com.yohannzhang.aigit.ui;
+
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.table.JBTable;
+import com.intellij.util.ui.JBUI;
+import com.yohannzhang.aigit.service.LLMMetricsService;
+import com.yohannzhang.aigit.util.LatencyHistogram;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * 工具窗口的 Performance 页，按 client、模型和任务类型展示 {@link LLMMetricsService} 的统计，耗时单位为毫秒。
+ * 面板可见时每 2 秒刷新一次。
+ */
+public class PerformancePanel extends JPanel {
+
+    private static final String[] COLUMNS = {
+            "Provider", "Model", "Action", "Calls", "Errors", "Cancels",
+            "Queue p50", "Connect p50", "TTFT p50", "TTFT p95", "Inter-token p50", "Inter-token p95",
+            "Total p50", "Total p95", "Tokens in", "Tokens out", "Tokens/s p50"
+    };
+    private static final int REFRESH_INTERVAL_MS = 2000;
+
+    private final Project project;
+    private final DefaultTableModel model = new DefaultTableModel(COLUMNS, 0) {
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return false;
+        }
+    };
+    private final Timer timer = new Timer(REFRESH_INTERVAL_MS, e -> refresh());
+
+    public PerformancePanel(Project project) {
+        super(new BorderLayout());
+        this.project = project;
+
+        JBTable table = new JBTable(model);
+        table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        add(new JBScrollPane(table), BorderLayout.CENTER);
+
+        JButton refreshButton = new JButton("Refresh");
+        refreshButton.addActionListener(e -> refresh());
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> {
+            LLMMetricsService.getInstance().reset();
+            refresh();
+        });
+        JButton exportButton = new JButton("Export JSON");
+        exportButton.addActionListener(e -> exportJson());
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttons.setBorder(JBUI.Borders.empty(2));
+        buttons.add(refreshButton);
+        buttons.add(resetButton);
+        buttons.add(exportButton);
+        add(buttons, BorderLayout.NORTH);
+
+        refresh();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        timer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        timer.stop();
+        super.removeNotify();
+    }
+
+    private void refresh() {
+        model.setRowCount(0);
+        for (LLMMetricsService.Stats stats : LLMMetricsService.getInstance().snapshot()) {
+            model.addRow(new Object[]{
+                    stats.getClient(),
+                    stats.getModel(),
+                    stats.getAction(),
+                    stats.getCalls(),
+                    stats.getErrors(),
+                    stats.getCancels(),
+                    millis(stats.getQueueTime(), 0.50),
+                    millis(stats.getConnectTime(), 0.50),
+                    millis(stats.getTimeToFirstToken(), 0.50),
+                    millis(stats.getTimeToFirstToken(), 0.95),
+                    millis(stats.getInterTokenLatency(), 0.50),
+                    millis(stats.getInterTokenLatency(), 0.95),
+                    millis(stats.getTotalDuration(), 0.50),
+                    millis(stats.getTotalDuration(), 0.95),
+                    stats.getTokensIn(),
+                    stats.getTokensOut(),
+                    stats.getOutputTokensPerSecond().getCount() == 0 ? "-"
+                            : String.valueOf(stats.getOutputTokensPerSecond().percentile(0.50))
+            });
+        }
+    }
+
+    private static String millis(LatencyHistogram histogram, double percentile) {
+        if (histogram.getCount() == 0) {
+            return "-";
+        }
+        return String.format("%.1f", histogram.percentile(percentile) / 1000.0);
+    }
+
+    private void exportJson() {
+        FileSaverDescriptor descriptor = new FileSaverDescriptor("Export Performance Metrics",
+                "Save LLM call metrics as JSON", "json");
+        VirtualFileWrapper target = FileChooserFactory.getInstance()
+                .createSaveFileDialog(descriptor, project)
+                .save(ProjectUtil.guessProjectDir(project), "llm-metrics.json");
+        if (target == null) {
+            return;
+        }
+        try {
+            Files.writeString(target.getFile().toPath(), LLMMetricsService.getInstance().exportJson(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Messages.showErrorDialog(project, "导出失败: " + e.getMessage(), "Export Performance Metrics");
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.yohannzhang.aigit.ui;
+
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 面向流式输出的增量 Markdown 渲染器。
+ * <p>
+ * 输入按块切分：代码块之外的空行之后、以非缩进且非列表项的行开头处视为块边界，边界之前的块已闭合，
+ * 渲染结果按块内容缓存，之后不再解析；只有最后一个未闭合的块（包括尚未结束的代码块）每次重新渲染。
+ * 对于只在末尾追加的流式内容，每次渲染的开销与新增文本成正比，与累计长度无关。
+ * 非线程安全的状态由实例锁保护，每个输出区域使用各自的实例。
+ */
+public final class StreamingMarkdownRenderer {
+
+    /**
+     * 块缓存上限（LRU）
+     */
+    private static final int MAX_CACHED_BLOCKS = 512;
+
+    private final Parser parser;
+    private final HtmlRenderer renderer;
+    private final Map<String, String> blockCache = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED_BLOCKS;
+        }
+    };
+
+    // 上一次的输入及其中已闭合部分的长度、对应的 HTML
+    private String source = "";
+    private int stableEnd;
+    private final StringBuilder stableHtml = new StringBuilder();
+
+    public StreamingMarkdownRenderer(Parser parser, HtmlRenderer renderer) {
+        this.parser = parser;
+        this.renderer = renderer;
+    }
+
+    /**
+     * 一次增量渲染的结果。
+     */
+    public static final class Frame {
+        private final String appendedHtml;
+        private final String tailHtml;
+        private final boolean restarted;
+
+        private Frame(String appendedHtml, String tailHtml, boolean restarted) {
+            this.appendedHtml = appendedHtml;
+            this.tailHtml = tailHtml;
+            this.restarted = restarted;
+        }
+
+        /**
+         * 本次新闭合的块；restarted 时为全部已闭合的块
+         */
+        public String getAppendedHtml() {
+            return appendedHtml;
+        }
+
+        /**
+         * 未闭合的尾部，每次整体替换
+         */
+        public String getTailHtml() {
+            return tailHtml;
+        }
+
+        /**
+         * 输入不是上一次的延续（内容被替换），调用方需要丢弃之前输出的内容
+         */
+        public boolean isRestarted() {
+            return restarted;
+        }
+    }
+
+    /**
+     * 渲染完整 HTML：已闭合的块取缓存，只重新渲染尾部。
+     */
+    public synchronized String render(String markdown) {
+        advance(markdown, false);
+        String tail = markdown.substring(stableEnd);
+        return tail.isEmpty() ? stableHtml.toString() : stableHtml + renderBlock(tail);
+    }
+
+    /**
+     * 增量渲染：返回自上次以来新闭合的块和当前尾部。finished 为 true 时尾部也视为已闭合。
+     */
+    public synchronized Frame update(String markdown, boolean finished) {
+        int previousHtmlLength = stableHtml.length();
+        boolean restarted = advance(markdown, finished);
+        String appended = stableHtml.substring(restarted ? 0 : previousHtmlLength);
+        String tail = markdown.substring(stableEnd);
+        return new Frame(appended, tail.isEmpty() ? "" : renderBlock(tail), restarted);
+    }
+
+    /**
+     * 开始一段新的内容，块缓存保留。
+     */
+    public synchronized void reset() {
+        source = "";
+        stableEnd = 0;
+        stableHtml.setLength(0);
+    }
+
+    /**
+     * @return 输入不是上一次的延续、已从头重新切分时返回 true
+     */
+    private boolean advance(String markdown, boolean finished) {
+        boolean restarted = markdown.length() < stableEnd || !markdown.regionMatches(0, source, 0, stableEnd);
+        if (restarted) {
+            stableEnd = 0;
+            stableHtml.setLength(0);
+        }
+        source = markdown;
+
+        int blockStart = stableEnd;
+        int boundary;
+        while ((boundary = nextBoundary(markdown, blockStart)) > 0) {
+            stableHtml.append(cachedBlock(markdown.substring(blockStart, boundary)));
+            blockStart = boundary;
+        }
+        if (finished && blockStart < markdown.length()) {
+            stableHtml.append(cachedBlock(markdown.substring(blockStart)));
+            blockStart = markdown.length();
+        }
+        stableEnd = blockStart;
+        return restarted;
+    }
+
+    /**
+     * 从 from（一定位于代码块之外）开始查找下一个块边界，找不到返回 -1。
+     * 只有后面出现了新块的首行，前一个块才算闭合；最后一行可能尚未写完，不参与判断。
+     */
+    private static int nextBoundary(String markdown, int from) {
+        char fenceChar = 0;
+        int fenceLength = 0;
+        boolean previousBlank = false;
+        int lineStart = from;
+        int lineEnd;
+        while ((lineEnd = markdown.indexOf('\n', lineStart)) >= 0) {
+            int indent = indentOf(markdown, lineStart, lineEnd);
+            boolean blank = lineStart + indent == lineEnd;
+            if (fenceChar != 0) {
+                // 未闭合的代码块整体作为临时块，直到出现匹配的结束标记
+                if (isFenceClose(markdown, lineStart + indent, lineEnd, fenceChar, fenceLength)) {
+                    fenceChar = 0;
+                }
+            } else if (!blank) {
+                if (previousBlank && lineStart > from && indent == 0 && !isListItem(markdown, lineStart, lineEnd)) {
+                    return lineStart;
+                }
+                int fence = fenceLength(markdown, lineStart + indent, lineEnd);
+                if (fence > 0) {
+                    fenceChar = markdown.charAt(lineStart + indent);
+                    fenceLength = fence;
+                }
+            }
+            previousBlank = blank && fenceChar == 0;
+            lineStart = lineEnd + 1;
+        }
+        return -1;
+    }
+
+    private String cachedBlock(String block) {
+        String html = blockCache.get(block);
+        if (html == null) {
+            html = renderBlock(block);
+            blockCache.put(block, html);
+        }
+        return html;
+    }
+
+    private String renderBlock(String block) {
+        return renderer.render(parser.parse(block));
+    }
+
+    private static int indentOf(String text, int from, int to) {
+        int i = from;
+        while (i < to && (text.charAt(i) == ' ' || text.charAt(i) == '\t' || text.charAt(i) == '\r')) {
+            i++;
+        }
+        return i - from;
+    }
+
+    /**
+     * 以 3 个及以上 ` 或 ~ 开头的行为代码块起始，返回标记长度，否则返回 0。
+     */
+    private static int fenceLength(String text, int from, int to) {
+        if (from >= to || (text.charAt(from) != '`' && text.charAt(from) != '~')) {
+            return 0;
+        }
+        char c = text.charAt(from);
+        int i = from;
+        while (i < to && text.charAt(i) == c) {
+            i++;
+        }
+        return i - from >= 3 ? i - from : 0;
+    }
+
+    private static boolean isFenceClose(String text, int from, int to, char fenceChar, int fenceLength) {
+        int i = from;
+        while (i < to && text.charAt(i) == fenceChar) {
+            i++;
+        }
+        if (i - from < fenceLength) {
+            return false;
+        }
+        // 结束标记后只允许空白
+        return indentOf(text, i, to) == to - i;
+    }
+
+    /**
+     * 列表项之间的空行不切分，避免松散列表被拆成多个列表。
+     */
+    private static boolean isListItem(String text, int from, int to) {
+        char c = text.charAt(from);
+        if (c == '-' || c == '*' || c == '+') {
+            return from + 1 < to && text.charAt(from + 1) == ' ';
+        }
+        int i = from;
+        while (i < to && Character.isDigit(text.charAt(i))) {
+            i++;
+        }
+        return i > from && i + 1 < to && (text.charAt(i) == '.' || text.charAt(i) == ')') && text.charAt(i + 1) == ' ';
+    }
+}
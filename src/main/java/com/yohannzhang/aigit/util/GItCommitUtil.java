@@ -6,6 +6,7 @@ import com.intellij.openapi.diff.impl.patch.UnifiedDiffWriter;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.changes.Change;
+import com.yohannzhang.aigit.core.llm.PromptBudget;
 import git4idea.repo.GitRepository;
 import git4idea.repo.GitRepositoryManager;
 import org.jetbrains.annotations.NotNull;
@@ -17,6 +18,7 @@ import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -30,6 +32,8 @@ import java.util.stream.Collectors;
 public class GItCommitUtil {
     private static final Logger log = LoggerFactory.getLogger(GItCommitUtil.class);
 
+    private static final String[] FILE_HEADERS = {"[ADD]: ", "[DELETE]: ", "[MOVE]: ", "[MODIFY]: ", "[UNKNOWN]: "};
+
 
     public static String computeDiff(@NotNull List<Change> includedChanges,
                                      @NotNull List<FilePath> unversionedFiles,
@@ -129,6 +133,37 @@ public class GItCommitUtil {
         return diffBuilder.toString();
     }
 
+    /**
+     * 按文件切分 computeDiff 的输出，每个文件的变更作为一个文档参与预算分配。
+     */
+    public static List<PromptBudget.Document> splitDiffByFile(String diff) {
+        List<PromptBudget.Document> documents = new ArrayList<>();
+        int start = 0;
+        int lineStart = 0;
+        while (lineStart < diff.length()) {
+            int lineEnd = diff.indexOf('\n', lineStart);
+            lineEnd = lineEnd < 0 ? diff.length() : lineEnd + 1;
+            if (lineStart > start && isFileHeader(diff, lineStart)) {
+                documents.add(new PromptBudget.Document("", diff.substring(start, lineStart), "", false));
+                start = lineStart;
+            }
+            lineStart = lineEnd;
+        }
+        if (start < diff.length()) {
+            documents.add(new PromptBudget.Document("", diff.substring(start), "", false));
+        }
+        return documents;
+    }
+
+    private static boolean isFileHeader(String diff, int lineStart) {
+        for (String type : FILE_HEADERS) {
+            if (diff.startsWith(type, lineStart)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static String getChangeType(List<Change> changes, String filePath) {
         for (Change change : changes) {
             if (change.getVirtualFile() != null &&
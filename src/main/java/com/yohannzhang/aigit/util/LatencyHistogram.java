@@ -0,0 +1,113 @@
+package com.yohannzhang.aigit.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 对数分桶的直方图，思路同 HdrHistogram：小于 64 的值每个值一个桶，之后每个 2 的幂区间均分为 32 个桶，
+ * 相对误差不超过约 3%，内存固定，记录为 O(1)。只记录非负整数，超出范围的值计入最后一个桶。
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 64;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MIN_EXPONENT = 6;
+    private static final int MAX_EXPONENT = 40;
+
+    private final long[] counts = new long[LINEAR_BUCKETS + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public synchronized void record(long value) {
+        long v = Math.max(0, value);
+        counts[indexOf(v)]++;
+        count++;
+        sum += v;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * 百分位数，返回所在桶的上界（不超过最大值），无数据时返回 0。
+     *
+     * @param percentile 0~1
+     */
+    public synchronized long percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 非空桶，每项为 {桶上界, 数量}
+     */
+    public synchronized List<long[]> buckets() {
+        List<long[]> buckets = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                buckets.add(new long[]{upperBound(i), counts[i]});
+            }
+        }
+        return buckets;
+    }
+
+    public synchronized LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        copy.count = count;
+        copy.sum = sum;
+        copy.min = min;
+        copy.max = max;
+        return copy;
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return LINEAR_BUCKETS + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int exponent = MIN_EXPONENT + (index - LINEAR_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
@@ -1,19 +1,26 @@
 package com.yohannzhang.aigit.util;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yohannzhang.aigit.config.ApiKeySettings;
+import com.yohannzhang.aigit.core.llm.RequestHandle;
+import com.yohannzhang.aigit.core.llm.RequestPriority;
+import com.yohannzhang.aigit.core.llm.StreamContinuation;
 import com.yohannzhang.aigit.pojo.OpenAIRequestBO;
+import com.yohannzhang.aigit.service.LLMMetricsService;
+import com.yohannzhang.aigit.service.LLMTransportService;
+import com.yohannzhang.aigit.service.RateLimiterService;
+import com.yohannzhang.aigit.service.SingleFlightService;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URI;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
@@ -21,15 +28,13 @@ import java.util.regex.Pattern;
 
 public class OpenAIUtil {
 
-    private static volatile boolean isCancelled = false;
-
     public static boolean checkNecessaryModuleConfigIsRight(String client) {
         ApiKeySettings settings = ApiKeySettings.getInstance();
         ApiKeySettings.ModuleConfig moduleConfig = settings.getModuleConfigs().get(client);
         if (moduleConfig == null) {
             return false;
         }
-        String selectedModule = settings.getSelectedModule();
+        String selectedModule = settings.getModelFor(client);
         String url = moduleConfig.getUrl();
         String apiKey = moduleConfig.getApiKey();
         if (com.yohannzhang.aigit.constant.Constants.VLLM.equals(client)) {
@@ -38,191 +43,288 @@ public class OpenAIUtil {
         return StringUtils.isNotEmpty(selectedModule) && StringUtils.isNotEmpty(url) && StringUtils.isNotEmpty(apiKey);
     }
 
-    public static @NotNull HttpURLConnection getHttpURLConnection(String url, String module, String apiKey, String textContent) throws IOException {
+    public static @NotNull HttpResponse<InputStream> getHttpResponse(String url, String module, String apiKey, String textContent) throws IOException {
+        return getHttpResponse(url, module, apiKey, textContent, null);
+    }
+
+    /**
+     * @param prefix 续写请求已输出的内容，见 {@link StreamContinuation}；普通请求为 null
+     */
+    public static @NotNull HttpResponse<InputStream> getHttpResponse(String url, String module, String apiKey, String textContent,
+                                                                     @Nullable String prefix) throws IOException {
         OpenAIRequestBO openAIRequestBO = new OpenAIRequestBO();
         openAIRequestBO.setModel(module);
         openAIRequestBO.setStream(true);
-        openAIRequestBO.setMessages(List.of(new OpenAIRequestBO.OpenAIRequestMessage("user", textContent)));
+        openAIRequestBO.setMessages(messages(textContent, prefix));
 
-        ObjectMapper objectMapper1 = new ObjectMapper();
-        String jsonInputString = objectMapper1.writeValueAsString(openAIRequestBO);
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/json; charset=UTF-8");
+        headers.put("Accept-Charset", "UTF-8");
+        headers.put("Authorization", "Bearer " + apiKey);
 
-        URI uri = URI.create(url);
-        HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-        connection.setRequestProperty("Accept-Charset", "UTF-8");
-        connection.setRequestProperty("Authorization", "Bearer " + apiKey);
-        connection.setDoOutput(true);
-        connection.setConnectTimeout(30000); // 连接超时：30秒
-        connection.setReadTimeout(30000); // 读取超时：30秒
+        // 连接超时：30秒，读取超时：30秒
+        return LLMTransportService.getInstance().postJson(url, headers, openAIRequestBO,
+                textContent.length() + StringUtils.length(prefix), 30000, 30000);
+    }
 
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = jsonInputString.getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
-        }
-        return connection;
+    public static @NotNull HttpResponse<InputStream> getVllmMessagesHttpResponse(String url, String module, String apiKey,
+                                                                                 String textContent, int maxTokens) throws IOException {
+        return getVllmMessagesHttpResponse(url, module, apiKey, textContent, null, maxTokens);
     }
 
-    public static @NotNull HttpURLConnection getVllmMessagesHttpURLConnection(String url, String module, String apiKey,
-                                                                               String textContent, int maxTokens) throws IOException {
+    public static @NotNull HttpResponse<InputStream> getVllmMessagesHttpResponse(String url, String module, String apiKey,
+                                                                                 String textContent, @Nullable String prefix,
+                                                                                 int maxTokens) throws IOException {
         Map<String, Object> request = Map.of(
                 "model", module,
                 "max_tokens", maxTokens,
-                "messages", List.of(new OpenAIRequestBO.OpenAIRequestMessage("user", textContent))
+                "messages", messages(textContent, prefix)
         );
 
-        ObjectMapper mapper = new ObjectMapper();
-        String jsonInputString = mapper.writeValueAsString(request);
-
-        URI uri = URI.create(normalizeVllmMessagesUrl(url));
-        HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-        connection.setRequestProperty("Accept-Charset", "UTF-8");
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/json; charset=UTF-8");
+        headers.put("Accept-Charset", "UTF-8");
         if (StringUtils.isNotEmpty(apiKey)) {
-            connection.setRequestProperty("Authorization", "Bearer " + apiKey);
+            headers.put("Authorization", "Bearer " + apiKey);
         }
-        connection.setDoOutput(true);
-        connection.setConnectTimeout(30000);
-        connection.setReadTimeout(120000);
 
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = jsonInputString.getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
-        }
-        return connection;
+        return LLMTransportService.getInstance().postJson(normalizeVllmMessagesUrl(url), headers, request,
+                textContent.length() + StringUtils.length(prefix), 30000, 120000);
     }
 
-    public static void cancelRequest() {
-        isCancelled = true;
-    }
-
-    public static void getAIResponseStream(String client, String textContent, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
-        if (com.yohannzhang.aigit.constant.Constants.VLLM.equals(client)) {
-            getVllmResponseStream(textContent, onNext, onError, onComplete);
-            return;
+    /**
+     * 请求消息；续写时把已输出的内容作为 assistant 消息，再追加续写指令
+     */
+    private static List<OpenAIRequestBO.OpenAIRequestMessage> messages(String textContent, @Nullable String prefix) {
+        if (StringUtils.isEmpty(prefix)) {
+            return List.of(new OpenAIRequestBO.OpenAIRequestMessage("user", textContent));
         }
+        return List.of(new OpenAIRequestBO.OpenAIRequestMessage("user", textContent),
+                new OpenAIRequestBO.OpenAIRequestMessage("assistant", prefix),
+                new OpenAIRequestBO.OpenAIRequestMessage("user", StreamContinuation.INSTRUCTION));
+    }
 
-        isCancelled = false;
-
+    /**
+     * 发起流式请求，返回的句柄只作用于本次请求。
+     * 同一模型、同一 prompt 的并发请求共用一路上游流；实际发出的上游请求经过 {@link RateLimiterService} 排队限流。
+     * 在 {@link StreamContinuation#callWith} 内调用时发出续写请求。
+     */
+    public static RequestHandle getAIResponseStream(String client, String textContent, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
         ApiKeySettings settings = ApiKeySettings.getInstance();
-        String selectedModule = settings.getSelectedModule();
+        String selectedModule = settings.getModelFor(client);
         ApiKeySettings.ModuleConfig moduleConfig = settings.getModuleConfigs().get(client);
+        String endpoint = moduleConfig == null ? "" : moduleConfig.getUrl();
+        String prefix = StreamContinuation.current();
+
+        return SingleFlightService.getInstance().join(
+                SingleFlightService.key(client, selectedModule, endpoint, textContent),
+                onNext, onError, onComplete,
+                (next, error, complete) -> com.yohannzhang.aigit.constant.Constants.VLLM.equals(client)
+                        ? getVllmResponseStream(textContent, prefix, next, error, complete)
+                        : openStream(client, moduleConfig, selectedModule, textContent, prefix, next, error, complete));
+    }
 
-        HttpURLConnection connection = OpenAIUtil.getHttpURLConnection(moduleConfig.getUrl(), selectedModule,
-                moduleConfig.getApiKey(), textContent);
-
-        String charset = getCharsetFromContentType(connection.getContentType());
-
-        new Thread(() -> {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), charset))) {
-                String line;
-                while ((line = reader.readLine()) != null && !isCancelled) {
-                    if (line.startsWith("data: ")) {
-                        String jsonData = line.substring(6);
-                        if (!"[DONE]".equals(jsonData)) {
-                            ObjectMapper mapper = new ObjectMapper();
-                            JsonNode root = mapper.readTree(jsonData);
-                            JsonNode choices = root.path("choices");
-                            if (choices.isArray() && !choices.isEmpty()) {
-                                String text = choices.get(0).path("delta").path("content").asText();
-                                onNext.accept(text);
-                            }
-                        }
+    private static RequestHandle openStream(String client, ApiKeySettings.ModuleConfig moduleConfig, String selectedModule,
+                                            String textContent, @Nullable String prefix,
+                                            Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) {
+        // 优先级取自调用线程，排队时使用
+        RequestPriority priority = RequestPriority.current();
+        RequestHandle handle = new RequestHandle();
+        // token 按帧合并后再交给 UI，避免每个 token 触发一次渲染
+        TokenCoalescer tokens = new TokenCoalescer(onNext);
+        LLMMetricsService.Call call = LLMMetricsService.getInstance().start(client, selectedModule, textContent);
+        Runnable finish = () -> {
+            // 流结束或被取消时触发 onComplete，body 已关闭，连接归还连接池
+            call.end(handle.isCancelled());
+            try {
+                tokens.close();
+                onComplete.run();
+            } finally {
+                handle.markDone();
+            }
+        };
+        RateLimiterService.getInstance().submitWhenPermitted(client, textContent, priority, handle, permit -> {
+            handle.attachWorker();
+            HttpResponse<InputStream> response;
+            try (permit) {
+                call.acquired();
+                if (handle.isCancelled()) {
+                    return;
+                }
+                try {
+                    response = OpenAIUtil.getHttpResponse(moduleConfig.getUrl(), selectedModule,
+                            moduleConfig.getApiKey(), textContent, prefix);
+                    call.connected();
+                    handle.attachBody(response.body());
+                    permit.observe(response);
+                    LLMTransportService.ensureSuccess(response);
+                } catch (IOException e) {
+                    call.failed(e);
+                    if (!handle.isCancelled()) {
+                        onError.accept(e);
                     }
+                    return;
                 }
-            } catch (IOException e) {
-                if (!isCancelled) {
-                    onError.accept(e);
+
+                // SSE 规范要求 UTF-8，直接在字节流上解码
+                try (InputStream body = response.body()) {
+                    boolean complete = new StreamDecoder(StreamDecoder.Format.OPENAI_SSE).decode(body, call.counting(permit.counting(tokens)), handle::isCancelled);
+                    if (!complete && !handle.isCancelled()) {
+                        throw new StreamDecoder.TruncatedStreamException();
+                    }
+                } catch (IOException e) {
+                    call.failed(e);
+                    tokens.close();
+                    if (!handle.isCancelled()) {
+                        onError.accept(e);
+                    }
                 }
             } finally {
-                // 流结束时触发 onComplete
-                onComplete.run();
-                connection.disconnect(); // 确保连接被释放
+                finish.run();
+            }
+        }, error -> {
+            // 排队期间被取消或执行器已满，请求没有发出
+            call.failed(error);
+            if (!handle.isCancelled()) {
+                onError.accept(error);
             }
-        }).start();
+            finish.run();
+        });
+        return handle;
     }
 
-    public static void getVllmResponseStream(String textContent, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
-        isCancelled = false;
+    public static RequestHandle getVllmResponseStream(String textContent, Consumer<String> onNext, Consumer<Throwable> onError, Runnable onComplete) throws Exception {
+        return getVllmResponseStream(textContent, StreamContinuation.current(), onNext, onError, onComplete);
+    }
 
+    private static RequestHandle getVllmResponseStream(String textContent, @Nullable String prefix, Consumer<String> onNext,
+                                                       Consumer<Throwable> onError, Runnable onComplete) {
         ApiKeySettings settings = ApiKeySettings.getInstance();
-        String selectedModule = settings.getSelectedModule();
+        String selectedModule = settings.getModelFor(com.yohannzhang.aigit.constant.Constants.VLLM);
         ApiKeySettings.ModuleConfig moduleConfig = settings.getModuleConfigs().get(com.yohannzhang.aigit.constant.Constants.VLLM);
+        RequestPriority priority = RequestPriority.current();
 
-        HttpURLConnection connection = getVllmMessagesHttpURLConnection(
-                moduleConfig.getUrl(),
-                selectedModule,
-                moduleConfig.getApiKey(),
-                textContent,
-                8192
-        );
-
-        new Thread(() -> {
+        RequestHandle handle = new RequestHandle();
+        LLMMetricsService.Call call = LLMMetricsService.getInstance()
+                .start(com.yohannzhang.aigit.constant.Constants.VLLM, selectedModule, textContent);
+        Runnable finish = () -> {
+            call.end(handle.isCancelled());
             try {
-                int responseCode = connection.getResponseCode();
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                        responseCode >= 400 ? connection.getErrorStream() : connection.getInputStream(),
-                        getCharsetFromContentType(connection.getContentType())))) {
+                onComplete.run();
+            } finally {
+                handle.markDone();
+            }
+        };
+        RateLimiterService.getInstance().submitWhenPermitted(com.yohannzhang.aigit.constant.Constants.VLLM,
+                textContent, priority, handle, permit -> {
+            handle.attachWorker();
+            try (permit) {
+                call.acquired();
+                if (handle.isCancelled()) {
+                    return;
+                }
+                HttpResponse<InputStream> httpResponse = getVllmMessagesHttpResponse(
+                        moduleConfig.getUrl(),
+                        selectedModule,
+                        moduleConfig.getApiKey(),
+                        textContent,
+                        prefix,
+                        8192
+                );
+                call.connected();
+                handle.attachBody(httpResponse.body());
+                permit.observe(httpResponse);
+                int responseCode = httpResponse.statusCode();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(httpResponse.body(),
+                        getCharsetFromContentType(httpResponse.headers().firstValue("Content-Type").orElse(null))))) {
                     StringBuilder response = new StringBuilder();
                     String line;
-                    while ((line = reader.readLine()) != null && !isCancelled) {
+                    while ((line = reader.readLine()) != null && !handle.isCancelled()) {
                         response.append(line);
                     }
+                    if (handle.isCancelled()) {
+                        return;
+                    }
 
                     if (responseCode >= 400) {
-                        onError.accept(new IOException("vLLM API request failed, status=" + responseCode + ", body=" + response));
+                        LLMTransportService.HttpStatusException error = new LLMTransportService.HttpStatusException(responseCode,
+                                "vLLM API request failed, status=" + responseCode + ", body=" + response,
+                                LLMTransportService.retryAfterMillis(httpResponse));
+                        call.failed(error);
+                        onError.accept(error);
                         return;
                     }
 
-                    onNext.accept(parseVllmMessagesResponse(response.toString()));
+                    String content = parseVllmMessagesResponse(response.toString());
+                    permit.recordOutput(content);
+                    call.output(content);
+                    onNext.accept(content);
                 }
             } catch (IOException e) {
-                if (!isCancelled) {
+                call.failed(e);
+                if (!handle.isCancelled()) {
                     onError.accept(e);
                 }
             } finally {
-                onComplete.run();
-                connection.disconnect();
+                finish.run();
             }
-        }).start();
+        }, error -> {
+            // 排队期间被取消或执行器已满，请求没有发出
+            call.failed(error);
+            if (!handle.isCancelled()) {
+                onError.accept(error);
+            }
+            finish.run();
+        });
+        return handle;
     }
 
     public static String getVllmResponse(String textContent) throws Exception {
         ApiKeySettings settings = ApiKeySettings.getInstance();
-        String selectedModule = settings.getSelectedModule();
+        String selectedModule = settings.getModelFor(com.yohannzhang.aigit.constant.Constants.VLLM);
         ApiKeySettings.ModuleConfig moduleConfig = settings.getModuleConfigs().get(com.yohannzhang.aigit.constant.Constants.VLLM);
-        HttpURLConnection connection = getVllmMessagesHttpURLConnection(
-                moduleConfig.getUrl(),
-                selectedModule,
-                moduleConfig.getApiKey(),
-                textContent,
-                8192
-        );
-        try {
-            int responseCode = connection.getResponseCode();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                    responseCode >= 400 ? connection.getErrorStream() : connection.getInputStream(),
-                    getCharsetFromContentType(connection.getContentType())))) {
+        LLMMetricsService.Call call = LLMMetricsService.getInstance()
+                .start(com.yohannzhang.aigit.constant.Constants.VLLM, selectedModule, textContent);
+        try (RateLimiterService.Permit permit = RateLimiterService.getInstance()
+                .acquire(com.yohannzhang.aigit.constant.Constants.VLLM, textContent)) {
+            call.acquired();
+            HttpResponse<InputStream> httpResponse = getVllmMessagesHttpResponse(
+                    moduleConfig.getUrl(),
+                    selectedModule,
+                    moduleConfig.getApiKey(),
+                    textContent,
+                    8192
+            );
+            call.connected();
+            permit.observe(httpResponse);
+            int responseCode = httpResponse.statusCode();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(httpResponse.body(),
+                    getCharsetFromContentType(httpResponse.headers().firstValue("Content-Type").orElse(null))))) {
                 StringBuilder response = new StringBuilder();
                 String line;
                 while ((line = reader.readLine()) != null) {
                     response.append(line);
                 }
                 if (responseCode >= 400) {
-                    throw new IOException("vLLM API request failed, status=" + responseCode + ", body=" + response);
+                    throw new LLMTransportService.HttpStatusException(responseCode,
+                            "vLLM API request failed, status=" + responseCode + ", body=" + response,
+                            LLMTransportService.retryAfterMillis(httpResponse));
                 }
-                return parseVllmMessagesResponse(response.toString());
+                String content = parseVllmMessagesResponse(response.toString());
+                permit.recordOutput(content);
+                call.output(content);
+                return content;
             }
+        } catch (Exception e) {
+            call.failed(e);
+            throw e;
         } finally {
-            connection.disconnect();
+            call.end(false);
         }
     }
 
     public static String parseVllmMessagesResponse(String responseBody) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode root = mapper.readTree(responseBody);
+        JsonNode root = StreamDecoder.MAPPER.readTree(responseBody);
         JsonNode content = root.path("content");
         StringBuilder text = new StringBuilder();
         if (content.isArray()) {
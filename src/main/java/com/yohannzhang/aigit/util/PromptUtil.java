@@ -2,6 +2,7 @@ package com.yohannzhang.aigit.util;
 
 import com.yohannzhang.aigit.config.ApiKeySettings;
 import com.yohannzhang.aigit.constant.Constants;
+import com.yohannzhang.aigit.core.llm.PromptBudget;
 
 /**
  * PromptUtil
@@ -34,9 +35,14 @@ public class PromptUtil {
         }
 
         // replace placeholder
-        promptContent = promptContent.replace("{diff}", diff);
         promptContent = promptContent.replace("{language}", settings.getCommitLanguage());
-        return promptContent;
+        // diff 按文件分配预算，超出模型窗口时逐个文件裁剪
+        int diffIndex = promptContent.indexOf("{diff}");
+        return PromptBudget.forSelectedModel()
+                .fixed(promptContent.substring(0, diffIndex))
+                .documents("", GItCommitUtil.splitDiffByFile(diff), "")
+                .fixed(promptContent.substring(diffIndex + "{diff}".length()))
+                .build();
     }
 
     private static String getPrompt4() {
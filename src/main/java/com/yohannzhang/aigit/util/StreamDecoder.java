@@ -0,0 +1,244 @@
+package com.yohannzhang.aigit.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * LLM 流式响应解码器，支持 SSE（OpenAI 兼容、Gemini）与 Ollama NDJSON。
+ * <p>
+ * 直接在字节缓冲区上切分行，用 {@link JsonParser} 按路径取出 token 字段，不构建 JsonNode 树，
+ * 也不经过 BufferedReader 产生行字符串。{@link #decode} 返回是否收到了结束标记，连接中途断开时流也会正常结束，
+ * 调用方据此区分完整的响应和截断的响应。实例持有读缓冲区，每个流一个实例，非线程安全；
+ * {@link #JSON_FACTORY} 与 {@link #MAPPER} 线程安全，全局共享。
+ */
+public final class StreamDecoder {
+
+    /**
+     * 全局共享的 JsonFactory，线程安全
+     */
+    public static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * 全局共享的 ObjectMapper，用于请求体序列化等场景，线程安全
+     */
+    public static final ObjectMapper MAPPER = new ObjectMapper(JSON_FACTORY);
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    private static final byte[] DATA_PREFIX = {'d', 'a', 't', 'a', ':'};
+    private static final byte[] DONE_MARKER = {'[', 'D', 'O', 'N', 'E', ']'};
+
+    /**
+     * 流格式、token 所在的 JSON 路径（String 为字段名，Integer 为数组下标）及结束标记所在的路径。
+     * 结束标记的值不为 null、false 时表示响应已完整；SSE 的 [DONE] 也视为结束标记。
+     */
+    public enum Format {
+        OPENAI_SSE(true, new Object[]{"choices", 0, "finish_reason"}, "choices", 0, "delta", "content"),
+        GEMINI_SSE(true, new Object[]{"candidates", 0, "finishReason"}, "candidates", 0, "content", "parts", 0, "text"),
+        OLLAMA_NDJSON(false, new Object[]{"done"}, "response");
+
+        private final boolean sse;
+        private final Object[] path;
+        private final Object[] terminalPath;
+
+        Format(boolean sse, Object[] terminalPath, Object... path) {
+            this.sse = sse;
+            this.path = path;
+            this.terminalPath = terminalPath;
+        }
+    }
+
+    /**
+     * 连接在结束标记之前关闭，响应被截断。属于 I/O 错误，可重试或续写
+     */
+    public static final class TruncatedStreamException extends EOFException {
+        public TruncatedStreamException() {
+            super("Stream ended before the completion marker");
+        }
+    }
+
+    private final Format format;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private boolean terminated;
+    // 当前行解析出的 token 和结束标记的值
+    private String lineToken;
+    private String lineTerminal;
+
+    public StreamDecoder(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * 读取整个流，逐个回调 token，直到流结束、收到 [DONE] 或 isCancelled 返回 true。
+     *
+     * @return 是否收到了结束标记；被取消或连接在结束标记之前关闭时返回 false
+     */
+    public boolean decode(InputStream in, Consumer<String> onToken, BooleanSupplier isCancelled) throws IOException {
+        int start = 0;
+        int end = 0;
+        while (!isCancelled.getAsBoolean()) {
+            // 先消费缓冲区中已完整的行
+            int newline = indexOf(buffer, start, end, (byte) '\n');
+            if (newline >= 0) {
+                if (!handleLine(buffer, start, newline, onToken)) {
+                    return true;
+                }
+                start = newline + 1;
+                continue;
+            }
+            // 不完整的行移到缓冲区头部，必要时扩容
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+            if (end == buffer.length) {
+                byte[] grown = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, end);
+                buffer = grown;
+            }
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                // 流结束时最后一行可能没有换行符
+                if (end > start && !handleLine(buffer, start, end, onToken)) {
+                    return true;
+                }
+                return terminated;
+            }
+            end += read;
+        }
+        return false;
+    }
+
+    /**
+     * 从单个 JSON 负载中取出 token，不存在或不是标量时返回 null。
+     */
+    public String extractToken(byte[] data, int offset, int length) throws IOException {
+        parseLine(data, offset, length);
+        return lineToken;
+    }
+
+    /**
+     * 一次解析同时取出 token 和结束标记的值
+     */
+    private void parseLine(byte[] data, int offset, int length) throws IOException {
+        lineToken = null;
+        lineTerminal = null;
+        try (JsonParser parser = JSON_FACTORY.createParser(data, offset, length)) {
+            if (parser.nextToken() != null) {
+                descend(parser, 0, true, true);
+            }
+        }
+    }
+
+    /**
+     * @return false 表示流已结束（SSE 的 [DONE]）
+     */
+    private boolean handleLine(byte[] data, int from, int to, Consumer<String> onToken) throws IOException {
+        if (to > from && data[to - 1] == '\r') {
+            to--;
+        }
+        if (format.sse) {
+            if (!startsWith(data, from, to, DATA_PREFIX)) {
+                // 空行、event:、注释行等直接忽略
+                return true;
+            }
+            from += DATA_PREFIX.length;
+            if (from < to && data[from] == ' ') {
+                from++;
+            }
+            if (to - from == DONE_MARKER.length && startsWith(data, from, to, DONE_MARKER)) {
+                return false;
+            }
+        }
+        if (to <= from) {
+            return true;
+        }
+        parseLine(data, from, to - from);
+        if (lineToken != null && !lineToken.isEmpty()) {
+            onToken.accept(lineToken);
+        }
+        if (lineTerminal != null && !"false".equals(lineTerminal)) {
+            terminated = true;
+        }
+        return true;
+    }
+
+    /**
+     * 沿 token 路径和结束标记路径向下解析，两条路径共用前缀时只解析一遍。
+     * onToken / onTerminal 表示当前位置是否仍在对应路径上。
+     */
+    private void descend(JsonParser parser, int depth, boolean onToken, boolean onTerminal) throws IOException {
+        JsonToken current = parser.currentToken();
+        if (onToken && depth == format.path.length) {
+            lineToken = scalarText(parser, current);
+            onToken = false;
+        }
+        if (onTerminal && depth == format.terminalPath.length) {
+            lineTerminal = scalarText(parser, current);
+            onTerminal = false;
+        }
+        if (!onToken && !onTerminal) {
+            parser.skipChildren();
+            return;
+        }
+        Object tokenStep = onToken ? format.path[depth] : null;
+        Object terminalStep = onTerminal ? format.terminalPath[depth] : null;
+        if (current == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                // 字段名由 Jackson 符号表规范化，比较不产生新字符串
+                String name = parser.currentName();
+                parser.nextToken();
+                boolean token = name.equals(tokenStep);
+                boolean terminal = name.equals(terminalStep);
+                if (token || terminal) {
+                    descend(parser, depth + 1, token, terminal);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } else if (current == JsonToken.START_ARRAY) {
+            for (int i = 0; parser.nextToken() != JsonToken.END_ARRAY; i++) {
+                boolean token = tokenStep instanceof Integer && (Integer) tokenStep == i;
+                boolean terminal = terminalStep instanceof Integer && (Integer) terminalStep == i;
+                if (token || terminal) {
+                    descend(parser, depth + 1, token, terminal);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static String scalarText(JsonParser parser, JsonToken current) throws IOException {
+        return current != null && current.isScalarValue() && current != JsonToken.VALUE_NULL ? parser.getText() : null;
+    }
+
+    private static int indexOf(byte[] data, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] data, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
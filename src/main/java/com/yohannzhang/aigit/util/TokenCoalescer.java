@@ -0,0 +1,97 @@
+package com.yohannzhang.aigit.util;
+
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * token 合并器：把逐个到达的 token 攒成一帧再交给下游。
+ * <p>
+ * 缓冲达到 {@code maxChars} 时立即输出，否则最迟 {@code frameIntervalMs} 后由定时任务输出剩余部分，
+ * 下游调用频率因此被限制在约 30 帧/秒，不再是每个 token 一次。下游调用串行、保序，拼接结果与原始 token 序列一致。
+ * 流结束前必须调用 {@link #close()} 以输出最后一帧。
+ */
+public final class TokenCoalescer implements Consumer<String> {
+
+    public static final long DEFAULT_FRAME_INTERVAL_MS = 33;
+    public static final int DEFAULT_MAX_CHARS = 512;
+
+    private final Consumer<String> downstream;
+    private final long frameIntervalMs;
+    private final int maxChars;
+
+    // 锁顺序：emitLock -> bufferLock，保证帧按顺序输出
+    private final Object emitLock = new Object();
+    private final Object bufferLock = new Object();
+    private final StringBuilder buffer = new StringBuilder();
+    private ScheduledFuture<?> pendingFlush;
+    private boolean closed;
+
+    public TokenCoalescer(@NotNull Consumer<String> downstream) {
+        this(downstream, DEFAULT_FRAME_INTERVAL_MS, DEFAULT_MAX_CHARS);
+    }
+
+    public TokenCoalescer(@NotNull Consumer<String> downstream, long frameIntervalMs, int maxChars) {
+        this.downstream = downstream;
+        this.frameIntervalMs = frameIntervalMs;
+        this.maxChars = maxChars;
+    }
+
+    @Override
+    public void accept(String token) {
+        if (token == null || token.isEmpty()) {
+            return;
+        }
+        boolean flushNow;
+        synchronized (bufferLock) {
+            if (closed) {
+                return;
+            }
+            buffer.append(token);
+            flushNow = buffer.length() >= maxChars;
+            if (!flushNow && pendingFlush == null) {
+                pendingFlush = AppExecutorUtil.getAppScheduledExecutorService()
+                        .schedule(this::flush, frameIntervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * 立即输出当前缓冲的内容。
+     */
+    public void flush() {
+        synchronized (emitLock) {
+            String frame;
+            synchronized (bufferLock) {
+                if (pendingFlush != null) {
+                    pendingFlush.cancel(false);
+                    pendingFlush = null;
+                }
+                if (buffer.length() == 0) {
+                    return;
+                }
+                frame = buffer.toString();
+                buffer.setLength(0);
+            }
+            downstream.accept(frame);
+        }
+    }
+
+    /**
+     * 输出剩余内容并停止接收，之后到达的 token 被丢弃。
+     */
+    public void close() {
+        flush();
+        synchronized (bufferLock) {
+            closed = true;
+        }
+        // close 与最后一次 accept 之间可能又有 token 进入缓冲
+        flush();
+    }
+}